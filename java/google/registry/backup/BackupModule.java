@@ -19,7 +19,9 @@ import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator
 import static google.registry.backup.ExportCommitLogDiffAction.LOWER_CHECKPOINT_TIME_PARAM;
 import static google.registry.backup.ExportCommitLogDiffAction.UPPER_CHECKPOINT_TIME_PARAM;
 import static google.registry.backup.RestoreCommitLogsAction.FROM_TIME_PARAM;
+import static google.registry.backup.RestoreCommitLogsAction.RESUME_PARAM;
 import static google.registry.backup.RestoreCommitLogsAction.TO_TIME_PARAM;
+import static google.registry.request.RequestParameters.extractBooleanParameter;
 import static google.registry.request.RequestParameters.extractRequiredDatetimeParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 import static java.util.concurrent.Executors.newFixedThreadPool;
@@ -50,7 +52,7 @@ public final class BackupModule {
   public @interface Backups {}
 
   /** Number of threads in the threaded executor. */
-  private static final int NUM_THREADS = 10;
+  static final int NUM_THREADS = 10;
 
   @Provides
   @Parameter("bucket")
@@ -81,6 +83,12 @@ public final class BackupModule {
     return extractRequiredDatetimeParameter(req, FROM_TIME_PARAM);
   }
 
+  @Provides
+  @Parameter(RESUME_PARAM)
+  static boolean provideResume(HttpServletRequest req) {
+    return extractBooleanParameter(req, RESUME_PARAM);
+  }
+
   @Provides
   @Parameter(TO_TIME_PARAM)
   static DateTime provideToTime(HttpServletRequest req) {
@@ -17,6 +17,7 @@ package google.registry.backup;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
 import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.common.base.Ascii;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.storage.onestore.v3.OnestoreEntity.EntityProto;
@@ -26,6 +27,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /** Utilities for working with backups. */
 public class BackupUtils {
@@ -38,8 +42,56 @@ public class BackupUtils {
     public static final String NUM_TRANSACTIONS = "num_transactions";
     public static final String LOWER_BOUND_CHECKPOINT = "lower_bound_checkpoint";
     public static final String UPPER_BOUND_CHECKPOINT = "upper_bound_checkpoint";
+
+    /**
+     * Compression format of a diff file, as the lowercase name of a {@link DiffFileCompression}.
+     *
+     * <p>Files without this key are uncompressed.
+     */
+    public static final String COMPRESSION = "compression";
   }
 
+  /** Compression formats for commit log diff files. */
+  public enum DiffFileCompression {
+
+    /** Delimited protocol buffers, written as-is. */
+    NONE,
+
+    /** Delimited protocol buffers, written as a single gzip stream. */
+    GZIP;
+
+    /** Returns the value for this format under {@link GcsMetadataKeys#COMPRESSION}. */
+    public String getMetadataValue() {
+      return Ascii.toLowerCase(name());
+    }
+
+    /** Returns the compression format of a diff file, given its GCS user metadata. */
+    public static DiffFileCompression fromUserMetadata(Map<String, String> userMetadata) {
+      String value = userMetadata.get(GcsMetadataKeys.COMPRESSION);
+      if (value == null) {
+        return NONE;
+      }
+      for (DiffFileCompression compression : values()) {
+        if (compression.getMetadataValue().equals(value)) {
+          return compression;
+        }
+      }
+      throw new IllegalArgumentException("Unknown diff file compression: " + value);
+    }
+
+    /** Wraps a stream so that what is written to it is compressed in this format. */
+    OutputStream compress(OutputStream stream) throws IOException {
+      return (this == GZIP) ? new GZIPOutputStream(stream, BUFFER_SIZE) : stream;
+    }
+
+    /** Wraps a stream of data compressed in this format so that it reads uncompressed data. */
+    InputStream decompress(InputStream stream) throws IOException {
+      return (this == GZIP) ? new GZIPInputStream(stream, BUFFER_SIZE) : stream;
+    }
+  }
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   /**
    * Converts the given {@link ImmutableObject} to a raw Datastore entity and write it to an
    * {@link OutputStream} in delimited protocol buffer format.
@@ -16,7 +16,7 @@ package google.registry.backup;
 
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.collect.Maps.transformValues;
-import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
+import static google.registry.model.ofy.CommitLogBucket.getCheckpointedBucketKey;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
 import static google.registry.util.DateTimeUtils.earliestOf;
 
@@ -117,13 +117,27 @@ class CommitLogCheckpointStrategy {
     // Use a fresh session cache so that we get the latest data from Datastore.
     return ofy.doWithFreshSessionCache(
         () ->
-            CommitLogBucket.loadAllBuckets()
+            CommitLogBucket.loadAllBuckets(readBucketCount())
                 .stream()
                 .collect(
                     ImmutableMap.toImmutableMap(
                         CommitLogBucket::getBucketNum, CommitLogBucket::getLastWrittenTime)));
   }
 
+  /**
+   * Returns the number of buckets to include in the next checkpoint.
+   *
+   * <p>This is the configured bucket count, unless the most recent checkpoint already covered more
+   * buckets. The bucket count can be raised online, so during a rollout some instances may still
+   * be configured with the old count while others are already writing to the new buckets. Never
+   * shrinking the set of checkpointed buckets ensures that {@link ExportCommitLogDiffAction} keeps
+   * exporting the new buckets no matter which instance computes the checkpoint.
+   */
+  @VisibleForTesting
+  int readBucketCount() {
+    return CommitLogBucket.getCheckpointedBucketCount();
+  }
+
   /**
    * Returns a threshold value defined as the latest timestamp that is before all new commit logs,
    * where "new" means having a commit time after the per-bucket timestamp in the given map.
@@ -133,7 +147,7 @@ class CommitLogCheckpointStrategy {
   DateTime readNewCommitLogsAndFindThreshold(ImmutableMap<Integer, DateTime> bucketTimes) {
     DateTime timeBeforeAllNewCommits = END_OF_TIME;
     for (Entry<Integer, DateTime> entry : bucketTimes.entrySet()) {
-      Key<CommitLogBucket> bucketKey = getBucketKey(entry.getKey());
+      Key<CommitLogBucket> bucketKey = getCheckpointedBucketKey(entry.getKey());
       DateTime bucketTime = entry.getValue();
       // Add 1 to handle START_OF_TIME since 0 isn't a valid id - filter then uses >= instead of >.
       Key<CommitLogManifest> keyForFilter =
@@ -0,0 +1,63 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.backup;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.DistributionFitter;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.ExponentialFitter;
+import com.google.monitoring.metrics.FibonacciFitter;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import google.registry.backup.BackupUtils.DiffFileCompression;
+import org.joda.time.Duration;
+
+/** Metrics for the export of commit log diffs between checkpoints. */
+class CommitLogExportMetrics {
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(LabelDescriptor.create("compression", "Compression of the diff file."));
+
+  // Allows values between 10 ms and 10*2^20 ms, which is almost 3 hours.
+  private static final DistributionFitter EXPONENTIAL_FITTER =
+      ExponentialFitter.create(20, 2.0, 10.0);
+
+  // Allows values between 0 and 832040, which is the 30th Fibonacci number.
+  private static final DistributionFitter FIBONACCI_FITTER = FibonacciFitter.create(832040);
+
+  private static final EventMetric exportTimeMetric =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/commit_log/diff_export/processing_time",
+              "Time to export the commit log diff for one checkpoint interval",
+              "milliseconds",
+              LABEL_DESCRIPTORS,
+              EXPONENTIAL_FITTER);
+
+  private static final EventMetric exportedManifestsMetric =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/commit_log/diff_export/transactions",
+              "Number of transactions exported for one checkpoint interval",
+              "count",
+              LABEL_DESCRIPTORS,
+              FIBONACCI_FITTER);
+
+  void recordExport(DiffFileCompression compression, int numManifests, Duration duration) {
+    String label = compression.getMetadataValue();
+    exportTimeMetric.record(duration.getMillis(), label);
+    exportedManifestsMetric.record(numManifests, label);
+  }
+}
@@ -17,8 +17,8 @@ package google.registry.backup;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_DRY_RUN;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static google.registry.util.PipelineUtils.createJobPath;
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
 
@@ -88,7 +88,7 @@ public final class DeleteOldCommitLogsAction implements Runnable {
         "Processing asynchronous deletion of unreferenced CommitLogManifests older than %s",
         deletionThreshold);
 
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
           .setJobName("Delete old commit logs")
           .setModuleName("backend")
           .setDefaultMapShards(NUM_MAP_SHARDS)
@@ -98,7 +98,7 @@ public final class DeleteOldCommitLogsAction implements Runnable {
               new DeleteOldCommitLogsReducer(deletionThreshold, isDryRun),
               ImmutableList.of(
                   new CommitLogManifestInput(deletionThreshold),
-                  EppResourceInputs.createKeyInput(EppResource.class)))));
+                  EppResourceInputs.createKeyInput(EppResource.class))));
   }
 
   /**
@@ -18,30 +18,34 @@ import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verifyNotNull;
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Lists.partition;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.COMPRESSION;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_TRANSACTIONS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.UPPER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.serializeEntity;
-import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
+import static google.registry.model.ofy.CommitLogBucket.getCheckpointedBucketKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.isAtOrAfter;
 import static java.nio.channels.Channels.newOutputStream;
-import static java.util.Arrays.asList;
 import static java.util.Comparator.comparingLong;
 
 import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.googlecode.objectify.Key;
+import google.registry.backup.BackupModule.Backups;
+import google.registry.backup.BackupUtils.DiffFileCompression;
 import google.registry.config.RegistryConfig.Config;
-import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogManifest;
@@ -49,6 +53,7 @@ import google.registry.model.ofy.CommitLogMutation;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
+import google.registry.util.Clock;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
@@ -57,6 +62,7 @@ import java.util.Map;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 /** Action that exports the diff between two commit log checkpoints to GCS. */
 @Action(
@@ -75,9 +81,15 @@ public final class ExportCommitLogDiffAction implements Runnable {
 
   public static final String DIFF_FILE_PREFIX = "commit_diff_until_";
 
+  @VisibleForTesting
+  static CommitLogExportMetrics exportMetrics = new CommitLogExportMetrics();
+
   @Inject GcsService gcsService;
   @Inject @Config("commitLogGcsBucket") String gcsBucket;
   @Inject @Config("commitLogDiffExportBatchSize") int batchSize;
+  @Inject @Config("commitLogDiffExportCompressionEnabled") boolean compressionEnabled;
+  @Inject @Backups ListeningExecutorService executor;
+  @Inject Clock clock;
   @Inject @Parameter(LOWER_CHECKPOINT_TIME_PARAM) DateTime lowerCheckpointTime;
   @Inject @Parameter(UPPER_CHECKPOINT_TIME_PARAM) DateTime upperCheckpointTime;
   @Inject ExportCommitLogDiffAction() {}
@@ -88,6 +100,9 @@ public final class ExportCommitLogDiffAction implements Runnable {
         "Exporting commit log diffs between %s and %s.", lowerCheckpointTime, upperCheckpointTime);
     checkArgument(isAtOrAfter(lowerCheckpointTime, START_OF_TIME));
     checkArgument(lowerCheckpointTime.isBefore(upperCheckpointTime));
+    DateTime startTime = clock.nowUtc();
+    DiffFileCompression compression =
+        compressionEnabled ? DiffFileCompression.GZIP : DiffFileCompression.NONE;
     // Load the boundary checkpoints - lower is exclusive and may not exist (on the first export,
     // when lowerCheckpointTime is START_OF_TIME), whereas the upper is inclusive and must exist.
     CommitLogCheckpoint lowerCheckpoint = lowerCheckpointTime.isAfter(START_OF_TIME)
@@ -99,14 +114,23 @@ public final class ExportCommitLogDiffAction implements Runnable {
     // Load the keys of all the manifests to include in this diff.
     List<Key<CommitLogManifest>> sortedKeys = loadAllDiffKeys(lowerCheckpoint, upperCheckpoint);
     logger.atInfo().log("Found %d manifests to export", sortedKeys.size());
-    // Open an output channel to GCS, wrapped in a stream for convenience.
-    try (OutputStream gcsStream = newOutputStream(gcsService.createOrReplace(
-        new GcsFilename(gcsBucket, DIFF_FILE_PREFIX + upperCheckpointTime),
+    GcsFileOptions.Builder fileOptions =
         new GcsFileOptions.Builder()
             .addUserMetadata(LOWER_BOUND_CHECKPOINT, lowerCheckpointTime.toString())
             .addUserMetadata(UPPER_BOUND_CHECKPOINT, upperCheckpointTime.toString())
-            .addUserMetadata(NUM_TRANSACTIONS, Integer.toString(sortedKeys.size()))
-            .build()))) {
+            .addUserMetadata(NUM_TRANSACTIONS, Integer.toString(sortedKeys.size()));
+    // Uncompressed files are written without the compression key, so that they are identical to
+    // the ones written before compression was supported.
+    if (compression != DiffFileCompression.NONE) {
+      fileOptions.addUserMetadata(COMPRESSION, compression.getMetadataValue());
+    }
+    // Open an output channel to GCS, wrapped in a (possibly compressing) stream for convenience.
+    try (OutputStream gcsStream =
+        compression.compress(
+            newOutputStream(
+                gcsService.createOrReplace(
+                    new GcsFilename(gcsBucket, DIFF_FILE_PREFIX + upperCheckpointTime),
+                    fileOptions.build())))) {
       // Export the upper checkpoint itself.
       serializeEntity(upperCheckpoint, gcsStream);
       // If there are no manifests to export, stop early, now that we've written out the file with
@@ -136,6 +160,9 @@ public final class ExportCommitLogDiffAction implements Runnable {
       }
     } catch (IOException e) {
       throw new RuntimeException(e);
+    } finally {
+      exportMetrics.recordExport(
+          compression, sortedKeys.size(), new Duration(startTime, clock.nowUtc()));
     }
     logger.atInfo().log("Exported %d manifests in total", sortedKeys.size());
   }
@@ -192,7 +219,7 @@ public final class ExportCommitLogDiffAction implements Runnable {
     if (lowerBound.equals(upperBound)) {
       return ImmutableSet.of();
     }
-    Key<CommitLogBucket> bucketKey = getBucketKey(bucketNum);
+    Key<CommitLogBucket> bucketKey = getCheckpointedBucketKey(bucketNum);
     return ofy().load()
         .type(CommitLogManifest.class)
         .ancestor(bucketKey)
@@ -201,18 +228,41 @@ public final class ExportCommitLogDiffAction implements Runnable {
         .keys();
   }
 
-  /** Writes a chunks-worth of manifests and associated mutations to GCS. */
+  /**
+   * Writes a chunks-worth of manifests and associated mutations to GCS.
+   *
+   * <p>The mutations of all the manifests in the chunk are queried concurrently on the backup
+   * executor, whose thread pool bounds the number of queries in flight. They are written out in
+   * manifest order as the queries complete.
+   */
   private void exportChunk(OutputStream gcsStream, Collection<CommitLogManifest> chunk)
       throws IOException {
     // Kickoff async loads for all the manifests in the chunk.
-    ImmutableList.Builder<Iterable<? extends ImmutableObject>> entities =
-        new ImmutableList.Builder<>();
-    for (CommitLogManifest manifest : chunk) {
-      entities.add(asList(manifest));
-      entities.add(ofy().load().type(CommitLogMutation.class).ancestor(manifest));
-    }
-    for (ImmutableObject entity : concat(entities.build())) {
-      serializeEntity(entity, gcsStream);
+    ImmutableList<CommitLogManifest> manifests = ImmutableList.copyOf(chunk);
+    ImmutableList<ListenableFuture<ImmutableList<CommitLogMutation>>> mutationLoads =
+        manifests
+            .stream()
+            .map(manifest -> executor.submit(() -> loadMutations(manifest)))
+            .collect(toImmutableList());
+    for (int i = 0; i < manifests.size(); i++) {
+      serializeEntity(manifests.get(i), gcsStream);
+      for (CommitLogMutation mutation : getUnchecked(mutationLoads.get(i))) {
+        serializeEntity(mutation, gcsStream);
+      }
     }
   }
+
+  /**
+   * Loads the mutations belonging to a manifest.
+   *
+   * <p>This runs on reused executor threads, so it uses a fresh session cache to avoid both
+   * leaking memory and reading stale entities across requests.
+   */
+  private static ImmutableList<CommitLogMutation> loadMutations(CommitLogManifest manifest) {
+    return ofy()
+        .doWithFreshSessionCache(
+            () ->
+                ImmutableList.copyOf(
+                    ofy().load().type(CommitLogMutation.class).ancestor(manifest)));
+  }
 }
@@ -32,6 +32,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import google.registry.backup.BackupModule.Backups;
+import google.registry.backup.BackupUtils.DiffFileCompression;
 import google.registry.config.RegistryConfig.Config;
 import java.io.IOException;
 import java.util.Iterator;
@@ -155,6 +156,10 @@ class GcsDiffFileLister {
         !inconsistentFileSet,
         "Unable to compute commit diff history, there are either gaps or forks in the history "
         + "file set.  Check log for details.");
+    // Fail before anything is restored if any file has a compression format we can't read.
+    for (GcsFileMetadata metadata : sequence.values()) {
+      DiffFileCompression.fromUserMetadata(metadata.getOptions().getUserMetadata());
+    }
 
     logger.atInfo().log(
         "Actual restore from time: %s", getLowerBoundTime(sequence.firstEntry().getValue()));
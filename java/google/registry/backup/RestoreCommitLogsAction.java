@@ -16,7 +16,11 @@ package google.registry.backup;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Iterators.peekingIterator;
+import static com.google.common.collect.Lists.partition;
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
 import static google.registry.backup.BackupUtils.createDeserializingIterator;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static java.util.Arrays.asList;
@@ -26,13 +30,19 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
 import com.google.appengine.tools.cloudstorage.GcsService;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Result;
-import com.googlecode.objectify.util.ResultNow;
+import google.registry.backup.BackupModule.Backups;
+import google.registry.backup.BackupUtils.DiffFileCompression;
 import google.registry.config.RegistryEnvironment;
 import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
@@ -43,19 +53,36 @@ import google.registry.model.ofy.CommitLogMutation;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
+import google.registry.util.Clock;
 import google.registry.util.Retrier;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
-/** Restore Registry 2 commit logs from GCS to Datastore. */
+/**
+ * Restore Registry 2 commit logs from GCS to Datastore.
+ *
+ * <p>Transactions are replayed in batches. No two transactions in a batch touch the same entity
+ * group, so the writes within a batch can be issued in parallel and in any order, and writing the
+ * batches one after the other preserves the order of the transactions within each entity group.
+ * The restore is non-transactional either way, so this yields the same final state as replaying
+ * the transactions one at a time.
+ *
+ * <p>After each diff file is restored, the {@link CommitLogCheckpointRoot} and {@link
+ * CommitLogBucket}s are updated to reflect it. An interrupted restore can therefore be resumed
+ * with the {@value #RESUME_PARAM} parameter, which skips the files that were already restored.
+ */
 @Action(
   path = RestoreCommitLogsAction.PATH,
   method = Action.Method.POST,
@@ -68,20 +95,37 @@ public class RestoreCommitLogsAction implements Runnable {
 
   static final int BLOCK_SIZE = 1024 * 1024;  // Buffer 1mb at a time, for no particular reason.
 
+  /** Maximum number of entities that Datastore accepts in a single put or delete. */
+  static final int MAX_ENTITIES_PER_WRITE = 500;
+
+  /** Maximum number of puts and deletes to accumulate in one batch before writing it. */
+  static final int MAX_ENTITIES_PER_BATCH = 10 * MAX_ENTITIES_PER_WRITE;
+
   public static final String PATH = "/_dr/task/restoreCommitLogs";
   static final String DRY_RUN_PARAM = "dryRun";
   static final String FROM_TIME_PARAM = "fromTime";
   static final String TO_TIME_PARAM = "toTime";
+  static final String RESUME_PARAM = "resume";
 
   @Inject GcsService gcsService;
   @Inject @Parameter(DRY_RUN_PARAM) boolean dryRun;
   @Inject @Parameter(FROM_TIME_PARAM) DateTime fromTime;
   @Inject @Parameter(TO_TIME_PARAM) DateTime toTime;
+  @Inject @Parameter(RESUME_PARAM) boolean resume;
   @Inject DatastoreService datastoreService;
   @Inject GcsDiffFileLister diffLister;
+  @Inject @Backups ListeningExecutorService executor;
   @Inject Retrier retrier;
+  @Inject Clock clock;
   @Inject RestoreCommitLogsAction() {}
 
+  /** Counters for the restore, which are logged at the end, and used to project throughput. */
+  private int numTransactions;
+  private int numSaves;
+  private int numDeletes;
+  private int numBatches;
+  private int numWriteRounds;
+
   @Override
   public void run() {
     checkArgument( // safety
@@ -92,30 +136,60 @@ public class RestoreCommitLogsAction implements Runnable {
     if (dryRun) {
       logger.atInfo().log("Running in dryRun mode");
     }
-    List<GcsFileMetadata> diffFiles = diffLister.listDiffFiles(fromTime, toTime);
+    DateTime effectiveFromTime = fromTime;
+    if (resume) {
+      DateTime restoredThrough = CommitLogCheckpointRoot.loadRoot().getLastWrittenTime();
+      if (!restoredThrough.isBefore(fromTime)) {
+        logger.atInfo().log("Resuming restore after checkpoint %s", restoredThrough);
+        // Diff files are listed by their (inclusive) upper checkpoint time, so skip past it.
+        effectiveFromTime = restoredThrough.plusMillis(1);
+      }
+    }
+    List<GcsFileMetadata> diffFiles = diffLister.listDiffFiles(effectiveFromTime, toTime);
     if (diffFiles.isEmpty()) {
       logger.atInfo().log("Nothing to restore");
       return;
     }
+    DateTime startTime = clock.nowUtc();
     Map<Integer, DateTime> bucketTimestamps = new HashMap<>();
-    CommitLogCheckpoint lastCheckpoint = null;
     for (GcsFileMetadata metadata : diffFiles) {
       logger.atInfo().log("Restoring: %s", metadata.getFilename().getObjectName());
-      try (InputStream input = Channels.newInputStream(
-          gcsService.openPrefetchingReadChannel(metadata.getFilename(), 0, BLOCK_SIZE))) {
+      DiffFileCompression compression =
+          DiffFileCompression.fromUserMetadata(metadata.getOptions().getUserMetadata());
+      CommitLogCheckpoint checkpoint;
+      try (InputStream input =
+          compression.decompress(
+              Channels.newInputStream(
+                  gcsService.openPrefetchingReadChannel(metadata.getFilename(), 0, BLOCK_SIZE)))) {
         PeekingIterator<ImmutableObject> commitLogs =
             peekingIterator(createDeserializingIterator(input));
-        lastCheckpoint = (CommitLogCheckpoint) commitLogs.next();
-        saveOfy(asList(lastCheckpoint));  // Save the checkpoint itself.
+        checkpoint = (CommitLogCheckpoint) commitLogs.next();
+        saveOfy(asList(checkpoint));  // Save the checkpoint itself.
+        RestoreBatch batch = new RestoreBatch();
         while (commitLogs.hasNext()) {
-          CommitLogManifest manifest = restoreOneTransaction(commitLogs);
+          RestoredTransaction transaction = readOneTransaction(commitLogs);
+          if (!batch.canAdd(transaction)) {
+            batch.write();
+            batch = new RestoreBatch();
+          }
+          batch.add(transaction);
+          CommitLogManifest manifest = transaction.manifest;
           bucketTimestamps.put(manifest.getBucketId(), manifest.getCommitTime());
         }
+        batch.write();
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
+      // Record progress, so that an interrupted restore can be resumed after this file.
+      saveCommitLogBucketsAndRoot(bucketTimestamps, checkpoint);
     }
-    // Restore the CommitLogCheckpointRoot and CommitLogBuckets.
+    logSummary(new Duration(startTime, clock.nowUtc()));
+    logger.atInfo().log("Restore complete");
+  }
+
+  /** Restores the {@link CommitLogCheckpointRoot} and {@link CommitLogBucket}s. */
+  private void saveCommitLogBucketsAndRoot(
+      Map<Integer, DateTime> bucketTimestamps, CommitLogCheckpoint lastCheckpoint) {
     saveOfy(
         Streams.concat(
                 bucketTimestamps
@@ -129,45 +203,186 @@ public class RestoreCommitLogsAction implements Runnable {
                                 .build()),
                 Stream.of(CommitLogCheckpointRoot.create(lastCheckpoint.getCheckpointTime())))
             .collect(toImmutableList()));
-    logger.atInfo().log("Restore complete");
   }
 
   /**
-   * Restore the contents of one transaction to Datastore.
+   * Reads the contents of one transaction.
    *
    * <p>The objects to delete are listed in the {@link CommitLogManifest}, which will be the first
    * object in the iterable. The objects to save follow, each as a {@link CommitLogMutation}. We
    * restore by deleting the deletes and recreating the saves from their proto form. We also save
    * the commit logs themselves back to Datastore, so that the commit log system itself is
    * transparently restored alongside the data.
-   *
-   * @return the manifest, for use in restoring the {@link CommitLogBucket}.
    */
-  private CommitLogManifest restoreOneTransaction(PeekingIterator<ImmutableObject> commitLogs) {
-    final CommitLogManifest manifest = (CommitLogManifest) commitLogs.next();
-    Result<?> deleteResult = deleteAsync(manifest.getDeletions());
-    List<Entity> entitiesToSave = Lists.newArrayList(ofy().save().toEntity(manifest));
+  private RestoredTransaction readOneTransaction(PeekingIterator<ImmutableObject> commitLogs) {
+    RestoredTransaction transaction =
+        new RestoredTransaction((CommitLogManifest) commitLogs.next());
+    transaction.commitLogEntities.add(ofy().save().toEntity(transaction.manifest));
     while (commitLogs.hasNext() && commitLogs.peek() instanceof CommitLogMutation) {
       CommitLogMutation mutation = (CommitLogMutation) commitLogs.next();
-      entitiesToSave.add(ofy().save().toEntity(mutation));
-      entitiesToSave.add(EntityTranslator.createFromPbBytes(mutation.getEntityProtoBytes()));
+      transaction.commitLogEntities.add(ofy().save().toEntity(mutation));
+      transaction.restoredEntities.add(
+          EntityTranslator.createFromPbBytes(mutation.getEntityProtoBytes()));
+    }
+    return transaction;
+  }
+
+  /** The entities to save and the keys to delete when restoring one transaction. */
+  private static class RestoredTransaction {
+
+    final CommitLogManifest manifest;
+
+    /** The manifest and mutations, which are written to their commit log bucket's group. */
+    final List<Entity> commitLogEntities = new ArrayList<>();
+
+    /** The entities recreated from the mutations. */
+    final List<Entity> restoredEntities = new ArrayList<>();
+
+    RestoredTransaction(CommitLogManifest manifest) {
+      this.manifest = manifest;
+    }
+
+    /**
+     * Returns the entity groups whose data this transaction changes.
+     *
+     * <p>Commit log entities are excluded, since each transaction writes new, unique ones, so their
+     * order relative to other transactions doesn't matter.
+     */
+    ImmutableSet<Key<?>> getEntityGroups() {
+      return Streams.concat(
+              restoredEntities.stream().map(entity -> getEntityGroup(entity.getKey())),
+              manifest.getDeletions().stream().map(key -> getEntityGroup(key.getRaw())))
+          .collect(toImmutableSet());
+    }
+
+    int size() {
+      return commitLogEntities.size() + restoredEntities.size() + manifest.getDeletions().size();
+    }
+  }
+
+  /** A batch of transactions that don't touch any entity group in common. */
+  private class RestoreBatch {
+
+    private final Set<Key<?>> entityGroups = new HashSet<>();
+
+    /** Entities to save, by entity group, so that each group's writes are done in one RPC. */
+    private final ListMultimap<Key<?>, Entity> entitiesToSave = LinkedListMultimap.create();
+
+    private final List<Key<?>> keysToDelete = new ArrayList<>();
+    private int size;
+    private int transactions;
+
+    boolean canAdd(RestoredTransaction transaction) {
+      return transactions == 0
+          || (size + transaction.size() <= MAX_ENTITIES_PER_BATCH
+              && transaction.getEntityGroups().stream().noneMatch(entityGroups::contains));
     }
-    saveRaw(entitiesToSave);
-    try {
-      deleteResult.now();
-    } catch (Exception e) {
-      retrier.callWithRetry(
-          () -> deleteAsync(manifest.getDeletions()).now(), RuntimeException.class);
+
+    void add(RestoredTransaction transaction) {
+      entityGroups.addAll(transaction.getEntityGroups());
+      for (Entity entity : Iterables.concat(
+          transaction.commitLogEntities, transaction.restoredEntities)) {
+        entitiesToSave.put(getEntityGroup(entity.getKey()), entity);
+      }
+      keysToDelete.addAll(transaction.manifest.getDeletions());
+      size += transaction.size();
+      transactions++;
+    }
+
+    /** Writes all the puts and deletes in this batch in parallel, and waits for them to finish. */
+    void write() {
+      if (transactions == 0) {
+        return;
+      }
+      ImmutableList<List<Entity>> saveChunks = partitionByEntityGroup(entitiesToSave);
+      List<List<Key<?>>> deleteChunks = partition(keysToDelete, MAX_ENTITIES_PER_WRITE);
+      numTransactions += transactions;
+      numSaves += entitiesToSave.size();
+      numDeletes += keysToDelete.size();
+      numBatches++;
+      numWriteRounds +=
+          divideRoundingUp(saveChunks.size() + deleteChunks.size(), BackupModule.NUM_THREADS);
+      if (dryRun) {
+        logger.atInfo().log(
+            "Would have saved %d entities and deleted %d entities for %d transactions",
+            entitiesToSave.size(), keysToDelete.size(), transactions);
+        return;
+      }
+      List<ListenableFuture<?>> writes = new ArrayList<>();
+      for (List<Entity> chunk : saveChunks) {
+        writes.add(
+            executor.submit(
+                () ->
+                    retrier.callWithRetry(
+                        () -> datastoreService.put(chunk), RuntimeException.class)));
+      }
+      for (List<Key<?>> chunk : deleteChunks) {
+        ImmutableList<com.google.appengine.api.datastore.Key> rawKeys =
+            chunk.stream().map(Key::getRaw).collect(toImmutableList());
+        writes.add(
+            executor.submit(
+                () ->
+                    retrier.callWithRetry(
+                        () -> datastoreService.delete(rawKeys), RuntimeException.class)));
+      }
+      getUnchecked(allAsList(writes));
+    }
+  }
+
+  /**
+   * Splits the entities into chunks that can each be saved in one RPC, keeping the entities of
+   * each entity group together where possible.
+   */
+  private static ImmutableList<List<Entity>> partitionByEntityGroup(
+      ListMultimap<Key<?>, Entity> entitiesByGroup) {
+    ImmutableList.Builder<List<Entity>> chunks = new ImmutableList.Builder<>();
+    List<Entity> chunk = new ArrayList<>();
+    for (Collection<Entity> group : entitiesByGroup.asMap().values()) {
+      if (!chunk.isEmpty() && chunk.size() + group.size() > MAX_ENTITIES_PER_WRITE) {
+        chunks.add(chunk);
+        chunk = new ArrayList<>();
+      }
+      for (Entity entity : group) {
+        if (chunk.size() == MAX_ENTITIES_PER_WRITE) {
+          chunks.add(chunk);
+          chunk = new ArrayList<>();
+        }
+        chunk.add(entity);
+      }
     }
-    return manifest;
+    if (!chunk.isEmpty()) {
+      chunks.add(chunk);
+    }
+    return chunks.build();
+  }
+
+  /** Returns the key of the root entity of the given key's entity group. */
+  private static Key<?> getEntityGroup(com.google.appengine.api.datastore.Key rawKey) {
+    com.google.appengine.api.datastore.Key root = rawKey;
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    return Key.create(root);
+  }
+
+  private static int divideRoundingUp(int dividend, int divisor) {
+    return (dividend + divisor - 1) / divisor;
   }
 
-  private void saveRaw(List<Entity> entitiesToSave) {
+  private void logSummary(Duration elapsed) {
+    logger.atInfo().log(
+        "Restored %d transactions (%d saves, %d deletes) in %d batches in %s",
+        numTransactions, numSaves, numDeletes, numBatches, elapsed);
     if (dryRun) {
-      logger.atInfo().log("Would have saved entities: %s", entitiesToSave);
-      return;
+      // Each write round is one set of parallel RPCs, so the projected write time of the restore
+      // is the number of rounds times the Datastore write latency.
+      logger.atInfo().log(
+          "Projected throughput: %d rounds of parallel writes, %.1f transactions per round; "
+              + "read %.1f transactions per second",
+          numWriteRounds,
+          (numWriteRounds == 0) ? 0.0 : ((double) numTransactions) / numWriteRounds,
+          (elapsed.getMillis() == 0) ? 0.0 : numTransactions * 1000.0 / elapsed.getMillis());
     }
-    retrier.callWithRetry(() -> datastoreService.put(entitiesToSave), RuntimeException.class);
   }
 
   private void saveOfy(Iterable<? extends ImmutableObject> objectsToSave) {
@@ -178,14 +393,4 @@ public class RestoreCommitLogsAction implements Runnable {
     retrier.callWithRetry(
         () -> ofy().saveWithoutBackup().entities(objectsToSave).now(), RuntimeException.class);
   }
-
-  private Result<?> deleteAsync(Set<Key<?>> keysToDelete) {
-    if (dryRun) {
-      logger.atInfo().log("Would have deleted entities: %s", keysToDelete);
-    }
-    return dryRun || keysToDelete.isEmpty()
-        ? new ResultNow<Void>(null)
-        : ofy().deleteWithoutBackup().keys(keysToDelete);
-  }
-
 }
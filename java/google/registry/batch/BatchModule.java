@@ -17,6 +17,7 @@ package google.registry.batch;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_REQUESTED_TIME;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_RESAVE_TIMES;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_RESOURCE_KEY;
+import static google.registry.request.RequestParameters.extractBooleanParameter;
 import static google.registry.request.RequestParameters.extractOptionalBooleanParameter;
 import static google.registry.request.RequestParameters.extractOptionalIntParameter;
 import static google.registry.request.RequestParameters.extractOptionalParameter;
@@ -81,6 +82,12 @@ public class BatchModule {
     return extractOptionalBooleanParameter(req, "force");
   }
 
+  @Provides
+  @Parameter(VerifyEntityIntegrityAction.PARAM_INCREMENTAL)
+  static boolean provideIncremental(HttpServletRequest req) {
+    return extractBooleanParameter(req, VerifyEntityIntegrityAction.PARAM_INCREMENTAL);
+  }
+
   @Provides
   @Parameter(PARAM_RESOURCE_KEY)
   static Key<ImmutableObject> provideResourceKey(HttpServletRequest req) {
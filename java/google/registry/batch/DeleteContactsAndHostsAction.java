@@ -19,6 +19,7 @@ import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.math.IntMath.divide;
 import static com.googlecode.objectify.Key.getKind;
 import static google.registry.flows.ResourceFlowUtils.denyPendingTransfer;
@@ -31,15 +32,16 @@ import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_REQUESTING_CLI
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_RESOURCE_KEY;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_SERVER_TRANSACTION_ID;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_DELETE;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.EppResourceUtils.isDeleted;
 import static google.registry.model.eppcommon.StatusValue.PENDING_DELETE;
+import static google.registry.model.index.HostInetAddressIndex.MAX_INET_ADDRESSES_PER_HOST;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.reporting.HistoryEntry.Type.CONTACT_DELETE;
 import static google.registry.model.reporting.HistoryEntry.Type.CONTACT_DELETE_FAILURE;
 import static google.registry.model.reporting.HistoryEntry.Type.HOST_DELETE;
 import static google.registry.model.reporting.HistoryEntry.Type.HOST_DELETE_FAILURE;
-import static google.registry.util.PipelineUtils.createJobPath;
 import static java.math.RoundingMode.CEILING;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -51,6 +53,7 @@ import com.google.appengine.api.taskqueue.LeaseOptions;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
@@ -58,11 +61,13 @@ import com.google.auto.value.AutoValue;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Multiset;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
 import google.registry.batch.DeleteContactsAndHostsAction.DeletionResult.Type;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsQueue;
 import google.registry.flows.async.AsyncFlowMetrics;
 import google.registry.flows.async.AsyncFlowMetrics.OperationResult;
@@ -80,6 +85,8 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppResponse.ResponseData;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.poll.PendingActionNotificationResponse.ContactPendingActionNotificationResponse;
 import google.registry.model.poll.PendingActionNotificationResponse.HostPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
@@ -107,8 +114,9 @@ import org.joda.time.Duration;
 
 /**
  * A mapreduce that processes batch asynchronous deletions of contact and host resources by mapping
- * over all domains and domain applications and checking for any references to the contacts/hosts in
- * pending deletion.
+ * over the domains and domain applications linked to the contacts/hosts in pending deletion, as
+ * recorded in their {@link LinkedDomainIndex} (or over all of them, if that index isn't enabled),
+ * and checking for any active references to them.
  */
 @Action(
   path = "/_dr/task/deleteContactsAndHosts",
@@ -126,6 +134,7 @@ public class DeleteContactsAndHostsAction implements Runnable {
 
   @Inject AsyncFlowMetrics asyncFlowMetrics;
   @Inject Clock clock;
+  @Inject @Config("linkedDomainIndexEnabled") boolean linkedDomainIndexEnabled;
   @Inject MapreduceRunner mrRunner;
   @Inject @Named(QUEUE_ASYNC_DELETE) Queue queue;
   @Inject RequestStatusChecker requestStatusChecker;
@@ -220,20 +229,20 @@ public class DeleteContactsAndHostsAction implements Runnable {
     try {
       int numReducers =
           Math.min(MAX_REDUCE_SHARDS, divide(deletionRequests.size(), DELETES_PER_SHARD, CEILING));
-      response.sendJavaScriptRedirect(
-          createJobPath(
-              mrRunner
-                  .setJobName("Check for EPP resource references and then delete")
-                  .setModuleName("backend")
-                  .setDefaultReduceShards(numReducers)
-                  .runMapreduce(
-                      new DeleteContactsAndHostsMapper(deletionRequests),
-                      new DeleteEppResourceReducer(),
-                      ImmutableList.of(
-                          // Add an extra shard that maps over a null domain. See the mapper code
-                          // for why.
-                          new NullInput<>(), EppResourceInputs.createEntityInput(DomainBase.class)),
-                      new UnlockerOutput<Void>(lock.get()))));
+      sendJobStatus(
+          response,
+          mrRunner
+              .setJobName("Check for EPP resource references and then delete")
+              .setModuleName("backend")
+              .setDefaultReduceShards(numReducers)
+              .runMapreduce(
+                  new DeleteContactsAndHostsMapper(deletionRequests, linkedDomainIndexEnabled),
+                  new DeleteEppResourceReducer(),
+                  ImmutableList.of(
+                      // Add an extra shard that maps over a null domain. See the mapper code
+                      // for why.
+                      new NullInput<>(), createDomainInput(deletionRequests)),
+                  new UnlockerOutput<Void>(lock.get())));
     } catch (Throwable t) {
       logRespondAndUnlock(SEVERE, "Error starting mapreduce to delete contacts/hosts.", lock);
     }
@@ -246,10 +255,26 @@ public class DeleteContactsAndHostsAction implements Runnable {
   }
 
   /**
-   * A mapper that iterates over all {@link DomainBase} entities.
+   * Returns the input of domains to check for references, which is either just the domains linked
+   * to the target resources or, until the links have been backfilled, every domain.
+   */
+  private Input<DomainBase> createDomainInput(ImmutableList<DeletionRequest> deletionRequests) {
+    return linkedDomainIndexEnabled
+        ? EppResourceInputs.createLinkedDomainInput(
+            deletionRequests.stream().map(DeletionRequest::key).collect(toImmutableSet()),
+            DomainBase.class)
+        : EppResourceInputs.createEntityInput(DomainBase.class);
+  }
+
+  /**
+   * A mapper that iterates over the {@link DomainBase} entities that may reference the targets.
    *
    * <p>It emits the target key and {@code true} for domains referencing the target resource. For
    * the special input of {@code null} it emits the target key and {@code false}.
+   *
+   * <p>When the domains come from the {@link LinkedDomainIndex}, it also deletes the links from
+   * domains that were already deleted when the deletion was requested. The flows don't remove the
+   * links of pending delete domains, so these would otherwise stay after their deletion time.
    */
   public static class DeleteContactsAndHostsMapper
       extends Mapper<DomainBase, DeletionRequest, Boolean> {
@@ -257,13 +282,17 @@ public class DeleteContactsAndHostsAction implements Runnable {
     private static final long serialVersionUID = -253652818502690537L;
 
     private final ImmutableList<DeletionRequest> deletionRequests;
+    private final boolean linkedDomainIndexEnabled;
 
-    DeleteContactsAndHostsMapper(ImmutableList<DeletionRequest> resourcesToDelete) {
+    DeleteContactsAndHostsMapper(
+        ImmutableList<DeletionRequest> resourcesToDelete, boolean linkedDomainIndexEnabled) {
       this.deletionRequests = resourcesToDelete;
+      this.linkedDomainIndexEnabled = linkedDomainIndexEnabled;
     }
 
     @Override
     public void map(DomainBase domain) {
+      ImmutableSet.Builder<Key<LinkedDomainIndex>> staleLinks = new ImmutableSet.Builder<>();
       for (DeletionRequest deletionRequest : deletionRequests) {
         if (domain == null) {
           // The reducer only runs if at least one value is emitted. We add a null input to the
@@ -276,13 +305,31 @@ public class DeleteContactsAndHostsAction implements Runnable {
           getContext()
               .incrementCounter(
                   String.format("active Domain-%s links found", deletionRequest.key().getKind()));
+        } else if (linkedDomainIndexEnabled
+            && !domain.getDeletionTime().isAfter(deletionRequest.lastUpdateTime())) {
+          staleLinks.add(LinkedDomainIndex.createKey(deletionRequest.key(), Key.create(domain)));
         }
       }
       if (domain != null) {
+        deleteStaleLinks(staleLinks.build());
         getContext().incrementCounter("domains processed");
       }
     }
 
+    /**
+     * Deletes links from a domain that was deleted before the linked resources were.
+     *
+     * <p>A deleted domain can't come back, so these links can never be needed again. All the links
+     * of a domain are in one bucket, so this is a single entity group transaction.
+     */
+    private void deleteStaleLinks(ImmutableSet<Key<LinkedDomainIndex>> staleLinks) {
+      if (staleLinks.isEmpty()) {
+        return;
+      }
+      ofy().transact(() -> ofy().delete().keys(staleLinks));
+      getContext().incrementCounter("deleted domain links removed", staleLinks.size());
+    }
+
     /** Determine whether the target resource is a linked resource on the domain. */
     private boolean isLinked(DomainBase domain, Key<? extends EppResource> resourceKey) {
       if (resourceKey.getKind().equals(KIND_CONTACT)) {
@@ -461,6 +508,16 @@ public class DeleteContactsAndHostsAction implements Runnable {
             historyEntryForDelete);
       } else if (existingResource instanceof HostResource) {
         HostResource host = (HostResource) existingResource;
+        // A host created before its IP addresses were limited may have too many to remove from
+        // their indexes in this transaction. Its stale entries are skipped by lookups, and cleared
+        // when the index is rebuilt.
+        if (host.getInetAddresses().size() <= MAX_INET_ADDRESSES_PER_HOST) {
+          ofy()
+              .save()
+              .entities(
+                  HostInetAddressIndex.createUpdatedInstances(
+                      host, (HostResource) deletedResource));
+        }
         if (host.isSubordinate()) {
           dnsQueue.addHostRefreshTask(host.getFullyQualifiedHostName());
           ofy().save().entity(
@@ -17,6 +17,7 @@ package google.registry.batch;
 import static com.google.common.base.Preconditions.checkState;
 import static google.registry.config.RegistryEnvironment.PRODUCTION;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_DRY_RUN;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.request.Action.Method.POST;
@@ -37,7 +38,6 @@ import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
-import google.registry.util.PipelineUtils;
 import java.util.List;
 import javax.inject.Inject;
 
@@ -83,16 +83,16 @@ public class DeleteLoadTestDataAction implements Runnable {
     checkState(
         registryEnvironment != PRODUCTION, "This mapreduce is not safe to run on PRODUCTION.");
 
-    response.sendJavaScriptRedirect(
-        PipelineUtils.createJobPath(
-            mrRunner
-                .setJobName("Delete load test data")
-                .setModuleName("backend")
-                .runMapOnly(
-                    new DeleteLoadTestDataMapper(isDryRun),
-                    ImmutableList.of(
-                        createEntityInput(ContactResource.class),
-                        createEntityInput(HostResource.class)))));
+    sendJobStatus(
+        response,
+        mrRunner
+            .setJobName("Delete load test data")
+            .setModuleName("backend")
+            .runMapOnly(
+                new DeleteLoadTestDataMapper(isDryRun),
+                ImmutableList.of(
+                    createEntityInput(ContactResource.class),
+                    createEntityInput(HostResource.class))));
   }
 
   /** Provides the map method that runs for each existing contact and host entity. */
@@ -19,6 +19,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static google.registry.flows.ResourceFlowUtils.updateForeignKeyIndexDeletionTime;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_DRY_RUN;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.getTldsOfType;
 import static google.registry.model.reporting.HistoryEntry.Type.DOMAIN_DELETE;
@@ -53,7 +54,6 @@ import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
-import google.registry.util.PipelineUtils;
 import java.util.List;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
@@ -88,12 +88,12 @@ public class DeleteProberDataAction implements Runnable {
     checkState(
         !Strings.isNullOrEmpty(registryAdminClientId),
         "Registry admin client ID must be configured for prober data deletion to work");
-    response.sendJavaScriptRedirect(PipelineUtils.createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
         .setJobName("Delete prober data")
         .setModuleName("backend")
         .runMapOnly(
             new DeleteProberDataMapper(getProberRoidSuffixes(), isDryRun, registryAdminClientId),
-            ImmutableList.of(EppResourceInputs.createKeyInput(DomainBase.class)))));
+            ImmutableList.of(EppResourceInputs.createKeyInput(DomainBase.class))));
   }
 
   private ImmutableSet<String> getProberRoidSuffixes() {
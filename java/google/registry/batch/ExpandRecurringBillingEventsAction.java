@@ -15,9 +15,11 @@
 package google.registry.batch;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Sets.difference;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_DRY_RUN;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createChildEntityInput;
 import static google.registry.model.common.Cursor.CursorType.RECURRING_BILLING;
 import static google.registry.model.domain.Period.Unit.YEARS;
@@ -28,13 +30,18 @@ import static google.registry.util.CollectionUtils.union;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.earliestOf;
 import static google.registry.util.DomainNameUtils.getTldFromDomainName;
-import static google.registry.util.PipelineUtils.createJobPath;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Range;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
@@ -43,7 +50,6 @@ import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.NullInput;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
-import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Flag;
 import google.registry.model.billing.BillingEvent.OneTime;
 import google.registry.model.billing.BillingEvent.Recurring;
@@ -59,6 +65,9 @@ import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
 import google.registry.util.Clock;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import javax.inject.Inject;
@@ -81,6 +90,10 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
 
   public static final String PARAM_CURSOR_TIME = "cursorTime";
   private static final String ERROR_COUNTER = "errors";
+  private static final String RECURRING_ENCOUNTERED_COUNTER =
+      "Recurring billing events encountered";
+  private static final String RECURRING_EXPANDED_COUNTER = "Recurring billing events expanded";
+  private static final String MAPPER_MILLIS_COUNTER = "Mapper milliseconds";
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   @Inject Clock clock;
@@ -102,7 +115,7 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
     logger.atInfo().log(
         "Running Recurring billing event expansion for billing time range [%s, %s).",
         cursorTime, executeTime);
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
         .setJobName("Expand Recurring billing events into synthetic OneTime events.")
         .setModuleName("backend")
         .runMapreduce(
@@ -112,19 +125,43 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
             ImmutableList.of(
                 new NullInput<>(),
                 createChildEntityInput(
-                    ImmutableSet.of(DomainResource.class), ImmutableSet.of(Recurring.class))))));
+                    ImmutableSet.of(DomainResource.class), ImmutableSet.of(Recurring.class)))));
   }
 
-  /** Mapper to expand {@link Recurring} billing events into synthetic {@link OneTime} events. */
+  /**
+   * Mapper to expand {@link Recurring} billing events into synthetic {@link OneTime} events.
+   *
+   * <p>The billing times in scope are computed in memory before any Datastore access, so the
+   * (usually vast) majority of recurring events that have nothing to expand in this run never open
+   * a transaction. Those that do are buffered and expanded together, in one cross-group transaction
+   * for up to {@link #MAX_DOMAINS_PER_TRANSACTION} domains, which is flushed when full and at the
+   * end of every slice. If that transaction fails, each domain is retried on its own.
+   */
   public static class ExpandRecurringBillingEventsMapper
       extends Mapper<Recurring, DateTime, DateTime> {
 
     private static final long serialVersionUID = 8376442755556228455L;
 
+    /**
+     * The most domains whose recurring events are expanded in a single transaction.
+     *
+     * <p>Each domain is its own entity group, and cross-group transactions are limited to 25, so
+     * this leaves headroom for the groups the pricing engine may read.
+     */
+    @VisibleForTesting static final int MAX_DOMAINS_PER_TRANSACTION = 10;
+
     private final boolean isDryRun;
     private final DateTime cursorTime;
     private final DateTime executeTime;
 
+    /**
+     * The recurring events waiting to be expanded, with the billing times in scope for each.
+     *
+     * <p>This is always flushed by {@link #endSlice}, so it is empty whenever the mapper is
+     * serialized.
+     */
+    private transient Map<Recurring, ImmutableSet<DateTime>> pendingExpansions;
+
     public ExpandRecurringBillingEventsMapper(
         boolean isDryRun, DateTime cursorTime, DateTime executeTime) {
       this.isDryRun = isDryRun;
@@ -132,6 +169,21 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
       this.executeTime = executeTime;
     }
 
+    @Override
+    public void beginSlice() {
+      pendingExpansions = new LinkedHashMap<>();
+    }
+
+    @Override
+    public void endSlice() {
+      long startNanos = System.nanoTime();
+      try {
+        flushPendingExpansions();
+      } finally {
+        getContext().incrementCounter(MAPPER_MILLIS_COUNTER, millisSince(startNanos));
+      }
+    }
+
     @Override
     public final void map(final Recurring recurring) {
       // This single emit forces the reducer to run at the end of the map job, so that a mapper
@@ -141,7 +193,8 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
         emit(cursorTime, executeTime);
         return;
       }
-      getContext().incrementCounter("Recurring billing events encountered");
+      long startNanos = System.nanoTime();
+      getContext().incrementCounter(RECURRING_ENCOUNTERED_COUNTER);
       // Ignore any recurring billing events that have yet to apply.
       if (recurring.getEventTime().isAfter(executeTime)
           // This second case occurs when a domain is transferred or deleted before first renewal.
@@ -149,62 +202,146 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
         getContext().incrementCounter("Recurring billing events ignored");
         return;
       }
-      int numBillingEventsSaved = 0;
       try {
-        numBillingEventsSaved = ofy().transactNew(() -> {
-          ImmutableSet.Builder<OneTime> syntheticOneTimesBuilder =
-              new ImmutableSet.Builder<>();
-          final Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
-
-          // Determine the complete set of times at which this recurring event should occur
-          // (up to and including the runtime of the mapreduce).
-          Iterable<DateTime> eventTimes =
-              recurring.getRecurrenceTimeOfYear().getInstancesInRange(Range.closed(
-                  recurring.getEventTime(),
-                  earliestOf(recurring.getRecurrenceEndTime(), executeTime)));
-
-          // Convert these event times to billing times
-          final ImmutableSet<DateTime> billingTimes =
-              getBillingTimesInScope(eventTimes, cursorTime, executeTime, tld);
+        ImmutableSet<DateTime> billingTimes;
+        try {
+          billingTimes = getBillingTimesInScope(recurring);
+        } catch (Throwable t) {
+          throw handleError(ImmutableList.of(recurring), t);
+        }
+        if (billingTimes.isEmpty()) {
+          getContext().incrementCounter("Recurring billing events with nothing to expand");
+          return;
+        }
+        pendingExpansions.put(recurring, billingTimes);
+        if (getPendingDomainKeys().size() >= MAX_DOMAINS_PER_TRANSACTION) {
+          flushPendingExpansions();
+        }
+      } finally {
+        getContext().incrementCounter(MAPPER_MILLIS_COUNTER, millisSince(startNanos));
+      }
+    }
 
-          Key<? extends EppResource> domainKey = recurring.getParentKey().getParent();
-          Iterable<OneTime> oneTimesForDomain =
-              ofy().load().type(OneTime.class).ancestor(domainKey);
+    /**
+     * Expands all the pending recurring events in a single transaction, and clears them.
+     *
+     * <p>If that transaction fails, each domain's events are retried in a transaction of their own,
+     * so that one bad domain doesn't stop the rest of the batch from being expanded. The first
+     * failure is rethrown once every domain has been tried.
+     */
+    private void flushPendingExpansions() {
+      if (pendingExpansions.isEmpty()) {
+        return;
+      }
+      ImmutableMap<Recurring, ImmutableSet<DateTime>> expansions =
+          ImmutableMap.copyOf(pendingExpansions);
+      pendingExpansions.clear();
+      ImmutableListMultimap<Key<?>, Recurring> recurringsByDomain =
+          Multimaps.index(expansions.keySet(), recurring -> recurring.getParentKey().getParent());
+      if (recurringsByDomain.keySet().size() > 1) {
+        try {
+          expandInTransaction(expansions);
+          return;
+        } catch (Throwable t) {
+          logger.atWarning().withCause(t).log(
+              "Error while expanding Recurring billing events for %d domains together; retrying"
+                  + " each domain separately.",
+              recurringsByDomain.keySet().size());
+          getContext().incrementCounter("Expansion transactions retried per domain");
+        }
+      }
+      ImmutableList.Builder<Recurring> failedRecurrings = new ImmutableList.Builder<>();
+      Throwable firstFailure = null;
+      for (List<Recurring> domainRecurrings : Multimaps.asMap(recurringsByDomain).values()) {
+        try {
+          expandInTransaction(
+              ImmutableMap.copyOf(Maps.filterKeys(expansions, domainRecurrings::contains)));
+        } catch (Throwable t) {
+          failedRecurrings.addAll(domainRecurrings);
+          if (firstFailure == null) {
+            firstFailure = t;
+          }
+        }
+      }
+      if (firstFailure != null) {
+        throw handleError(failedRecurrings.build(), firstFailure);
+      }
+    }
 
-          // Determine the billing times that already have OneTime events persisted.
-          ImmutableSet<DateTime> existingBillingTimes =
-              getExistingBillingTimes(oneTimesForDomain, recurring);
+    /** Expands the given recurring events in a single transaction. */
+    private void expandInTransaction(ImmutableMap<Recurring, ImmutableSet<DateTime>> expansions) {
+      int numBillingEventsSaved =
+          ofy()
+              .transactNew(
+                  () -> {
+                    ImmutableSet.Builder<ImmutableObject> entitiesToSave =
+                        new ImmutableSet.Builder<>();
+                    int numOneTimes = 0;
+                    for (Map.Entry<Recurring, ImmutableSet<DateTime>> expansion :
+                        expansions.entrySet()) {
+                      numOneTimes +=
+                          expandRecurring(expansion.getKey(), expansion.getValue(), entitiesToSave);
+                    }
+                    if (!isDryRun) {
+                      ofy().save().entities(entitiesToSave.build()).now();
+                    }
+                    return numOneTimes;
+                  });
+      getContext().incrementCounter("Expansion transactions");
+      getContext().incrementCounter(RECURRING_EXPANDED_COUNTER, expansions.size());
+      if (!isDryRun) {
+        getContext().incrementCounter("Saved OneTime billing events", numBillingEventsSaved);
+      } else {
+        getContext().incrementCounter(
+            "Generated OneTime billing events (dry run)", numBillingEventsSaved);
+      }
+    }
 
-          ImmutableSet.Builder<HistoryEntry> historyEntriesBuilder =
-              new ImmutableSet.Builder<>();
-          // Create synthetic OneTime events for all billing times that do not yet have an event
-          // persisted.
-          for (DateTime billingTime : difference(billingTimes, existingBillingTimes)) {
-            // Construct a new HistoryEntry that parents over the OneTime
-            HistoryEntry historyEntry = new HistoryEntry.Builder()
-                .setBySuperuser(false)
-                .setClientId(recurring.getClientId())
-                .setModificationTime(ofy().getTransactionTime())
-                .setParent(domainKey)
-                .setPeriod(Period.create(1, YEARS))
-                .setReason("Domain autorenewal by ExpandRecurringBillingEventsAction")
-                .setRequestedByRegistrar(false)
-                .setType(DOMAIN_AUTORENEW)
-                .setDomainTransactionRecords(
-                    ImmutableSet.of(
-                        DomainTransactionRecord.create(
-                            tld.getTldStr(),
-                            // We report this when the autorenew grace period ends
-                            billingTime,
-                            TransactionReportField.netRenewsFieldFromYears(1),
-                            1)))
-                .build();
-            historyEntriesBuilder.add(historyEntry);
+    /**
+     * Adds the synthetic {@link OneTime} events, and their parent {@link HistoryEntry} entities,
+     * for the given billing times of a recurring event that don't already have one.
+     *
+     * <p>This must be called within a transaction.
+     *
+     * @return the number of {@link OneTime} events added
+     */
+    private int expandRecurring(
+        Recurring recurring,
+        ImmutableSet<DateTime> billingTimes,
+        ImmutableSet.Builder<ImmutableObject> entitiesToSave) {
+      final Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
+      Key<? extends EppResource> domainKey = recurring.getParentKey().getParent();
+      Set<DateTime> newBillingTimes =
+          difference(billingTimes, getExistingBillingTimes(domainKey, recurring, billingTimes));
+      // Create synthetic OneTime events for all billing times that do not yet have an event
+      // persisted.
+      for (DateTime billingTime : newBillingTimes) {
+        // Construct a new HistoryEntry that parents over the OneTime
+        HistoryEntry historyEntry = new HistoryEntry.Builder()
+            .setBySuperuser(false)
+            .setClientId(recurring.getClientId())
+            .setModificationTime(ofy().getTransactionTime())
+            .setParent(domainKey)
+            .setPeriod(Period.create(1, YEARS))
+            .setReason("Domain autorenewal by ExpandRecurringBillingEventsAction")
+            .setRequestedByRegistrar(false)
+            .setType(DOMAIN_AUTORENEW)
+            .setDomainTransactionRecords(
+                ImmutableSet.of(
+                    DomainTransactionRecord.create(
+                        tld.getTldStr(),
+                        // We report this when the autorenew grace period ends
+                        billingTime,
+                        TransactionReportField.netRenewsFieldFromYears(1),
+                        1)))
+            .build();
 
-            DateTime eventTime = billingTime.minus(tld.getAutoRenewGracePeriodLength());
-            // Determine the cost for a one-year renewal.
-            Money renewCost = getDomainRenewCost(recurring.getTargetId(), eventTime, 1);
-            syntheticOneTimesBuilder.add(new OneTime.Builder()
+        DateTime eventTime = billingTime.minus(tld.getAutoRenewGracePeriodLength());
+        // Determine the cost for a one-year renewal.
+        Money renewCost = getDomainRenewCost(recurring.getTargetId(), eventTime, 1);
+        entitiesToSave.add(
+            historyEntry,
+            new OneTime.Builder()
                 .setBillingTime(billingTime)
                 .setClientId(recurring.getClientId())
                 .setCost(renewCost)
@@ -217,44 +354,26 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
                 .setCancellationMatchingBillingEvent(Key.create(recurring))
                 .setTargetId(recurring.getTargetId())
                 .build());
-          }
-          Set<HistoryEntry> historyEntries = historyEntriesBuilder.build();
-          Set<OneTime> syntheticOneTimes = syntheticOneTimesBuilder.build();
-          if (!isDryRun) {
-            ImmutableSet<ImmutableObject> entitiesToSave =
-                new ImmutableSet.Builder<ImmutableObject>()
-                    .addAll(historyEntries)
-                    .addAll(syntheticOneTimes)
-                    .build();
-            ofy().save().entities(entitiesToSave).now();
-          }
-          return syntheticOneTimes.size();
-        });
-      } catch (Throwable t) {
-        getContext().incrementCounter("error: " + t.getClass().getSimpleName());
-        getContext().incrementCounter(ERROR_COUNTER);
-        throw new RuntimeException(
-            String.format(
-                "Error while expanding Recurring billing events for %d", recurring.getId()),
-            t);
-      }
-      if (!isDryRun) {
-        getContext().incrementCounter("Saved OneTime billing events", numBillingEventsSaved);
-      } else {
-        getContext().incrementCounter(
-            "Generated OneTime billing events (dry run)", numBillingEventsSaved);
       }
+      return newBillingTimes.size();
     }
 
     /**
-     * Filters a set of {@link DateTime}s down to event times that are in scope for a particular
-     * mapreduce run, given the cursor time and the mapreduce execution time.
+     * Returns the billing times of a recurring event that are in scope for this mapreduce run,
+     * given the cursor time and the mapreduce execution time.
+     *
+     * <p>This is computed entirely in memory, from the recurrence and the TLD's autorenew grace
+     * period.
      */
-    private ImmutableSet<DateTime> getBillingTimesInScope(
-        Iterable<DateTime> eventTimes,
-        DateTime cursorTime,
-        DateTime executeTime,
-        final Registry tld) {
+    private ImmutableSet<DateTime> getBillingTimesInScope(Recurring recurring) {
+      final Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
+      // Determine the complete set of times at which this recurring event should occur (up to and
+      // including the runtime of the mapreduce).
+      Iterable<DateTime> eventTimes =
+          recurring.getRecurrenceTimeOfYear().getInstancesInRange(Range.closed(
+              recurring.getEventTime(),
+              earliestOf(recurring.getRecurrenceEndTime(), executeTime)));
+      // Convert these event times to billing times.
       return Streams.stream(eventTimes)
           .map(eventTime -> eventTime.plus(tld.getAutoRenewGracePeriodLength()))
           .filter(Range.closedOpen(cursorTime, executeTime))
@@ -262,22 +381,58 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
     }
 
     /**
-     * Determines an {@link ImmutableSet} of {@link DateTime}s that have already been persisted
-     * for a given recurring billing event.
+     * Determines which of the given billing times already have {@link OneTime} events persisted for
+     * a given recurring billing event.
+     *
+     * <p>This queries only the domain's events at those billing times, rather than all of its
+     * events, and then matches them to the recurring event in memory, since the field that links
+     * them isn't indexed. An ancestor query with just an equality filter is served by the built-in
+     * indexes, and is strongly consistent.
      */
-    private ImmutableSet<DateTime> getExistingBillingTimes(
-        Iterable<BillingEvent.OneTime> oneTimesForDomain,
-        final BillingEvent.Recurring recurringEvent) {
-      return Streams.stream(oneTimesForDomain)
-          .filter(
-              billingEvent ->
-                  Key.create(recurringEvent)
-                      .equals(billingEvent.getCancellationMatchingBillingEvent()))
+    private static ImmutableSet<DateTime> getExistingBillingTimes(
+        Key<? extends EppResource> domainKey,
+        Recurring recurring,
+        ImmutableSet<DateTime> billingTimes) {
+      Key<Recurring> recurringKey = Key.create(recurring);
+      return billingTimes
+          .stream()
+          .flatMap(
+              billingTime ->
+                  ofy()
+                      .load()
+                      .type(OneTime.class)
+                      .ancestor(domainKey)
+                      .filter("billingTime", billingTime)
+                      .list()
+                      .stream())
+          .filter(oneTime -> recurringKey.equals(oneTime.getCancellationMatchingBillingEvent()))
           .map(OneTime::getBillingTime)
           .collect(toImmutableSet());
     }
-  }
 
+    /** Returns the keys of the distinct domains with recurring events waiting to be expanded. */
+    private ImmutableSet<Key<?>> getPendingDomainKeys() {
+      return pendingExpansions
+          .keySet()
+          .stream()
+          .map(recurring -> recurring.getParentKey().getParent())
+          .collect(toImmutableSet());
+    }
+
+    private RuntimeException handleError(Iterable<Recurring> recurrings, Throwable t) {
+      getContext().incrementCounter("error: " + t.getClass().getSimpleName());
+      getContext().incrementCounter(ERROR_COUNTER);
+      return new RuntimeException(
+          String.format(
+              "Error while expanding Recurring billing events for %s",
+              Streams.stream(recurrings).map(Recurring::getId).collect(toImmutableList())),
+          t);
+    }
+
+    private static long millisSince(long startNanos) {
+      return NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+  }
 
   /**
    * "Reducer" to advance the cursor after all map jobs have been completed. The NullInput into the
@@ -309,6 +464,15 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
       logger.atInfo().log(
           "Recurring event expansion %s complete for billing event range [%s, %s).",
           isDryRun ? "(dry run) " : "", cursorTime, executionTime);
+      long numEncountered = getContext().getCounter(RECURRING_ENCOUNTERED_COUNTER).getValue();
+      long mapperMillis = getContext().getCounter(MAPPER_MILLIS_COUNTER).getValue();
+      logger.atInfo().log(
+          "Mappers processed %d Recurring billing events (%d expanded) in %d ms of mapper time,"
+              + " %.1f per second.",
+          numEncountered,
+          getContext().getCounter(RECURRING_EXPANDED_COUNTER).getValue(),
+          mapperMillis,
+          numEncountered * 1000.0 / Math.max(1, mapperMillis));
       ofy()
           .transact(
               () -> {
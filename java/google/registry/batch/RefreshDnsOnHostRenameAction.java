@@ -18,16 +18,18 @@ import static com.google.appengine.api.taskqueue.QueueConstants.maxLeaseCount;
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_HOST_KEY;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_REQUESTED_TIME;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_HOST_RENAME;
 import static google.registry.flows.async.AsyncFlowMetrics.OperationType.DNS_REFRESH;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
+import static google.registry.mapreduce.inputs.EppResourceInputs.createLinkedDomainInput;
 import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.EppResourceUtils.isDeleted;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.latestOf;
-import static google.registry.util.PipelineUtils.createJobPath;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.logging.Level.INFO;
@@ -38,6 +40,7 @@ import com.google.appengine.api.taskqueue.LeaseOptions;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
@@ -46,6 +49,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsQueue;
 import google.registry.flows.async.AsyncFlowMetrics;
 import google.registry.flows.async.AsyncFlowMetrics.OperationResult;
@@ -85,6 +89,7 @@ public class RefreshDnsOnHostRenameAction implements Runnable {
 
   @Inject AsyncFlowMetrics asyncFlowMetrics;
   @Inject Clock clock;
+  @Inject @Config("linkedDomainIndexEnabled") boolean linkedDomainIndexEnabled;
   @Inject MapreduceRunner mrRunner;
   @Inject @Named(QUEUE_ASYNC_HOST_RENAME) Queue pullQueue;
   @Inject RequestStatusChecker requestStatusChecker;
@@ -160,24 +165,37 @@ public class RefreshDnsOnHostRenameAction implements Runnable {
 
   private void runMapreduce(ImmutableList<DnsRefreshRequest> refreshRequests, Optional<Lock> lock) {
     try {
-      response.sendJavaScriptRedirect(
-          createJobPath(
-              mrRunner
-                  .setJobName("Enqueue DNS refreshes for domains referencing renamed hosts")
-                  .setModuleName("backend")
-                  .setDefaultReduceShards(1)
-                  .runMapreduce(
-                      new RefreshDnsOnHostRenameMapper(refreshRequests, retrier),
-                      new RefreshDnsOnHostRenameReducer(refreshRequests, lock.get(), retrier),
-                      // Add an extra NullInput so that the reducer always fires exactly once.
-                      ImmutableList.of(
-                          new NullInput<>(), createEntityInput(DomainResource.class)))));
+      sendJobStatus(
+          response,
+          mrRunner
+              .setJobName("Enqueue DNS refreshes for domains referencing renamed hosts")
+              .setModuleName("backend")
+              .setDefaultReduceShards(1)
+              .runMapreduce(
+                  new RefreshDnsOnHostRenameMapper(refreshRequests, retrier),
+                  new RefreshDnsOnHostRenameReducer(refreshRequests, lock.get(), retrier),
+                  // Add an extra NullInput so that the reducer always fires exactly once.
+                  ImmutableList.of(
+                      new NullInput<>(), createDomainInput(refreshRequests))));
     } catch (Throwable t) {
       logRespondAndUnlock(
           SEVERE, "Error starting mapreduce to refresh DNS for renamed hosts.", lock);
     }
   }
 
+  /**
+   * Returns the input of domains to refresh, which is either just the domains linked to the
+   * renamed hosts or, until the links have been backfilled, every domain.
+   */
+  private Input<DomainResource> createDomainInput(
+      ImmutableList<DnsRefreshRequest> refreshRequests) {
+    return linkedDomainIndexEnabled
+        ? createLinkedDomainInput(
+            refreshRequests.stream().map(DnsRefreshRequest::hostKey).collect(toImmutableSet()),
+            DomainResource.class)
+        : createEntityInput(DomainResource.class);
+  }
+
   private void logRespondAndUnlock(Level level, String message, Optional<Lock> lock) {
     logger.at(level).log(message);
     response.setPayload(message);
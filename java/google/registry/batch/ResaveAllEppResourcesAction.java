@@ -14,8 +14,8 @@
 
 package google.registry.batch;
 
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static google.registry.util.PipelineUtils.createJobPath;
 
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.common.collect.ImmutableList;
@@ -52,12 +52,12 @@ public class ResaveAllEppResourcesAction implements Runnable {
 
   @Override
   public void run() {
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
         .setJobName("Re-save all EPP resources")
         .setModuleName("backend")
         .runMapOnly(
             new ResaveAllEppResourcesActionMapper(),
-            ImmutableList.of(EppResourceInputs.createKeyInput(EppResource.class)))));
+            ImmutableList.of(EppResourceInputs.createKeyInput(EppResource.class))));
   }
 
   /** Mapper to re-save all EPP resources. */
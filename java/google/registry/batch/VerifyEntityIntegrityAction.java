@@ -15,10 +15,13 @@
 package google.registry.batch;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.googlecode.objectify.Key.getKind;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.EppResourceUtils.isActive;
+import static google.registry.model.common.Cursor.CursorType.ENTITY_INTEGRITY;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
@@ -26,11 +29,12 @@ import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.earliestOf;
 import static google.registry.util.DateTimeUtils.isAtOrAfter;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
-import static google.registry.util.PipelineUtils.createJobPath;
 import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.appengine.tools.mapreduce.Output;
+import com.google.appengine.tools.mapreduce.OutputWriter;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.appengine.tools.mapreduce.inputs.DatastoreKeyInput;
@@ -39,10 +43,14 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.mapreduce.MapreduceRunner;
+import google.registry.mapreduce.inputs.CommitLogManifestInput;
 import google.registry.mapreduce.inputs.EppResourceInputs;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
+import google.registry.model.common.Cursor;
+import google.registry.model.common.Cursor.CursorType;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainBase;
@@ -55,20 +63,29 @@ import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyContactIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyDomainIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyHostIndex;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
 import google.registry.model.transfer.TransferData.TransferServerApproveEntity;
 import google.registry.request.Action;
+import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
 import google.registry.util.NonFinalForTesting;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 /**
  * A mapreduce to verify integrity of entities in Datastore.
@@ -85,7 +102,20 @@ import org.joda.time.DateTime;
  *   <li>All domain applications, when grouped by foreign key, have exactly one
  *       {@link DomainApplicationIndex} that links to all of them, and has a matching
  *       fullyQualifiedDomainName.
+ *   <li>All active hosts are in the {@link HostInetAddressIndex} of each of their IP addresses, and
+ *       every host in a {@link HostInetAddressIndex} is active and has that IP address.
  * </ul>
+ *
+ * <p>When the {@code incremental} parameter is set, only the entities written since the last
+ * completed verification are checked, by mapping over the {@link CommitLogManifest}s committed
+ * since the {@link CursorType#ENTITY_INTEGRITY} cursor instead of over all of Datastore. Each
+ * resource or index touched by a commit is checked along with its indexes and the resource its
+ * foreign key index points to, so the cost of a run is proportional to the write volume since the
+ * previous one. This can't find every violation that a full scan does (e.g. a third resource with
+ * the same foreign key that wasn't touched), so full scans should still be run occasionally. If
+ * there is no cursor yet, or the commit logs since the cursor may already have been deleted, a full
+ * scan is run instead. Either way the cursor is advanced to the scan time once the mapreduce
+ * completes.
  */
 @Action(
   path = "/_dr/task/verifyEntityIntegrity",
@@ -94,8 +124,20 @@ import org.joda.time.DateTime;
 )
 public class VerifyEntityIntegrityAction implements Runnable {
 
+  public static final String PARAM_INCREMENTAL = "incremental";
+
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final int NUM_SHARDS = 200;
+
+  /**
+   * How far before the cursor to start reading commit logs in an incremental verification.
+   *
+   * <p>A commit log is timestamped with the start of its transaction, so a transaction that was
+   * still running at the previous scan time can have committed with an earlier timestamp than it.
+   * Datastore transactions time out after 60 seconds, so anything earlier than this was visible.
+   */
+  private static final Duration COMMIT_LOG_OVERLAP = Duration.standardMinutes(1);
+
   @NonFinalForTesting
   @VisibleForTesting
   static BatchComponent component = DaggerBatchComponent.create();
@@ -105,6 +147,7 @@ public class VerifyEntityIntegrityAction implements Runnable {
           DomainApplicationIndex.class,
           ForeignKeyHostIndex.class,
           ForeignKeyContactIndex.class,
+          HostInetAddressIndex.class,
           DomainBase.class,
           HostResource.class,
           ContactResource.class);
@@ -117,22 +160,55 @@ public class VerifyEntityIntegrityAction implements Runnable {
   static final String KIND_EPPRESOURCE_INDEX = getKind(EppResourceIndex.class);
   static final String KIND_HOST_RESOURCE = getKind(HostResource.class);
   static final String KIND_HOST_INDEX = getKind(ForeignKeyHostIndex.class);
+  static final String KIND_HOST_INET_ADDRESS_INDEX = getKind(HostInetAddressIndex.class);
 
   @Inject MapreduceRunner mrRunner;
   @Inject Response response;
+  @Inject @Parameter(PARAM_INCREMENTAL) boolean incremental;
+  @Inject @Config("commitLogDatastoreRetention") Duration commitLogDatastoreRetention;
   @Inject VerifyEntityIntegrityAction() {}
 
   @Override
   public void run() {
     DateTime scanTime = DateTime.now(UTC);
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
-        .setJobName("Verify entity integrity")
+    Optional<DateTime> checkpoint =
+        incremental ? getIncrementalCheckpoint(scanTime) : Optional.empty();
+    ImmutableSet<Input<?>> inputs =
+        checkpoint.isPresent()
+            ? ImmutableSet.of(
+                new CommitLogManifestInput(null, checkpoint.get().minus(COMMIT_LOG_OVERLAP)))
+            : getInputs();
+    sendJobStatus(response, mrRunner
+        .setJobName(
+            checkpoint.isPresent()
+                ? "Verify entity integrity since " + checkpoint.get()
+                : "Verify entity integrity")
         .setModuleName("backend")
         .setDefaultReduceShards(NUM_SHARDS)
         .runMapreduce(
             new VerifyEntityIntegrityMapper(scanTime),
             new VerifyEntityIntegrityReducer(scanTime),
-            getInputs())));
+            inputs,
+            new EntityIntegrityCursorOutput(scanTime)));
+  }
+
+  /**
+   * Returns the time to verify the commit logs since, or absent if a full scan is needed instead.
+   */
+  private Optional<DateTime> getIncrementalCheckpoint(DateTime scanTime) {
+    Cursor cursor = ofy().load().key(Cursor.createGlobalKey(ENTITY_INTEGRITY)).now();
+    if (cursor == null) {
+      logger.atInfo().log("No entity integrity cursor exists; verifying all entities.");
+      return Optional.empty();
+    }
+    if (cursor.getCursorTime().isBefore(scanTime.minus(commitLogDatastoreRetention))) {
+      logger.atWarning().log(
+          "Entity integrity cursor %s is older than the commit log retention; "
+              + "verifying all entities.",
+          cursor.getCursorTime());
+      return Optional.empty();
+    }
+    return Optional.of(cursor.getCursorTime());
   }
 
   private static ImmutableSet<Input<?>> getInputs() {
@@ -210,6 +286,14 @@ public class VerifyEntityIntegrityAction implements Runnable {
     @Override
     public final void map(Object keyOrEntity) {
       try {
+        // Incremental verification maps over commit log manifests, which are the only Objectify
+        // keys that any of the inputs return.
+        if (keyOrEntity instanceof Key) {
+          @SuppressWarnings("unchecked")
+          Key<CommitLogManifest> manifestKey = (Key<CommitLogManifest>) keyOrEntity;
+          mapCommitLogManifest(manifestKey);
+          return;
+        }
         // We use different inputs, some that return keys and some that return entities.  Load any
         // keys that we get so we're dealing only with entities.
         if (keyOrEntity instanceof com.google.appengine.api.datastore.Key) {
@@ -224,6 +308,100 @@ public class VerifyEntityIntegrityAction implements Runnable {
       }
     }
 
+    /**
+     * Checks all entities related to the ones that were saved or deleted in a commit.
+     *
+     * <p>These are mapped exactly as in a full scan, so that the reducer sees the same groups of
+     * keys that it would for them in a full scan, minus any resources that weren't touched.
+     */
+    private void mapCommitLogManifest(Key<CommitLogManifest> manifestKey) {
+      CommitLogManifest manifest = ofy().load().key(manifestKey).now();
+      if (manifest == null) {
+        // The commit log was deleted by DeleteOldCommitLogsAction after the input was read.
+        return;
+      }
+      getContext().incrementCounter("commit log manifests");
+      Set<Key<?>> touchedKeys = new LinkedHashSet<>(manifest.getDeletions());
+      for (Key<CommitLogMutation> mutationKey :
+          ofy().load().type(CommitLogMutation.class).ancestor(manifestKey).keys()) {
+        touchedKeys.add(Key.create(mutationKey.getName()));
+      }
+      Set<Key<?>> keysToVerify = new LinkedHashSet<>();
+      for (Key<?> touchedKey : touchedKeys) {
+        keysToVerify.addAll(getKeysToVerify(touchedKey));
+      }
+      for (Object entity : ofy().load().values(keysToVerify).values()) {
+        try {
+          mapEntity(entity);
+        } catch (Throwable e) {
+          // Log and swallow so that the mapreduce doesn't abort on first error.
+          logger.atSevere().withCause(e).log(
+              "Exception while checking integrity of entity: %s", entity);
+        }
+      }
+    }
+
+    /** Returns the keys of the entities to verify for an entity saved or deleted in a commit. */
+    private static ImmutableSet<Key<?>> getKeysToVerify(Key<?> touchedKey) {
+      String kind = touchedKey.getKind();
+      ImmutableSet.Builder<Key<?>> keysToVerify = new ImmutableSet.Builder<>();
+      if (kind.equals(KIND_DOMAIN_BASE_RESOURCE)
+          || kind.equals(KIND_CONTACT_RESOURCE)
+          || kind.equals(KIND_HOST_RESOURCE)) {
+        @SuppressWarnings("unchecked")
+        Key<? extends EppResource> resourceKey = (Key<? extends EppResource>) touchedKey;
+        keysToVerify.addAll(getKeysToVerifyForResource(resourceKey));
+      } else if (kind.equals(KIND_EPPRESOURCE_INDEX)) {
+        Key<? extends EppResource> resourceKey = Key.create(touchedKey.getName());
+        keysToVerify.add(touchedKey).addAll(getKeysToVerifyForResource(resourceKey));
+      } else if (kind.equals(KIND_DOMAIN_INDEX)
+          || kind.equals(KIND_CONTACT_INDEX)
+          || kind.equals(KIND_HOST_INDEX)) {
+        keysToVerify.add(touchedKey);
+        ForeignKeyIndex<?> fki = (ForeignKeyIndex<?>) ofy().load().key(touchedKey).now();
+        if (fki != null) {
+          keysToVerify.addAll(getKeysToVerifyForResource(fki.getResourceKey()));
+        }
+      } else if (kind.equals(KIND_DOMAIN_APPLICATION_INDEX)) {
+        keysToVerify.add(touchedKey);
+        DomainApplicationIndex dai = (DomainApplicationIndex) ofy().load().key(touchedKey).now();
+        if (dai != null) {
+          for (Key<DomainApplication> applicationKey : dai.getKeys()) {
+            keysToVerify.addAll(getKeysToVerifyForResource(applicationKey));
+          }
+        }
+      } else if (kind.equals(KIND_HOST_INET_ADDRESS_INDEX)) {
+        keysToVerify.add(touchedKey);
+      }
+      return keysToVerify.build();
+    }
+
+    /**
+     * Returns the keys of a resource, its indexes, and the resource its foreign key index points
+     * to, which together are enough to verify the resource's index invariants.
+     */
+    private static ImmutableSet<Key<?>> getKeysToVerifyForResource(
+        Key<? extends EppResource> resourceKey) {
+      ImmutableSet.Builder<Key<?>> keysToVerify =
+          new ImmutableSet.Builder<Key<?>>()
+              .add(resourceKey)
+              .addAll(EppResourceIndex.createPossibleKeys(resourceKey));
+      EppResource resource = ofy().load().key(resourceKey).now();
+      if (resource instanceof DomainApplication) {
+        keysToVerify.add(DomainApplicationIndex.createKey((DomainApplication) resource));
+      } else if (resource != null) {
+        Key<ForeignKeyIndex<EppResource>> fkiKey = ForeignKeyIndex.createKey(resource);
+        keysToVerify.add(fkiKey);
+        ForeignKeyIndex<EppResource> fki = ofy().load().key(fkiKey).now();
+        if (fki != null && !fki.getResourceKey().equals(resourceKey)) {
+          keysToVerify
+              .add(fki.getResourceKey())
+              .addAll(EppResourceIndex.createPossibleKeys(fki.getResourceKey()));
+        }
+      }
+      return keysToVerify.build();
+    }
+
     private void mapEntity(Object entity) {
       if (entity instanceof EppResource) {
         mapEppResource((EppResource) entity);
@@ -233,6 +411,8 @@ public class VerifyEntityIntegrityAction implements Runnable {
         mapDomainApplicationIndex((DomainApplicationIndex) entity);
       } else if (entity instanceof EppResourceIndex) {
         mapEppResourceIndex((EppResourceIndex) entity);
+      } else if (entity instanceof HostInetAddressIndex) {
+        mapHostInetAddressIndex((HostInetAddressIndex) entity);
       } else {
         throw new IllegalStateException(
             String.format("Unknown entity in integrity mapper: %s", entity));
@@ -286,6 +466,7 @@ public class VerifyEntityIntegrityAction implements Runnable {
         getContext().incrementCounter("host resources");
         HostResource host = (HostResource) resource;
         verifyExistence(Key.create(host), host.getSuperordinateDomain());
+        verifyHostInetAddressIndexes(host);
         emit(
             MapperKey.create(EntityKind.HOST, host.getFullyQualifiedHostName()),
             Key.create(host));
@@ -348,6 +529,33 @@ public class VerifyEntityIntegrityAction implements Runnable {
       }
     }
 
+    private void mapHostInetAddressIndex(HostInetAddressIndex index) {
+      getContext().incrementCounter("host IP address indexes");
+      Key<HostInetAddressIndex> indexKey = Key.create(index);
+      for (Key<HostResource> hostKey : index.getHosts()) {
+        HostResource host = verifyExistence(indexKey, hostKey);
+        if (host != null) {
+          integrity().check(
+              HostInetAddressIndex.createKeysForHost(host).contains(indexKey),
+              indexKey,
+              hostKey,
+              "Host IP address index points to host that doesn't have that IP address");
+        }
+      }
+    }
+
+    private void verifyHostInetAddressIndexes(HostResource host) {
+      Key<HostResource> hostKey = Key.create(host);
+      for (Key<HostInetAddressIndex> indexKey : HostInetAddressIndex.createKeysForHost(host)) {
+        HostInetAddressIndex index = ofy().load().key(indexKey).now();
+        integrity().check(
+            index != null && index.getHosts().contains(hostKey),
+            indexKey,
+            hostKey,
+            "Missing host from host IP address index");
+      }
+    }
+
     private void mapEppResourceIndex(EppResourceIndex eri) {
       Key<EppResourceIndex> eriKey = Key.create(eri);
       String eriRepoId = Key.create(eri.getId()).getName();
@@ -419,8 +627,12 @@ public class VerifyEntityIntegrityAction implements Runnable {
     }
 
     private void reduceKeys(
-        MapperKey mapperKey, ReducerInput<Key<? extends ImmutableObject>> keys) {
+        MapperKey mapperKey, ReducerInput<Key<? extends ImmutableObject>> reducerInput) {
       getContext().incrementCounter("reduced resources " + mapperKey.kind);
+      // An incremental verification emits the same key once for each commit that touched it or a
+      // related entity, so remove duplicates before checking how many of each kind there are.
+      Iterator<Key<? extends ImmutableObject>> keys =
+          ImmutableSet.copyOf(reducerInput).iterator();
       switch (mapperKey.kind) {
         case EPP_RESOURCE:
           checkEppResourceIndexes(keys, mapperKey.id);
@@ -576,4 +788,49 @@ public class VerifyEntityIntegrityAction implements Runnable {
       }
     }
   }
+
+  /** Output that advances the {@link CursorType#ENTITY_INTEGRITY} cursor once verification ends. */
+  private static class EntityIntegrityCursorOutput extends Output<Void, Void> {
+
+    private static final long serialVersionUID = 4519373846434284262L;
+
+    private final DateTime scanTime;
+
+    EntityIntegrityCursorOutput(DateTime scanTime) {
+      this.scanTime = scanTime;
+    }
+
+    private static class NoopWriter extends OutputWriter<Void> {
+
+      private static final long serialVersionUID = -3167640862546453221L;
+
+      @Override
+      public void write(Void object) {
+        // Noop
+      }
+
+      @Override
+      public boolean allowSliceRetry() {
+        return true;
+      }
+    }
+
+    @Override
+    public List<NoopWriter> createWriters(int numShards) {
+      return Stream.generate(NoopWriter::new).limit(numShards).collect(toImmutableList());
+    }
+
+    @Override
+    public Void finish(Collection<? extends OutputWriter<Void>> writers) {
+      ofy().transact(() -> {
+        Cursor cursor = ofy().load().key(Cursor.createGlobalKey(ENTITY_INTEGRITY)).now();
+        // Don't move the cursor back if a verification that started later already finished.
+        if (cursor == null || cursor.getCursorTime().isBefore(scanTime)) {
+          ofy().save().entity(Cursor.createGlobal(ENTITY_INTEGRITY, scanTime));
+        }
+      });
+      logger.atInfo().log("Entity integrity verified as of %s.", scanTime);
+      return null;
+    }
+  }
 }
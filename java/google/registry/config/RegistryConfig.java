@@ -223,6 +223,20 @@ public final class RegistryConfig {
       return 100;
     }
 
+    /**
+     * Whether to gzip commit log diff files when exporting them.
+     *
+     * <p>Restores read both compressed and uncompressed diff files, so this can be changed at any
+     * time.
+     *
+     * @see google.registry.backup.ExportCommitLogDiffAction
+     */
+    @Provides
+    @Config("commitLogDiffExportCompressionEnabled")
+    public static boolean provideCommitLogDiffExportCompressionEnabled() {
+      return false;
+    }
+
     /**
      * Returns the Google Cloud Storage bucket for staging BRDA escrow deposits.
      *
@@ -264,6 +278,20 @@ public final class RegistryConfig {
       return 100;
     }
 
+    /**
+     * How long a single PublishDnsUpdatesAction should aim to take.
+     *
+     * <p>Once the publish latency of a DNS writer is known, ReadDnsQueueAction sizes batches for it
+     * so they are expected to take about this long, but never larger than dnsTldUpdateBatchSize.
+     *
+     * @see google.registry.dns.ReadDnsQueueAction
+     */
+    @Provides
+    @Config("dnsPublishTargetBatchDuration")
+    public static Duration provideDnsPublishTargetBatchDuration() {
+      return Duration.standardSeconds(30);
+    }
+
     /**
      * The maximum time we allow publishDnsUpdates to run.
      *
@@ -343,7 +371,8 @@ public final class RegistryConfig {
     /**
      * Number of sharded entity group roots used for performing strongly consistent scans.
      *
-     * <p><b>Warning:</b> This number may increase but never decrease.
+     * <p><b>Warning:</b> This number may increase but never decrease. After increasing it, run
+     * {@code RebalanceEppResourceIndexesAction} to move existing indexes into the new buckets.
      *
      * @see google.registry.model.index.EppResourceIndex
      */
@@ -353,6 +382,18 @@ public final class RegistryConfig {
       return config.datastore.eppResourceIndexBucketsNum;
     }
 
+    /**
+     * Maximum number of input entities for a mapreduce to be run in-process automatically, or zero
+     * to only run mapreduces in-process when explicitly requested.
+     *
+     * @see google.registry.mapreduce.MapreduceRunner
+     */
+    @Provides
+    @Config("inProcessMapreduceMaxInputSize")
+    public static int provideInProcessMapreduceMaxInputSize(RegistryConfigSettings config) {
+      return config.datastore.inProcessMapreduceMaxInputSize;
+    }
+
     @Provides
     @Config("cloudDnsRootUrl")
     public static Optional<String> getCloudDnsRootUrl(RegistryConfigSettings config) {
@@ -910,6 +951,110 @@ public final class RegistryConfig {
       return null;
     }
 
+    /**
+     * Amount of time clients, proxies and the in-memory response cache may cache RDAP lookup
+     * responses.
+     *
+     * @see google.registry.rdap.RdapActionBase
+     */
+    @Provides
+    @Config("rdapResponseCachingDuration")
+    public static Duration provideRdapResponseCachingDuration(RegistryConfigSettings config) {
+      return Duration.standardSeconds(config.caching.rdapResponseCachingSeconds);
+    }
+
+    /**
+     * Maximum total size in bytes of the RDAP lookup responses cached in memory, or zero if the
+     * response cache is disabled.
+     *
+     * @see google.registry.rdap.RdapResponseCache
+     */
+    @Provides
+    @Config("rdapResponseCacheMaxBytes")
+    public static int provideRdapResponseCacheMaxBytes(RegistryConfigSettings config) {
+      return config.caching.rdapResponseCacheMaxBytes;
+    }
+
+    /**
+     * Duration for which each instance keeps a TLD's names in the RDAP domain name index.
+     *
+     * @see google.registry.rdap.RdapDomainNameIndex
+     */
+    @Provides
+    @Config("rdapDomainNameIndexRefreshDuration")
+    public static Duration provideRdapDomainNameIndexRefreshDuration(
+        RegistryConfigSettings config) {
+      return Duration.standardSeconds(config.caching.rdapDomainNameIndexRefreshSeconds);
+    }
+
+    /**
+     * Duration for which rendered WHOIS responses are cached in memory.
+     *
+     * @see google.registry.whois.WhoisResponseCache
+     */
+    @Provides
+    @Config("whoisResponseCachingDuration")
+    public static Duration provideWhoisResponseCachingDuration(RegistryConfigSettings config) {
+      return Duration.standardSeconds(config.caching.whoisResponseCachingSeconds);
+    }
+
+    /**
+     * Maximum number of rendered WHOIS responses cached in memory, or zero if the response cache is
+     * disabled.
+     *
+     * @see google.registry.whois.WhoisResponseCache
+     */
+    @Provides
+    @Config("whoisResponseCacheMaxEntries")
+    public static int provideWhoisResponseCacheMaxEntries(RegistryConfigSettings config) {
+      return config.caching.whoisResponseCacheMaxEntries;
+    }
+
+    /**
+     * Maximum number of tokens in each client's rate limiting bucket, or zero if anonymous public
+     * API requests aren't rate limited.
+     *
+     * @see google.registry.request.ClientRateLimiter
+     */
+    @Provides
+    @Config("rateLimitMaxTokens")
+    public static int provideRateLimitMaxTokens(RegistryConfigSettings config) {
+      return config.rateLimiting.maxTokens;
+    }
+
+    /**
+     * Rate at which each client's rate limiting bucket refills.
+     *
+     * @see google.registry.request.ClientRateLimiter
+     */
+    @Provides
+    @Config("rateLimitTokensPerSecond")
+    public static double provideRateLimitTokensPerSecond(RegistryConfigSettings config) {
+      return config.rateLimiting.tokensPerSecond;
+    }
+
+    /**
+     * Number of rate limiting tokens taken by a search request, as opposed to one for a lookup.
+     *
+     * @see google.registry.rdap.RdapSearchActionBase
+     */
+    @Provides
+    @Config("rateLimitSearchRequestTokens")
+    public static int provideRateLimitSearchRequestTokens(RegistryConfigSettings config) {
+      return config.rateLimiting.searchRequestTokens;
+    }
+
+    /**
+     * Maximum number of client rate limiting buckets kept in memory.
+     *
+     * @see google.registry.request.ClientRateLimiter
+     */
+    @Provides
+    @Config("rateLimitMaxTrackedClients")
+    public static int provideRateLimitMaxTrackedClients(RegistryConfigSettings config) {
+      return config.rateLimiting.maxTrackedClients;
+    }
+
     /**
      * Disclaimer displayed at the end of WHOIS query results.
      *
@@ -1010,6 +1155,35 @@ public final class RegistryConfig {
       return Duration.standardSeconds(config.misc.asyncDeleteDelaySeconds);
     }
 
+    /**
+     * Returns whether asynchronous mapreduces find domains via their {@code LinkedDomainIndex}.
+     *
+     * <p>This must only be enabled once the index has been fully backfilled.
+     *
+     * @see google.registry.batch.DeleteContactsAndHostsAction
+     * @see google.registry.batch.RefreshDnsOnHostRenameAction
+     * @see google.registry.tools.server.RebuildLinkedDomainIndexAction
+     */
+    @Provides
+    @Config("linkedDomainIndexEnabled")
+    public static boolean provideLinkedDomainIndexEnabled(RegistryConfigSettings config) {
+      return config.misc.linkedDomainIndexEnabled;
+    }
+
+    /**
+     * Returns whether lookups of hosts by IP address use their {@code HostInetAddressIndex}.
+     *
+     * <p>This must only be enabled once the index has been fully backfilled.
+     *
+     * @see google.registry.rdap.RdapDomainSearchAction
+     * @see google.registry.tools.server.RebuildHostInetAddressIndexAction
+     */
+    @Provides
+    @Config("hostInetAddressIndexEnabled")
+    public static boolean provideHostInetAddressIndexEnabled(RegistryConfigSettings config) {
+      return config.misc.hostInetAddressIndexEnabled;
+    }
+
     /**
      * The server ID used in the 'svID' element of an EPP 'greeting'.
      *
@@ -1274,9 +1448,12 @@ public final class RegistryConfig {
    * practice), a registry that wants to be able to handle one hundred transactions per second
    * should have one hundred buckets.
    *
-   * <p><b>Warning:</b> This can be raised but never lowered.
+   * <p><b>Warning:</b> This can be raised but never lowered. Raising it is safe to do online; the
+   * commit log checkpoint keeps covering the new buckets even if it is computed by an instance that
+   * still has the old count.
    *
    * @see google.registry.model.ofy.CommitLogBucket
+   * @see google.registry.backup.CommitLogCheckpointStrategy
    */
   public static int getCommitLogBucketCount() {
     return CONFIG_SETTINGS.get().datastore.commitLogBucketsNum;
@@ -1373,6 +1550,15 @@ public final class RegistryConfig {
     return CONFIG_SETTINGS.get().registryPolicy.defaultRegistrarWhoisServer;
   }
 
+  /**
+   * Returns whether WHOIS nameserver lookups by IP address use the {@code HostInetAddressIndex}.
+   *
+   * @see "google.registry.whois.WhoisCommandFactory"
+   */
+  public static boolean getHostInetAddressIndexEnabled() {
+    return CONFIG_SETTINGS.get().misc.hostInetAddressIndexEnabled;
+  }
+
   /**
    * Returns the number of {@code EppResourceIndex} buckets to be used.
    */
@@ -1380,6 +1566,32 @@ public final class RegistryConfig {
     return CONFIG_SETTINGS.get().datastore.eppResourceIndexBucketsNum;
   }
 
+  /**
+   * Returns the number of {@code LinkedDomainIndex} buckets to be used.
+   *
+   * <p><b>Warning:</b> This number may increase but never decrease, since links in the dropped
+   * buckets would no longer be read.
+   */
+  public static int getLinkedDomainIndexBucketCount() {
+    return CONFIG_SETTINGS.get().datastore.linkedDomainIndexBucketsNum;
+  }
+
+  /**
+   * Returns the approximate maximum number of {@code EppResourceIndex} entities for each mapreduce
+   * reader, or zero for one reader per bucket.
+   */
+  public static int getEppResourceIndexesPerReader() {
+    return CONFIG_SETTINGS.get().datastore.eppResourceIndexesPerReader;
+  }
+
+  /**
+   * Returns the number of entities that mapreduce input readers load ahead of time, or zero to load
+   * each entity only when it's needed.
+   */
+  public static int getMapreduceReaderPrefetchBatchSize() {
+    return CONFIG_SETTINGS.get().datastore.mapreduceReaderPrefetchBatchSize;
+  }
+
   /**
    * Returns the base retry duration that gets doubled after each failure within {@code Ofy}.
    */
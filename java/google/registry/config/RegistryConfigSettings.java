@@ -33,6 +33,7 @@ public class RegistryConfigSettings {
   public RegistrarConsole registrarConsole;
   public Monitoring monitoring;
   public Misc misc;
+  public RateLimiting rateLimiting;
   public Beam beam;
   public Kms kms;
   public RegistryTool registryTool;
@@ -96,6 +97,10 @@ public class RegistryConfigSettings {
   public static class Datastore {
     public int commitLogBucketsNum;
     public int eppResourceIndexBucketsNum;
+    public int linkedDomainIndexBucketsNum;
+    public int eppResourceIndexesPerReader;
+    public int mapreduceReaderPrefetchBatchSize;
+    public int inProcessMapreduceMaxInputSize;
     public int baseOfyRetryMillis;
   }
 
@@ -125,6 +130,11 @@ public class RegistryConfigSettings {
     public boolean eppResourceCachingEnabled;
     public int eppResourceCachingSeconds;
     public int eppResourceMaxCachedEntries;
+    public int rdapResponseCachingSeconds;
+    public int rdapResponseCacheMaxBytes;
+    public int rdapDomainNameIndexRefreshSeconds;
+    public int whoisResponseCachingSeconds;
+    public int whoisResponseCacheMaxEntries;
   }
 
   /** Configuration for ICANN monthly reporting. */
@@ -168,6 +178,16 @@ public class RegistryConfigSettings {
     public String alertRecipientEmailAddress;
     public String alertEmailSenderDomain;
     public int asyncDeleteDelaySeconds;
+    public boolean linkedDomainIndexEnabled;
+    public boolean hostInetAddressIndexEnabled;
+  }
+
+  /** Configuration for rate limiting of anonymous public API requests. */
+  public static class RateLimiting {
+    public int maxTokens;
+    public double tokensPerSecond;
+    public int searchRequestTokens;
+    public int maxTrackedClients;
   }
 
   /** Configuration options for the registry tool. */
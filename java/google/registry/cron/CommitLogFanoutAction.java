@@ -49,7 +49,10 @@ public final class CommitLogFanoutAction implements Runnable {
   @Override
   public void run() {
     Queue taskQueue = getQueue(queue);
-    for (int bucketId : CommitLogBucket.getBucketIds()) {
+    // Fan out to every bucket that may hold commit logs, which can be more than the configured
+    // count while an increase of the bucket count is rolling out.
+    int bucketCount = CommitLogBucket.getCheckpointedBucketCount();
+    for (int bucketId : CommitLogBucket.getBucketIds(bucketCount)) {
       TaskOptions taskOptions = TaskOptions.Builder.withUrl(endpoint)
           .param(BUCKET_PARAM, Integer.toString(bucketId))
           .countdownMillis(jitterSeconds.isPresent()
@@ -14,6 +14,7 @@
 
 package google.registry.dns;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static google.registry.dns.DnsModule.PARAM_DNS_WRITER;
 import static google.registry.dns.DnsModule.PARAM_DOMAINS;
 import static google.registry.dns.DnsModule.PARAM_HOSTS;
@@ -31,7 +32,11 @@ import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsMetrics.ActionStatus;
 import google.registry.dns.DnsMetrics.CommitStatus;
 import google.registry.dns.DnsMetrics.PublishStatus;
+import google.registry.dns.writer.BatchAwareDnsWriter;
 import google.registry.dns.writer.DnsWriter;
+import google.registry.dns.writer.PartialCommitException;
+import google.registry.dns.writer.PrefetchedDnsEntities;
+import google.registry.model.dns.DnsPublishStats;
 import google.registry.model.registry.Registry;
 import google.registry.request.Action;
 import google.registry.request.HttpException.ServiceUnavailableException;
@@ -117,7 +122,7 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   public void run() {
     if (!validLockParams()) {
       recordActionResult(ActionStatus.BAD_LOCK_INDEX);
-      requeueBatch();
+      requeueBatch(nullToEmpty(domains), nullToEmpty(hosts));
       return;
     }
     // If executeWithLocks fails to get the lock, it does not throw an exception, simply returns
@@ -141,13 +146,15 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
     return null;
   }
 
-  /** Adds all the domains and hosts in the batch back to the queue to be processed later. */
-  private void requeueBatch() {
-    logger.atInfo().log("Requeueing batch for retry");
-    for (String domain : nullToEmpty(domains)) {
+  /** Adds the given domains and hosts of the batch back to the queue to be processed later. */
+  private void requeueBatch(Set<String> domainsToRequeue, Set<String> hostsToRequeue) {
+    logger.atInfo().log(
+        "Requeueing %d domains and %d hosts for retry",
+        domainsToRequeue.size(), hostsToRequeue.size());
+    for (String domain : domainsToRequeue) {
       dnsQueue.addDomainRefreshTask(domain);
     }
-    for (String host : nullToEmpty(hosts)) {
+    for (String host : hostsToRequeue) {
       dnsQueue.addHostRefreshTask(host);
     }
   }
@@ -180,15 +187,25 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
     if (writer == null) {
       logger.atWarning().log("Couldn't get writer %s for TLD %s", dnsWriter, tld);
       recordActionResult(ActionStatus.BAD_WRITER);
-      requeueBatch();
+      requeueBatch(nullToEmpty(domains), nullToEmpty(hosts));
       return;
     }
 
+    if (writer instanceof BatchAwareDnsWriter) {
+      // Load everything the writer needs for the whole batch up front, instead of one name at a
+      // time as it's published.
+      ((BatchAwareDnsWriter) writer)
+          .setPrefetchedEntities(
+              PrefetchedDnsEntities.load(
+                  nullToEmpty(domains).stream().filter(this::isUnderTld).collect(toImmutableSet()),
+                  nullToEmpty(hosts).stream().filter(this::isUnderTld).collect(toImmutableSet()),
+                  clock.nowUtc()));
+    }
+
     int domainsPublished = 0;
     int domainsRejected = 0;
     for (String domain : nullToEmpty(domains)) {
-      if (!DomainNameUtils.isUnder(
-          InternetDomainName.from(domain), InternetDomainName.from(tld))) {
+      if (!isUnderTld(domain)) {
         logger.atSevere().log("%s: skipping domain %s not under tld", tld, domain);
         domainsRejected += 1;
       } else {
@@ -203,8 +220,7 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
     int hostsPublished = 0;
     int hostsRejected = 0;
     for (String host : nullToEmpty(hosts)) {
-      if (!DomainNameUtils.isUnder(
-          InternetDomainName.from(host), InternetDomainName.from(tld))) {
+      if (!isUnderTld(host)) {
         logger.atSevere().log("%s: skipping host %s not under tld", tld, host);
         hostsRejected += 1;
       } else {
@@ -220,14 +236,24 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
     // Next we will commit the batch.
     CommitStatus commitStatus = CommitStatus.FAILURE;
     ActionStatus actionStatus = ActionStatus.COMMIT_FAILURE;
+    int itemsFailed = domainsPublished + hostsPublished;
     try {
       writer.commit();
       // No error was thrown
       commitStatus = CommitStatus.SUCCESS;
       actionStatus = ActionStatus.SUCCESS;
+      itemsFailed = 0;
+    } catch (PartialCommitException e) {
+      // The rest of the batch was published, so only retry the part that failed rather than
+      // failing the whole task.
+      logger.atWarning().withCause(e).log("%s: partial commit failure", tld);
+      actionStatus = ActionStatus.PARTIAL_COMMIT_FAILURE;
+      itemsFailed = e.getFailedDomains().size() + e.getFailedHosts().size();
+      requeueBatch(e.getFailedDomains(), e.getFailedHosts());
     } finally {
       recordActionResult(actionStatus);
       Duration duration = new Duration(timeAtStart, clock.nowUtc());
+      recordPublishStats(domainsPublished + hostsPublished, itemsFailed, duration);
       dnsMetrics.recordCommit(
           dnsWriter,
           commitStatus,
@@ -247,4 +273,31 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
           hostsRejected);
     }
   }
+
+  /**
+   * Folds the outcome of this batch into the publishing stats that {@link ReadDnsQueueAction} uses
+   * to size and spread future batches.
+   */
+  private void recordPublishStats(int itemsPublished, int itemsFailed, Duration duration) {
+    if (itemsPublished == 0) {
+      return;
+    }
+    try {
+      DnsPublishStats.recordBatch(
+          tld,
+          dnsWriter,
+          lockIndex,
+          itemsPublished,
+          Math.min(itemsFailed, itemsPublished),
+          duration,
+          clock.nowUtc());
+    } catch (RuntimeException e) {
+      // The stats only tune future batches, so they aren't worth failing the publish over.
+      logger.atWarning().withCause(e).log("%s: couldn't record publish stats", tld);
+    }
+  }
+
+  private boolean isUnderTld(String name) {
+    return DomainNameUtils.isUnder(InternetDomainName.from(name), InternetDomainName.from(tld));
+  }
 }
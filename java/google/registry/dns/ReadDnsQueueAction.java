@@ -14,7 +14,9 @@
 
 package google.registry.dns;
 
-import static com.google.common.collect.ImmutableSetMultimap.toImmutableSetMultimap;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Sets.difference;
 import static google.registry.dns.DnsConstants.DNS_PUBLISH_PUSH_QUEUE_NAME;
 import static google.registry.dns.DnsConstants.DNS_TARGET_CREATE_TIME_PARAM;
@@ -37,16 +39,20 @@ import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.googlecode.objectify.Key;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsConstants.TargetType;
+import google.registry.model.dns.DnsPublishStats;
 import google.registry.model.registry.Registries;
 import google.registry.model.registry.Registry;
 import google.registry.request.Action;
@@ -61,6 +67,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.function.BinaryOperator;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -101,7 +108,14 @@ public final class ReadDnsQueueAction implements Runnable {
    */
   private static final Duration LEASE_PADDING = Duration.standardMinutes(1);
 
+  /** How old a writer's publishing stats can be before we stop basing its batches on them. */
+  private static final Duration MAX_STATS_AGE = Duration.standardDays(1);
+
+  /** The smallest batch we'll shrink a slow or failing writer's publish tasks to. */
+  private static final int MIN_BATCH_SIZE = 10;
+
   @Inject @Config("dnsTldUpdateBatchSize") int tldUpdateBatchSize;
+  @Inject @Config("dnsPublishTargetBatchDuration") Duration targetBatchDuration;
   @Inject @Config("readDnsQueueActionRuntime") Duration requestedMaximumDuration;
   @Inject @Named(DNS_PUBLISH_PUSH_QUEUE_NAME) Queue dnsPublishPushQueue;
   @Inject @Parameter(PARAM_JITTER_SECONDS) Optional<Integer> jitterSeconds;
@@ -312,29 +326,86 @@ public final class ReadDnsQueueAction implements Runnable {
    * <p>If the tld has numDnsPublishLocks <= 1, we enqueue all updates on the default lock 1 of 1.
    */
   private void bucketRefreshItems(ImmutableSetMultimap<String, RefreshItem> refreshItemsByTld) {
-    // Loop through the multimap by TLD and generate refresh tasks for the hosts and domains for
-    // each configured DNS writer.
+    ImmutableList.Builder<LockBucket> bucketsBuilder = new ImmutableList.Builder<>();
     for (Map.Entry<String, Collection<RefreshItem>> tldRefreshItemsEntry
         : refreshItemsByTld.asMap().entrySet()) {
       String tld = tldRefreshItemsEntry.getKey();
+      ImmutableList<RefreshItem> refreshItems = deduplicate(tldRefreshItemsEntry.getValue());
       int numPublishLocks = Registry.get(tld).getNumDnsPublishLocks();
       // 1 lock or less implies no TLD-wide locks, simply enqueue everything under lock 1 of 1
       if (numPublishLocks <= 1) {
-        enqueueUpdates(tld, 1, 1, tldRefreshItemsEntry.getValue());
+        bucketsBuilder.add(LockBucket.create(tld, 1, 1, refreshItems));
       } else {
-        tldRefreshItemsEntry
-            .getValue()
+        refreshItems
             .stream()
             .collect(
-                toImmutableSetMultimap(
+                toImmutableListMultimap(
                     refreshItem -> getLockIndex(tld, numPublishLocks, refreshItem),
                     refreshItem -> refreshItem))
             .asMap()
-            .entrySet()
             .forEach(
-                entry -> enqueueUpdates(tld, entry.getKey(), numPublishLocks, entry.getValue()));
+                (lockIndex, lockItems) ->
+                    bucketsBuilder.add(
+                        LockBucket.create(
+                            tld, lockIndex, numPublishLocks, ImmutableList.copyOf(lockItems))));
       }
     }
+    ImmutableList<LockBucket> buckets = bucketsBuilder.build();
+    // Load the recent publishing stats of every writer and lock we're about to enqueue tasks for in
+    // one go, rather than once per bucket.
+    ImmutableMap<Key<DnsPublishStats>, DnsPublishStats> publishStats =
+        DnsPublishStats.load(
+            buckets
+                .stream()
+                .flatMap(
+                    bucket ->
+                        Registry.get(bucket.tld())
+                            .getDnsWriters()
+                            .stream()
+                            .map(
+                                dnsWriter ->
+                                    DnsPublishStats.createKey(
+                                        bucket.tld(), dnsWriter, bucket.lockIndex())))
+                .collect(toImmutableSet()));
+    buckets.forEach(bucket -> enqueueUpdates(bucket, publishStats));
+  }
+
+  /** The refresh items of a TLD that share a publish lock. */
+  @AutoValue
+  abstract static class LockBucket {
+    static LockBucket create(
+        String tld, int lockIndex, int numPublishLocks, ImmutableList<RefreshItem> items) {
+      return new AutoValue_ReadDnsQueueAction_LockBucket(tld, lockIndex, numPublishLocks, items);
+    }
+
+    abstract String tld();
+
+    abstract int lockIndex();
+
+    abstract int numPublishLocks();
+
+    abstract ImmutableList<RefreshItem> items();
+  }
+
+  /**
+   * Drops repeated refreshes of the same name, keeping only the earliest one.
+   *
+   * <p>A busy name can be refreshed many times between two reads of the queue, but publishing it
+   * once is enough. Keeping the earliest request makes sure the reported end-to-end latency still
+   * covers the oldest refresh we are fulfilling.
+   */
+  private static ImmutableList<RefreshItem> deduplicate(Collection<RefreshItem> refreshItems) {
+    return refreshItems
+        .stream()
+        .collect(
+            Collectors.toMap(
+                refreshItem -> Maps.immutableEntry(refreshItem.type(), refreshItem.name()),
+                refreshItem -> refreshItem,
+                BinaryOperator.minBy(Comparator.comparing(RefreshItem::creationTime))))
+        .values()
+        .stream()
+        .sorted()
+        .collect(toImmutableList());
   }
 
   /**
@@ -350,27 +421,70 @@ public final class ReadDnsQueueAction implements Runnable {
     return Hashing.consistentHash(hashFunction.hashString(domain, UTF_8), numPublishLocks) + 1;
   }
 
+  /**
+   * Returns the recent publishing stats of a writer for a lock, if there are any and they are
+   * fresh enough to go by.
+   */
+  private Optional<DnsPublishStats> getPublishStats(
+      ImmutableMap<Key<DnsPublishStats>, DnsPublishStats> publishStats,
+      String tld,
+      String dnsWriter,
+      int lockIndex) {
+    return Optional.ofNullable(
+            publishStats.get(DnsPublishStats.createKey(tld, dnsWriter, lockIndex)))
+        .filter(stats -> stats.getLastUpdateTime().isAfter(clock.nowUtc().minus(MAX_STATS_AGE)));
+  }
+
+  /**
+   * Returns how many items to put in each publish task of a writer with the given stats.
+   *
+   * <p>Batches are sized to take about {@link #targetBatchDuration} at the writer's recent speed,
+   * and shrink further as its failure rate grows so that each failure affects fewer names. They are
+   * never larger than {@link #tldUpdateBatchSize}.
+   */
+  private int getBatchSize(DnsPublishStats stats) {
+    double batchSize =
+        (stats.getAverageMillisPerItem() > 0)
+            ? Math.min(
+                targetBatchDuration.getMillis() / stats.getAverageMillisPerItem(),
+                tldUpdateBatchSize)
+            : tldUpdateBatchSize;
+    batchSize *= 1 - stats.getFailureRate();
+    return Math.max(Math.min(MIN_BATCH_SIZE, tldUpdateBatchSize), (int) batchSize);
+  }
+
   /**
    * Creates DNS refresh tasks for all writers for the tld within a lock index and batches large
    * updates into smaller chunks.
+   *
+   * <p>Chunks are sized separately for each writer based on its recent publishing stats. Since the
+   * tasks of a lock can only run one at a time, each task is also delayed by how long the tasks
+   * before it on the same lock are expected to take, so that they don't all contend for the lock at
+   * once.
    */
   private void enqueueUpdates(
-      String tld, int lockIndex, int numPublishLocks, Collection<RefreshItem> items) {
-    for (List<RefreshItem> chunk : Iterables.partition(items, tldUpdateBatchSize)) {
-      DateTime earliestCreateTime =
-          chunk.stream().map(RefreshItem::creationTime).min(Comparator.naturalOrder()).get();
-      for (String dnsWriter : Registry.get(tld).getDnsWriters()) {
+      LockBucket bucket, ImmutableMap<Key<DnsPublishStats>, DnsPublishStats> publishStats) {
+    String tld = bucket.tld();
+    Duration expectedLockWait = Duration.ZERO;
+    for (String dnsWriter : Registry.get(tld).getDnsWriters()) {
+      Optional<DnsPublishStats> writerStats =
+          getPublishStats(publishStats, tld, dnsWriter, bucket.lockIndex());
+      int batchSize = writerStats.map(this::getBatchSize).orElse(tldUpdateBatchSize);
+      for (List<RefreshItem> chunk : Iterables.partition(bucket.items(), batchSize)) {
+        DateTime earliestCreateTime =
+            chunk.stream().map(RefreshItem::creationTime).min(Comparator.naturalOrder()).get();
         taskQueueUtils.enqueue(
             dnsPublishPushQueue,
             TaskOptions.Builder.withUrl(PublishDnsUpdatesAction.PATH)
                 .countdownMillis(
-                    jitterSeconds
-                        .map(seconds -> random.nextInt((int) SECONDS.toMillis(seconds)))
-                        .orElse(0))
+                    expectedLockWait.getMillis()
+                        + jitterSeconds
+                            .map(seconds -> random.nextInt((int) SECONDS.toMillis(seconds)))
+                            .orElse(0))
                 .param(PARAM_TLD, tld)
                 .param(PARAM_DNS_WRITER, dnsWriter)
-                .param(PARAM_LOCK_INDEX, Integer.toString(lockIndex))
-                .param(PARAM_NUM_PUBLISH_LOCKS, Integer.toString(numPublishLocks))
+                .param(PARAM_LOCK_INDEX, Integer.toString(bucket.lockIndex()))
+                .param(PARAM_NUM_PUBLISH_LOCKS, Integer.toString(bucket.numPublishLocks()))
                 .param(PARAM_PUBLISH_TASK_ENQUEUED, clock.nowUtc().toString())
                 .param(PARAM_REFRESH_REQUEST_CREATED, earliestCreateTime.toString())
                 .param(
@@ -387,6 +501,15 @@ public final class ReadDnsQueueAction implements Runnable {
                         .filter(item -> item.type() == TargetType.HOST)
                         .map(RefreshItem::name)
                         .collect(Collectors.joining(","))));
+        if (writerStats.isPresent()) {
+          // Don't push tasks out further than the next read of the queue, by which time the
+          // picture will have changed anyway.
+          expectedLockWait =
+              Ordering.natural()
+                  .min(
+                      expectedLockWait.plus(writerStats.get().getExpectedDuration(chunk.size())),
+                      requestedMaximumDuration);
+        }
       }
     }
   }
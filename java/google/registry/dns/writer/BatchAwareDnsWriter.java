@@ -0,0 +1,31 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer;
+
+/**
+ * A {@link DnsWriter} that can use domains and hosts loaded up front for its whole batch.
+ *
+ * <p>If {@link #setPrefetchedEntities} is never called, the writer must still work, loading the
+ * entities it needs one name at a time.
+ */
+public interface BatchAwareDnsWriter extends DnsWriter {
+
+  /**
+   * Supplies the entities prefetched for the batch.
+   *
+   * <p>This is called at most once, before any of the publish methods.
+   */
+  void setPrefetchedEntities(PrefetchedDnsEntities prefetchedEntities);
+}
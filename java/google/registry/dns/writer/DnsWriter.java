@@ -73,6 +73,10 @@ public interface DnsWriter {
    *   // ... actual commit implementation
    * }
    * </pre>
+   *
+   * <p>Implementations that have to split the updates into several independent requests may
+   * publish only some of them. They should then throw a {@link PartialCommitException} naming the
+   * domains and hosts that weren't published, so that only those are retried.
    */
   void commit();
 }
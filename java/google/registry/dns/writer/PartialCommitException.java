@@ -0,0 +1,48 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Thrown by {@link DnsWriter#commit} when only some of the staged updates were published.
+ *
+ * <p>This lets the caller retry just the names whose updates failed, rather than the whole batch.
+ */
+public class PartialCommitException extends RuntimeException {
+
+  private final ImmutableSet<String> failedDomains;
+  private final ImmutableSet<String> failedHosts;
+
+  public PartialCommitException(
+      String message,
+      ImmutableSet<String> failedDomains,
+      ImmutableSet<String> failedHosts,
+      Throwable cause) {
+    super(message, cause);
+    this.failedDomains = failedDomains;
+    this.failedHosts = failedHosts;
+  }
+
+  /** Returns the names passed to {@link DnsWriter#publishDomain} that weren't published. */
+  public ImmutableSet<String> getFailedDomains() {
+    return failedDomains;
+  }
+
+  /** Returns the names passed to {@link DnsWriter#publishHost} that weren't published. */
+  public ImmutableSet<String> getFailedHosts() {
+    return failedHosts;
+  }
+}
@@ -0,0 +1,194 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer;
+
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.collect.ImmutableSortedSet.toImmutableSortedSet;
+import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.isAtOrAfter;
+import static google.registry.util.DateTimeUtils.latestOf;
+import static google.registry.util.DomainNameUtils.getSecondLevelDomain;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import com.google.common.net.InternetDomainName;
+import com.googlecode.objectify.Key;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.registry.Registries;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+
+/**
+ * Domains and their nameserver hosts, loaded for a whole batch of DNS publishes at once.
+ *
+ * <p>Without this, a {@link DnsWriter} loads the domain and its hosts separately for every name it
+ * publishes, so staging a batch takes time proportional to its size times the Datastore round trip.
+ * {@link #load} instead resolves the foreign keys, the domains and their nameserver hosts for the
+ * whole batch in three multi-gets.
+ *
+ * <p>Anything that wasn't prefetched is loaded individually on demand, so writers can use the same
+ * code whether or not a prefetch was done.
+ */
+public final class PrefetchedDnsEntities {
+
+  private static final PrefetchedDnsEntities EMPTY =
+      new PrefetchedDnsEntities(ImmutableSet.of(), ImmutableMap.of(), ImmutableMap.of());
+
+  /** Names of all domains looked up, including ones that turned out not to exist. */
+  private final ImmutableSet<String> prefetchedDomainNames;
+
+  private final ImmutableMap<String, DomainResource> domainsByName;
+  private final ImmutableMap<Key<HostResource>, HostResource> hostsByKey;
+  private final ImmutableMap<String, HostResource> hostsByName;
+
+  private PrefetchedDnsEntities(
+      ImmutableSet<String> prefetchedDomainNames,
+      ImmutableMap<String, DomainResource> domainsByName,
+      ImmutableMap<Key<HostResource>, HostResource> hostsByKey) {
+    this.prefetchedDomainNames = prefetchedDomainNames;
+    this.domainsByName = domainsByName;
+    this.hostsByKey = hostsByKey;
+    this.hostsByName =
+        hostsByKey
+            .values()
+            .stream()
+            .collect(
+                toImmutableMap(
+                    HostResource::getFullyQualifiedHostName,
+                    host -> host,
+                    // If a name was reused, the most recently created host is the current one.
+                    (host1, host2) ->
+                        host1.getCreationTime().isAfter(host2.getCreationTime()) ? host1 : host2));
+  }
+
+  /** Returns an instance with nothing prefetched, which loads everything on demand. */
+  public static PrefetchedDnsEntities empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Prefetches the given domains, the superordinate domains of the given hosts, and the
+   * nameservers of all of those domains.
+   */
+  public static PrefetchedDnsEntities load(
+      Set<String> domainNames, Set<String> hostNames, DateTime now) {
+    ImmutableSet<String> allDomainNames =
+        Stream.concat(
+                domainNames.stream(),
+                hostNames
+                    .stream()
+                    .map(PrefetchedDnsEntities::getSuperordinateDomainName)
+                    .filter(Optional::isPresent)
+                    .map(Optional::get))
+            .collect(toImmutableSet());
+    Map<String, ForeignKeyIndex<DomainResource>> fkis =
+        ForeignKeyIndex.load(DomainResource.class, allDomainNames, now);
+    Map<Key<DomainResource>, DomainResource> domains =
+        ofy()
+            .load()
+            .keys(
+                fkis.values()
+                    .stream()
+                    .map(ForeignKeyIndex::getResourceKey)
+                    // The resource key might be null for hard-deleted prober data.
+                    .filter(Objects::nonNull)
+                    .collect(toImmutableSet()));
+    ImmutableMap.Builder<String, DomainResource> domainsByName = new ImmutableMap.Builder<>();
+    for (Map.Entry<String, ForeignKeyIndex<DomainResource>> entry : fkis.entrySet()) {
+      DomainResource domain = domains.get(entry.getValue().getResourceKey());
+      if (domain != null) {
+        domainsByName.put(entry.getKey(), domain);
+      }
+    }
+    Map<Key<HostResource>, HostResource> hosts =
+        ofy()
+            .load()
+            .keys(
+                domains
+                    .values()
+                    .stream()
+                    .flatMap(domain -> domain.getNameservers().stream())
+                    .collect(toImmutableSet()));
+    return new PrefetchedDnsEntities(
+        allDomainNames, domainsByName.build(), ImmutableMap.copyOf(hosts));
+  }
+
+  /**
+   * Returns the domain with the given name as of {@code now}, or null if it doesn't exist.
+   *
+   * @see google.registry.model.EppResourceUtils#loadByForeignKey
+   */
+  @Nullable
+  public DomainResource loadDomain(String domainName, DateTime now) {
+    if (!prefetchedDomainNames.contains(domainName)) {
+      return loadByForeignKey(DomainResource.class, domainName, now);
+    }
+    DomainResource domain = domainsByName.get(domainName);
+    if (domain == null || isAtOrAfter(now, domain.getDeletionTime())) {
+      return null;
+    }
+    return domain.cloneProjectedAtTime(
+        latestOf(now, domain.getUpdateAutoTimestamp().getTimestamp()));
+  }
+
+  /**
+   * Returns the host with the given name as of {@code now}, or null if it doesn't exist.
+   *
+   * @see google.registry.model.EppResourceUtils#loadByForeignKey
+   */
+  @Nullable
+  public HostResource loadHost(String hostName, DateTime now) {
+    HostResource host = hostsByName.get(hostName);
+    if (host == null || isAtOrAfter(now, host.getDeletionTime())) {
+      return loadByForeignKey(HostResource.class, hostName, now);
+    }
+    return host.cloneProjectedAtTime(latestOf(now, host.getUpdateAutoTimestamp().getTimestamp()));
+  }
+
+  /**
+   * Returns the fully qualified host names of the domain's nameservers.
+   *
+   * @see DomainResource#loadNameserverFullyQualifiedHostNames
+   */
+  public ImmutableSortedSet<String> loadNameserverHostNames(DomainResource domain) {
+    if (!hostsByKey.keySet().containsAll(domain.getNameservers())) {
+      return domain.loadNameserverFullyQualifiedHostNames();
+    }
+    return domain
+        .getNameservers()
+        .stream()
+        .map(hostKey -> hostsByKey.get(hostKey).getFullyQualifiedHostName())
+        .collect(toImmutableSortedSet(Ordering.natural()));
+  }
+
+  /**
+   * Returns the name of the domain that a host is subordinate to, if it's under one of our TLDs.
+   */
+  private static Optional<String> getSuperordinateDomainName(String hostName) {
+    return Registries.findTldForName(InternetDomainName.from(hostName))
+        .map(tld -> getSecondLevelDomain(hostName, tld.toString()));
+  }
+}
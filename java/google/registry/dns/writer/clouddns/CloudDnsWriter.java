@@ -16,8 +16,9 @@ package google.registry.dns.writer.clouddns;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
-import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.util.DomainNameUtils.getSecondLevelDomain;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 
 import com.google.api.client.googleapis.json.GoogleJsonError.ErrorInfo;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
@@ -34,8 +35,11 @@ import com.google.common.net.InternetDomainName;
 import com.google.common.util.concurrent.RateLimiter;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.writer.BaseDnsWriter;
+import google.registry.dns.writer.BatchAwareDnsWriter;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.dns.writer.DnsWriterZone;
+import google.registry.dns.writer.PartialCommitException;
+import google.registry.dns.writer.PrefetchedDnsEntities;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
@@ -54,6 +58,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -64,7 +69,7 @@ import org.joda.time.Duration;
  *
  * @see <a href="https://cloud.google.com/dns/docs/">Google Cloud DNS Documentation</a>
  */
-public class CloudDnsWriter extends BaseDnsWriter {
+public class CloudDnsWriter extends BaseDnsWriter implements BatchAwareDnsWriter {
 
   /**
    * The name of the dns writer, as used in {@code Registry.dnsWriter}. Remember to change the value
@@ -76,9 +81,26 @@ public class CloudDnsWriter extends BaseDnsWriter {
   private static final ImmutableSet<String> RETRYABLE_EXCEPTION_REASONS =
       ImmutableSet.of("preconditionFailed", "notFound", "alreadyExists");
 
+  /**
+   * The most record sets this writer manages for a single name.
+   *
+   * <p>Domains only get NS and DS records, and hosts only get A and AAAA records.
+   */
+  private static final int MAX_RECORD_SETS_PER_NAME = 2;
+
+  /**
+   * The most changes of a single commit that are read and written at the same time.
+   *
+   * <p>The {@code numThreads} threads used to read records are divided among them, so a large
+   * commit doesn't use many more threads than a small one. All requests share the same rate
+   * limiter either way.
+   */
+  private static final int MAX_CONCURRENT_CHANGES = 5;
+
   private final Clock clock;
   private final RateLimiter rateLimiter;
   private final int numThreads;
+  private final int maxRecordSetsPerChange;
   // TODO(shikhman): This uses @Named("transientFailureRetries") which may not be tuned for this
   // application.
   private final Retrier retrier;
@@ -89,6 +111,9 @@ public class CloudDnsWriter extends BaseDnsWriter {
   private final String zoneName;
   private final Dns dnsConnection;
   private final HashMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords = new HashMap<>();
+  /** The absolute name of the superordinate domain of each glue host in {@link #desiredRecords}. */
+  private final HashMap<String, String> superordinateDomains = new HashMap<>();
+  private PrefetchedDnsEntities prefetchedEntities = PrefetchedDnsEntities.empty();
 
   @Inject
   CloudDnsWriter(
@@ -100,6 +125,7 @@ public class CloudDnsWriter extends BaseDnsWriter {
       @Config("dnsDefaultDsTtl") Duration defaultDsTtl,
       @Named("cloudDns") RateLimiter rateLimiter,
       @Named("cloudDnsNumThreads") int numThreads,
+      @Named("cloudDnsMaxRecordSetsPerChange") int maxRecordSetsPerChange,
       Clock clock,
       Retrier retrier) {
     this.dnsConnection = dnsConnection;
@@ -112,6 +138,12 @@ public class CloudDnsWriter extends BaseDnsWriter {
     this.clock = clock;
     this.retrier = retrier;
     this.numThreads = numThreads;
+    this.maxRecordSetsPerChange = maxRecordSetsPerChange;
+  }
+
+  @Override
+  public void setPrefetchedEntities(PrefetchedDnsEntities prefetchedEntities) {
+    this.prefetchedEntities = prefetchedEntities;
   }
 
   /** Publish the domain and all subordinate hosts. */
@@ -122,7 +154,7 @@ public class CloudDnsWriter extends BaseDnsWriter {
 
     // Load the target domain. Note that it can be null if this domain was just deleted.
     Optional<DomainResource> domainResource =
-        Optional.ofNullable(loadByForeignKey(DomainResource.class, domainName, clock.nowUtc()));
+        Optional.ofNullable(prefetchedEntities.loadDomain(domainName, clock.nowUtc()));
 
     // Return early if no DNS records should be published.
     // desiredRecordsBuilder is populated with an empty set to indicate that all existing records
@@ -154,7 +186,7 @@ public class CloudDnsWriter extends BaseDnsWriter {
     }
 
     // Construct NS records (if any).
-    Set<String> nameserverData = domainResource.get().loadNameserverFullyQualifiedHostNames();
+    Set<String> nameserverData = prefetchedEntities.loadNameserverHostNames(domainResource.get());
     Set<String> subordinateHosts = domainResource.get().getSubordinateHosts();
     if (!nameserverData.isEmpty()) {
       HashSet<String> nsRrData = new HashSet<>();
@@ -164,6 +196,7 @@ public class CloudDnsWriter extends BaseDnsWriter {
         // Construct glue records for subordinate NS hostnames (if any)
         if (subordinateHosts.contains(hostName)) {
           publishSubordinateHost(hostName);
+          superordinateDomains.put(getAbsoluteHostName(hostName), absoluteDomainName);
         }
       }
 
@@ -192,7 +225,7 @@ public class CloudDnsWriter extends BaseDnsWriter {
     // desiredRecords is populated with an empty set to indicate that all existing records
     // should be deleted.
     Optional<HostResource> host =
-        Optional.ofNullable(loadByForeignKey(HostResource.class, hostName, clock.nowUtc()));
+        Optional.ofNullable(prefetchedEntities.loadHost(hostName, clock.nowUtc()));
 
     // Return early if the host is deleted.
     if (!host.isPresent()) {
@@ -265,16 +298,113 @@ public class CloudDnsWriter extends BaseDnsWriter {
    *
    * <p>The zone for the TLD must exist first in Cloud DNS and must be DNSSEC enabled.
    *
-   * <p>The relevant resource records (including those of all subordinate hosts) will be retrieved
-   * and the operation will be retried until the state of the retrieved zone data matches the
-   * representation built via this writer.
+   * <p>Large commits are split into several independent changes, each covering whole domains
+   * together with their glue. For each change, the relevant resource records (including those of
+   * all subordinate hosts) will be retrieved and the operation will be retried until the state of
+   * the retrieved zone data matches the representation built via this writer. A conflict thus only
+   * causes the names in the affected change to be read again. Since changes don't share any names,
+   * up to {@link #MAX_CONCURRENT_CHANGES} of them are applied at the same time.
+   *
+   * <p>If every change fails, the first failure is rethrown. If only some do, a {@link
+   * PartialCommitException} naming the domains of the failed changes is thrown instead, so that
+   * the rest of the commit isn't published again.
    */
   @Override
   protected void commitUnchecked() {
-    ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecordsCopy =
-        ImmutableMap.copyOf(desiredRecords);
-    retrier.callWithRetry(() -> mutateZone(desiredRecordsCopy), ZoneStateException.class);
-    logger.atInfo().log("Wrote to Cloud DNS");
+    ImmutableList<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> changes =
+        splitIntoChanges();
+    int changeThreads = Math.max(1, Math.min(changes.size(), MAX_CONCURRENT_CHANGES));
+    int readThreads = Math.max(1, numThreads / changeThreads);
+    // As per Concurrent.transform() - if changeThreads < 2, the changes are applied one by one.
+    ImmutableList<Optional<RuntimeException>> failures =
+        Concurrent.transform(
+            changes,
+            changeThreads,
+            change -> {
+              try {
+                retrier.callWithRetry(
+                    () -> mutateZone(change, readThreads), ZoneStateException.class);
+                return Optional.empty();
+              } catch (RuntimeException e) {
+                logger.atWarning().withCause(e).log(
+                    "Failed to write %d names to Cloud DNS", change.size());
+                return Optional.of(e);
+              }
+            });
+    ImmutableSet.Builder<String> failedDomains = new ImmutableSet.Builder<>();
+    int numFailedChanges = 0;
+    RuntimeException firstFailure = null;
+    for (int i = 0; i < changes.size(); i++) {
+      if (!failures.get(i).isPresent()) {
+        continue;
+      }
+      numFailedChanges++;
+      firstFailure = (firstFailure == null) ? failures.get(i).get() : firstFailure;
+      changes
+          .get(i)
+          .keySet()
+          .stream()
+          .filter(name -> !superordinateDomains.containsKey(name))
+          .map(name -> name.substring(0, name.length() - 1))
+          .forEach(failedDomains::add);
+    }
+    if (firstFailure == null) {
+      logger.atInfo().log("Wrote to Cloud DNS in %d changes", changes.size());
+      return;
+    }
+    if (numFailedChanges == changes.size()) {
+      throw firstFailure;
+    }
+    // Failed glue hosts are republished along with their superordinate domains.
+    ImmutableSet<String> failed = failedDomains.build();
+    throw new PartialCommitException(
+        String.format("Failed to write %d domains to Cloud DNS", failed.size()),
+        failed,
+        ImmutableSet.of(),
+        firstFailure);
+  }
+
+  /**
+   * Splits the desired records into groups small enough to be written in one change each.
+   *
+   * <p>A domain and its glue hosts are always kept in the same group, since their records are read
+   * and replaced together. Each name can have at most {@link #MAX_RECORD_SETS_PER_NAME} record sets
+   * both added and deleted, so a group of up to {@code maxRecordSetsPerChange /
+   * MAX_RECORD_SETS_PER_NAME} names is guaranteed to fit in one change, apart from stale glue of
+   * nameservers that were removed.
+   */
+  private ImmutableList<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> splitIntoChanges() {
+    int maxNamesPerChange = Math.max(1, maxRecordSetsPerChange / MAX_RECORD_SETS_PER_NAME);
+    Map<String, List<String>> namesByDomain =
+        desiredRecords
+            .keySet()
+            .stream()
+            .sorted()
+            .collect(
+                groupingBy(
+                    name -> superordinateDomains.getOrDefault(name, name),
+                    TreeMap::new,
+                    toList()));
+    ImmutableList.Builder<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> changes =
+        new ImmutableList.Builder<>();
+    ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>> change =
+        new ImmutableMap.Builder<>();
+    int namesInChange = 0;
+    for (List<String> names : namesByDomain.values()) {
+      if (namesInChange > 0 && namesInChange + names.size() > maxNamesPerChange) {
+        changes.add(change.build());
+        change = new ImmutableMap.Builder<>();
+        namesInChange = 0;
+      }
+      for (String name : names) {
+        change.put(name, desiredRecords.get(name));
+      }
+      namesInChange += names.size();
+    }
+    if (namesInChange > 0) {
+      changes.add(change.build());
+    }
+    return changes.build();
   }
 
   /** Returns the glue records for in-bailiwick nameservers for the given domain+records. */
@@ -285,15 +415,19 @@ public class CloudDnsWriter extends BaseDnsWriter {
         .filter(hostName -> hostName.endsWith("." + domainName) && !hostName.equals(domainName));
   }
 
-  /** Mutate the zone with the provided {@code desiredRecords}. */
+  /**
+   * Mutate the zone with the provided {@code desiredRecords}, reading the existing records with up
+   * to {@code readThreads} threads.
+   */
   @VisibleForTesting
-  void mutateZone(ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords) {
+  void mutateZone(
+      ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords, int readThreads) {
     // Fetch all existing records for names that this writer is trying to modify
     ImmutableSet.Builder<ResourceRecordSet> flattenedExistingRecords = new ImmutableSet.Builder<>();
 
     // First, fetch the records for the given domains
     Map<String, List<ResourceRecordSet>> domainRecords =
-        getResourceRecordsForDomains(desiredRecords.keySet());
+        getResourceRecordsForDomains(desiredRecords.keySet(), readThreads);
 
     // add the records to the list of existing records
     domainRecords.values().forEach(flattenedExistingRecords::addAll);
@@ -307,7 +441,9 @@ public class CloudDnsWriter extends BaseDnsWriter {
             .collect(toImmutableSet());
 
     // Then fetch and add the records for these hosts
-    getResourceRecordsForDomains(hostsToRead).values().forEach(flattenedExistingRecords::addAll);
+    getResourceRecordsForDomains(hostsToRead, readThreads)
+        .values()
+        .forEach(flattenedExistingRecords::addAll);
 
     // Flatten the desired records into one set.
     ImmutableSet.Builder<ResourceRecordSet> flattenedDesiredRecords = new ImmutableSet.Builder<>();
@@ -323,14 +459,14 @@ public class CloudDnsWriter extends BaseDnsWriter {
    * <p>The provided domain should be in absolute form.
    */
   private Map<String, List<ResourceRecordSet>> getResourceRecordsForDomains(
-      Set<String> domainNames) {
+      Set<String> domainNames, int readThreads) {
     logger.atFine().log("Fetching records for %s", domainNames);
-    // As per Concurrent.transform() - if numThreads or domainNames.size() < 2, it will not use
+    // As per Concurrent.transform() - if readThreads or domainNames.size() < 2, it will not use
     // threading.
     return ImmutableMap.copyOf(
         Concurrent.transform(
             domainNames,
-            numThreads,
+            readThreads,
             domainName ->
                 new SimpleImmutableEntry<>(domainName, getResourceRecordsForDomain(domainName))));
   }
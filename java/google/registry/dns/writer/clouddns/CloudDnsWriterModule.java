@@ -80,5 +80,13 @@ public abstract class CloudDnsWriterModule {
     return 10;
   }
 
+  @Provides
+  @Named("cloudDnsMaxRecordSetsPerChange")
+  static int provideMaxRecordSetsPerChange() {
+    // This is the default max number of record sets that can be added, and separately deleted, in
+    // a single change. Larger commits are split into several changes to stay under it.
+    return 100;
+  }
+
   private CloudDnsWriterModule() {}
 }
@@ -18,17 +18,27 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verify;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
 import com.google.common.primitives.Ints;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.dns.writer.dnsupdate.DnsMessageTransportMetrics.BatchStatus;
+import google.registry.dns.writer.dnsupdate.DnsMessageTransportMetrics.ConnectionReason;
+import google.registry.util.Clock;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import javax.net.SocketFactory;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Opcode;
@@ -38,8 +48,15 @@ import org.xbill.DNS.Opcode;
  * s and the message framing defined in <a href="https://tools.ietf.org/html/rfc1035">RFC 1035</a>.
  * We would like use the dnsjava library's {@link org.xbill.DNS.SimpleResolver} class for this, but
  * it requires {@link java.nio.channels.SocketChannel} which is not supported on AppEngine.
+ *
+ * <p>A single connection is opened lazily and kept open across calls to {@link #send} and {@link
+ * #sendAll} until {@link #close} is called. Within a batch, up to {@link #MAX_PIPELINED_MESSAGES}
+ * messages are written before their responses are read, and responses are matched to their queries
+ * by message ID, so the server may answer them in any order.
  */
-public class DnsMessageTransport {
+public class DnsMessageTransport implements Closeable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   /**
    * Size of message length field for DNS TCP transport.
@@ -47,7 +64,7 @@ public class DnsMessageTransport {
    * @see <a href="https://tools.ietf.org/html/rfc1035">RFC 1035</a>
    */
   static final int MESSAGE_LENGTH_FIELD_BYTES = 2;
-  private static final int MESSAGE_MAXIMUM_LENGTH = (1 << (MESSAGE_LENGTH_FIELD_BYTES * 8)) - 1;
+  static final int MESSAGE_MAXIMUM_LENGTH = (1 << (MESSAGE_LENGTH_FIELD_BYTES * 8)) - 1;
 
   /**
    * The standard DNS port number.
@@ -56,9 +73,27 @@ public class DnsMessageTransport {
    */
   @VisibleForTesting static final int DNS_PORT = 53;
 
+  /**
+   * Maximum number of messages sent on the connection without having received their responses.
+   *
+   * <p>This bounds how much the server has to buffer, and keeps us from blocking on a write while
+   * the server is itself blocked writing responses that we aren't reading yet.
+   */
+  @VisibleForTesting static final int MAX_PIPELINED_MESSAGES = 16;
+
+  @VisibleForTesting
+  static DnsMessageTransportMetrics transportMetrics = new DnsMessageTransportMetrics();
+
   private final SocketFactory factory;
   private final String updateHost;
+  private final int updatePort;
   private final int updateTimeout;
+  private final Clock clock;
+
+  private Socket socket;
+  private DataInputStream inputStream;
+  private DataOutputStream outputStream;
+  private boolean hasConnected = false;
 
   /**
    * Class constructor.
@@ -66,15 +101,29 @@ public class DnsMessageTransport {
    * @param factory a factory for TCP sockets
    * @param updateHost host name of the DNS server
    * @param updateTimeout update I/O timeout
+   * @param clock a source of time, used to measure batch latency
    */
   @Inject
   public DnsMessageTransport(
       SocketFactory factory,
       @Config("dnsUpdateHost") String updateHost,
-      @Config("dnsUpdateTimeout") Duration updateTimeout) {
+      @Config("dnsUpdateTimeout") Duration updateTimeout,
+      Clock clock) {
+    this(factory, updateHost, DNS_PORT, updateTimeout, clock);
+  }
+
+  @VisibleForTesting
+  DnsMessageTransport(
+      SocketFactory factory,
+      String updateHost,
+      int updatePort,
+      Duration updateTimeout,
+      Clock clock) {
     this.factory = factory;
     this.updateHost = updateHost;
+    this.updatePort = updatePort;
     this.updateTimeout = Ints.checkedCast(updateTimeout.getMillis());
+    this.clock = clock;
   }
 
   /**
@@ -87,21 +136,147 @@ public class DnsMessageTransport {
    * @throws IllegalArgumentException if the query is too large to be sent (> 65535 bytes)
    */
   public Message send(Message query) throws IOException {
-    try (Socket socket = factory.createSocket(InetAddress.getByName(updateHost), DNS_PORT)) {
-      socket.setSoTimeout(updateTimeout);
-      writeMessage(socket.getOutputStream(), query);
-      Message response = readMessage(socket.getInputStream());
-      checkValidResponse(query, response);
-      return response;
+    return sendAll(ImmutableList.of(query)).get(0);
+  }
+
+  /**
+   * Sends a batch of DNS "query" messages pipelined on one connection, and returns the responses in
+   * the same order as the queries. Each response is checked for matching ID and opcode.
+   *
+   * <p>If the batch fails with an I/O error on a connection left over from an earlier batch (which
+   * the server may have closed in the meantime), the queries that weren't answered yet are resent
+   * once on a new connection.
+   *
+   * @throws IOException if the Socket input/output streams throws one
+   * @throws IllegalArgumentException if any query is too large to be sent (> 65535 bytes), in which
+   *     case nothing is sent
+   */
+  public ImmutableList<Message> sendAll(List<Message> queries) throws IOException {
+    ImmutableList.Builder<byte[]> wireQueries = new ImmutableList.Builder<>();
+    for (Message query : queries) {
+      byte[] messageData = query.toWire();
+      checkArgument(
+          messageData.length <= MESSAGE_MAXIMUM_LENGTH,
+          "DNS request message larger than maximum of %s: %s",
+          MESSAGE_MAXIMUM_LENGTH,
+          messageData.length);
+      wireQueries.add(messageData);
+    }
+    DateTime startTime = clock.nowUtc();
+    BatchStatus status = BatchStatus.FAILURE;
+    Message[] responses = new Message[queries.size()];
+    try {
+      boolean connectionReused = (socket != null);
+      try {
+        sendPipelined(queries, wireQueries.build(), responses);
+      } catch (IOException e) {
+        if (!connectionReused) {
+          throw e;
+        }
+        logger.atInfo().withCause(e).log(
+            "Reused connection to %s failed; reconnecting to resend unanswered messages",
+            updateHost);
+        sendPipelined(queries, wireQueries.build(), responses);
+      }
+      status = BatchStatus.SUCCESS;
+      return ImmutableList.copyOf(responses);
+    } finally {
+      transportMetrics.recordBatch(
+          status, queries.size(), new Duration(startTime, clock.nowUtc()));
     }
   }
 
-  private void checkValidResponse(Message query, Message response) {
+  /** Closes the connection to the DNS server, if one is open. */
+  @Override
+  public void close() throws IOException {
+    if (socket != null) {
+      Socket oldSocket = socket;
+      socket = null;
+      inputStream = null;
+      outputStream = null;
+      oldSocket.close();
+    }
+  }
+
+  /**
+   * Sends every query that doesn't have a response yet, filling in {@code responses} as they
+   * arrive. The connection is closed if anything goes wrong, since its framing may be out of sync.
+   */
+  private void sendPipelined(List<Message> queries, List<byte[]> wireQueries, Message[] responses)
+      throws IOException {
+    boolean succeeded = false;
+    try {
+      connectIfNeeded();
+      // Map of message ID to the index of the query with that ID that is awaiting a response.
+      Map<Integer, Integer> outstanding = new HashMap<>();
+      for (int i = 0; i < queries.size(); i++) {
+        if (responses[i] != null) {
+          continue;
+        }
+        int id = queries.get(i).getHeader().getID();
+        // A response can only be matched to one query, so duplicate IDs can't be in flight at once.
+        while (outstanding.size() >= MAX_PIPELINED_MESSAGES || outstanding.containsKey(id)) {
+          readResponse(queries, responses, outstanding);
+        }
+        writeMessage(wireQueries.get(i));
+        outstanding.put(id, i);
+      }
+      while (!outstanding.isEmpty()) {
+        readResponse(queries, responses, outstanding);
+      }
+      succeeded = true;
+    } finally {
+      if (!succeeded) {
+        closeQuietly();
+      }
+    }
+  }
+
+  private void connectIfNeeded() throws IOException {
+    if (socket != null) {
+      return;
+    }
+    Socket newSocket = factory.createSocket(InetAddress.getByName(updateHost), updatePort);
+    try {
+      newSocket.setSoTimeout(updateTimeout);
+      outputStream = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+      inputStream = new DataInputStream(newSocket.getInputStream());
+    } catch (IOException | RuntimeException e) {
+      newSocket.close();
+      throw e;
+    }
+    socket = newSocket;
+    transportMetrics.recordConnection(
+        hasConnected ? ConnectionReason.RECONNECT : ConnectionReason.INITIAL);
+    hasConnected = true;
+  }
+
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to close connection to %s", updateHost);
+    }
+  }
+
+  /** Reads one response and stores it at the index of the outstanding query it answers. */
+  private void readResponse(
+      List<Message> queries, Message[] responses, Map<Integer, Integer> outstanding)
+      throws IOException {
+    // Make sure everything written so far has actually been sent before waiting for an answer.
+    outputStream.flush();
+    Message response = readMessage();
+    Integer index = outstanding.remove(response.getHeader().getID());
     verify(
-        response.getHeader().getID() == query.getHeader().getID(),
+        index != null,
         "response ID %s does not match query ID %s",
         response.getHeader().getID(),
-        query.getHeader().getID());
+        Joiner.on(", ").join(outstanding.keySet()));
+    checkValidResponse(queries.get(index), response);
+    responses[index] = response;
+  }
+
+  private void checkValidResponse(Message query, Message response) {
     verify(
         response.getHeader().getOpcode() == query.getHeader().getOpcode(),
         "response opcode '%s' does not match query opcode '%s'",
@@ -109,24 +284,15 @@ public class DnsMessageTransport {
         Opcode.string(query.getHeader().getOpcode()));
   }
 
-  private void writeMessage(OutputStream outputStream, Message message) throws IOException {
-    byte[] messageData = message.toWire();
-    checkArgument(
-        messageData.length <= MESSAGE_MAXIMUM_LENGTH,
-        "DNS request message larger than maximum of %s: %s",
-        MESSAGE_MAXIMUM_LENGTH,
-        messageData.length);
-    ByteBuffer buffer = ByteBuffer.allocate(messageData.length + MESSAGE_LENGTH_FIELD_BYTES);
-    buffer.putShort((short) messageData.length);
-    buffer.put(messageData);
-    outputStream.write(buffer.array());
+  private void writeMessage(byte[] messageData) throws IOException {
+    outputStream.writeShort(messageData.length);
+    outputStream.write(messageData);
   }
 
-  private Message readMessage(InputStream inputStream) throws IOException {
-    DataInputStream stream = new DataInputStream(inputStream);
-    int length = stream.readUnsignedShort();
+  private Message readMessage() throws IOException {
+    int length = inputStream.readUnsignedShort();
     byte[] messageData = new byte[length];
-    stream.readFully(messageData);
+    inputStream.readFully(messageData);
     return new Message(messageData);
   }
 }
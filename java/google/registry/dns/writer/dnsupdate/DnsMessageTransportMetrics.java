@@ -0,0 +1,84 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.dnsupdate;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.DistributionFitter;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.ExponentialFitter;
+import com.google.monitoring.metrics.FibonacciFitter;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import org.joda.time.Duration;
+
+/** Metrics for batches of DNS messages sent by {@link DnsMessageTransport}. */
+class DnsMessageTransportMetrics {
+
+  /** Outcome of sending a batch of messages. */
+  enum BatchStatus { SUCCESS, FAILURE }
+
+  /** Why a connection to the DNS server was opened. */
+  enum ConnectionReason { INITIAL, RECONNECT }
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS_FOR_BATCH =
+      ImmutableSet.of(
+          LabelDescriptor.create("status", "Whether all messages in the batch were answered."));
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS_FOR_CONNECTION =
+      ImmutableSet.of(LabelDescriptor.create("reason", "Why the connection was opened."));
+
+  // Allows values between 1 ms and 2^20 ms, which is about 17 minutes.
+  private static final DistributionFitter EXPONENTIAL_FITTER =
+      ExponentialFitter.create(20, 2.0, 1.0);
+
+  // Allows values between 0 and 10946, which is the 21st Fibonacci number.
+  private static final DistributionFitter FIBONACCI_FITTER = FibonacciFitter.create(10946);
+
+  private static final EventMetric batchLatency =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/update/batch_latency",
+              "Time to send a batch of DNS messages and receive all responses",
+              "milliseconds",
+              LABEL_DESCRIPTORS_FOR_BATCH,
+              EXPONENTIAL_FITTER);
+
+  private static final EventMetric batchSize =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/update/batch_size",
+              "Number of DNS messages pipelined in each batch",
+              "count",
+              LABEL_DESCRIPTORS_FOR_BATCH,
+              FIBONACCI_FITTER);
+
+  private static final IncrementableMetric connectionCount =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/dns/update/connections",
+              "Count of TCP connections opened to the DNS server",
+              "count",
+              LABEL_DESCRIPTORS_FOR_CONNECTION);
+
+  void recordBatch(BatchStatus status, int numMessages, Duration latency) {
+    batchLatency.record(latency.getMillis(), status.name());
+    batchSize.record(numMessages, status.name());
+  }
+
+  void recordConnection(ConnectionReason reason) {
+    connectionCount.increment(reason.name());
+  }
+}
@@ -41,4 +41,14 @@ public class DnsUpdateConfigModule {
   public static Duration provideDnsUpdateTimeout() {
     return Duration.standardSeconds(30);
   }
+
+  /**
+   * Maximum number of UPDATE messages pipelined on the connection at once, when a commit has to be
+   * split into several messages to fit within the maximum DNS message size.
+   */
+  @Provides
+  @Config("dnsUpdateMaxConcurrentMessages")
+  public static int provideDnsUpdateMaxConcurrentMessages() {
+    return 1;
+  }
 }
@@ -15,17 +15,24 @@
 package google.registry.dns.writer.dnsupdate;
 
 import static com.google.common.base.Verify.verify;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Sets.intersection;
 import static com.google.common.collect.Sets.union;
-import static google.registry.model.EppResourceUtils.loadByForeignKey;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.VerifyException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
 import com.google.common.net.InternetDomainName;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.writer.BaseDnsWriter;
+import google.registry.dns.writer.BatchAwareDnsWriter;
 import google.registry.dns.writer.DnsWriterZone;
+import google.registry.dns.writer.PartialCommitException;
+import google.registry.dns.writer.PrefetchedDnsEntities;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
@@ -35,6 +42,8 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import javax.inject.Inject;
 import org.joda.time.Duration;
@@ -47,6 +56,8 @@ import org.xbill.DNS.NSRecord;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.RRset;
 import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 import org.xbill.DNS.Update;
@@ -57,9 +68,11 @@ import org.xbill.DNS.Update;
  * domain-registry to a (capable) external DNS server, sometimes called a "hidden master". DNS
  * UPDATE messages are sent via a supplied "transport" class.
  *
- * On call to {@link #commit()}, a single UPDATE message is created containing the records required
- * to "synchronize" the DNS with the current (at the time of processing) state of the registry, for
- * the supplied domain/host.
+ * On call to {@link #commit()}, UPDATE messages are created containing the records required to
+ * "synchronize" the DNS with the current (at the time of processing) state of the registry, for
+ * the supplied domain/host. The records for all published names are packed into as few messages as
+ * fit within the maximum DNS message size, and up to {@code dnsUpdateMaxConcurrentMessages} of
+ * them are pipelined on the connection at once.
  *
  * <p>The general strategy of the publish methods is to delete <em>all</em> resource records of any
  * <em>type</em> that match the exact domain/host name supplied. And then for create/update cases,
@@ -70,12 +83,16 @@ import org.xbill.DNS.Update;
  * <p>Only NS, DS, A, and AAAA records are published, and in particular no DNSSEC signing is done
  * assuming that this will be done by a third party DNS provider.
  *
- * <p>Each commit call is treated as an atomic update to the DNS. If a commit fails an exception
- * is thrown. The SOA record serial number is implicitly incremented by the server on each UPDATE
- * message, as required by RFC 2136. Care must be taken to make sure the SOA serial number does not
- * go backwards if the entire TLD (zone) is "reset" to empty and republished.
+ * <p>Each UPDATE message is an atomic update to the DNS, and the records for any one published
+ * name are never split across messages. If every message of a commit fails an exception is thrown;
+ * if only some fail, a {@link PartialCommitException} naming the names that weren't published is
+ * thrown instead. The SOA record serial number is implicitly incremented by the server on each
+ * UPDATE message, as required by RFC 2136. Care must be taken to make sure the SOA serial number
+ * does not go backwards if the entire TLD (zone) is "reset" to empty and republished.
  */
-public class DnsUpdateWriter extends BaseDnsWriter {
+public class DnsUpdateWriter extends BaseDnsWriter implements BatchAwareDnsWriter {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   /**
    * The name of the pricing engine, as used in {@code Registry.dnsWriter}. Remember to change
@@ -87,8 +104,10 @@ public class DnsUpdateWriter extends BaseDnsWriter {
   private final Duration dnsDefaultNsTtl;
   private final Duration dnsDefaultDsTtl;
   private final DnsMessageTransport transport;
+  private final int maxConcurrentMessages;
   private final Clock clock;
-  private final Update update;
+  private final List<StagedUpdate> stagedUpdates = new ArrayList<>();
+  private PrefetchedDnsEntities prefetchedEntities = PrefetchedDnsEntities.empty();
   private final String zoneName;
 
   /**
@@ -98,6 +117,7 @@ public class DnsUpdateWriter extends BaseDnsWriter {
    * @param dnsDefaultNsTtl TTL used for any created nameserver records
    * @param dnsDefaultDsTtl TTL used for any created DS records
    * @param transport the transport used to send/receive the UPDATE messages
+   * @param maxConcurrentMessages the maximum number of UPDATE messages pipelined at once
    * @param clock a source of time
    */
   @Inject
@@ -107,13 +127,14 @@ public class DnsUpdateWriter extends BaseDnsWriter {
       @Config("dnsDefaultNsTtl") Duration dnsDefaultNsTtl,
       @Config("dnsDefaultDsTtl") Duration dnsDefaultDsTtl,
       DnsMessageTransport transport,
+      @Config("dnsUpdateMaxConcurrentMessages") int maxConcurrentMessages,
       Clock clock) {
     this.zoneName = zoneName;
-    this.update = new Update(toAbsoluteName(zoneName));
     this.dnsDefaultATtl = dnsDefaultATtl;
     this.dnsDefaultNsTtl = dnsDefaultNsTtl;
     this.dnsDefaultDsTtl = dnsDefaultDsTtl;
     this.transport = transport;
+    this.maxConcurrentMessages = maxConcurrentMessages;
     this.clock = clock;
   }
 
@@ -125,8 +146,9 @@ public class DnsUpdateWriter extends BaseDnsWriter {
    * @param requestingHostName the fully qualified host name, with no trailing dot, that triggers
    *     this domain refresh request
    */
-  private void publishDomain(String domainName, String requestingHostName) {
-    DomainResource domain = loadByForeignKey(DomainResource.class, domainName, clock.nowUtc());
+  private Update stageDomain(String domainName, String requestingHostName) {
+    Update update = newUpdate();
+    DomainResource domain = prefetchedEntities.loadDomain(domainName, clock.nowUtc());
     update.delete(toAbsoluteName(domainName), Type.ANY);
     if (domain != null) {
       // As long as the domain exists, orphan glues should be cleaned.
@@ -137,11 +159,17 @@ public class DnsUpdateWriter extends BaseDnsWriter {
         update.add(makeDelegationSignerSet(domain));
       }
     }
+    return update;
+  }
+
+  @Override
+  public void setPrefetchedEntities(PrefetchedDnsEntities prefetchedEntities) {
+    this.prefetchedEntities = prefetchedEntities;
   }
 
   @Override
   public void publishDomain(String domainName) {
-    publishDomain(domainName, null);
+    stagedUpdates.add(new StagedUpdate(domainName, false, stageDomain(domainName, null)));
   }
 
   @Override
@@ -163,20 +191,120 @@ public class DnsUpdateWriter extends BaseDnsWriter {
 
     // Refresh the superordinate domain, always delete the host first to ensure idempotency,
     // and only publish the host if it is a glue record.
-    publishDomain(domain, hostName);
+    stagedUpdates.add(new StagedUpdate(hostName, true, stageDomain(domain, hostName)));
   }
 
   @Override
   protected void commitUnchecked() {
+    ImmutableList<List<StagedUpdate>> messageContents = splitIntoMessages();
+    List<StagedUpdate> failedUpdates = new ArrayList<>();
+    RuntimeException firstFailure = null;
+    try {
+      for (List<List<StagedUpdate>> group :
+          Lists.partition(messageContents, maxConcurrentMessages)) {
+        ImmutableList<Message> queries =
+            group.stream().map(this::buildMessage).collect(toImmutableList());
+        try {
+          ImmutableList<Message> responses =
+              (queries.size() == 1)
+                  ? ImmutableList.of(transport.send(queries.get(0)))
+                  : transport.sendAll(queries);
+          for (int i = 0; i < responses.size(); i++) {
+            try {
+              verifyResponse(responses.get(i));
+            } catch (VerifyException e) {
+              failedUpdates.addAll(group.get(i));
+              firstFailure = (firstFailure == null) ? e : firstFailure;
+            }
+          }
+        } catch (IOException | RuntimeException e) {
+          // The whole group fails together, since we can't tell which of its messages got applied.
+          group.forEach(failedUpdates::addAll);
+          if (firstFailure == null) {
+            firstFailure =
+                (e instanceof IOException)
+                    ? new RuntimeException("publishDomain failed for zone: " + zoneName, e)
+                    : (RuntimeException) e;
+          }
+        }
+      }
+    } finally {
+      closeTransport();
+    }
+    if (failedUpdates.isEmpty()) {
+      return;
+    }
+    if (failedUpdates.size() == stagedUpdates.size()) {
+      throw firstFailure;
+    }
+    throw new PartialCommitException(
+        String.format(
+            "%d of %d updates failed for zone: %s",
+            failedUpdates.size(), stagedUpdates.size(), zoneName),
+        failedUpdates.stream().filter(u -> !u.isHost).map(u -> u.name).collect(toImmutableSet()),
+        failedUpdates.stream().filter(u -> u.isHost).map(u -> u.name).collect(toImmutableSet()),
+        firstFailure);
+  }
+
+  private void verifyResponse(Message response) {
+    verify(
+        response.getRcode() == Rcode.NOERROR,
+        "DNS server failed domain update for '%s' rcode: %s",
+        zoneName,
+        Rcode.string(response.getRcode()));
+  }
+
+  /**
+   * Groups the staged updates, in order, into the contents of UPDATE messages that fit within the
+   * maximum DNS message size.
+   *
+   * <p>Each staged update is sized as if it were sent on its own. This is an upper bound on what it
+   * adds to a shared message, since name compression can only make its records smaller there. A
+   * staged update that is too large even on its own is put in a message by itself, which the
+   * transport will then reject.
+   */
+  private ImmutableList<List<StagedUpdate>> splitIntoMessages() {
+    int headerSize = newUpdate().toWire().length;
+    ImmutableList.Builder<List<StagedUpdate>> messageContents = new ImmutableList.Builder<>();
+    List<StagedUpdate> currentMessage = new ArrayList<>();
+    int currentSize = headerSize;
+    for (StagedUpdate stagedUpdate : stagedUpdates) {
+      int size = stagedUpdate.update.toWire().length - headerSize;
+      if (!currentMessage.isEmpty()
+          && currentSize + size > DnsMessageTransport.MESSAGE_MAXIMUM_LENGTH) {
+        messageContents.add(currentMessage);
+        currentMessage = new ArrayList<>();
+        currentSize = headerSize;
+      }
+      currentMessage.add(stagedUpdate);
+      currentSize += size;
+    }
+    if (!currentMessage.isEmpty()) {
+      messageContents.add(currentMessage);
+    }
+    return messageContents.build();
+  }
+
+  /** Builds a single UPDATE message containing the records of all the given staged updates. */
+  private Message buildMessage(List<StagedUpdate> contents) {
+    Update message = newUpdate();
+    for (StagedUpdate stagedUpdate : contents) {
+      for (Record record : stagedUpdate.update.getSectionArray(Section.UPDATE)) {
+        message.add(record);
+      }
+    }
+    return message;
+  }
+
+  private Update newUpdate() {
+    return new Update(toAbsoluteName(zoneName));
+  }
+
+  private void closeTransport() {
     try {
-      Message response = transport.send(update);
-      verify(
-          response.getRcode() == Rcode.NOERROR,
-          "DNS server failed domain update for '%s' rcode: %s",
-          zoneName,
-          Rcode.string(response.getRcode()));
+      transport.close();
     } catch (IOException e) {
-      throw new RuntimeException("publishDomain failed for zone: " + zoneName, e);
+      logger.atWarning().withCause(e).log("Failed to close DNS connection for zone: %s", zoneName);
     }
   }
 
@@ -212,8 +340,8 @@ public class DnsUpdateWriter extends BaseDnsWriter {
   private void addInBailiwickNameServerSet(DomainResource domain, Update update) {
     for (String hostName :
         intersection(
-            domain.loadNameserverFullyQualifiedHostNames(), domain.getSubordinateHosts())) {
-      HostResource host = loadByForeignKey(HostResource.class, hostName, clock.nowUtc());
+            prefetchedEntities.loadNameserverHostNames(domain), domain.getSubordinateHosts())) {
+      HostResource host = prefetchedEntities.loadHost(hostName, clock.nowUtc());
       update.add(makeAddressSet(host));
       update.add(makeV6AddressSet(host));
     }
@@ -221,7 +349,7 @@ public class DnsUpdateWriter extends BaseDnsWriter {
 
   private RRset makeNameServerSet(DomainResource domain) {
     RRset nameServerSet = new RRset();
-    for (String hostName : domain.loadNameserverFullyQualifiedHostNames()) {
+    for (String hostName : prefetchedEntities.loadNameserverHostNames(domain)) {
       NSRecord record =
           new NSRecord(
               toAbsoluteName(domain.getFullyQualifiedDomainName()),
@@ -265,6 +393,19 @@ public class DnsUpdateWriter extends BaseDnsWriter {
     return addressSet;
   }
 
+  /** The records staged by a single call to {@link #publishDomain} or {@link #publishHost}. */
+  private static final class StagedUpdate {
+    final String name;
+    final boolean isHost;
+    final Update update;
+
+    StagedUpdate(String name, boolean isHost, Update update) {
+      this.name = name;
+      this.isHost = isHost;
+      this.update = update;
+    }
+  }
+
   private Name toAbsoluteName(String name) {
     try {
       return Name.fromString(name, Name.root);
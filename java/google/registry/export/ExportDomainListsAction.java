@@ -16,11 +16,11 @@ package google.registry.export;
 
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
 import static com.google.common.base.Verify.verifyNotNull;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.registry.Registries.getTldsOfType;
 import static google.registry.request.Action.Method.POST;
-import static google.registry.util.PipelineUtils.createJobPath;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.joda.time.DateTimeZone.UTC;
 
@@ -33,6 +33,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.net.MediaType;
@@ -60,7 +61,9 @@ import org.joda.time.DateTime;
  * A mapreduce that exports the list of active domains on all real TLDs to Google Cloud Storage.
  *
  * <p>Each TLD's active domain names are exported as a newline-delimited flat text file with the
- * name TLD.txt into the domain-lists bucket. Note that this overwrites the files in place.
+ * name TLD.txt into the domain-lists bucket. Note that this overwrites the files in place. The time
+ * the domains were active at is stored in the {@link #EXPORT_TIME_METADATA_KEY} user metadata of
+ * each file, so that readers can tell which domains may be missing from it.
  */
 @Action(path = "/_dr/task/exportDomainLists", method = POST, auth = Auth.AUTH_INTERNAL_ONLY)
 public class ExportDomainListsAction implements Runnable {
@@ -68,6 +71,9 @@ public class ExportDomainListsAction implements Runnable {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final int MAX_NUM_REDUCE_SHARDS = 100;
 
+  /** The GCS user metadata key under which the time of a domain list's export is stored. */
+  public static final String EXPORT_TIME_METADATA_KEY = "export-time";
+
   @Inject MapreduceRunner mrRunner;
   @Inject Response response;
   @Inject @Config("domainListsGcsBucket") String gcsBucket;
@@ -77,15 +83,16 @@ public class ExportDomainListsAction implements Runnable {
   @Override
   public void run() {
     ImmutableSet<String> realTlds = getTldsOfType(TldType.REAL);
+    DateTime exportTime = DateTime.now(UTC);
     logger.atInfo().log("Exporting domain lists for tlds %s", realTlds);
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
         .setJobName("Export domain lists")
         .setModuleName("backend")
         .setDefaultReduceShards(Math.min(realTlds.size(), MAX_NUM_REDUCE_SHARDS))
         .runMapreduce(
-            new ExportDomainListsMapper(DateTime.now(UTC), realTlds),
-            new ExportDomainListsReducer(gcsBucket, gcsBufferSize),
-            ImmutableList.of(createEntityInput(DomainResource.class)))));
+            new ExportDomainListsMapper(exportTime, realTlds),
+            new ExportDomainListsReducer(gcsBucket, gcsBufferSize, exportTime),
+            ImmutableList.of(createEntityInput(DomainResource.class))));
   }
 
   static class ExportDomainListsMapper extends Mapper<DomainResource, String, String> {
@@ -123,6 +130,7 @@ public class ExportDomainListsAction implements Runnable {
 
     private final String gcsBucket;
     private final int gcsBufferSize;
+    private final DateTime exportTime;
 
     /**
      * Non-serializable {@link DriveConnection} that will be created when an instance of {@link
@@ -132,9 +140,10 @@ public class ExportDomainListsAction implements Runnable {
      */
     private transient DriveConnection driveConnection;
 
-    public ExportDomainListsReducer(String gcsBucket, int gcsBufferSize) {
+    public ExportDomainListsReducer(String gcsBucket, int gcsBufferSize, DateTime exportTime) {
       this.gcsBucket = gcsBucket;
       this.gcsBufferSize = gcsBufferSize;
+      this.exportTime = exportTime;
     }
 
     @SuppressWarnings("unused")
@@ -173,7 +182,9 @@ public class ExportDomainListsAction implements Runnable {
       GcsFilename filename = new GcsFilename(gcsBucket, tld + ".txt");
       GcsUtils cloudStorage =
           new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize);
-      try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename);
+      try (OutputStream gcsOutput =
+              cloudStorage.openOutputStream(
+                  filename, ImmutableMap.of(EXPORT_TIME_METADATA_KEY, exportTime.toString()));
           Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8)) {
         osWriter.write(domains);
       } catch (IOException e) {
@@ -24,7 +24,9 @@ import google.registry.flows.FlowModule.DryRun;
 import google.registry.flows.FlowModule.InputXml;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.Transactional;
+import google.registry.flows.poll.PollAckFlow;
 import google.registry.flows.session.LoginFlow;
+import google.registry.model.EppResourceGeneration;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppOutput;
 import google.registry.monitoring.whitebox.EppMetric;
@@ -81,20 +83,27 @@ public class FlowRunner {
       return eppOutput;
     }
     try {
-      return ofy()
-          .transact(
-              () -> {
-                eppMetricBuilder.incrementAttempts();
-                try {
-                  EppOutput output = EppOutput.create(flowProvider.get().run());
-                  if (isDryRun) {
-                    throw new DryRunException(output);
-                  }
-                  return output;
-                } catch (EppException e) {
-                  throw new EppRuntimeException(e);
-                }
-              });
+      EppOutput eppOutput =
+          ofy()
+              .transact(
+                  () -> {
+                    eppMetricBuilder.incrementAttempts();
+                    try {
+                      EppOutput output = EppOutput.create(flowProvider.get().run());
+                      if (isDryRun) {
+                        throw new DryRunException(output);
+                      }
+                      return output;
+                    } catch (EppException e) {
+                      throw new EppRuntimeException(e);
+                    }
+                  });
+      // Every transactional flow other than a poll ack changes a domain, host or contact, so let
+      // caches of data rendered from them (e.g. WHOIS responses) know, now that it's committed.
+      if (!flowClass.equals(PollAckFlow.class)) {
+        EppResourceGeneration.increment();
+      }
+      return eppOutput;
     } catch (DryRunException e) {
       return e.output;
     } catch (EppRuntimeException e) {
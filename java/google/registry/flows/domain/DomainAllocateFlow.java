@@ -79,6 +79,7 @@ import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
@@ -198,6 +199,7 @@ public class DomainAllocateFlow implements TransactionalFlow {
         updateApplication(application),
         ForeignKeyIndex.create(newDomain, newDomain.getDeletionTime()),
         EppResourceIndex.create(Key.create(newDomain)));
+    entitiesToSave.addAll(LinkedDomainIndex.createAddedLinks(null, newDomain));
     ofy().save().entities(entitiesToSave.build());
     enqueueTasks(allocateCreate, newDomain);
     return responseBuilder
@@ -87,6 +87,7 @@ import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.EppResponse.ResponseExtension;
 import google.registry.model.index.DomainApplicationIndex;
 import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
@@ -275,6 +276,7 @@ public final class DomainApplicationCreateFlow implements TransactionalFlow {
         historyEntry,
         DomainApplicationIndex.createUpdatedInstance(newApplication),
         EppResourceIndex.create(Key.create(newApplication)));
+    entitiesToSave.addAll(LinkedDomainIndex.createAddedLinks(null, newApplication));
 
     EntityChanges entityChanges =
         flowCustomLogic.beforeSave(
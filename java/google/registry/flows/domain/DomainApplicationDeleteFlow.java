@@ -43,6 +43,7 @@ import google.registry.model.domain.metadata.MetadataExtension;
 import google.registry.model.eppcommon.AuthInfo;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
 import google.registry.model.reporting.HistoryEntry;
@@ -112,6 +113,7 @@ public final class DomainApplicationDeleteFlow implements TransactionalFlow {
         .build();
     updateForeignKeyIndexDeletionTime(newApplication);
     ofy().save().<Object>entities(newApplication, historyEntry);
+    ofy().delete().keys(LinkedDomainIndex.createAllLinkKeys(existingApplication));
     return responseBuilder.build();
   }
 
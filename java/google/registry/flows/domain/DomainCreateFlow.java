@@ -102,6 +102,7 @@ import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
@@ -370,6 +371,7 @@ public class DomainCreateFlow implements TransactionalFlow {
         newDomain,
         ForeignKeyIndex.create(newDomain, newDomain.getDeletionTime()),
         EppResourceIndex.create(Key.create(newDomain)));
+    entitiesToSave.addAll(LinkedDomainIndex.createAddedLinks(null, newDomain));
     allocationToken.ifPresent(
         t -> entitiesToSave.add(allocationTokenFlowUtils.redeemToken(t, Key.create(historyEntry))));
     enqueueTasks(newDomain, hasSignedMarks, hasClaimsNotice);
@@ -80,6 +80,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.poll.PollMessage.OneTime;
@@ -220,12 +221,22 @@ public final class DomainDeleteFlow implements TransactionalFlow {
       }
     }
     entitiesToSave.add(newDomain, historyEntry);
+    // A domain that's deleted outright no longer links to its contacts and hosts. One that's
+    // pending delete keeps its links, since it blocks their deletion until it's gone or restored.
+    ImmutableSet<Key<ImmutableObject>> keysToDelete =
+        durationUntilDelete.equals(Duration.ZERO)
+            ? LinkedDomainIndex.createAllLinkKeys(existingDomain)
+            : ImmutableSet.of();
     EntityChanges entityChanges = flowCustomLogic.beforeSave(
         BeforeSaveParameters.newBuilder()
             .setExistingDomain(existingDomain)
             .setNewDomain(newDomain)
             .setHistoryEntry(historyEntry)
-            .setEntityChanges(EntityChanges.newBuilder().setSaves(entitiesToSave.build()).build())
+            .setEntityChanges(
+                EntityChanges.newBuilder()
+                    .setSaves(entitiesToSave.build())
+                    .setDeletes(keysToDelete)
+                    .build())
             .build());
     persistEntityChanges(entityChanges);
     BeforeResponseReturnData responseData =
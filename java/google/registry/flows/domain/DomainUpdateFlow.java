@@ -77,6 +77,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
@@ -191,6 +192,7 @@ public final class DomainUpdateFlow implements TransactionalFlow {
     dnsQueue.addDomainRefreshTask(targetId);
     ImmutableSet.Builder<ImmutableObject> entitiesToSave = new ImmutableSet.Builder<>();
     entitiesToSave.add(newDomain, historyEntry);
+    entitiesToSave.addAll(LinkedDomainIndex.createAddedLinks(existingDomain, newDomain));
     Optional<BillingEvent.OneTime> statusUpdateBillingEvent =
         createBillingEventForStatusUpdates(existingDomain, newDomain, historyEntry, now);
     statusUpdateBillingEvent.ifPresent(entitiesToSave::add);
@@ -201,7 +203,10 @@ public final class DomainUpdateFlow implements TransactionalFlow {
                 .setNewDomain(newDomain)
                 .setExistingDomain(existingDomain)
                 .setEntityChanges(
-                    EntityChanges.newBuilder().setSaves(entitiesToSave.build()).build())
+                    EntityChanges.newBuilder()
+                        .setSaves(entitiesToSave.build())
+                        .setDeletes(LinkedDomainIndex.getRemovedLinkKeys(existingDomain, newDomain))
+                        .build())
                 .build());
     persistEntityChanges(entityChanges);
     return responseBuilder.build();
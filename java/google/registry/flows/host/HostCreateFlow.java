@@ -18,11 +18,13 @@ import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
 import static google.registry.flows.ResourceFlowUtils.verifyResourceDoesNotExist;
 import static google.registry.flows.host.HostFlowUtils.lookupSuperordinateDomain;
 import static google.registry.flows.host.HostFlowUtils.validateHostName;
+import static google.registry.flows.host.HostFlowUtils.verifyInetAddressCount;
 import static google.registry.flows.host.HostFlowUtils.verifySuperordinateDomainNotInPendingDelete;
 import static google.registry.flows.host.HostFlowUtils.verifySuperordinateDomainOwnership;
 import static google.registry.model.EppResourceUtils.createRepoId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.CollectionUtils.isNullOrEmpty;
+import static google.registry.util.CollectionUtils.nullToEmpty;
 import static google.registry.util.CollectionUtils.union;
 
 import com.google.common.collect.ImmutableSet;
@@ -48,6 +50,7 @@ import google.registry.model.host.HostResource;
 import google.registry.model.host.HostResource.Builder;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
@@ -74,6 +77,7 @@ import org.joda.time.DateTime;
  * @error {@link HostFlowUtils.HostNameNotPunyCodedException}
  * @error {@link HostFlowUtils.SuperordinateDomainDoesNotExistException}
  * @error {@link HostFlowUtils.SuperordinateDomainInPendingDeleteException}
+ * @error {@link HostFlowUtils.TooManyInetAddressesException}
  * @error {@link SubordinateHostMustHaveIpException}
  * @error {@link UnexpectedExternalHostIpException}
  */
@@ -113,6 +117,7 @@ public final class HostCreateFlow implements TransactionalFlow {
           ? new SubordinateHostMustHaveIpException()
           : new UnexpectedExternalHostIpException();
     }
+    verifyInetAddressCount(nullToEmpty(command.getInetAddresses()));
     HostResource newHost =
         new Builder()
             .setCreationClientId(clientId)
@@ -126,11 +131,15 @@ public final class HostCreateFlow implements TransactionalFlow {
         .setType(HistoryEntry.Type.HOST_CREATE)
         .setModificationTime(now)
         .setParent(Key.create(newHost));
-    ImmutableSet<ImmutableObject> entitiesToSave = ImmutableSet.of(
-        newHost,
-        historyBuilder.build(),
-        ForeignKeyIndex.create(newHost, newHost.getDeletionTime()),
-        EppResourceIndex.create(Key.create(newHost)));
+    ImmutableSet<ImmutableObject> entitiesToSave =
+        new ImmutableSet.Builder<ImmutableObject>()
+            .add(
+                newHost,
+                historyBuilder.build(),
+                ForeignKeyIndex.create(newHost, newHost.getDeletionTime()),
+                EppResourceIndex.create(Key.create(newHost)))
+            .addAll(HostInetAddressIndex.createUpdatedInstances(null, newHost))
+            .build();
     if (superordinateDomain.isPresent()) {
       entitiesToSave = union(
           entitiesToSave,
@@ -16,6 +16,7 @@ package google.registry.flows.host;
 
 import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.index.HostInetAddressIndex.MAX_INET_ADDRESSES_PER_HOST;
 import static google.registry.model.registry.Registries.findTldForName;
 import static google.registry.util.PreconditionsUtils.checkArgumentNotNull;
 import static java.util.stream.Collectors.joining;
@@ -32,7 +33,9 @@ import google.registry.flows.EppException.StatusProhibitsOperationException;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.util.Idn;
+import java.net.InetAddress;
 import java.util.Optional;
+import java.util.Set;
 import org.joda.time.DateTime;
 
 /** Static utility functions for host flows. */
@@ -99,6 +102,26 @@ public class HostFlowUtils {
     return Optional.of(superordinateDomain);
   }
 
+  /**
+   * Checks that a host doesn't have more IP addresses than its index updates can fit into one
+   * transaction.
+   *
+   * @see google.registry.model.index.HostInetAddressIndex#MAX_INET_ADDRESSES_PER_HOST
+   */
+  static void verifyInetAddressCount(Set<InetAddress> inetAddresses) throws EppException {
+    if (inetAddresses.size() > MAX_INET_ADDRESSES_PER_HOST) {
+      throw new TooManyInetAddressesException(
+          String.format("Only %d IP addresses are allowed per host", MAX_INET_ADDRESSES_PER_HOST));
+    }
+  }
+
+  /** Too many IP addresses on this host. */
+  static class TooManyInetAddressesException extends ParameterValuePolicyErrorException {
+    public TooManyInetAddressesException(String message) {
+      super(message);
+    }
+  }
+
   /** Superordinate domain for this hostname does not exist. */
   static class SuperordinateDomainDoesNotExistException extends ObjectDoesNotExistException {
     public SuperordinateDomainDoesNotExistException(String domainName) {
@@ -24,6 +24,7 @@ import static google.registry.flows.ResourceFlowUtils.verifyNoDisallowedStatuses
 import static google.registry.flows.ResourceFlowUtils.verifyResourceOwnership;
 import static google.registry.flows.host.HostFlowUtils.lookupSuperordinateDomain;
 import static google.registry.flows.host.HostFlowUtils.validateHostName;
+import static google.registry.flows.host.HostFlowUtils.verifyInetAddressCount;
 import static google.registry.flows.host.HostFlowUtils.verifySuperordinateDomainNotInPendingDelete;
 import static google.registry.flows.host.HostFlowUtils.verifySuperordinateDomainOwnership;
 import static google.registry.model.index.ForeignKeyIndex.loadAndGetKey;
@@ -57,6 +58,7 @@ import google.registry.model.host.HostCommand.Update.AddRemove;
 import google.registry.model.host.HostCommand.Update.Change;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
 import java.util.Objects;
@@ -92,6 +94,7 @@ import org.joda.time.DateTime;
  * @error {@link HostFlowUtils.InvalidHostNameException}
  * @error {@link HostFlowUtils.SuperordinateDomainDoesNotExistException}
  * @error {@link HostFlowUtils.SuperordinateDomainInPendingDeleteException}
+ * @error {@link HostFlowUtils.TooManyInetAddressesException}
  * @error {@link CannotAddIpToExternalHostException}
  * @error {@link CannotRemoveSubordinateHostLastIpException}
  * @error {@link CannotRenameExternalHostException}
@@ -186,6 +189,11 @@ public final class HostUpdateFlow implements TransactionalFlow {
         .setPersistedCurrentSponsorClientId(newPersistedClientId)
         .build();
     verifyHasIpsIffIsExternal(command, existingHost, newHost);
+    // Only check the count when adding addresses, so that hosts created before it was limited can
+    // still be updated to drop some.
+    if (!add.getInetAddresses().isEmpty()) {
+      verifyInetAddressCount(newHost.getInetAddresses());
+    }
     ImmutableSet.Builder<ImmutableObject> entitiesToSave = new ImmutableSet.Builder<>();
     entitiesToSave.add(newHost);
     // Keep the {@link ForeignKeyIndex} for this host up to date.
@@ -196,6 +204,8 @@ public final class HostUpdateFlow implements TransactionalFlow {
           ForeignKeyIndex.create(newHost, newHost.getDeletionTime()));
       updateSuperordinateDomains(existingHost, newHost);
     }
+    // Keep the IP address indexes of any added or removed addresses up to date.
+    entitiesToSave.addAll(HostInetAddressIndex.createUpdatedInstances(existingHost, newHost));
     enqueueTasks(existingHost, newHost);
     entitiesToSave.add(historyBuilder
         .setType(HistoryEntry.Type.HOST_UPDATE)
@@ -34,6 +34,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.util.Optional;
 import javax.annotation.CheckReturnValue;
 import javax.inject.Inject;
 
@@ -70,6 +71,18 @@ public class GcsUtils {
     return Channels.newOutputStream(gcsService.createOrReplace(filename, getOptions(filename)));
   }
 
+  /**
+   * Opens a GCS file for writing as an {@link OutputStream}, overwriting existing files, and gives
+   * it the given user metadata.
+   */
+  @CheckReturnValue
+  public OutputStream openOutputStream(
+      GcsFilename filename, ImmutableMap<String, String> userMetadata) throws IOException {
+    Builder builder = getOptionsBuilder(filename);
+    userMetadata.forEach(builder::addUserMetadata);
+    return Channels.newOutputStream(gcsService.createOrReplace(filename, builder.build()));
+  }
+
   /** Creates a GCS file with the given byte contents, overwriting existing files. */
   public void createFromBytes(GcsFilename filename, byte[] bytes) throws IOException {
     gcsService.createOrReplace(filename, getOptions(filename), ByteBuffer.wrap(bytes));
@@ -111,13 +124,30 @@ public class GcsUtils {
     return metadata != null && metadata.getLength() > 0;
   }
 
+  /**
+   * Returns the user metadata of a GCS file, or empty if the file doesn't exist.
+   *
+   * @see #openOutputStream(GcsFilename, ImmutableMap)
+   */
+  public Optional<ImmutableMap<String, String>> getUserMetadata(GcsFilename file)
+      throws IOException {
+    GcsFileMetadata metadata = gcsService.getMetadata(file);
+    return (metadata == null)
+        ? Optional.empty()
+        : Optional.of(ImmutableMap.copyOf(metadata.getOptions().getUserMetadata()));
+  }
+
   /** Determines most appropriate {@link GcsFileOptions} based on filename extension. */
   private static GcsFileOptions getOptions(GcsFilename filename) {
+    return getOptionsBuilder(filename).build();
+  }
+
+  private static Builder getOptionsBuilder(GcsFilename filename) {
     Builder builder = new GcsFileOptions.Builder().cacheControl("no-cache");
     MediaType mediaType = EXTENSIONS.get(getLast(Splitter.on('.').split(filename.getObjectName())));
     if (mediaType != null) {
       builder = builder.mimeType(mediaType.type());
     }
-    return builder.build();
+    return builder;
   }
 }
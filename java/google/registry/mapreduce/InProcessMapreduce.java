@@ -0,0 +1,356 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.mapreduce;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.util.SerializeUtils.deserialize;
+import static google.registry.util.SerializeUtils.serialize;
+
+import com.google.appengine.tools.mapreduce.Counter;
+import com.google.appengine.tools.mapreduce.Counters;
+import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.appengine.tools.mapreduce.MapperContext;
+import com.google.appengine.tools.mapreduce.Output;
+import com.google.appengine.tools.mapreduce.OutputWriter;
+import com.google.appengine.tools.mapreduce.Reducer;
+import com.google.appengine.tools.mapreduce.ReducerContext;
+import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.appengine.tools.mapreduce.ShardContext;
+import com.google.appengine.tools.mapreduce.impl.CountersImpl;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.flogger.FluentLogger;
+import google.registry.util.Concurrent;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Runs mapreduces within the current request, rather than as App Engine MapReduce pipelines.
+ *
+ * <p>A pipeline spends minutes on task queue hops, its GCS shuffle and its status bookkeeping,
+ * which dwarfs the actual work of a job over a few hundred entities. This runs the same {@link
+ * Mapper}, {@link Reducer} and {@link Output} instead, with the map shards and then the reduce
+ * shards each running in parallel on request threads (see {@link Concurrent#transform}), and the
+ * emitted values shuffled in memory. It is thus only suitable for jobs whose intermediate data
+ * fits in memory and that finish well within the request deadline.
+ *
+ * <p>Each shard gets its own copy of the mapper or reducer, made by serializing it as the pipeline
+ * would, and runs in a single slice. Keys are grouped but not sorted within a reduce shard, and a
+ * failing shard isn't retried; the whole job fails instead.
+ */
+final class InProcessMapreduce {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Runs a map-only mapreduce with one map shard per reader, and returns the output's result. */
+  static <I, O, R> R runMapOnly(
+      String jobId,
+      Mapper<I, Void, O> mapper,
+      List<? extends InputReader<I>> readers,
+      Output<O, R> output)
+      throws IOException {
+    int numShards = readers.size();
+    List<? extends OutputWriter<O>> writers = output.createWriters(numShards);
+    ImmutableList<InProcessMapperContext<Void, O>> contexts =
+        IntStream.range(0, numShards)
+            .mapToObj(
+                shard ->
+                    new InProcessMapperContext<Void, O>(
+                        jobId, shard, numShards, (key, value) -> write(writers.get(shard), value)))
+            .collect(toImmutableList());
+    runShards(
+        numShards,
+        shard -> {
+          beginWriter(writers.get(shard));
+          runMapShard(mapper, readers.get(shard), contexts.get(shard));
+          endWriter(writers.get(shard));
+        });
+    logCounters(jobId, contexts);
+    return output.finish(writers);
+  }
+
+  /**
+   * Runs a mapreduce with one map shard per reader, and returns the output's result.
+   *
+   * <p>Each key emitted by the mappers is sent to a reduce shard based on its hash code.
+   */
+  static <I, K, V, O, R> R runMapreduce(
+      String jobId,
+      Mapper<I, K, V> mapper,
+      Reducer<K, V, O> reducer,
+      List<? extends InputReader<I>> readers,
+      int numReduceShards,
+      Output<O, R> output)
+      throws IOException {
+    int numMapShards = readers.size();
+    ImmutableList<ListMultimap<K, V>> mapOutputs =
+        IntStream.range(0, numMapShards)
+            .mapToObj(shard -> ArrayListMultimap.<K, V>create())
+            .collect(toImmutableList());
+    ImmutableList<InProcessMapperContext<K, V>> mapContexts =
+        IntStream.range(0, numMapShards)
+            .mapToObj(
+                shard ->
+                    new InProcessMapperContext<K, V>(
+                        jobId, shard, numMapShards, mapOutputs.get(shard)::put))
+            .collect(toImmutableList());
+    runShards(
+        numMapShards, shard -> runMapShard(mapper, readers.get(shard), mapContexts.get(shard)));
+
+    ImmutableList<ListMultimap<K, V>> reduceInputs =
+        IntStream.range(0, numReduceShards)
+            .mapToObj(shard -> ArrayListMultimap.<K, V>create())
+            .collect(toImmutableList());
+    for (ListMultimap<K, V> mapOutput : mapOutputs) {
+      for (Map.Entry<K, Collection<V>> entry : mapOutput.asMap().entrySet()) {
+        int shard = Math.floorMod(Objects.hashCode(entry.getKey()), numReduceShards);
+        reduceInputs.get(shard).putAll(entry.getKey(), entry.getValue());
+      }
+    }
+
+    List<? extends OutputWriter<O>> writers = output.createWriters(numReduceShards);
+    ImmutableList<InProcessReducerContext<O>> reduceContexts =
+        IntStream.range(0, numReduceShards)
+            .mapToObj(
+                shard ->
+                    new InProcessReducerContext<O>(
+                        jobId, shard, numReduceShards, value -> write(writers.get(shard), value)))
+            .collect(toImmutableList());
+    runShards(
+        numReduceShards,
+        shard -> {
+          beginWriter(writers.get(shard));
+          runReduceShard(reducer, reduceInputs.get(shard), reduceContexts.get(shard));
+          endWriter(writers.get(shard));
+        });
+    logCounters(jobId, Iterables.concat(mapContexts, reduceContexts));
+    return output.finish(writers);
+  }
+
+  private static <I, K, V> void runMapShard(
+      Mapper<I, K, V> mapperPrototype, InputReader<I> reader, InProcessMapperContext<K, V> context)
+      throws IOException {
+    Mapper<I, K, V> mapper = copy(mapperPrototype);
+    mapper.setContext(context);
+    reader.setContext(context);
+    reader.beginShard();
+    reader.beginSlice();
+    mapper.beginShard();
+    mapper.beginSlice();
+    while (true) {
+      I value;
+      try {
+        value = reader.next();
+      } catch (NoSuchElementException e) {
+        break;
+      }
+      mapper.map(value);
+    }
+    mapper.endSlice();
+    mapper.endShard();
+    reader.endSlice();
+    reader.endShard();
+  }
+
+  private static <K, V, O> void runReduceShard(
+      Reducer<K, V, O> reducerPrototype,
+      ListMultimap<K, V> input,
+      InProcessReducerContext<O> context) {
+    Reducer<K, V, O> reducer = copy(reducerPrototype);
+    reducer.setContext(context);
+    reducer.beginShard();
+    reducer.beginSlice();
+    for (Map.Entry<K, Collection<V>> entry : input.asMap().entrySet()) {
+      reducer.reduce(entry.getKey(), new IteratorReducerInput<>(entry.getValue().iterator()));
+    }
+    reducer.endSlice();
+    reducer.endShard();
+  }
+
+  /** Runs the given shards in parallel, and rethrows the first exception thrown by any of them. */
+  private static void runShards(int numShards, ShardRunner shardRunner) {
+    Concurrent.transform(
+        IntStream.range(0, numShards).boxed().collect(toImmutableList()),
+        shard -> {
+          try {
+            shardRunner.run(shard);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          return shard;
+        });
+  }
+
+  private static void beginWriter(OutputWriter<?> writer) throws IOException {
+    writer.beginShard();
+    writer.beginSlice();
+  }
+
+  private static void endWriter(OutputWriter<?> writer) throws IOException {
+    writer.endSlice();
+    writer.endShard();
+  }
+
+  private static <O> void write(OutputWriter<O> writer, O value) {
+    try {
+      writer.write(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns a copy of a mapper or reducer, as the pipeline would give each shard. */
+  @SuppressWarnings("unchecked")
+  private static <T> T copy(T worker) {
+    return (T) deserialize(worker.getClass(), serialize(worker));
+  }
+
+  private static void logCounters(
+      String jobId, Iterable<? extends InProcessShardContext> contexts) {
+    SortedMap<String, Long> totals = new TreeMap<>();
+    for (InProcessShardContext context : contexts) {
+      for (Counter counter : context.getCounters().getCounters()) {
+        totals.merge(counter.getName(), counter.getValue(), Long::sum);
+      }
+    }
+    logger.atInfo().log("Finished in-process mapreduce %s with counters: %s", jobId, totals);
+  }
+
+  /** Code to run for one shard, by shard number. */
+  private interface ShardRunner {
+    void run(int shard) throws IOException;
+  }
+
+  /** Context for one shard of an in-process mapreduce, with counters for just that shard. */
+  private static class InProcessShardContext implements ShardContext {
+
+    private final String jobId;
+    private final int shardNumber;
+    private final int shardCount;
+    private final Counters counters = new CountersImpl();
+
+    InProcessShardContext(String jobId, int shardNumber, int shardCount) {
+      this.jobId = jobId;
+      this.shardNumber = shardNumber;
+      this.shardCount = shardCount;
+    }
+
+    @Override
+    public String getJobId() {
+      return jobId;
+    }
+
+    @Override
+    public int getShardNumber() {
+      return shardNumber;
+    }
+
+    @Override
+    public int getShardCount() {
+      return shardCount;
+    }
+
+    @Override
+    public Counters getCounters() {
+      return counters;
+    }
+
+    @Override
+    public Counter getCounter(String name) {
+      return counters.getCounter(name);
+    }
+
+    @Override
+    public void incrementCounter(String name, long delta) {
+      counters.getCounter(name).increment(delta);
+    }
+
+    @Override
+    public void incrementCounter(String name) {
+      incrementCounter(name, 1);
+    }
+  }
+
+  /** Mapper context that passes emitted key/value pairs to a callback. */
+  private static class InProcessMapperContext<K, V> extends InProcessShardContext
+      implements MapperContext<K, V> {
+
+    private final BiConsumer<K, V> emitter;
+
+    InProcessMapperContext(
+        String jobId, int shardNumber, int shardCount, BiConsumer<K, V> emitter) {
+      super(jobId, shardNumber, shardCount);
+      this.emitter = emitter;
+    }
+
+    @Override
+    public void emit(K key, V value) {
+      emitter.accept(key, value);
+    }
+  }
+
+  /** Reducer context that passes emitted values to a callback. */
+  private static class InProcessReducerContext<O> extends InProcessShardContext
+      implements ReducerContext<O> {
+
+    private final Consumer<O> emitter;
+
+    InProcessReducerContext(String jobId, int shardNumber, int shardCount, Consumer<O> emitter) {
+      super(jobId, shardNumber, shardCount);
+      this.emitter = emitter;
+    }
+
+    @Override
+    public void emit(O value) {
+      emitter.accept(value);
+    }
+  }
+
+  /** Reducer input over the values shuffled in memory for one key. */
+  private static class IteratorReducerInput<V> extends ReducerInput<V> {
+
+    private final Iterator<V> values;
+
+    IteratorReducerInput(Iterator<V> values) {
+      this.values = values;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return values.hasNext();
+    }
+
+    @Override
+    public V next() {
+      return values.next();
+    }
+  }
+
+  private InProcessMapreduce() {}
+}
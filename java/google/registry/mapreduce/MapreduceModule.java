@@ -15,9 +15,11 @@
 package google.registry.mapreduce;
 
 import static google.registry.mapreduce.MapreduceRunner.PARAM_DRY_RUN;
+import static google.registry.mapreduce.MapreduceRunner.PARAM_IN_PROCESS;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_MAP_SHARDS;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_REDUCE_SHARDS;
 import static google.registry.request.RequestParameters.extractBooleanParameter;
+import static google.registry.request.RequestParameters.extractOptionalBooleanParameter;
 import static google.registry.request.RequestParameters.extractOptionalIntParameter;
 
 import dagger.Module;
@@ -47,4 +49,10 @@ public final class MapreduceModule {
   static Optional<Integer> provideReduceShards(HttpServletRequest req) {
     return extractOptionalIntParameter(req, PARAM_REDUCE_SHARDS);
   }
+
+  @Provides
+  @Parameter(PARAM_IN_PROCESS)
+  static Optional<Boolean> provideInProcess(HttpServletRequest req) {
+    return extractOptionalBooleanParameter(req, PARAM_IN_PROCESS);
+  }
 }
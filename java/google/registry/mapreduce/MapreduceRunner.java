@@ -16,9 +16,11 @@ package google.registry.mapreduce;
 
 import static com.google.appengine.tools.pipeline.PipelineServiceFactory.newPipelineService;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
 import static google.registry.util.PreconditionsUtils.checkArgumentNotNull;
 
 import com.google.appengine.tools.mapreduce.Input;
+import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.appengine.tools.mapreduce.MapJob;
 import com.google.appengine.tools.mapreduce.MapReduceJob;
 import com.google.appengine.tools.mapreduce.MapReduceSettings;
@@ -34,11 +36,17 @@ import com.google.appengine.tools.pipeline.Job0;
 import com.google.appengine.tools.pipeline.JobSetting;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.flogger.FluentLogger;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.mapreduce.inputs.ConcatenatingInput;
 import google.registry.request.Parameter;
+import google.registry.request.Response;
 import google.registry.util.PipelineUtils;
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 import javax.inject.Inject;
 import org.joda.time.Duration;
 
@@ -47,6 +55,14 @@ import org.joda.time.Duration;
  *
  * <p>We use hardcoded serialization marshallers for moving data between steps, so all types used as
  * keys or values must implement {@link Serializable}.
+ *
+ * <p>Mapreduces that are started with {@link #runMapOnly} or {@link #runMapreduce} are run within
+ * the current request by {@link InProcessMapreduce} instead of as a pipeline if the {@value
+ * #PARAM_IN_PROCESS} parameter is true, or if it's absent and their inputs have no more than
+ * {@code inProcessMapreduceMaxInputSize} entities between them. This lets jobs over small
+ * registries finish in seconds rather than minutes. Such a job has already finished when its ID is
+ * returned, and has no pipeline status page, so actions should respond with {@link #sendJobStatus}
+ * rather than redirecting to the pipeline status page themselves.
  */
 public class MapreduceRunner {
 
@@ -55,12 +71,16 @@ public class MapreduceRunner {
   public static final String PARAM_DRY_RUN = "dryRun";
   public static final String PARAM_MAP_SHARDS = "mapShards";
   public static final String PARAM_REDUCE_SHARDS = "reduceShards";
+  public static final String PARAM_IN_PROCESS = "inProcess";
 
+  private static final String IN_PROCESS_JOB_ID_PREFIX = "in-process-";
   private static final String BASE_URL = "/_dr/mapreduce/";
   private static final String QUEUE_NAME = "mapreduce";
 
   private final Optional<Integer> httpParamMapShards;
   private final Optional<Integer> httpParamReduceShards;
+  private final Optional<Boolean> httpParamInProcess;
+  private final int maxInProcessInputSize;
 
   // Default to 3 minutes since many slices will contain Datastore queries that time out at 4:30.
   private Duration sliceDuration = Duration.standardMinutes(3);
@@ -85,13 +105,28 @@ public class MapreduceRunner {
    * @param mapShards number of map shards; if omitted, the {@link Input} objects will choose
    * @param reduceShards number of reduce shards; if omitted, uses {@link #defaultReduceShards}
    */
+  @VisibleForTesting
+  public MapreduceRunner(Optional<Integer> mapShards, Optional<Integer> reduceShards) {
+    this(mapShards, reduceShards, Optional.empty(), 0);
+  }
+
+  /**
+   * @param mapShards number of map shards; if omitted, the {@link Input} objects will choose
+   * @param reduceShards number of reduce shards; if omitted, uses {@link #defaultReduceShards}
+   * @param inProcess whether to run in-process; if omitted, decides by the size of the inputs
+   * @param maxInProcessInputSize the most input entities to decide to run in-process for
+   */
   @Inject
   @VisibleForTesting
   public MapreduceRunner(
       @Parameter(PARAM_MAP_SHARDS) Optional<Integer> mapShards,
-      @Parameter(PARAM_REDUCE_SHARDS) Optional<Integer> reduceShards) {
+      @Parameter(PARAM_REDUCE_SHARDS) Optional<Integer> reduceShards,
+      @Parameter(PARAM_IN_PROCESS) Optional<Boolean> inProcess,
+      @Config("inProcessMapreduceMaxInputSize") int maxInProcessInputSize) {
     this.httpParamMapShards = mapShards;
     this.httpParamReduceShards = reduceShards;
+    this.httpParamInProcess = inProcess;
+    this.maxInProcessInputSize = maxInProcessInputSize;
   }
 
   /** Set the max time to run a slice before serializing; defaults to 3 minutes. */
@@ -171,6 +206,17 @@ public class MapreduceRunner {
   public <I> String runMapOnly(
       Mapper<I, Void, Void> mapper,
       Iterable<? extends Input<? extends I>> inputs) {
+    if (shouldRunInProcess(inputs)) {
+      checkCommonRequiredFields(inputs, mapper);
+      String jobId = createInProcessJobId();
+      try {
+        InProcessMapreduce.runMapOnly(
+            jobId, mapper, createInProcessReaders(inputs), new NoOutput<Void, Void>());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return jobId;
+    }
     return runAsPipeline(createMapOnlyJob(mapper, new NoOutput<Void, Void>(), inputs));
   }
 
@@ -258,9 +304,74 @@ public class MapreduceRunner {
       Reducer<K, V, O> reducer,
       Iterable<? extends Input<? extends I>> inputs,
       Output<O, R> output) {
+    if (shouldRunInProcess(inputs)) {
+      checkCommonRequiredFields(inputs, mapper);
+      checkArgumentNotNull(reducer, "reducer");
+      String jobId = createInProcessJobId();
+      try {
+        InProcessMapreduce.runMapreduce(
+            jobId,
+            mapper,
+            reducer,
+            createInProcessReaders(inputs),
+            httpParamReduceShards.orElse(defaultReduceShards),
+            output);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return jobId;
+    }
     return runAsPipeline(createMapreduceJob(mapper, reducer, inputs, output));
   }
 
+  private boolean shouldRunInProcess(Iterable<? extends Input<?>> inputs) {
+    if (httpParamInProcess.isPresent()) {
+      return httpParamInProcess.get();
+    }
+    if (maxInProcessInputSize <= 0) {
+      return false;
+    }
+    try {
+      return ConcatenatingInput.hasAtMost(inputs, maxInProcessInputSize);
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "Couldn't count the inputs of '%s'; running it as a pipeline.", jobName);
+      return false;
+    }
+  }
+
+  private <I> List<InputReader<I>> createInProcessReaders(
+      Iterable<? extends Input<? extends I>> inputs) throws IOException {
+    return new ConcatenatingInput<I>(inputs, httpParamMapShards.orElse(defaultMapShards))
+        .createReaders();
+  }
+
+  private String createInProcessJobId() {
+    String jobId = IN_PROCESS_JOB_ID_PREFIX + UUID.randomUUID();
+    logger.atInfo().log("Running '%s' in-process as job %s", jobName, jobId);
+    return jobId;
+  }
+
+  /** Returns whether the job with the given ID was run in-process, and has thus finished. */
+  public static boolean isInProcessJob(String jobId) {
+    return jobId.startsWith(IN_PROCESS_JOB_ID_PREFIX);
+  }
+
+  /**
+   * Sends the response for starting the job with the given ID.
+   *
+   * <p>This redirects to the status page of the job's pipeline, or for a job that was run
+   * in-process, just says that it finished.
+   */
+  public static void sendJobStatus(Response response, String jobId) {
+    if (isInProcessJob(jobId)) {
+      response.setContentType(PLAIN_TEXT_UTF_8);
+      response.setPayload(String.format("Finished in-process job %s\n", jobId));
+    } else {
+      response.sendJavaScriptRedirect(PipelineUtils.createJobPath(jobId));
+    }
+  }
+
   private void checkCommonRequiredFields(Iterable<?> inputs, Mapper<?, ?, ?> mapper) {
     checkNotNull(jobName, "jobName");
     checkNotNull(moduleName, "moduleName");
@@ -14,6 +14,7 @@
 
 package google.registry.mapreduce.inputs;
 
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.TypeUtils.checkNoInheritanceRelationships;
 
 import com.google.appengine.tools.mapreduce.Input;
@@ -22,7 +23,9 @@ import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
+import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
+import javax.annotation.Nullable;
 
 /**
  * A MapReduce {@link Input} that loads all child objects of a given set of types, that are children
@@ -45,8 +48,29 @@ class ChildEntityInput<R extends EppResource, I extends ImmutableObject>
     checkNoInheritanceRelationships(ImmutableSet.copyOf(childResourceClasses));
   }
 
+  /**
+   * Returns at least the number of child entities, counting up to {@code limit}.
+   *
+   * <p>This counts every entity of the child types, whatever kind of resource they're under.
+   */
   @Override
-  protected InputReader<I> bucketToReader(Key<EppResourceIndexBucket> bucketKey) {
-    return new ChildEntityReader<>(bucketKey, resourceClasses, childResourceClasses);
+  public int countUpTo(int limit) {
+    int count = 0;
+    for (Class<? extends I> childResourceClass : childResourceClasses) {
+      if (count >= limit) {
+        break;
+      }
+      count += ofy().load().type(childResourceClass).limit(limit - count).count();
+    }
+    return count;
+  }
+
+  @Override
+  protected InputReader<I> bucketToReader(
+      Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey) {
+    return new ChildEntityReader<>(
+        bucketKey, startKey, endKey, resourceClasses, childResourceClasses);
   }
 }
@@ -55,10 +55,13 @@ class ChildEntityReader<R extends EppResource, I extends ImmutableObject> extend
 
   public ChildEntityReader(
       Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey,
       ImmutableSet<Class<? extends R>> resourceClasses,
       ImmutableSet<Class<? extends I>> childResourceClasses) {
     this.childResourceClasses = expandPolymorphicClasses(childResourceClasses);
-    this.eppResourceEntityReader = new EppResourceEntityReader<>(bucketKey, resourceClasses);
+    this.eppResourceEntityReader =
+        new EppResourceEntityReader<>(bucketKey, startKey, endKey, resourceClasses);
   }
 
   /** Expands non-entity polymorphic classes into their child types. */
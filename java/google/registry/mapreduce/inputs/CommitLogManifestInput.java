@@ -14,6 +14,8 @@
 
 package google.registry.mapreduce.inputs;
 
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
 import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableList;
@@ -25,7 +27,8 @@ import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 
 /** Base class for {@link Input} classes that map over {@link CommitLogManifest}. */
-public class CommitLogManifestInput extends Input<Key<CommitLogManifest>> {
+public class CommitLogManifestInput extends Input<Key<CommitLogManifest>>
+    implements CountableInput {
 
   private static final long serialVersionUID = 6744322799131602384L;
 
@@ -38,25 +41,48 @@ public class CommitLogManifestInput extends Input<Key<CommitLogManifest>> {
   @Nullable
   private final DateTime olderThan;
 
+  /**
+   * Start date for result.
+   *
+   * <p>If present, all resulting CommitLogManifest will be dated after this date.
+   */
+  @Nullable
+  private final DateTime newerThan;
+
   public CommitLogManifestInput() {
-    this.olderThan = null;
+    this(null, null);
   }
 
   public CommitLogManifestInput(@Nullable DateTime olderThan) {
+    this(olderThan, null);
+  }
+
+  public CommitLogManifestInput(@Nullable DateTime olderThan, @Nullable DateTime newerThan) {
     this.olderThan = olderThan;
+    this.newerThan = newerThan;
   }
 
   @Override
   public List<InputReader<Key<CommitLogManifest>>> createReaders() {
     ImmutableList.Builder<InputReader<Key<CommitLogManifest>>> readers =
         new ImmutableList.Builder<>();
-    for (Key<CommitLogBucket> bucketKey : CommitLogBucket.getAllBucketKeys()) {
+    for (Key<CommitLogBucket> bucketKey : CommitLogBucket.getAllCheckpointedBucketKeys()) {
       readers.add(bucketToReader(bucketKey));
     }
     return readers.build();
   }
 
+  /**
+   * Returns at least the number of manifests, counting up to {@code limit}.
+   *
+   * <p>This counts manifests of any date, since their dates are only in their keys.
+   */
+  @Override
+  public int countUpTo(int limit) {
+    return ofy().load().type(CommitLogManifest.class).limit(limit).count();
+  }
+
   private InputReader<Key<CommitLogManifest>> bucketToReader(Key<CommitLogBucket> bucketKey) {
-    return new CommitLogManifestReader(bucketKey, olderThan);
+    return new CommitLogManifestReader(bucketKey, olderThan, newerThan);
   }
 }
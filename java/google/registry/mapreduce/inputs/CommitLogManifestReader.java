@@ -51,9 +51,21 @@ class CommitLogManifestReader
   @Nullable
   private final DateTime olderThan;
 
-  CommitLogManifestReader(Key<CommitLogBucket> bucketKey, @Nullable DateTime olderThan) {
+  /**
+   * Start date for result.
+   *
+   * If present, all resulting CommitLogManifest will be dated after this date.
+   */
+  @Nullable
+  private final DateTime newerThan;
+
+  CommitLogManifestReader(
+      Key<CommitLogBucket> bucketKey,
+      @Nullable DateTime olderThan,
+      @Nullable DateTime newerThan) {
     this.bucketKey = bucketKey;
     this.olderThan = olderThan;
+    this.newerThan = newerThan;
   }
 
   @Override
@@ -74,6 +86,11 @@ class CommitLogManifestReader
           "<",
           Key.create(bucketKey, CommitLogManifest.class, olderThan.getMillis()));
     }
+    if (newerThan != null) {
+      query = query.filterKey(
+          ">",
+          Key.create(bucketKey, CommitLogManifest.class, newerThan.getMillis()));
+    }
     return query;
   }
 
@@ -62,4 +62,25 @@ public class ConcatenatingInput<T> extends Input<T> {
     }
     return concatenatingReaders.build();
   }
+
+  /**
+   * Returns whether the given inputs have at most {@code maxSize} values between them.
+   *
+   * <p>This is false if any of the inputs isn't a {@link CountableInput}, since the size of other
+   * inputs isn't known. Each input is counted with one bounded query, without creating its readers,
+   * and the counts stop as soon as they pass {@code maxSize}.
+   */
+  public static boolean hasAtMost(Iterable<? extends Input<?>> inputs, int maxSize) {
+    int remaining = maxSize;
+    for (Input<?> input : inputs) {
+      if (!(input instanceof CountableInput)) {
+        return false;
+      }
+      remaining -= ((CountableInput) input).countUpTo(remaining + 1);
+      if (remaining < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
@@ -0,0 +1,36 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.mapreduce.inputs;
+
+import com.google.appengine.tools.mapreduce.Input;
+
+/**
+ * An {@link Input} that can bound how many values it gives without creating its readers.
+ *
+ * <p>{@link ConcatenatingInput#hasAtMost} uses this to decide whether a mapreduce is small enough
+ * to run in-process.
+ */
+interface CountableInput {
+
+  /**
+   * Returns at least the number of values this input gives, counting no further than {@code
+   * limit}.
+   *
+   * <p>This runs a single bounded keys-only count, however many readers the input has. The count
+   * may be higher than the true number of values, since it needn't apply every filter the readers
+   * do, and as a non-ancestor query it may miss the most recent writes.
+   */
+  int countUpTo(int limit);
+}
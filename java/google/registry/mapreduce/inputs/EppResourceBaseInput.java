@@ -14,29 +14,129 @@
 
 package google.registry.mapreduce.inputs;
 
+import static google.registry.config.RegistryConfig.getEppResourceIndexesPerReader;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Ordering;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
+import google.registry.util.NonFinalForTesting;
 import java.util.List;
+import javax.annotation.Nullable;
 
-/** Base class for {@link Input} classes that map over {@link EppResourceIndex}. */
-abstract class EppResourceBaseInput<I> extends Input<I> {
+/**
+ * Base class for {@link Input} classes that map over {@link EppResourceIndex}.
+ *
+ * <p>There is one reader for each bucket, unless the bucket has more than about {@link
+ * #maxIndexesPerReader} indexes, in which case it's split into key ranges of about that many
+ * indexes with a reader for each. This keeps the readers roughly the same size even when some
+ * buckets are much bigger than others, so adding map shards speeds up the mapreduce instead of
+ * leaving it waiting on the shards that read the biggest buckets.
+ *
+ * <p>Buckets are measured by sampling, as the App Engine MapReduce library's own Datastore input
+ * does: Datastore gives a random subset of entities a {@code __scatter__} property, so a single
+ * keys-only query ordered by it returns a sample of indexes from all buckets at once, without
+ * reading the rest.
+ */
+abstract class EppResourceBaseInput<I> extends Input<I> implements CountableInput {
 
   private static final long serialVersionUID = -6681886718929462122L;
 
+  /** Roughly how many entities there are for each one that has the scatter property. */
+  private static final int INDEXES_PER_SCATTER_SAMPLE = 128;
+
+  /**
+   * The most scatter samples to load when creating the readers.
+   *
+   * <p>Past about this many samples' worth of indexes, buckets are split into fewer readers than
+   * {@link #maxIndexesPerReader} calls for, which is slower but still correct.
+   */
+  private static final int MAX_SCATTER_SAMPLES = 10000;
+
+  /** The most indexes that a single reader goes over, or zero for one reader per bucket. */
+  @NonFinalForTesting
+  @VisibleForTesting
+  static int maxIndexesPerReader = getEppResourceIndexesPerReader();
+
   @Override
   public List<InputReader<I>> createReaders() {
+    ImmutableListMultimap<Key<EppResourceIndexBucket>, Key<EppResourceIndex>> splitKeys =
+        (maxIndexesPerReader <= 0)
+            ? ImmutableListMultimap.of()
+            : chooseSplitKeys(
+                ofy()
+                    .load()
+                    .type(EppResourceIndex.class)
+                    .order(Entity.SCATTER_RESERVED_PROPERTY)
+                    .limit(MAX_SCATTER_SAMPLES)
+                    .keys(),
+                Math.max(1, maxIndexesPerReader / INDEXES_PER_SCATTER_SAMPLE));
     ImmutableList.Builder<InputReader<I>> readers = new ImmutableList.Builder<>();
     for (Key<EppResourceIndexBucket> bucketKey : EppResourceIndexBucket.getAllBuckets()) {
-      readers.add(bucketToReader(bucketKey));
+      Key<EppResourceIndex> startKey = null;
+      for (Key<EppResourceIndex> endKey : splitKeys.get(bucketKey)) {
+        readers.add(bucketToReader(bucketKey, startKey, endKey));
+        startKey = endKey;
+      }
+      readers.add(bucketToReader(bucketKey, startKey, null));
     }
     return readers.build();
   }
 
-  /** Creates a reader that returns the resources under a bucket. */
-  protected abstract InputReader<I> bucketToReader(Key<EppResourceIndexBucket> bucketKey);
-}
+  /**
+   * Returns the keys, in order for each bucket, that split the buckets into readers.
+   *
+   * <p>Each bucket is split at every {@code samplesPerReader}th of its sampled indexes, so that
+   * each reader gets about that many samples' worth of indexes.
+   */
+  @VisibleForTesting
+  static ImmutableListMultimap<Key<EppResourceIndexBucket>, Key<EppResourceIndex>>
+      chooseSplitKeys(Iterable<Key<EppResourceIndex>> sampleKeys, int samplesPerReader) {
+    ImmutableListMultimap.Builder<Key<EppResourceIndexBucket>, Key<EppResourceIndex>> splitKeys =
+        new ImmutableListMultimap.Builder<>();
+    Multimaps.index(sampleKeys, key -> key.<EppResourceIndexBucket>getParent())
+        .asMap()
+        .forEach(
+            (bucketKey, samples) -> {
+              List<Key<EppResourceIndex>> sortedSamples = Ordering.natural().sortedCopy(samples);
+              for (int i = samplesPerReader; i < sortedSamples.size(); i += samplesPerReader) {
+                splitKeys.put(bucketKey, sortedSamples.get(i));
+              }
+            });
+    return splitKeys.build();
+  }
 
+  /**
+   * Returns the number of indexes for resources of the given kinds, counting up to {@code limit}.
+   *
+   * @param filterKinds the kinds to count, or empty to count indexes of all kinds
+   */
+  static int countIndexesUpTo(ImmutableSet<String> filterKinds, int limit) {
+    Query<EppResourceIndex> query = ofy().load().type(EppResourceIndex.class);
+    if (!filterKinds.isEmpty()) {
+      query = query.filter("kind in", filterKinds);
+    }
+    return query.limit(limit).count();
+  }
+
+  /**
+   * Creates a reader that returns the resources under a bucket whose indexes are in a key range.
+   *
+   * @param startKey the inclusive start of the range, or null to start at the start of the bucket
+   * @param endKey the exclusive end of the range, or null to end at the end of the bucket
+   */
+  protected abstract InputReader<I> bucketToReader(
+      Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey);
+}
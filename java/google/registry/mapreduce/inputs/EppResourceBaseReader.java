@@ -46,13 +46,24 @@ abstract class EppResourceBaseReader<T> extends RetryingInputReader<EppResourceI
   private final ImmutableSet<String> filterKinds;
 
   private final Key<EppResourceIndexBucket> bucketKey;
+
+  /** The inclusive start of the range of index keys to read, or null for the whole bucket. */
+  @Nullable private final Key<EppResourceIndex> startKey;
+
+  /** The exclusive end of the range of index keys to read, or null for the whole bucket. */
+  @Nullable private final Key<EppResourceIndex> endKey;
+
   private final long memoryEstimate;
 
   EppResourceBaseReader(
       Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey,
       long memoryEstimate,
       ImmutableSet<String> filterKinds) {
     this.bucketKey = bucketKey;
+    this.startKey = startKey;
+    this.endKey = endKey;
     this.memoryEstimate = memoryEstimate;
     this.filterKinds = filterKinds;
   }
@@ -67,9 +78,15 @@ abstract class EppResourceBaseReader<T> extends RetryingInputReader<EppResourceI
     return query().count();
   }
 
-  /** Query for children of this bucket. */
+  /** Query for children of this bucket in this reader's key range. */
   Query<EppResourceIndex> query() {
     Query<EppResourceIndex> query = ofy().load().type(EppResourceIndex.class).ancestor(bucketKey);
+    if (startKey != null) {
+      query = query.filterKey(">=", startKey);
+    }
+    if (endKey != null) {
+      query = query.filterKey("<", endKey);
+    }
     return filterKinds.isEmpty() ? query : query.filter("kind in", filterKinds);
   }
 
@@ -21,7 +21,9 @@ import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
+import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
+import javax.annotation.Nullable;
 
 /** A MapReduce {@link Input} that loads all {@link EppResource} objects of a given type. */
 class EppResourceEntityInput<R extends EppResource> extends EppResourceBaseInput<R> {
@@ -36,7 +38,15 @@ class EppResourceEntityInput<R extends EppResource> extends EppResourceBaseInput
   }
 
   @Override
-  protected InputReader<R> bucketToReader(Key<EppResourceIndexBucket> bucketKey) {
-    return new EppResourceEntityReader<>(bucketKey, resourceClasses);
+  public int countUpTo(int limit) {
+    return countIndexesUpTo(EppResourceBaseReader.varargsToKinds(resourceClasses), limit);
+  }
+
+  @Override
+  protected InputReader<R> bucketToReader(
+      Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey) {
+    return new EppResourceEntityReader<>(bucketKey, startKey, endKey, resourceClasses);
   }
 }
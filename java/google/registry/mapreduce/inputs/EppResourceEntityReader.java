@@ -14,8 +14,6 @@
 
 package google.registry.mapreduce.inputs;
 
-import static google.registry.model.ofy.ObjectifyService.ofy;
-
 import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
@@ -24,6 +22,7 @@ import google.registry.model.EppResource;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
 
 /** Reader that maps over {@link EppResourceIndex} and returns resources. */
 class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseReader<R> {
@@ -43,14 +42,23 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
 
   public EppResourceEntityReader(
       Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey,
       ImmutableSet<Class<? extends R>> resourceClasses) {
     super(
         bucketKey,
+        startKey,
+        endKey,
         ONE_MB * 2,  // Estimate 2MB of memory for this reader, since it loads a (max 1MB) entity.
         varargsToKinds(resourceClasses));
     this.resourceClasses = resourceClasses;
   }
 
+  @Override
+  protected Key<? extends EppResource> getKeyToPrefetch(EppResourceIndex index) {
+    return index.getKey();
+  }
+
   /**
    * Called for each map invocation.
    *
@@ -62,7 +70,7 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
     // Loop until we find a value, or nextQueryResult() throws a NoSuchElementException.
     while (true) {
       Key<? extends EppResource> key = nextQueryResult().getKey();
-      EppResource resource = ofy().load().key(key).now();
+      EppResource resource = loadPrefetched(key);
       if (resource == null) {
         logger.atSevere().log("EppResourceIndex key %s points at a missing resource", key);
         continue;
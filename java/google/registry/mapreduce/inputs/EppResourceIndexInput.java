@@ -16,9 +16,11 @@ package google.registry.mapreduce.inputs;
 
 import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
+import javax.annotation.Nullable;
 
 /**
  * A MapReduce {@link Input} that loads all {@link EppResourceIndex} entities.
@@ -28,7 +30,15 @@ class EppResourceIndexInput extends EppResourceBaseInput<EppResourceIndex> {
   private static final long serialVersionUID = -1231269296567279059L;
 
   @Override
-  protected InputReader<EppResourceIndex> bucketToReader(Key<EppResourceIndexBucket> bucketKey) {
-    return new EppResourceIndexReader(bucketKey);
+  public int countUpTo(int limit) {
+    return countIndexesUpTo(ImmutableSet.of(), limit);
+  }
+
+  @Override
+  protected InputReader<EppResourceIndex> bucketToReader(
+      Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey) {
+    return new EppResourceIndexReader(bucketKey, startKey, endKey);
   }
 }
@@ -20,16 +20,20 @@ import com.googlecode.objectify.Key;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
 
 /** Reader that maps over {@link EppResourceIndex} and returns the index objects themselves. */
 class EppResourceIndexReader extends EppResourceBaseReader<EppResourceIndex> {
 
   private static final long serialVersionUID = -4816383426796766911L;
 
-  public EppResourceIndexReader(Key<EppResourceIndexBucket> bucketKey) {
+  public EppResourceIndexReader(
+      Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey) {
     // Estimate 1MB of memory for this reader, which is massive overkill.
     // Use an empty set for the filter kinds, which disables filtering.
-    super(bucketKey, ONE_MB, ImmutableSet.of());
+    super(bucketKey, startKey, endKey, ONE_MB, ImmutableSet.of());
   }
 
   /**
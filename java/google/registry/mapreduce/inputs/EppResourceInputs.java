@@ -24,7 +24,9 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.EntitySubclass;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.LinkedDomainIndex;
 
 /**
  * Mapreduce helpers for {@link EppResource} keys and objects.
@@ -74,6 +76,21 @@ public final class EppResourceInputs {
     return new ChildEntityInput<>(parentClasses, childClasses);
   }
 
+  /**
+   * Returns a MapReduce {@link Input} that loads the domains of a given type that are linked to any
+   * of the given contacts or hosts, including deleted domains.
+   *
+   * <p>This reads the {@link LinkedDomainIndex} entities for each contact or host from every bucket
+   * rather than every domain, so it is strongly consistent and only as large as the number of links
+   * (plus a query per bucket). A domain linked to more than one of the given resources is returned
+   * once for each of them.
+   */
+  public static <R extends DomainBase> Input<R> createLinkedDomainInput(
+      ImmutableSet<? extends Key<? extends EppResource>> linkedResources, Class<R> domainClass) {
+    checkArgument(!linkedResources.isEmpty(), "Must provide at least one linked resource.");
+    return new LinkedDomainInput<>(ImmutableSet.copyOf(linkedResources), domainClass);
+  }
+
   /**
    * Returns a MapReduce {@link Input} that loads keys to all {@link EppResource} objects of a given
    * type, including deleted resources.
@@ -21,7 +21,9 @@ import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
+import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
+import javax.annotation.Nullable;
 
 /**
  * A MapReduce {@link Input} that loads keys to all {@link EppResource} objects of a given type.
@@ -40,7 +42,15 @@ class EppResourceKeyInput<R extends EppResource> extends EppResourceBaseInput<Ke
   }
 
   @Override
-  protected InputReader<Key<R>> bucketToReader(Key<EppResourceIndexBucket> bucketKey) {
-    return new EppResourceKeyReader<>(bucketKey, resourceClasses);
+  public int countUpTo(int limit) {
+    return countIndexesUpTo(EppResourceBaseReader.varargsToKinds(resourceClasses), limit);
+  }
+
+  @Override
+  protected InputReader<Key<R>> bucketToReader(
+      Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey) {
+    return new EppResourceKeyReader<>(bucketKey, startKey, endKey, resourceClasses);
   }
 }
@@ -21,6 +21,7 @@ import google.registry.model.EppResource;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
 
 /**
  * Reader that maps over {@link EppResourceIndex} and returns resource keys.
@@ -32,9 +33,14 @@ class EppResourceKeyReader<R extends EppResource> extends EppResourceBaseReader<
   private static final long serialVersionUID = -428232054739189774L;
 
   public EppResourceKeyReader(
-      Key<EppResourceIndexBucket> bucketKey, ImmutableSet<Class<? extends R>> resourceClasses) {
+      Key<EppResourceIndexBucket> bucketKey,
+      @Nullable Key<EppResourceIndex> startKey,
+      @Nullable Key<EppResourceIndex> endKey,
+      ImmutableSet<Class<? extends R>> resourceClasses) {
     super(
         bucketKey,
+        startKey,
+        endKey,
         ONE_MB,  // Estimate 1MB of memory for this reader, which is massive overkill.
         varargsToKinds(resourceClasses));
   }
@@ -0,0 +1,78 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package google.registry.mapreduce.inputs;
+
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.appengine.tools.mapreduce.Input;
+import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.EppResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.index.LinkedDomainIndex;
+import google.registry.model.index.LinkedDomainIndexBucket;
+import java.util.List;
+
+/**
+ * A MapReduce {@link Input} that loads the domains linked to a given set of contacts and hosts.
+ *
+ * <p>There is one reader for each {@link LinkedDomainIndexBucket} of each contact or host, reading
+ * its links in that bucket, so a domain linked to more than one of them is returned once for each.
+ */
+class LinkedDomainInput<R extends DomainBase> extends Input<R> implements CountableInput {
+
+  private static final long serialVersionUID = 2924851932637412806L;
+
+  private final ImmutableSet<Key<? extends EppResource>> linkedResources;
+  private final Class<R> domainClass;
+
+  public LinkedDomainInput(
+      ImmutableSet<Key<? extends EppResource>> linkedResources, Class<R> domainClass) {
+    this.linkedResources = linkedResources;
+    this.domainClass = domainClass;
+  }
+
+  /**
+   * Returns at least the number of links to the resources, counting up to {@code limit}.
+   *
+   * <p>This counts links from both domains and applications.
+   */
+  @Override
+  public int countUpTo(int limit) {
+    if (linkedResources.isEmpty()) {
+      return 0;
+    }
+    return ofy()
+        .load()
+        .type(LinkedDomainIndex.class)
+        .filter("linkedResource in", linkedResources)
+        .limit(limit)
+        .count();
+  }
+
+  @Override
+  public List<InputReader<R>> createReaders() {
+    ImmutableList.Builder<InputReader<R>> readers = new ImmutableList.Builder<>();
+    for (Key<? extends EppResource> linkedResource : linkedResources) {
+      for (Key<LinkedDomainIndexBucket> bucket : LinkedDomainIndexBucket.getAllBuckets()) {
+        readers.add(new LinkedDomainReader<>(linkedResource, bucket, domainClass));
+      }
+    }
+    return readers.build();
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package google.registry.mapreduce.inputs;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.flogger.FluentLogger;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+import google.registry.model.EppResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.index.LinkedDomainIndex;
+import google.registry.model.index.LinkedDomainIndexBucket;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+
+/**
+ * Reader that maps over the links to a contact or host in one {@link LinkedDomainIndexBucket} and
+ * returns their domains.
+ */
+class LinkedDomainReader<R extends DomainBase>
+    extends RetryingInputReader<Key<LinkedDomainIndex>, R> {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Number of bytes in 1MB of memory, used for memory estimates. */
+  private static final long ONE_MB = 1024 * 1024;
+
+  private static final long serialVersionUID = -1786457283390513694L;
+
+  private final Key<? extends EppResource> linkedResource;
+  private final Key<LinkedDomainIndexBucket> bucket;
+
+  /**
+   * The domain class to postfilter for.
+   *
+   * <p>This can be {@link DomainBase} for both domains and applications, or a subclass of it.
+   */
+  private final Class<R> domainClass;
+
+  LinkedDomainReader(
+      Key<? extends EppResource> linkedResource,
+      Key<LinkedDomainIndexBucket> bucket,
+      Class<R> domainClass) {
+    this.linkedResource = linkedResource;
+    this.bucket = bucket;
+    this.domainClass = domainClass;
+  }
+
+  @Override
+  public QueryResultIterator<Key<LinkedDomainIndex>> getQueryIterator(@Nullable Cursor cursor) {
+    return startQueryAt(query(), cursor).keys().iterator();
+  }
+
+  @Override
+  public int getTotal() {
+    return query().count();
+  }
+
+  /** Query for the links to this contact or host in this bucket. */
+  Query<LinkedDomainIndex> query() {
+    return LinkedDomainIndex.queryLinks(linkedResource, bucket);
+  }
+
+  @Override
+  protected Key<DomainBase> getKeyToPrefetch(Key<LinkedDomainIndex> link) {
+    return LinkedDomainIndex.getDomain(link);
+  }
+
+  /** Returns the estimated memory that will be used by this reader in bytes. */
+  @Override
+  public long estimateMemoryRequirement() {
+    // Estimate 2MB of memory for this reader, since it loads a (max 1MB) entity.
+    return ONE_MB * 2;
+  }
+
+  /**
+   * Called for each map invocation.
+   *
+   * @throws NoSuchElementException if there are no more elements, as specified in the
+   *         {@link InputReader#next} Javadoc.
+   */
+  @Override
+  public R next() throws NoSuchElementException {
+    // Loop until we find a value, or nextQueryResult() throws a NoSuchElementException.
+    while (true) {
+      Key<DomainBase> domainKey = getKeyToPrefetch(nextQueryResult());
+      DomainBase domain = loadPrefetched(domainKey);
+      if (domain == null) {
+        logger.atSevere().log("LinkedDomainIndex for %s points at a missing domain", domainKey);
+        continue;
+      }
+      // Postfilter to distinguish polymorphic types (e.g. DomainResource and DomainApplication).
+      if (domainClass.isInstance(domain)) {
+        return domainClass.cast(domain);
+      }
+    }
+  }
+}
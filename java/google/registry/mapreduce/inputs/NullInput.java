@@ -21,7 +21,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 
 /** An input that returns a single {@code null} value. */
-public class NullInput<T> extends Input<T> {
+public class NullInput<T> extends Input<T> implements CountableInput {
 
   private static final long serialVersionUID = 1816836937031979851L;
 
@@ -46,6 +46,11 @@ public class NullInput<T> extends Input<T> {
     }
   }
 
+  @Override
+  public int countUpTo(int limit) {
+    return Math.min(1, limit);
+  }
+
   @Override
   public List<? extends InputReader<T>> createReaders() {
     return ImmutableList.of(new NullReader<T>());
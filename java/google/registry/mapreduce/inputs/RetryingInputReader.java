@@ -15,16 +15,28 @@
 package google.registry.mapreduce.inputs;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static google.registry.config.RegistryConfig.getMapreduceReaderPrefetchBatchSize;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.appengine.tools.mapreduce.ShardContext;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.flogger.FluentLogger;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
+import google.registry.util.NonFinalForTesting;
 import google.registry.util.Retrier;
 import google.registry.util.SystemSleeper;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import javax.annotation.Nullable;
 
@@ -46,12 +58,39 @@ abstract class RetryingInputReader<I, T> extends InputReader<T> {
   private static final Retrier retrier = new Retrier(new SystemSleeper(), 5);
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  private static final String RESULTS_READ_COUNTER = "Input reader results read";
+  private static final String MILLIS_WAITING_COUNTER = "Input reader milliseconds waiting";
+
+  /**
+   * How many query results ahead of the current one to load the entities for.
+   *
+   * <p>This only applies to readers that load an entity for each result with {@link
+   * #loadPrefetched}. Zero disables prefetching.
+   */
+  @NonFinalForTesting
+  @VisibleForTesting
+  static int prefetchBatchSize = getMapreduceReaderPrefetchBatchSize();
+
   @Nullable private Cursor cursor;
   private int total;
   private int loaded;
 
   private transient QueryResultIterator<I> queryIterator;
 
+  /**
+   * Query results that have been read from the iterator but not yet returned.
+   *
+   * <p>The saved cursor always points at the first of these, so that they're read again after the
+   * reader is deserialized.
+   */
+  private transient Deque<LookaheadResult<I>> lookahead;
+
+  /** Batch loads that have been started for the entities of the looked-ahead results, by key. */
+  private transient Map<Key<?>, Map<Key<Object>, Object>> prefetchedLoads;
+
+  private transient int resultsReadInSlice;
+  private transient long nanosWaitingInSlice;
+
   /**
    * Return the iterator over Query results, starting at the cursor location.
    *
@@ -95,6 +134,17 @@ abstract class RetryingInputReader<I, T> extends InputReader<T> {
   @Override
   public abstract T next();
 
+  /**
+   * Returns the key of the entity that {@link #loadPrefetched} will be called with for a query
+   * result, so that it can be loaded ahead of time.
+   *
+   * <p>Readers that call {@link #loadPrefetched} must override this.
+   */
+  @Nullable
+  protected Key<?> getKeyToPrefetch(I queryResult) {
+    return null;
+  }
+
   /** Called once at start. Cache the expected size. */
   @Override
   public void beginShard() {
@@ -105,6 +155,10 @@ abstract class RetryingInputReader<I, T> extends InputReader<T> {
   @Override
   public void beginSlice() {
     queryIterator = getQueryIterator(cursor);
+    lookahead = new ArrayDeque<>();
+    prefetchedLoads = new HashMap<>();
+    resultsReadInSlice = 0;
+    nanosWaitingInSlice = 0;
   }
 
   /** Called occasionally alongside {@link #next}. */
@@ -118,7 +172,14 @@ abstract class RetryingInputReader<I, T> extends InputReader<T> {
   /** Called before we are serialized. Save a serializable cursor for this query. */
   @Override
   public void endSlice() {
-    cursor = queryIterator.getCursor();
+    // Any looked-ahead results (and their prefetched entities) are dropped here, and read again
+    // from the cursor in the next slice.
+    cursor = lookahead.isEmpty() ? queryIterator.getCursor() : lookahead.getFirst().cursorBefore;
+    ShardContext context = getContext();
+    if (context != null) {
+      context.incrementCounter(RESULTS_READ_COUNTER, resultsReadInSlice);
+      context.incrementCounter(MILLIS_WAITING_COUNTER, NANOSECONDS.toMillis(nanosWaitingInSlice));
+    }
   }
 
   /**
@@ -129,19 +190,20 @@ abstract class RetryingInputReader<I, T> extends InputReader<T> {
    * @throws NoSuchElementException if there are no more elements.
    */
   protected final I nextQueryResult() {
-    cursor = queryIterator.getCursor();
+    long startNanos = System.nanoTime();
     loaded++;
     try {
-      return retrier.callWithRetry(
-          () -> queryIterator.next(),
-          (thrown, failures, maxAttempts) -> {
-            checkNotNull(cursor, "Can't retry because cursor is null. Giving up.");
-            logger.atInfo().withCause(thrown).log(
-                "Retriable failure while reading item %d/%d - attempt %d/%d.",
-                loaded, total, failures, maxAttempts);
-            queryIterator = getQueryIterator(cursor);
-          },
-          DatastoreTimeoutException.class);
+      I queryResult;
+      if (lookahead.isEmpty()) {
+        cursor = queryIterator.getCursor();
+        queryResult = readWithRetries(cursor);
+      } else {
+        LookaheadResult<I> lookaheadResult = lookahead.removeFirst();
+        cursor = lookaheadResult.cursorBefore;
+        queryResult = lookaheadResult.queryResult;
+      }
+      resultsReadInSlice++;
+      return queryResult;
     } catch (NoSuchElementException e) {
       // We expect NoSuchElementException to be thrown, and it isn't an error. Just rethrow.
       throw e;
@@ -150,10 +212,92 @@ abstract class RetryingInputReader<I, T> extends InputReader<T> {
           String.format("Got an unrecoverable failure while reading item %d/%d.", loaded, total),
           e);
     } finally {
+      nanosWaitingInSlice += System.nanoTime() - startNanos;
       ofy().clearSessionCache();
     }
   }
 
+  /**
+   * Loads the entity for the query result that was just returned by {@link #nextQueryResult}.
+   *
+   * <p>Before loading it, this reads ahead in the query and starts an asynchronous batch load of
+   * the entities for the next {@link #prefetchBatchSize} results, whenever fewer than that many
+   * are already being loaded. The Datastore round trips thus overlap with the mapper's processing
+   * of the results before them, rather than each one blocking the mapper. The entity for a result
+   * can therefore be loaded up to two batches before the mapper gets it, so mappers that need the
+   * latest version must still reload it in a transaction, as they already should.
+   *
+   * @return the entity, or null if it doesn't exist
+   */
+  protected final <E> E loadPrefetched(Key<E> key) {
+    long startNanos = System.nanoTime();
+    try {
+      prefetchIfNeeded();
+      Map<Key<Object>, Object> batch = prefetchedLoads.remove(key);
+      @SuppressWarnings("unchecked")
+      E entity = (batch == null) ? ofy().load().key(key).now() : (E) batch.get(key);
+      return entity;
+    } finally {
+      nanosWaitingInSlice += System.nanoTime() - startNanos;
+    }
+  }
+
+  private void prefetchIfNeeded() {
+    if (lookahead.size() >= prefetchBatchSize) {
+      return;
+    }
+    List<Key<?>> keys = new ArrayList<>();
+    try {
+      for (int i = 0; i < prefetchBatchSize; i++) {
+        Cursor cursorBefore = queryIterator.getCursor();
+        I queryResult = readWithRetries(cursorBefore);
+        lookahead.addLast(new LookaheadResult<>(queryResult, cursorBefore));
+        Key<?> key = getKeyToPrefetch(queryResult);
+        if (key != null) {
+          keys.add(key);
+        }
+      }
+    } catch (NoSuchElementException e) {
+      // We've read to the end of the query, so there's nothing more to prefetch.
+    } catch (Throwable e) {
+      throw new RuntimeException(
+          String.format("Got an unrecoverable failure while reading ahead of item %d/%d.",
+              loaded, total),
+          e);
+    }
+    if (!keys.isEmpty()) {
+      Map<Key<Object>, Object> batch = ofy().load().values(keys);
+      for (Key<?> key : keys) {
+        prefetchedLoads.put(key, batch);
+      }
+    }
+  }
+
+  /** Reads the next result from the iterator, restarting it at the given cursor on timeouts. */
+  private I readWithRetries(@Nullable Cursor restartCursor) {
+    return retrier.callWithRetry(
+        () -> queryIterator.next(),
+        (thrown, failures, maxAttempts) -> {
+          checkNotNull(restartCursor, "Can't retry because cursor is null. Giving up.");
+          logger.atInfo().withCause(thrown).log(
+              "Retriable failure while reading item %d/%d - attempt %d/%d.",
+              loaded, total, failures, maxAttempts);
+          queryIterator = getQueryIterator(restartCursor);
+        },
+        DatastoreTimeoutException.class);
+  }
+
+  /** A query result that was read ahead, along with the cursor pointing at it. */
+  private static class LookaheadResult<I> {
+    final I queryResult;
+    final Cursor cursorBefore;
+
+    LookaheadResult(I queryResult, Cursor cursorBefore) {
+      this.queryResult = queryResult;
+      this.cursorBefore = cursorBefore;
+    }
+  }
+
   /**
    * Utility function to start a query from a given nullable cursor.
    *
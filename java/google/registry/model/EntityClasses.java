@@ -20,6 +20,7 @@ import google.registry.model.common.Cursor;
 import google.registry.model.common.EntityGroupRoot;
 import google.registry.model.common.GaeUserIdConverter;
 import google.registry.model.contact.ContactResource;
+import google.registry.model.dns.DnsPublishStats;
 import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
@@ -29,6 +30,9 @@ import google.registry.model.index.DomainApplicationIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.model.index.LinkedDomainIndex;
+import google.registry.model.index.LinkedDomainIndexBucket;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogCheckpointRoot;
@@ -74,6 +78,7 @@ public final class EntityClasses {
           CommitLogMutation.class,
           ContactResource.class,
           Cursor.class,
+          DnsPublishStats.class,
           DomainApplication.class,
           DomainApplicationIndex.class,
           DomainBase.class,
@@ -86,9 +91,12 @@ public final class EntityClasses {
           ForeignKeyIndex.ForeignKeyHostIndex.class,
           GaeUserIdConverter.class,
           HistoryEntry.class,
+          HostInetAddressIndex.class,
           HostResource.class,
           KmsSecret.class,
           KmsSecretRevision.class,
+          LinkedDomainIndex.class,
+          LinkedDomainIndexBucket.class,
           Lock.class,
           PollMessage.class,
           PollMessage.Autorenew.class,
@@ -0,0 +1,56 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import google.registry.util.Clock;
+import google.registry.util.SystemClock;
+import java.util.Optional;
+
+/**
+ * A registry-wide generation number that's bumped whenever an EPP flow commits a change to a
+ * domain, host or contact.
+ *
+ * <p>In-memory caches of data rendered from EPP resources (such as WHOIS responses) can record the
+ * generation they were filled at, and treat their entries as invalid once it has moved on.
+ *
+ * <p>The number is kept in memcache, so that a change committed on any instance is seen on all of
+ * them without the flows contending on a single entity group. If memcache evicts it, it starts
+ * again from the current time in milliseconds, which is later than any value it had before unless
+ * more than one change a millisecond was committed for its whole life. Changes made outside EPP
+ * flows (such as asynchronous deletes and registrar console updates) don't bump it, so caches must
+ * still expire their entries after a short time.
+ */
+public final class EppResourceGeneration {
+
+  private static final String MEMCACHE_KEY = "EppResourceGeneration";
+
+  private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  private static final Clock clock = new SystemClock();
+
+  /** Returns the current generation, or empty if memcache couldn't be reached. */
+  public static Optional<Long> get() {
+    return Optional.ofNullable(memcache.increment(MEMCACHE_KEY, 0L, clock.nowUtc().getMillis()));
+  }
+
+  /** Moves on to a new generation, invalidating anything cached at earlier ones. */
+  public static void increment() {
+    memcache.increment(MEMCACHE_KEY, 1L, clock.nowUtc().getMillis());
+  }
+
+  private EppResourceGeneration() {}
+}
@@ -42,6 +42,13 @@ public class Cursor extends ImmutableObject {
     /** Cursor for ensuring rolling transactional isolation of BRDA staging operation. */
     BRDA(Registry.class),
 
+    /**
+     * Cursor for {@link google.registry.batch.VerifyEntityIntegrityAction}. The DateTime stored is
+     * the scan time of the last verification that completed, so an incremental verification only
+     * needs to check the entities written in commit logs since then.
+     */
+    ENTITY_INTEGRITY(EntityGroupRoot.class),
+
     /** Cursor for ensuring rolling transactional isolation of RDE report operation. */
     RDE_REPORT(Registry.class),
 
@@ -0,0 +1,135 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.dns;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.NotBackedUp;
+import google.registry.model.annotations.NotBackedUp.Reason;
+import java.util.Map;
+import java.util.Set;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Recent publishing performance of one DNS writer, for one publish lock of a TLD.
+ *
+ * <p>Each publish task folds its outcome into these stats, and the DNS queue reader uses them to
+ * size and spread the publish tasks it creates. Since only the holder of a publish lock updates the
+ * stats for that lock, each entity is only ever written by one task at a time.
+ */
+@Entity
+@NotBackedUp(reason = Reason.TRANSIENT)
+public class DnsPublishStats extends ImmutableObject {
+
+  /** Weight of the newest batch in the exponentially weighted moving averages. */
+  private static final double SMOOTHING_FACTOR = 0.2;
+
+  /** The id, of the form {@code <tld>_<dnsWriter>_<lockIndex>}. */
+  @Id String id;
+
+  /** Moving average of the time it takes to publish a single name. */
+  double averageMillisPerItem;
+
+  /** Moving average of the fraction of names in a batch that failed to publish. */
+  double failureRate;
+
+  /** When a batch was last recorded. */
+  DateTime lastUpdateTime;
+
+  public double getAverageMillisPerItem() {
+    return averageMillisPerItem;
+  }
+
+  public double getFailureRate() {
+    return failureRate;
+  }
+
+  public DateTime getLastUpdateTime() {
+    return lastUpdateTime;
+  }
+
+  /** Returns the expected time it takes to publish a batch of the given size. */
+  public Duration getExpectedDuration(int numItems) {
+    return Duration.millis((long) (averageMillisPerItem * numItems));
+  }
+
+  public static Key<DnsPublishStats> createKey(String tld, String dnsWriter, int lockIndex) {
+    return Key.create(
+        DnsPublishStats.class, String.format("%s_%s_%d", tld, dnsWriter, lockIndex));
+  }
+
+  /** Loads the stats for the given keys, omitting any that were never recorded. */
+  public static ImmutableMap<Key<DnsPublishStats>, DnsPublishStats> load(
+      Set<Key<DnsPublishStats>> keys) {
+    Map<Key<DnsPublishStats>, DnsPublishStats> stats = ofy().load().keys(keys);
+    return ImmutableMap.copyOf(stats);
+  }
+
+  /**
+   * Folds the outcome of one publish batch into the stats of its writer and lock.
+   *
+   * <p>The duration of a batch only counts towards the latency average if part of it was
+   * published, since a failed batch often fails fast (or slow) for reasons unrelated to its size.
+   */
+  public static void recordBatch(
+      String tld,
+      String dnsWriter,
+      int lockIndex,
+      int numItems,
+      int numFailedItems,
+      Duration duration,
+      DateTime now) {
+    checkArgument(numItems > 0, "Can't record an empty batch");
+    checkArgument(
+        numFailedItems >= 0 && numFailedItems <= numItems,
+        "Number of failed items %s not within [0, %s]",
+        numFailedItems,
+        numItems);
+    Key<DnsPublishStats> key = createKey(tld, dnsWriter, lockIndex);
+    double batchMillisPerItem = duration.getMillis() / (double) numItems;
+    double batchFailureRate = numFailedItems / (double) numItems;
+    ofy()
+        .transactNew(
+            () -> {
+              DnsPublishStats oldStats = ofy().load().key(key).now();
+              DnsPublishStats stats = new DnsPublishStats();
+              stats.id = key.getName();
+              stats.lastUpdateTime = now;
+              boolean anyPublished = numFailedItems < numItems;
+              if (oldStats == null) {
+                stats.averageMillisPerItem = anyPublished ? batchMillisPerItem : 0;
+                stats.failureRate = batchFailureRate;
+              } else {
+                stats.averageMillisPerItem =
+                    anyPublished
+                        ? smooth(oldStats.averageMillisPerItem, batchMillisPerItem)
+                        : oldStats.averageMillisPerItem;
+                stats.failureRate = smooth(oldStats.failureRate, batchFailureRate);
+              }
+              ofy().saveWithoutBackup().entity(stats);
+            });
+  }
+
+  private static double smooth(double average, double sample) {
+    return average + SMOOTHING_FACTOR * (sample - average);
+  }
+}
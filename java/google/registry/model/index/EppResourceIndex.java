@@ -14,9 +14,12 @@
 
 package google.registry.model.index;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static google.registry.config.RegistryConfig.getEppResourceIndexBucketCount;
 import static google.registry.util.TypeUtils.instantiate;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
@@ -25,6 +28,7 @@ import com.googlecode.objectify.annotation.Parent;
 import google.registry.model.BackupGroupRoot;
 import google.registry.model.EppResource;
 import google.registry.model.annotations.ReportedOn;
+import java.util.stream.IntStream;
 
 /** An index that allows for quick enumeration of all EppResource entities (e.g. via map reduce). */
 @ReportedOn
@@ -74,4 +78,34 @@ public class EppResourceIndex extends BackupGroupRoot {
   public static <T extends EppResource> EppResourceIndex create(Key<T> resourceKey) {
     return create(EppResourceIndexBucket.getBucketKey(resourceKey), resourceKey);
   }
+
+  /** Returns the key of the {@link EppResourceIndex} that {@link #create} makes for a resource. */
+  public static Key<EppResourceIndex> createKey(Key<? extends EppResource> resourceKey) {
+    return Key.create(
+        EppResourceIndexBucket.getBucketKey(resourceKey),
+        EppResourceIndex.class,
+        resourceKey.getString());
+  }
+
+  /**
+   * Returns every key that the {@link EppResourceIndex} of a resource may have.
+   *
+   * <p>The index is created in the bucket for the bucket count at the time, and is only moved to
+   * the bucket for a later count by {@link
+   * google.registry.tools.server.RebalanceEppResourceIndexesAction}, so {@link #createKey} doesn't
+   * find indexes that haven't been rebalanced yet. The index can be in the bucket for any count up
+   * to the current one, but since buckets are assigned by consistent hashing, these are only a few
+   * distinct buckets.
+   */
+  public static ImmutableSet<Key<EppResourceIndex>> createPossibleKeys(
+      Key<? extends EppResource> resourceKey) {
+    return IntStream.rangeClosed(1, getEppResourceIndexBucketCount())
+        .mapToObj(
+            numBuckets ->
+                Key.create(
+                    EppResourceIndexBucket.getBucketKey(resourceKey, numBuckets),
+                    EppResourceIndex.class,
+                    resourceKey.getString()))
+        .collect(toImmutableSet());
+  }
 }
@@ -35,18 +35,27 @@ public class EppResourceIndexBucket extends ImmutableObject {
 
   /**
    * Deterministic function that returns a bucket id based on the resource's roid.
-   * NB: At the moment, nothing depends on this being deterministic, so we have the ability to
-   * change the number of buckets and utilize a random distribution once we do.
+   *
+   * <p>Since this is a consistent hash, increasing the number of buckets only moves the indexes of
+   * some resources into the new buckets. Those are moved by {@link
+   * google.registry.tools.server.RebalanceEppResourceIndexesAction}.
    */
-  private static long getBucketIdFromEppResource(Key<? extends EppResource> resourceKey) {
-    int numBuckets = getEppResourceIndexBucketCount();
+  private static long getBucketIdFromEppResource(
+      Key<? extends EppResource> resourceKey, int numBuckets) {
     // IDs can't be 0, so add 1 to the hash.
     return Hashing.consistentHash(resourceKey.getName().hashCode(), numBuckets) + 1;
   }
 
   /** Gets a bucket key as a function of an EppResource to be indexed. */
   public static Key<EppResourceIndexBucket> getBucketKey(Key<? extends EppResource> resourceKey) {
-    return Key.create(EppResourceIndexBucket.class, getBucketIdFromEppResource(resourceKey));
+    return getBucketKey(resourceKey, getEppResourceIndexBucketCount());
+  }
+
+  /** Gets the bucket key that an EppResource would be indexed in with the given bucket count. */
+  static Key<EppResourceIndexBucket> getBucketKey(
+      Key<? extends EppResource> resourceKey, int numBuckets) {
+    return Key.create(
+        EppResourceIndexBucket.class, getBucketIdFromEppResource(resourceKey, numBuckets));
   }
 
   /** Gets the specified numbered bucket key. */
@@ -0,0 +1,250 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package google.registry.model.index;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.collect.Iterables.partition;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.google.common.net.InetAddresses;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import google.registry.model.BackupGroupRoot;
+import google.registry.model.host.HostResource;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+
+/**
+ * Entity for tracking the hosts with a given IP address, in one of several shards per address.
+ *
+ * <p>This is kept up to date by the flows that create, update and delete hosts, in the same
+ * transaction as the host, so IP address lookups can load it by key instead of running an
+ * eventually consistent query on the hosts' indexed IP addresses.
+ *
+ * <p>Hosts are added to the index when they gain the address and removed when they lose it or are
+ * deleted. Lookups still check each host they load, so a stale entry only costs a wasted load.
+ *
+ * <p>Each host is kept in one of {@link #NUM_SHARDS} shards of each of its addresses, chosen by
+ * its key, and each shard is its own entity group. A popular address (e.g. a large DNS hosting
+ * provider's) thus doesn't serialize every flow on its hosts through a single entity group, nor
+ * grow a single entity towards the 1MB limit.
+ *
+ * @see google.registry.tools.server.RebuildHostInetAddressIndexAction
+ */
+@Entity
+public class HostInetAddressIndex extends BackupGroupRoot {
+
+  /** The number of shards the hosts with each IP address are spread over. */
+  public static final int NUM_SHARDS = 16;
+
+  /**
+   * The most IP addresses a host may have.
+   *
+   * <p>Each address a host gains or loses puts another index shard, and so another entity group,
+   * in the transaction that saves the host, which can't span more than 25 entity groups. An update
+   * replacing all of a host's addresses touches twice this many shards, which leaves room for the
+   * host, its foreign key indexes, its old and new superordinate domains and the commit log.
+   */
+  public static final int MAX_INET_ADDRESSES_PER_HOST = 8;
+
+  /** The IP address and shard number, as {@code <address>#<shard>}. */
+  @Id
+  String id;
+
+  /** The IP address, in the canonical form returned by {@link InetAddresses#toAddrString}. */
+  String inetAddress;
+
+  /** The hosts in this shard with this IP address. Empty once they have all dropped it. */
+  Set<Key<HostResource>> hosts;
+
+  public String getInetAddress() {
+    return inetAddress;
+  }
+
+  public ImmutableSet<Key<HostResource>> getHosts() {
+    return nullToEmptyImmutableCopy(hosts);
+  }
+
+  /** Returns the shard a host is indexed in, for each of its IP addresses. */
+  public static int getShard(Key<HostResource> hostKey) {
+    return Math.floorMod(hostKey.getName().hashCode(), NUM_SHARDS);
+  }
+
+  /**
+   * Creates a HostInetAddressIndex shard with the specified key and set of host keys.
+   *
+   * <p>Only use this method for rebuilding the index. You probably want {@link
+   * #createUpdatedInstances}.
+   */
+  public static HostInetAddressIndex createWithSpecifiedKeys(
+      Key<HostInetAddressIndex> key, ImmutableSet<Key<HostResource>> hosts) {
+    HostInetAddressIndex instance = new HostInetAddressIndex();
+    instance.id = key.getName();
+    instance.inetAddress = instance.id.substring(0, instance.id.lastIndexOf('#'));
+    instance.hosts = hosts;
+    return instance;
+  }
+
+  /** Returns the key of the given shard of the index for an IP address. */
+  public static Key<HostInetAddressIndex> createKey(InetAddress inetAddress, int shard) {
+    return Key.create(
+        HostInetAddressIndex.class, InetAddresses.toAddrString(inetAddress) + "#" + shard);
+  }
+
+  /** Returns the keys of all the shards of the index for an IP address. */
+  public static ImmutableList<Key<HostInetAddressIndex>> createKeys(InetAddress inetAddress) {
+    return IntStream.range(0, NUM_SHARDS)
+        .mapToObj(shard -> createKey(inetAddress, shard))
+        .collect(toImmutableList());
+  }
+
+  /** Returns the keys of the index shards a host should be in, which is none once it's deleted. */
+  public static ImmutableSet<Key<HostInetAddressIndex>> createKeysForHost(HostResource host) {
+    int shard = getShard(Key.create(host));
+    return getIndexedInetAddresses(host)
+        .stream()
+        .map(inetAddress -> createKey(inetAddress, shard))
+        .collect(toImmutableSet());
+  }
+
+  /**
+   * Returns the keys of the hosts that had the given IP address when the index was last updated.
+   *
+   * <p>This is a single batch get of the address's shards, with none of the lag of a query on the
+   * hosts' IP addresses. The hosts must still be checked once loaded, since the index can be stale
+   * if it was rebuilt.
+   */
+  public static ImmutableSet<Key<HostResource>> loadHostKeys(InetAddress inetAddress) {
+    return ofy()
+        .load()
+        .keys(createKeys(inetAddress))
+        .values()
+        .stream()
+        .flatMap(index -> index.getHosts().stream())
+        .collect(toImmutableSet());
+  }
+
+  /**
+   * Returns the hosts which are active and have the given IP address at the given time.
+   *
+   * <p>The hosts are in key order, which is the order a query on their IP addresses returns them
+   * in.
+   */
+  public static ImmutableList<HostResource> loadActiveHosts(
+      InetAddress inetAddress, DateTime now) {
+    return loadActiveHosts(inetAddress, now, host -> true, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns up to {@code limit} hosts which are active, have the given IP address at the given time
+   * and match the given filter, in key order.
+   *
+   * <p>The hosts are loaded in batches of {@code limit}, so that only about as many hosts are
+   * loaded as are returned, however many hosts the address has.
+   */
+  public static ImmutableList<HostResource> loadActiveHosts(
+      InetAddress inetAddress, DateTime now, Predicate<HostResource> filter, int limit) {
+    ImmutableSortedSet<Key<HostResource>> hostKeys =
+        ImmutableSortedSet.copyOf(loadHostKeys(inetAddress));
+    if (hostKeys.isEmpty() || limit <= 0) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<HostResource> activeHosts = new ImmutableList.Builder<>();
+    int numHosts = 0;
+    for (List<Key<HostResource>> batch : partition(hostKeys, Math.min(limit, hostKeys.size()))) {
+      Map<Key<HostResource>, HostResource> hosts = ofy().load().keys(batch);
+      for (Key<HostResource> hostKey : batch) {
+        HostResource host = hosts.get(hostKey);
+        if (host != null
+            && now.isBefore(host.getDeletionTime())
+            && host.getInetAddresses().contains(inetAddress)
+            && filter.test(host)) {
+          activeHosts.add(host);
+          if (++numHosts == limit) {
+            return activeHosts.build();
+          }
+        }
+      }
+    }
+    return activeHosts.build();
+  }
+
+  /**
+   * Returns the index entities to save for a change to a host's IP addresses.
+   *
+   * <p>This loads the host's shard of the indexes of the addresses it gained or lost and adds or
+   * removes it, so it should be called within the transaction that saves the host.
+   *
+   * @param oldHost the host before the change, or null if it's being created
+   * @param newHost the host after the change; if it's deleted, it's removed from all its addresses
+   */
+  public static ImmutableSet<HostInetAddressIndex> createUpdatedInstances(
+      @Nullable HostResource oldHost, HostResource newHost) {
+    ImmutableSet<InetAddress> oldAddresses = getIndexedInetAddresses(oldHost);
+    ImmutableSet<InetAddress> newAddresses = getIndexedInetAddresses(newHost);
+    Set<InetAddress> changedAddresses =
+        Sets.symmetricDifference(oldAddresses, newAddresses).immutableCopy();
+    if (changedAddresses.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    Key<HostResource> hostKey = Key.create(newHost);
+    int shard = getShard(hostKey);
+    Map<Key<HostInetAddressIndex>, HostInetAddressIndex> existingIndexes =
+        ofy()
+            .load()
+            .keys(
+                changedAddresses
+                    .stream()
+                    .map(inetAddress -> createKey(inetAddress, shard))
+                    .collect(toImmutableSet()));
+    ImmutableSet.Builder<HostInetAddressIndex> updatedIndexes = new ImmutableSet.Builder<>();
+    for (InetAddress inetAddress : changedAddresses) {
+      HostInetAddressIndex existing = existingIndexes.get(createKey(inetAddress, shard));
+      Set<Key<HostResource>> hosts =
+          Sets.newHashSet((existing == null) ? ImmutableSet.of() : existing.getHosts());
+      if (newAddresses.contains(inetAddress)) {
+        hosts.add(hostKey);
+      } else {
+        hosts.remove(hostKey);
+      }
+      updatedIndexes.add(
+          createWithSpecifiedKeys(createKey(inetAddress, shard), ImmutableSet.copyOf(hosts)));
+    }
+    return updatedIndexes.build();
+  }
+
+  /** Returns the IP addresses a host should be indexed under, which is none once it's deleted. */
+  private static ImmutableSet<InetAddress> getIndexedInetAddresses(@Nullable HostResource host) {
+    if (host == null || !host.getDeletionTime().equals(END_OF_TIME)) {
+      return ImmutableSet.of();
+    }
+    return host.getInetAddresses();
+  }
+}
@@ -0,0 +1,204 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.cmd.Query;
+import google.registry.model.EppResource;
+import google.registry.model.ImmutableObject;
+import google.registry.model.domain.DomainBase;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Entity recording that a domain or application references a contact or host.
+ *
+ * <p>There is one of these for each pair of a domain and a contact or host it references. All the
+ * links of a domain are in one {@link LinkedDomainIndexBucket}, chosen by the domain. An ancestor
+ * query on each bucket for the links to a contact or host thus finds every domain that links to it
+ * with strong consistency, instead of running an eventually consistent query on the domains'
+ * indexed contacts and nameservers. Unlike storing the links under the contact or host, this
+ * doesn't make every domain that's created with a popular nameserver write to the same entity
+ * group.
+ *
+ * <p>These are kept up to date by the flows that create, update and delete domains and
+ * applications, in the same transaction as the domain. A link is removed when the domain stops
+ * referencing the resource or is deleted outright, but not when the domain enters pending delete,
+ * since it can still be restored until then. Those links are deleted later, by the asynchronous
+ * contact and host deletions that come across them and by the rebuild action. Readers must
+ * therefore still check that each domain they load is active and references the resource.
+ *
+ * @see google.registry.tools.server.RebuildLinkedDomainIndexAction
+ */
+@Entity
+public class LinkedDomainIndex extends ImmutableObject {
+
+  /** The bucket that all the links of the domain are in. */
+  @Parent
+  Key<LinkedDomainIndexBucket> bucket;
+
+  /** The repo ID of the domain and the key of the linked resource, as {@code <repoId>/<key>}. */
+  @Id
+  String id;
+
+  /** The contact or host that the domain references. */
+  @Index
+  Key<? extends EppResource> linkedResource;
+
+  public Key<? extends EppResource> getLinkedResource() {
+    return linkedResource;
+  }
+
+  public Key<DomainBase> getDomain() {
+    return getDomain(Key.create(this));
+  }
+
+  /** Returns the key of the domain or application that a link is for. */
+  public static Key<DomainBase> getDomain(Key<LinkedDomainIndex> link) {
+    return Key.create(DomainBase.class, link.getName().substring(0, link.getName().indexOf('/')));
+  }
+
+  public static LinkedDomainIndex create(
+      Key<? extends EppResource> linkedResource, Key<? extends DomainBase> domain) {
+    LinkedDomainIndex instance = new LinkedDomainIndex();
+    instance.bucket = LinkedDomainIndexBucket.getBucketKey(domain);
+    instance.id = createId(linkedResource, domain);
+    instance.linkedResource = linkedResource;
+    return instance;
+  }
+
+  public static Key<LinkedDomainIndex> createKey(
+      Key<? extends EppResource> linkedResource, Key<? extends DomainBase> domain) {
+    return Key.create(
+        LinkedDomainIndexBucket.getBucketKey(domain),
+        LinkedDomainIndex.class,
+        createId(linkedResource, domain));
+  }
+
+  private static String createId(
+      Key<? extends EppResource> linkedResource, Key<? extends DomainBase> domain) {
+    return domain.getName() + "/" + linkedResource.getString();
+  }
+
+  /**
+   * Returns the keys of the domains linked to the given contact or host, in key order.
+   *
+   * <p>This is a keys-only ancestor query on each bucket, so it is strongly consistent, but it
+   * costs one query per bucket. The domains must still be checked once loaded, since links are
+   * kept while a domain is pending delete.
+   */
+  public static ImmutableSortedSet<Key<DomainBase>> loadLinkedDomainKeys(
+      Key<? extends EppResource> linkedResource) {
+    ImmutableList<Iterable<Key<LinkedDomainIndex>>> queries =
+        LinkedDomainIndexBucket.getAllBuckets()
+            .stream()
+            .map(bucket -> queryLinks(linkedResource, bucket).keys().iterable())
+            .collect(toImmutableList());
+    ImmutableSortedSet.Builder<Key<DomainBase>> domains = ImmutableSortedSet.naturalOrder();
+    for (Iterable<Key<LinkedDomainIndex>> links : queries) {
+      for (Key<LinkedDomainIndex> link : links) {
+        domains.add(getDomain(link));
+      }
+    }
+    return domains.build();
+  }
+
+  /** Returns an ancestor query for the links to the given contact or host in one bucket. */
+  public static Query<LinkedDomainIndex> queryLinks(
+      Key<? extends EppResource> linkedResource, Key<LinkedDomainIndexBucket> bucket) {
+    return ofy()
+        .load()
+        .type(LinkedDomainIndex.class)
+        .ancestor(bucket)
+        .filter("linkedResource", linkedResource);
+  }
+
+  /**
+   * Returns the links to save for a change to a domain's contacts and nameservers.
+   *
+   * <p>Only links for newly referenced resources are returned, so this is empty for most updates.
+   * The links for resources no longer referenced are returned by {@link #getRemovedLinkKeys}.
+   *
+   * @param oldDomain the domain before the change, or null if it's being created
+   * @param newDomain the domain after the change
+   */
+  public static ImmutableSet<LinkedDomainIndex> createAddedLinks(
+      @Nullable DomainBase oldDomain, DomainBase newDomain) {
+    Key<DomainBase> domainKey = Key.create(newDomain);
+    return Sets.difference(getLinkedResources(newDomain), getLinkedResources(oldDomain))
+        .stream()
+        .map(linkedResource -> create(linkedResource, domainKey))
+        .collect(toImmutableSet());
+  }
+
+  /**
+   * Returns the keys of the links to delete for a change to a domain's contacts or nameservers.
+   *
+   * <p>The keys are typed so that they can be added to a flow's {@link
+   * google.registry.flows.custom.EntityChanges}.
+   */
+  public static ImmutableSet<Key<ImmutableObject>> getRemovedLinkKeys(
+      DomainBase oldDomain, DomainBase newDomain) {
+    return createLinkKeys(
+        Sets.difference(getLinkedResources(oldDomain), getLinkedResources(newDomain)),
+        Key.create(newDomain));
+  }
+
+  /** Returns all the links for a domain, for rebuilding the index. */
+  public static ImmutableSet<LinkedDomainIndex> createAllLinks(DomainBase domain) {
+    return createAddedLinks(null, domain);
+  }
+
+  /** Returns the keys of all the links for a domain, for deleting them along with it. */
+  public static ImmutableSet<Key<ImmutableObject>> createAllLinkKeys(DomainBase domain) {
+    return createLinkKeys(getLinkedResources(domain), Key.create(domain));
+  }
+
+  private static ImmutableSet<Key<ImmutableObject>> createLinkKeys(
+      Set<Key<? extends EppResource>> linkedResources, Key<DomainBase> domainKey) {
+    return linkedResources
+        .stream()
+        .map(
+            linkedResource ->
+                Key.<ImmutableObject>create(
+                    LinkedDomainIndexBucket.getBucketKey(domainKey),
+                    LinkedDomainIndex.class,
+                    createId(linkedResource, domainKey)))
+        .collect(toImmutableSet());
+  }
+
+  private static ImmutableSet<Key<? extends EppResource>> getLinkedResources(
+      @Nullable DomainBase domain) {
+    if (domain == null) {
+      return ImmutableSet.of();
+    }
+    return new ImmutableSet.Builder<Key<? extends EppResource>>()
+        .addAll(domain.getReferencedContacts())
+        .addAll(domain.getNameservers())
+        .build();
+  }
+}
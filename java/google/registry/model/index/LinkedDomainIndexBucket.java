@@ -0,0 +1,70 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static google.registry.config.RegistryConfig.getLinkedDomainIndexBucketCount;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.VirtualEntity;
+import google.registry.model.domain.DomainBase;
+
+/**
+ * A virtual entity to represent the buckets that {@link LinkedDomainIndex} objects are added to.
+ *
+ * <p>All the links of a domain are in the same bucket, chosen by its repo ID, so saving them only
+ * adds one entity group to the domain's transaction, and the writes for popular contacts and hosts
+ * are spread over all the buckets.
+ */
+@Entity
+@VirtualEntity
+public class LinkedDomainIndexBucket extends ImmutableObject {
+
+  @Id
+  private long bucketId;
+
+  /**
+   * Gets the key of the bucket that a domain's links are in.
+   *
+   * <p>Since this is a consistent hash, increasing the number of buckets only moves the links of
+   * some domains into the new buckets. Their existing links are still found, since every bucket is
+   * read, but are no longer removed when the domains change; like other stale links, they are
+   * skipped by readers, which check each domain they load.
+   */
+  public static Key<LinkedDomainIndexBucket> getBucketKey(Key<? extends DomainBase> domainKey) {
+    // IDs can't be 0, so add 1 to the hash.
+    return getBucketKey(
+        Hashing.consistentHash(domainKey.getName().hashCode(), getLinkedDomainIndexBucketCount())
+            + 1);
+  }
+
+  /** Gets the specified numbered bucket key. */
+  public static Key<LinkedDomainIndexBucket> getBucketKey(int bucketId) {
+    return Key.create(LinkedDomainIndexBucket.class, bucketId);
+  }
+
+  /** Returns the keys to all buckets. */
+  public static ImmutableList<Key<LinkedDomainIndexBucket>> getAllBuckets() {
+    ImmutableList.Builder<Key<LinkedDomainIndexBucket>> builder = new ImmutableList.Builder<>();
+    for (int bucketId = 1; bucketId <= getLinkedDomainIndexBucketCount(); bucketId++) {
+      builder.add(getBucketKey(bucketId));
+    }
+    return builder.build();
+  }
+}
@@ -81,13 +81,31 @@ public class CommitLogBucket extends ImmutableObject implements Buildable {
     return getBucketKeyUnsafe(num);
   }
 
+  /**
+   * Returns the key for the specified bucket ID, which may exceed the configured bucket count.
+   *
+   * <p>This is only for reading buckets that are recorded in a {@link CommitLogCheckpoint}, which
+   * can span more buckets than this instance is configured with while an increase of the bucket
+   * count is rolling out. Commit logs must only ever be written to keys from {@link
+   * #getBucketKey}.
+   */
+  public static Key<CommitLogBucket> getCheckpointedBucketKey(int num) {
+    checkArgument(num >= 1, "%s is not a valid bucket ID", num);
+    return getBucketKeyUnsafe(num);
+  }
+
   private static Key<CommitLogBucket> getBucketKeyUnsafe(int num) {
     return Key.create(CommitLogBucket.class, num);
   }
 
   /** Returns a sorted set of all the possible numeric bucket IDs. */
   public static ImmutableSortedSet<Integer> getBucketIds() {
-    return ContiguousSet.create(getBucketIdRange(), integers());
+    return getBucketIds(getCommitLogBucketCount());
+  }
+
+  /** Returns a sorted set of the numeric bucket IDs for the given bucket count. */
+  public static ImmutableSortedSet<Integer> getBucketIds(int bucketCount) {
+    return ContiguousSet.create(Range.closed(1, bucketCount), integers());
   }
 
   private static Range<Integer> getBucketIdRange() {
@@ -126,9 +144,20 @@ public class CommitLogBucket extends ImmutableObject implements Buildable {
 
   /** Returns the set of all loaded commit log buckets, filling in missing buckets with new ones. */
   public static ImmutableSet<CommitLogBucket> loadAllBuckets() {
-    ofy().load().keys(getAllBucketKeys());  // Load all buckets into session cache at once.
+    return loadAllBuckets(getCommitLogBucketCount());
+  }
+
+  /**
+   * Returns the set of loaded commit log buckets for the given bucket count, filling in missing
+   * buckets with new ones.
+   *
+   * <p>The bucket count may exceed the configured count; see {@link #getCheckpointedBucketKey}.
+   */
+  public static ImmutableSet<CommitLogBucket> loadAllBuckets(int bucketCount) {
+    ImmutableSet<Key<CommitLogBucket>> bucketKeys = getAllBucketKeys(bucketCount);
+    ofy().load().keys(bucketKeys);  // Load all buckets into session cache at once.
     ImmutableSet.Builder<CommitLogBucket> allBuckets = new ImmutableSet.Builder<>();
-    for (Key<CommitLogBucket> key : getAllBucketKeys()) {
+    for (Key<CommitLogBucket> key : bucketKeys) {
       allBuckets.add(loadBucket(key));
     }
     return allBuckets.build();
@@ -136,7 +165,40 @@ public class CommitLogBucket extends ImmutableObject implements Buildable {
 
   /** Returns all commit log bucket keys, in ascending order by bucket ID. */
   public static ImmutableSet<Key<CommitLogBucket>> getAllBucketKeys() {
-    return getBucketIds()
+    return getAllBucketKeys(getCommitLogBucketCount());
+  }
+
+  /**
+   * Returns the number of buckets that commit logs may have been written to.
+   *
+   * <p>This is the configured bucket count, unless the most recent {@link CommitLogCheckpoint}
+   * already covers more buckets. The bucket count can be raised online, so during a rollout this
+   * instance may still be configured with the old count while others are already writing to the
+   * new buckets. Anything that reads commit logs from every bucket should use this count.
+   */
+  public static int getCheckpointedBucketCount() {
+    DateTime lastCheckpointTime = CommitLogCheckpointRoot.loadRoot().getLastWrittenTime();
+    CommitLogCheckpoint lastCheckpoint =
+        lastCheckpointTime.equals(START_OF_TIME)
+            ? null
+            : ofy().load().key(CommitLogCheckpoint.createKey(lastCheckpointTime)).now();
+    return Math.max(
+        getCommitLogBucketCount(),
+        (lastCheckpoint == null) ? 0 : lastCheckpoint.getBucketTimestamps().size());
+  }
+
+  /**
+   * Returns the keys of all the buckets that commit logs may have been written to, in ascending
+   * order by bucket ID.
+   *
+   * @see #getCheckpointedBucketCount
+   */
+  public static ImmutableSet<Key<CommitLogBucket>> getAllCheckpointedBucketKeys() {
+    return getAllBucketKeys(getCheckpointedBucketCount());
+  }
+
+  private static ImmutableSet<Key<CommitLogBucket>> getAllBucketKeys(int bucketCount) {
+    return getBucketIds(bucketCount)
         .stream()
         .map(CommitLogBucket::getBucketKeyUnsafe)
         .collect(toImmutableSet());
@@ -0,0 +1,57 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+
+/**
+ * Metrics for writes to, and contention on, {@link CommitLogBucket} entity groups.
+ *
+ * <p>Every commit-logged transaction writes to exactly one bucket, so the per-bucket write rate
+ * shows how evenly transactions are spread, and the retry count shows how often attempts had to be
+ * abandoned (usually due to entity group contention) before committing.
+ */
+class CommitLogBucketMetrics {
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(LabelDescriptor.create("bucket", "Commit log bucket ID."));
+
+  private static final IncrementableMetric bucketWritesMetric =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/commit_log/bucket/writes",
+              "Count of committed transactions written to each commit log bucket",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  private static final IncrementableMetric bucketRetriesMetric =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/commit_log/bucket/retried_attempts",
+              "Count of retried transaction attempts, by the bucket of the failed attempt",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  void recordWrite(int bucketId) {
+    bucketWritesMetric.increment(String.valueOf(bucketId));
+  }
+
+  void recordRetriedAttempt(int bucketId) {
+    bucketRetriesMetric.increment(String.valueOf(bucketId));
+  }
+}
@@ -15,6 +15,7 @@
 package google.registry.model.ofy;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.config.RegistryConfig.getCommitLogBucketCount;
 import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -74,11 +75,18 @@ public class CommitLogCheckpoint extends ImmutableObject {
   /**
    * Creates a CommitLogCheckpoint for the given wall time and bucket checkpoint times, specified as
    * a map from bucket ID to bucket commit timestamp.
+   *
+   * <p>The bucket IDs must be contiguous from 1 and cover at least all of the configured buckets.
+   * They may cover more, since a checkpoint never drops buckets that a previous checkpoint
+   * (computed while the bucket count was higher) already included.
    */
   public static CommitLogCheckpoint create(
       DateTime checkpointTime, ImmutableMap<Integer, DateTime> bucketTimestamps) {
     checkArgument(
-        Objects.equals(CommitLogBucket.getBucketIds().asList(), bucketTimestamps.keySet().asList()),
+        bucketTimestamps.size() >= getCommitLogBucketCount()
+            && Objects.equals(
+                CommitLogBucket.getBucketIds(bucketTimestamps.size()).asList(),
+                bucketTimestamps.keySet().asList()),
         "Bucket ids are incorrect: %s",
         bucketTimestamps.keySet());
     CommitLogCheckpoint instance = new CommitLogCheckpoint();
@@ -77,6 +77,15 @@ class CommitLoggedWork<R> extends VoidWork {
   /** Lifecycle marker to track whether {@link #vrun} has been called. */
   private boolean vrunCalled;
 
+  /**
+   * Bucket ID of the most recent attempt to run this work, or null if it hasn't been attempted.
+   *
+   * <p>Both Objectify and {@link Ofy#transactCommitLoggedWork} retry failed transactions by calling
+   * {@link #vrun} again, so a non-null value at the start of {@link #vrun} means that the previous
+   * attempt was abandoned.
+   */
+  private Integer lastAttemptBucketId;
+
   CommitLoggedWork(Work<R> work, Clock clock) {
     this.work = work;
     this.clock = clock;
@@ -111,7 +120,12 @@ class CommitLoggedWork<R> extends VoidWork {
     TransactionInfo previous = Ofy.TRANSACTION_INFO.get();
     // Set the time to be used for "now" within the transaction.
     try {
-      Ofy.TRANSACTION_INFO.set(createNewTransactionInfo());
+      TransactionInfo info = createNewTransactionInfo();
+      if (lastAttemptBucketId != null) {
+        Ofy.bucketMetrics.recordRetriedAttempt(lastAttemptBucketId);
+      }
+      lastAttemptBucketId = (int) info.bucketKey.getId();
+      Ofy.TRANSACTION_INFO.set(info);
       result = work.run();
       saveCommitLog(Ofy.TRANSACTION_INFO.get());
     } finally {
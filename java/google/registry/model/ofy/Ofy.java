@@ -69,6 +69,10 @@ public class Ofy {
   @NonFinalForTesting
   static Sleeper sleeper = new SystemSleeper();
 
+  /** Metrics for writes to, and contention on, commit log buckets. */
+  @NonFinalForTesting
+  static CommitLogBucketMetrics bucketMetrics = new CommitLogBucketMetrics();
+
   /**
    * An injected clock that overrides the static clock.
    *
@@ -247,6 +251,7 @@ public class Ofy {
         attempt++, sleepMillis *= 2) {
       try {
         ofy().transactNew(work);
+        recordCommitLogBucketWrite(work);
         return work.getResult();
       } catch (TransientFailureException
           | TimestampInversionException
@@ -257,6 +262,7 @@ public class Ofy {
         // However, Datastore exceptions might get thrown even if the transaction succeeded.
         if ((e instanceof DatastoreTimeoutException || e instanceof DatastoreFailureException)
             && checkIfAlreadySucceeded(work)) {
+          recordCommitLogBucketWrite(work);
           return work.getResult();
         }
         if (attempt == NUM_RETRIES) {
@@ -269,6 +275,14 @@ public class Ofy {
     }
   }
 
+  /** Records a write to the commit log bucket of a successful transaction, if it wrote one. */
+  private static void recordCommitLogBucketWrite(CommitLoggedWork<?> work) {
+    CommitLogManifest manifest = work.getManifest();
+    if (manifest != null) {
+      bucketMetrics.recordWrite(manifest.getBucketId());
+    }
+  }
+
   /**
    * We can determine whether a transaction has succeded by trying to read the commit log back in
    * its own retryable read-only transaction.
@@ -44,7 +44,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Streams;
@@ -185,17 +184,15 @@ public class Registrar extends ImmutableObject implements Buildable, Jsonifiable
       comparing(RegistrarContact::getEmailAddress, String::compareTo);
 
   /**
-   * A caching {@link Supplier} of a clientId to {@link Registrar} map.
+   * A caching {@link Supplier} of the {@link RegistrarLookupIndex} over all registrars, which is
+   * rebuilt whenever the cache refreshes.
    *
    * <p>The supplier's get() method enters a transactionless context briefly to avoid enrolling the
    * query inside an unrelated client-affecting transaction.
    */
-  private static final Supplier<ImmutableMap<String, Registrar>> CACHE_BY_CLIENT_ID =
+  private static final Supplier<RegistrarLookupIndex> CACHE_LOOKUP_INDEX =
       memoizeWithShortExpiration(
-          () ->
-              ofy()
-                  .doTransactionless(
-                      () -> Maps.uniqueIndex(loadAll(), Registrar::getClientId)));
+          () -> ofy().doTransactionless(() -> RegistrarLookupIndex.create(loadAll())));
 
   @Parent
   Key<EntityGroupRoot> parent = getCrossTldKey();
@@ -856,7 +853,12 @@ public class Registrar extends ImmutableObject implements Buildable, Jsonifiable
 
   /** Loads all registrar entities using an in-memory cache. */
   public static Iterable<Registrar> loadAllCached() {
-    return CACHE_BY_CLIENT_ID.get().values();
+    return CACHE_LOOKUP_INDEX.get().getAll();
+  }
+
+  /** Returns the in-memory lookup indexes over all registrars, built from the same cache. */
+  public static RegistrarLookupIndex loadLookupIndexCached() {
+    return CACHE_LOOKUP_INDEX.get();
   }
 
   /** Loads and returns a registrar entity by its client id directly from Datastore. */
@@ -869,6 +871,6 @@ public class Registrar extends ImmutableObject implements Buildable, Jsonifiable
   /** Loads and returns a registrar entity by its client id using an in-memory cache. */
   public static Optional<Registrar> loadByClientIdCached(String clientId) {
     checkArgument(!Strings.isNullOrEmpty(clientId), "clientId must be specified");
-    return Optional.ofNullable(CACHE_BY_CLIENT_ID.get().get(clientId));
+    return CACHE_LOOKUP_INDEX.get().getByClientId(clientId);
   }
 }
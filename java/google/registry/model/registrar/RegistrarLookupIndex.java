@@ -0,0 +1,188 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registrar;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.util.RegistrarUtils.normalizeRegistrarName;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Streams;
+import com.google.common.flogger.FluentLogger;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Immutable in-memory indexes over all registrars.
+ *
+ * <p>An instance is built each time the registrar cache is refreshed (see {@link
+ * Registrar#loadLookupIndexCached}), so that WHOIS and RDAP lookups by name or IANA identifier
+ * don't have to scan and sort every registrar on every request.
+ */
+public final class RegistrarLookupIndex {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final Comparator<Registrar> BY_NAME_CASE_INSENSITIVE =
+      Comparator.comparing(Registrar::getRegistrarName, String.CASE_INSENSITIVE_ORDER);
+
+  private final ImmutableMap<String, Registrar> byClientId;
+  private final ImmutableMap<Long, Registrar> byIanaIdentifier;
+  private final ImmutableMap<String, Registrar> publiclyVisibleByNormalizedName;
+
+  /** Registrars with a name, sorted case-insensitively by name, for prefix range lookups. */
+  private final ImmutableList<Registrar> sortedByName;
+
+  private RegistrarLookupIndex(Iterable<Registrar> registrars) {
+    byClientId = Maps.uniqueIndex(registrars, Registrar::getClientId);
+    byIanaIdentifier = createByIanaIdentifier(byClientId.values());
+    publiclyVisibleByNormalizedName = createPubliclyVisibleByNormalizedName(byClientId.values());
+    sortedByName =
+        byClientId
+            .values()
+            .stream()
+            .filter(registrar -> registrar.getRegistrarName() != null)
+            .sorted(BY_NAME_CASE_INSENSITIVE)
+            .collect(toImmutableList());
+  }
+
+  /** Builds the indexes over the given registrars, which must have unique client ids. */
+  public static RegistrarLookupIndex create(Iterable<Registrar> registrars) {
+    return new RegistrarLookupIndex(registrars);
+  }
+
+  /** Returns all registrars, in the order in which they were supplied. */
+  public ImmutableCollection<Registrar> getAll() {
+    return byClientId.values();
+  }
+
+  /** Returns the registrar with the given client id, if any. */
+  public Optional<Registrar> getByClientId(String clientId) {
+    return Optional.ofNullable(byClientId.get(clientId));
+  }
+
+  /**
+   * Returns the registrar with the given IANA identifier, if any.
+   *
+   * <p>If more than one registrar has the identifier, the first one supplied wins.
+   */
+  public Optional<Registrar> getByIanaIdentifier(long ianaIdentifier) {
+    return Optional.ofNullable(byIanaIdentifier.get(ianaIdentifier));
+  }
+
+  /**
+   * Returns the live, publicly visible registrar whose normalized name matches the given name.
+   *
+   * <p>The name is normalized before lookup, and names may omit their last word, so that (for
+   * instance) a search for "Example" finds "Example, Inc." unless there is also a registrar named
+   * just "Example".
+   */
+  public Optional<Registrar> getPubliclyVisibleByNormalizedName(String registrarName) {
+    return Optional.ofNullable(
+        publiclyVisibleByNormalizedName.get(normalizeRegistrarName(registrarName)));
+  }
+
+  /** Returns all registrars having a name, sorted case-insensitively by name. */
+  public ImmutableList<Registrar> getSortedByName() {
+    return sortedByName;
+  }
+
+  /**
+   * Returns the registrars whose names start with the given prefix, ignoring case, sorted
+   * case-insensitively by name.
+   *
+   * <p>Because case-insensitive order keeps all such names together, this is a binary search for
+   * the start of the range followed by a walk to its end.
+   */
+  public ImmutableList<Registrar> getByNamePrefix(String prefix) {
+    int low = 0;
+    int high = sortedByName.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (String.CASE_INSENSITIVE_ORDER.compare(sortedByName.get(mid).getRegistrarName(), prefix)
+          < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    int end = low;
+    while ((end < sortedByName.size())
+        && sortedByName.get(end).getRegistrarName().regionMatches(
+            true, 0, prefix, 0, prefix.length())) {
+      end++;
+    }
+    return sortedByName.subList(low, end);
+  }
+
+  private static ImmutableMap<Long, Registrar> createByIanaIdentifier(
+      Iterable<Registrar> registrars) {
+    Map<Long, Registrar> map = new LinkedHashMap<>();
+    for (Registrar registrar : registrars) {
+      if (registrar.getIanaIdentifier() != null) {
+        map.putIfAbsent(registrar.getIanaIdentifier(), registrar);
+      }
+    }
+    return ImmutableMap.copyOf(map);
+  }
+
+  /**
+   * Creates a map from a stripped-down (letters and digits only) name to the registrar. This map
+   * includes only active, publicly visible registrars, because the others should be invisible to
+   * WHOIS.
+   */
+  private static ImmutableMap<String, Registrar> createPubliclyVisibleByNormalizedName(
+      Iterable<Registrar> registrars) {
+    Map<String, Registrar> map = new HashMap<>();
+    // Use the normalized registrar name as a key, and ignore inactive and hidden registrars.
+    Streams.stream(registrars)
+        .filter(
+            registrar ->
+                registrar.isLiveAndPubliclyVisible() && (registrar.getRegistrarName() != null))
+        .forEach(
+            registrar -> {
+              String normalized = normalizeRegistrarName(registrar.getRegistrarName());
+              if (map.put(normalized, registrar) != null) {
+                logger.atWarning().log(
+                    "%s appeared as a normalized registrar name for more than one registrar.",
+                    normalized);
+              }
+            });
+    // Use the normalized registrar name without its last word as a key, assuming there are
+    // multiple words in the name. This allows searches without LLC or INC, etc. Only insert if
+    // there isn't already a mapping for this string, so that if there's a registrar with a two
+    // word name (Go Daddy) and no business-type suffix and another registrar with just that first
+    // word as its name (Go), the latter will win.
+    for (Registrar registrar : ImmutableList.copyOf(map.values())) {
+      List<String> words =
+          Splitter.on(CharMatcher.whitespace()).splitToList(registrar.getRegistrarName());
+      if (words.size() > 1) {
+        String normalized =
+            normalizeRegistrarName(Joiner.on("").join(words.subList(0, words.size() - 1)));
+        map.putIfAbsent(normalized, registrar);
+      }
+    }
+    return ImmutableMap.copyOf(map);
+  }
+}
@@ -42,6 +42,9 @@ import google.registry.tools.server.ListRegistrarsAction;
 import google.registry.tools.server.ListReservedListsAction;
 import google.registry.tools.server.ListTldsAction;
 import google.registry.tools.server.PollMapreduceAction;
+import google.registry.tools.server.RebalanceEppResourceIndexesAction;
+import google.registry.tools.server.RebuildHostInetAddressIndexAction;
+import google.registry.tools.server.RebuildLinkedDomainIndexAction;
 import google.registry.tools.server.RefreshDnsForAllDomainsAction;
 import google.registry.tools.server.ResaveAllHistoryEntriesAction;
 import google.registry.tools.server.ToolsServerModule;
@@ -78,6 +81,9 @@ interface ToolsRequestComponent {
   ListTldsAction listTldsAction();
   LoadTestAction loadTestAction();
   PollMapreduceAction pollMapReduceAction();
+  RebalanceEppResourceIndexesAction rebalanceEppResourceIndexesAction();
+  RebuildHostInetAddressIndexAction rebuildHostInetAddressIndexAction();
+  RebuildLinkedDomainIndexAction rebuildLinkedDomainIndexAction();
   RefreshDnsForAllDomainsAction refreshDnsForAllDomainsAction();
   ResaveAllHistoryEntriesAction resaveAllHistoryEntriesAction();
   RestoreCommitLogsAction restoreCommitLogsAction();
@@ -18,16 +18,27 @@ import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.net.HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static com.google.common.net.HttpHeaders.CACHE_CONTROL;
+import static com.google.common.net.HttpHeaders.ETAG;
+import static com.google.common.net.HttpHeaders.IF_NONE_MATCH;
+import static com.google.common.net.HttpHeaders.RETRY_AFTER;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
 import static google.registry.util.DomainNameUtils.canonicalizeDomainName;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
 import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
 import com.google.common.net.MediaType;
 import com.google.re2j.Pattern;
 import com.googlecode.objectify.Key;
@@ -39,8 +50,10 @@ import google.registry.rdap.RdapMetrics.EndpointType;
 import google.registry.rdap.RdapMetrics.WildcardType;
 import google.registry.rdap.RdapSearchResults.IncompletenessWarningType;
 import google.registry.request.Action;
+import google.registry.request.ClientRateLimiter;
 import google.registry.request.FullServletPath;
 import google.registry.request.HttpException;
+import google.registry.request.HttpException.TooManyRequestsException;
 import google.registry.request.HttpException.UnprocessableEntityException;
 import google.registry.request.Parameter;
 import google.registry.request.RequestMethod;
@@ -50,6 +63,9 @@ import google.registry.request.auth.AuthResult;
 import google.registry.request.auth.UserAuthInfo;
 import google.registry.ui.server.registrar.SessionUtils;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -59,6 +75,7 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.json.simple.JSONValue;
 
 /**
@@ -101,11 +118,23 @@ public abstract class RdapActionBase implements Runnable {
   @Inject @Config("rdapWhoisServer") @Nullable String rdapWhoisServer;
   @Inject @Config("rdapResultSetMaxSize") int rdapResultSetMaxSize;
   @Inject RdapMetrics rdapMetrics;
+  @Inject RdapResponseCache rdapResponseCache;
+  @Inject ClientRateLimiter clientRateLimiter;
+  @Inject @Config("rdapResponseCachingDuration") Duration rdapResponseCachingDuration;
 
   /** Builder for metric recording. */
   final RdapMetrics.RdapMetricInformation.Builder metricInformationBuilder =
       RdapMetrics.RdapMetricInformation.builder();
 
+  /** The entity tag of the response, if the action set one using {@link #setEntityTag}. */
+  private Optional<String> entityTag = Optional.empty();
+
+  /** Whether the client already has the current version of the response. */
+  private boolean isNotModified;
+
+  /** The response to send, if it was found in the response cache. */
+  private Optional<String> cachedPayload = Optional.empty();
+
   /** Returns a string like "domain name" or "nameserver", used for error strings. */
   abstract String getHumanReadableObjectTypeName();
 
@@ -115,6 +144,11 @@ public abstract class RdapActionBase implements Runnable {
   /** Returns the servlet action path; used to extract the search string from the incoming path. */
   abstract String getActionPath();
 
+  /** Returns the number of rate limiting tokens an anonymous request to this action costs. */
+  int getRateLimitTokens() {
+    return 1;
+  }
+
   /**
    * Does the actual search and returns an RDAP JSON object.
    *
@@ -142,6 +176,12 @@ public abstract class RdapActionBase implements Runnable {
       // (e.g. /rdap/domains?name=mydomain); the query parameters are extracted by the subclasses
       // directly as needed.
       response.setHeader(ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+      // Only anonymous requests are rate limited; logged-in registrars and admins are trusted.
+      if (clientRateLimiter.isEnabled()
+          && (getAuthorization().role() == RdapAuthorization.Role.PUBLIC)) {
+        clientRateLimiter.take(
+            getEndpointType().toString(), request.getRemoteAddr(), getRateLimitTokens());
+      }
       URI uri = new URI(requestPath);
       String pathProper = uri.getPath();
       checkArgument(
@@ -150,10 +190,27 @@ public abstract class RdapActionBase implements Runnable {
       ImmutableMap<String, Object> rdapJson =
           getJsonObjectForResource(
               pathProper.substring(getActionPath().length()), requestMethod == Action.Method.HEAD);
-      response.setStatus(SC_OK);
-      response.setContentType(RESPONSE_MEDIA_TYPE);
-      setPayload(rdapJson);
-      metricInformationBuilder.setStatusCode(SC_OK);
+      if (entityTag.isPresent()) {
+        setCachingHeaders(entityTag.get());
+      }
+      if (isNotModified) {
+        response.setStatus(SC_NOT_MODIFIED);
+        metricInformationBuilder.setStatusCode(SC_NOT_MODIFIED);
+      } else {
+        response.setStatus(SC_OK);
+        response.setContentType(RESPONSE_MEDIA_TYPE);
+        if (cachedPayload.isPresent()) {
+          if (requestMethod != Action.Method.HEAD) {
+            response.setPayload(cachedPayload.get());
+          }
+        } else {
+          setPayload(rdapJson);
+        }
+        metricInformationBuilder.setStatusCode(SC_OK);
+      }
+    } catch (TooManyRequestsException e) {
+      response.setHeader(RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()));
+      setError(e.getResponseCode(), e.getResponseCodeString(), e.getMessage());
     } catch (HttpException e) {
       setError(e.getResponseCode(), e.getResponseCodeString(), e.getMessage());
     } catch (URISyntaxException | IllegalArgumentException e) {
@@ -166,6 +223,8 @@ public abstract class RdapActionBase implements Runnable {
   }
 
   void setError(int status, String title, String description) {
+    // Errors must be neither cached nor matched against the client's copy.
+    entityTag = Optional.empty();
     metricInformationBuilder.setStatusCode(status);
     response.setStatus(status);
     response.setContentType(RESPONSE_MEDIA_TYPE);
@@ -178,18 +237,138 @@ public abstract class RdapActionBase implements Runnable {
 
   void setPayload(ImmutableMap<String, Object> rdapJson) {
     if (requestMethod == Action.Method.HEAD) {
+      // Search results are only formatted as they're written, so write them nowhere, to make sure
+      // that the request would have succeeded.
+      writePayload(rdapJson, CharStreams.nullWriter());
       return;
     }
-    if (formatOutputParam.orElse(false)) {
-      try {
-        response.setPayload(new JacksonFactory().toPrettyString(rdapJson));
-        return;
-      } catch (IOException e) {
-        logger.atWarning().withCause(e).log(
-            "Unable to pretty-print RDAP JSON response; falling back to unformatted output.");
+    if (entityTag.isPresent() && rdapResponseCache.isEnabled()) {
+      StringWriter payload = new StringWriter();
+      writePayload(rdapJson, payload);
+      rdapResponseCache.put(entityTag.get(), payload.toString());
+      response.setPayload(payload.toString());
+      return;
+    }
+    writePayload(rdapJson, response.getPayloadWriter());
+  }
+
+  /**
+   * Writes the RDAP JSON response, pretty-printing it if requested.
+   *
+   * <p>Unformatted responses are written straight to the writer. Search results in them are {@link
+   * RdapJsonGenerator.Deferred} objects, so each one is formatted directly to the writer too, and
+   * no tree is built for it. Pretty-printing needs the whole tree. If formatting a search result
+   * fails, the response written so far can't be taken back, so the client gets a truncated response
+   * with whatever error status can still be set.
+   */
+  private void writePayload(ImmutableMap<String, Object> rdapJson, Writer writer) {
+    try {
+      if (formatOutputParam.orElse(false)) {
+        String prettyPayload = null;
+        try {
+          prettyPayload =
+              new JacksonFactory().toPrettyString(RdapJsonGenerator.materialize(rdapJson));
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log(
+              "Unable to pretty-print RDAP JSON response; falling back to unformatted output.");
+        }
+        if (prettyPayload != null) {
+          writer.write(prettyPayload);
+          return;
+        }
+      }
+      JSONValue.writeJSONString(rdapJson, writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Sets the entity tag of a lookup response, and checks whether the response needs to be built.
+   *
+   * <p>The tag is a hash of the given version information, which must change whenever anything
+   * shown in the response does, together with everything about the request that shapes the
+   * response, such as the authorization and the query parameters. Actions should call this once
+   * they've loaded the resource they're looking up, and before they format it.
+   *
+   * <p>The tag is weak, since responses include the time they were generated and so aren't
+   * byte-for-byte identical, but it can still be used for conditional requests.
+   *
+   * @return true if the client's copy of the response is still current, or the response is in
+   *     the response cache, in which case the action should return without building the response
+   */
+  boolean setEntityTag(String lookupKey, Object... versionInformation) {
+    RdapAuthorization authorization = getAuthorization();
+    Hasher hasher =
+        Hashing.sha256()
+            .newHasher()
+            .putString(getClass().getName(), UTF_8)
+            .putByte((byte) 0)
+            .putString(lookupKey, UTF_8)
+            .putByte((byte) 0)
+            .putString(String.valueOf(fullServletPath), UTF_8)
+            .putByte((byte) 0)
+            .putString(String.valueOf(rdapWhoisServer), UTF_8)
+            .putByte((byte) 0)
+            .putString(authorization.role().name(), UTF_8)
+            .putByte((byte) 0)
+            .putString(String.join(",", authorization.clientIds()), UTF_8)
+            .putByte((byte) 0)
+            .putBoolean(shouldIncludeDeleted())
+            .putString(registrarParam.orElse(""), UTF_8)
+            .putByte((byte) 0)
+            .putBoolean(formatOutputParam.orElse(false));
+    for (Object version : versionInformation) {
+      hasher.putByte((byte) 0).putString(String.valueOf(version), UTF_8);
+    }
+    String tag = String.format("W/\"%s\"", hasher.hash());
+    entityTag = Optional.of(tag);
+    isNotModified = matchesIfNoneMatch(tag);
+    cachedPayload = isNotModified ? Optional.empty() : rdapResponseCache.get(tag);
+    return isNotModified || cachedPayload.isPresent();
+  }
+
+  /**
+   * Returns the version information of an EPP resource for {@link #setEntityTag}: its last update
+   * time, plus the statuses and deletion state it's projected to have now, since these can change
+   * without the resource being saved.
+   */
+  static ImmutableList<Object> getVersionInformation(EppResource resource, DateTime now) {
+    return ImmutableList.of(
+        resource.getRepoId(),
+        String.valueOf(resource.getUpdateAutoTimestamp().getTimestamp()),
+        ImmutableSortedSet.copyOf(resource.getStatusValues()),
+        resource.getDeletionTime().isBefore(now));
+  }
+
+  /** Returns whether the request's If-None-Match header lists the given entity tag. */
+  private boolean matchesIfNoneMatch(String tag) {
+    String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    // If-None-Match uses the weak comparison function, which ignores the weakness indicators.
+    for (String clientTag : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+      if (clientTag.equals("*") || stripWeakPrefix(clientTag).equals(stripWeakPrefix(tag))) {
+        return true;
       }
     }
-    response.setPayload(JSONValue.toJSONString(rdapJson));
+    return false;
+  }
+
+  private static String stripWeakPrefix(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+
+  private void setCachingHeaders(String tag) {
+    response.setHeader(ETAG, tag);
+    // Responses to authenticated requests can include data other users aren't allowed to see.
+    response.setHeader(
+        CACHE_CONTROL,
+        String.format(
+            "%s, max-age=%d",
+            getAuthorization().role() == RdapAuthorization.Role.PUBLIC ? "public" : "private",
+            rdapResponseCachingDuration.getStandardSeconds()));
   }
 
   RdapAuthorization getAuthorization() {
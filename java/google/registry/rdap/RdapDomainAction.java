@@ -16,13 +16,18 @@ package google.registry.rdap;
 
 import static google.registry.flows.domain.DomainFlowUtils.validateDomainName;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.HEAD;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import google.registry.flows.EppException;
+import google.registry.model.EppResource;
 import google.registry.model.domain.DomainResource;
+import google.registry.model.registrar.Registrar;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
 import google.registry.rdap.RdapMetrics.EndpointType;
 import google.registry.request.Action;
@@ -82,6 +87,30 @@ public class RdapDomainAction extends RdapActionBase {
     if ((domainResource == null) || !shouldBeVisible(domainResource, now)) {
       throw new NotFoundException(pathSearchString + " not found");
     }
+    // The response includes the domain's contacts, nameservers and registrar, so a change to any of
+    // them has to change the entity tag. Formatting the response reuses these loads.
+    ImmutableList.Builder<Object> versionInformation =
+        new ImmutableList.Builder<>()
+            .addAll(getVersionInformation(domainResource, now))
+            .add(
+                domainResource.getCurrentSponsorClientId(),
+                String.valueOf(domainResource.getRegistrationExpirationTime()),
+                Registrar.loadByClientIdCached(domainResource.getCurrentSponsorClientId())
+                    .map(Registrar::getLastUpdateTime)
+                    .map(String::valueOf)
+                    .orElse(""));
+    for (EppResource linkedResource :
+        Iterables.concat(
+            ofy().load().keys(domainResource.getReferencedContacts()).values(),
+            ofy().load().keys(domainResource.getNameservers()).values())) {
+      versionInformation.addAll(getVersionInformation(linkedResource, now));
+    }
+    if (setEntityTag(pathSearchString, versionInformation.build().toArray())) {
+      // The response doesn't need to be built; see setEntityTag.
+      return ImmutableMap.of();
+    }
+    rdapJsonFormatter.preloadReferencedEntities(
+        ImmutableList.of(domainResource), OutputDataType.FULL);
     return rdapJsonFormatter.makeRdapJsonForDomain(
         domainResource,
         true,
@@ -0,0 +1,234 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static com.google.common.collect.ImmutableSortedSet.toImmutableSortedSet;
+import static google.registry.export.ExportDomainListsAction.EXPORT_TIME_METADATA_KEY;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.registry.Registries.getTldsOfType;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
+import com.google.common.flogger.FluentLogger;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.registry.Registry.TldType;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * In-memory index of the names of active domains, used to answer wildcard domain searches.
+ *
+ * <p>Wildcard searches can't filter out deleted domains in the Datastore query itself, since they
+ * already use an inequality on the domain name. Without this index they have to fetch many more
+ * domains than they return and weed out the deleted ones, and can give up before finding a full
+ * result set.
+ *
+ * <p>The index holds a sorted set of the names of the active domains in each TLD, so answering a
+ * prefix search is a matter of finding the bounds of a range. The names aren't gathered on the
+ * request path; they come from the domain lists that {@code ExportDomainListsAction} writes to GCS
+ * on a cron, together with the domains created since the export time recorded in each list. Each
+ * TLD is loaded the first time it's searched, and loaded again once it's older than the refresh
+ * duration. Only one request at a time loads a TLD; while it does, other requests keep using the
+ * names loaded before, if there are any.
+ *
+ * <p>So domains created since a TLD was last loaded are missing until its next load, and domains
+ * deleted since are still in it, so callers must check the domains they load. Searches without a
+ * TLD cover the same real TLDs that the lists are exported for. A TLD without an exported domain
+ * list can't be searched with the index at all; that's remembered until the refresh duration has
+ * passed, like a loaded list, so that its searches don't each look for the list again.
+ */
+@Singleton
+public class RdapDomainNameIndex {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final GcsUtils gcsUtils;
+  private final String domainListsBucket;
+  private final Duration refreshDuration;
+  private final Map<String, TldNames> namesByTld = new ConcurrentHashMap<>();
+  private final Map<String, ReentrantLock> loadLocks = new ConcurrentHashMap<>();
+
+  @Inject
+  RdapDomainNameIndex(
+      GcsUtils gcsUtils,
+      @Config("domainListsGcsBucket") String domainListsBucket,
+      @Config("rdapDomainNameIndexRefreshDuration") Duration refreshDuration) {
+    this.gcsUtils = gcsUtils;
+    this.domainListsBucket = domainListsBucket;
+    this.refreshDuration = refreshDuration;
+  }
+
+  /**
+   * The names of the active domains in one TLD, as loaded at a certain time, or empty if the TLD
+   * had no exported domain list then.
+   */
+  private static class TldNames {
+
+    final DateTime loadTime;
+    final Optional<ImmutableSortedSet<String>> names;
+
+    TldNames(DateTime loadTime, Optional<ImmutableSortedSet<String>> names) {
+      this.loadTime = loadTime;
+      this.names = names;
+    }
+  }
+
+  /**
+   * Returns the names of the domains matching a wildcard search, in order, or empty if the search
+   * covers a TLD that isn't indexed.
+   *
+   * <p>The names are produced lazily, so callers can stop once they have enough.
+   *
+   * @param partialStringQuery the search; its initial string may be empty if it has a suffix
+   * @param cursorString if present, only names after this one are returned
+   * @param now the time of the search, used to tell whether the index needs to be refreshed
+   */
+  Optional<Iterable<String>> findNames(
+      RdapSearchPattern partialStringQuery, Optional<String> cursorString, DateTime now) {
+    String initialString = partialStringQuery.getInitialString();
+    String nextInitialString =
+        initialString.isEmpty() ? null : partialStringQuery.getNextInitialString();
+    String suffix = partialStringQuery.getSuffix();
+    // Only real TLDs have exported domain lists, so a search without a TLD covers just those.
+    ImmutableSet<String> tlds =
+        (suffix == null) ? getTldsOfType(TldType.REAL) : ImmutableSet.of(suffix);
+    ImmutableList.Builder<Iterable<String>> ranges = new ImmutableList.Builder<>();
+    for (String tld : tlds) {
+      Optional<ImmutableSortedSet<String>> names = getNames(tld, now).names;
+      if (!names.isPresent()) {
+        return Optional.empty();
+      }
+      ranges.add(findRange(names.get(), initialString, nextInitialString, cursorString));
+    }
+    // The names of a domain can only be in the range of its own TLD, so there are no duplicates.
+    return Optional.of(Iterables.mergeSorted(ranges.build(), Ordering.natural()));
+  }
+
+  /**
+   * Returns the names of a TLD, loading them if they're missing or too old.
+   *
+   * <p>If another request is already loading them, this returns the old names instead of waiting,
+   * unless there aren't any. If the TLD has no domain list, or it can't be read, the names returned
+   * are empty, and the list isn't looked for again until the refresh duration has passed.
+   */
+  private TldNames getNames(String tld, DateTime now) {
+    TldNames tldNames = namesByTld.get(tld);
+    if (tldNames != null && isFreshAt(tldNames, now)) {
+      return tldNames;
+    }
+    ReentrantLock lock = loadLocks.computeIfAbsent(tld, t -> new ReentrantLock());
+    if (tldNames != null) {
+      if (!lock.tryLock()) {
+        return tldNames;
+      }
+    } else {
+      lock.lock();
+    }
+    try {
+      tldNames = namesByTld.get(tld);
+      if (tldNames == null || !isFreshAt(tldNames, now)) {
+        tldNames = new TldNames(now, loadNames(tld, now));
+        namesByTld.put(tld, tldNames);
+      }
+      return tldNames;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isFreshAt(TldNames tldNames, DateTime now) {
+    return now.isBefore(tldNames.loadTime.plus(refreshDuration))
+        && !now.isBefore(tldNames.loadTime);
+  }
+
+  /**
+   * Loads the names of a TLD from its exported domain list and the domains created since.
+   *
+   * <p>The query for the domains created since the export is eventually consistent, but since it
+   * covers everything since the export each time, a domain it misses is found on the next load.
+   */
+  private Optional<ImmutableSortedSet<String>> loadNames(String tld, DateTime now) {
+    GcsFilename file = new GcsFilename(domainListsBucket, tld + ".txt");
+    ImmutableSortedSet.Builder<String> names = ImmutableSortedSet.naturalOrder();
+    DateTime exportTime;
+    try {
+      Optional<ImmutableMap<String, String>> metadata = gcsUtils.getUserMetadata(file);
+      if (!metadata.isPresent() || !metadata.get().containsKey(EXPORT_TIME_METADATA_KEY)) {
+        logger.atInfo().log("No exported domain list for TLD %s to index", tld);
+        return Optional.empty();
+      }
+      exportTime = DateTime.parse(metadata.get().get(EXPORT_TIME_METADATA_KEY));
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(gcsUtils.openInputStream(file), UTF_8))) {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          if (!line.isEmpty()) {
+            names.add(line);
+          }
+        }
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to load the domain list for TLD %s", tld);
+      return Optional.empty();
+    }
+    ImmutableSortedSet<String> recentNames =
+        ofy()
+            .load()
+            .type(DomainResource.class)
+            .filter("tld", tld)
+            .filter("creationTime >", exportTime)
+            .list()
+            .stream()
+            .filter(domain -> now.isBefore(domain.getDeletionTime()))
+            .map(DomainResource::getFullyQualifiedDomainName)
+            .collect(toImmutableSortedSet(Ordering.natural()));
+    names.addAll(recentNames);
+    ImmutableSortedSet<String> allNames = names.build();
+    logger.atInfo().log(
+        "Loaded %d names for TLD %s into the RDAP domain name index, %d created since %s",
+        allNames.size(), tld, recentNames.size(), exportTime);
+    return Optional.of(allNames);
+  }
+
+  /** Returns the names in a sorted set that start with a prefix and follow the cursor. */
+  private static ImmutableSortedSet<String> findRange(
+      ImmutableSortedSet<String> names,
+      String initialString,
+      @Nullable String nextInitialString,
+      Optional<String> cursorString) {
+    ImmutableSortedSet<String> range =
+        (nextInitialString == null)
+            ? names
+            : names.subSet(initialString, true, nextInitialString, false);
+    return cursorString.isPresent() ? range.tailSet(cursorString.get(), false) : range;
+  }
+}
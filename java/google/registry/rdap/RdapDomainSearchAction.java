@@ -14,6 +14,7 @@
 
 package google.registry.rdap;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.index.ForeignKeyIndex.loadAndGetKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -25,16 +26,21 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Booleans;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.rdap.RdapJsonFormatter.BoilerplateType;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
+import google.registry.rdap.RdapJsonGenerator.Deferred;
 import google.registry.rdap.RdapMetrics.EndpointType;
 import google.registry.rdap.RdapMetrics.SearchType;
 import google.registry.rdap.RdapMetrics.WildcardType;
@@ -51,7 +57,9 @@ import google.registry.util.NonFinalForTesting;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 import javax.inject.Inject;
@@ -84,9 +92,11 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   @Inject Clock clock;
+  @Inject RdapDomainNameIndex domainNameIndex;
   @Inject @Parameter("name") Optional<String> nameParam;
   @Inject @Parameter("nsLdhName") Optional<String> nsLdhNameParam;
   @Inject @Parameter("nsIp") Optional<String> nsIpParam;
+  @Inject @Config("hostInetAddressIndexEnabled") boolean hostInetAddressIndexEnabled;
   @Inject RdapDomainSearchAction() {}
 
   @Override
@@ -204,13 +214,78 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
                     + " without a TLD suffix",
                 RdapSearchPattern.MIN_INITIAL_STRING_LENGTH));
       }
-      return searchByDomainNameWithInitialString(partialStringQuery, now);
+      Optional<RdapSearchResults> results = searchByDomainNameWithIndex(partialStringQuery, now);
+      return results.isPresent()
+          ? results.get()
+          : searchByDomainNameWithInitialString(partialStringQuery, now);
     }
     if (partialStringQuery.getSuffix() == null) {
       throw new UnprocessableEntityException(
           "Initial search string is required for wildcard domain searches without a TLD suffix");
     }
-    return searchByDomainNameByTld(partialStringQuery.getSuffix(), now);
+    Optional<RdapSearchResults> results = searchByDomainNameWithIndex(partialStringQuery, now);
+    return results.isPresent()
+        ? results.get()
+        : searchByDomainNameByTld(partialStringQuery.getSuffix(), now);
+  }
+
+  /**
+   * Returns whether a wildcard domain name search can be answered from the domain name index.
+   *
+   * <p>The index only holds active domains, so it can't be used for searches including deleted
+   * ones. Searches filtered by registrar could have to skip over most of the index, so those are
+   * left to Datastore queries, which can filter on the registrar.
+   */
+  private boolean canUseDomainNameIndex() {
+    return !shouldIncludeDeleted() && !getDesiredRegistrar().isPresent();
+  }
+
+  /**
+   * Searches for domains by domain name with a wildcard, using the {@link RdapDomainNameIndex}, or
+   * returns empty if the index can't be used for the search.
+   *
+   * <p>Since the index only holds active domains, this loads only as many domains as it returns,
+   * plus one to tell whether the results are truncated, and those deleted since the index was
+   * loaded.
+   */
+  private Optional<RdapSearchResults> searchByDomainNameWithIndex(
+      final RdapSearchPattern partialStringQuery, final DateTime now) {
+    if (!canUseDomainNameIndex()) {
+      return Optional.empty();
+    }
+    Optional<Iterable<String>> matchingNames =
+        domainNameIndex.findNames(partialStringQuery, cursorString, now);
+    if (!matchingNames.isPresent()) {
+      return Optional.empty();
+    }
+    Iterator<String> names = matchingNames.get().iterator();
+    List<DomainResource> domains = new ArrayList<>();
+    long numDomainsRetrieved = 0;
+    while ((domains.size() <= rdapResultSetMaxSize) && names.hasNext()) {
+      ImmutableList<String> batch =
+          ImmutableList.copyOf(Iterators.limit(names, rdapResultSetMaxSize + 1 - domains.size()));
+      numDomainsRetrieved += batch.size();
+      Map<String, ForeignKeyIndex<DomainResource>> fkis =
+          ForeignKeyIndex.load(DomainResource.class, batch, now);
+      Map<Key<DomainResource>, DomainResource> loadedDomains =
+          ofy()
+              .load()
+              .keys(
+                  fkis.values()
+                      .stream()
+                      .map(ForeignKeyIndex::getResourceKey)
+                      .collect(toImmutableList()));
+      for (String name : batch) {
+        ForeignKeyIndex<DomainResource> fki = fkis.get(name);
+        DomainResource domain = (fki == null) ? null : loadedDomains.get(fki.getResourceKey());
+        if ((domain != null) && shouldBeVisible(domain, now)) {
+          domains.add(domain);
+        }
+      }
+    }
+    return Optional.of(
+        makeSearchResults(
+            domains, IncompletenessWarningType.COMPLETE, Optional.of(numDomainsRetrieved), now));
   }
 
   /**
@@ -424,23 +499,45 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
    *
    * <p>The includeDeleted parameter does NOT cause deleted nameservers to be searched, only deleted
    * domains which used to be connected to an undeleted nameserver.
+   *
+   * <p>The hosts are found through their {@code HostInetAddressIndex} if {@link
+   * #hostInetAddressIndexEnabled} is set, and with an eventually consistent query otherwise.
    */
   private RdapSearchResults searchByNameserverIp(
       final InetAddress inetAddress, final DateTime now) {
-    Query<HostResource> query =
-        queryItems(
-            HostResource.class,
-            "inetAddresses",
-            inetAddress.getHostAddress(),
-            Optional.empty(),
-            Optional.empty(),
-            DeletedItemHandling.EXCLUDE,
-            maxNameserversInFirstStage);
     Optional<String> desiredRegistrar = getDesiredRegistrar();
-    if (desiredRegistrar.isPresent()) {
-      query = query.filter("currentSponsorClientId", desiredRegistrar.get());
+    if (!hostInetAddressIndexEnabled) {
+      Query<HostResource> query =
+          queryItems(
+              HostResource.class,
+              "inetAddresses",
+              inetAddress.getHostAddress(),
+              Optional.empty(),
+              Optional.empty(),
+              DeletedItemHandling.EXCLUDE,
+              maxNameserversInFirstStage);
+      if (desiredRegistrar.isPresent()) {
+        query = query.filter("currentSponsorClientId", desiredRegistrar.get());
+      }
+      return searchByNameserverRefs(query.keys(), now);
     }
-    return searchByNameserverRefs(query.keys(), now);
+    // Look the hosts up by key through the IP address index, rather than querying on their
+    // addresses, which is only eventually consistent. The index loads them in batches of the
+    // limit, rather than loading every host with the address before applying it.
+    return searchByNameserverRefs(
+        HostInetAddressIndex.loadActiveHosts(
+                inetAddress,
+                now,
+                host ->
+                    !desiredRegistrar.isPresent()
+                        || desiredRegistrar
+                            .get()
+                            .equals(host.getPersistedCurrentSponsorClientId()),
+                maxNameserversInFirstStage)
+            .stream()
+            .map(Key::create)
+            .collect(toImmutableList()),
+        now);
   }
 
   /**
@@ -536,13 +633,24 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
     OutputDataType outputDataType =
         (domains.size() > 1) ? OutputDataType.SUMMARY : OutputDataType.FULL;
     RdapAuthorization authorization = getAuthorization();
-    List<ImmutableMap<String, Object>> jsonList = new ArrayList<>();
+    rdapJsonFormatter.preloadReferencedEntities(
+        Iterables.limit(domains, rdapResultSetMaxSize), outputDataType);
+    List<Deferred> jsonList = new ArrayList<>();
     Optional<String> newCursor = Optional.empty();
     for (DomainResource domain : domains) {
       newCursor = Optional.of(domain.getFullyQualifiedDomainName());
       jsonList.add(
-          rdapJsonFormatter.makeRdapJsonForDomain(
-              domain, false, fullServletPath, rdapWhoisServer, now, outputDataType, authorization));
+          RdapJsonGenerator.defer(
+              generator ->
+                  rdapJsonFormatter.writeRdapJsonForDomain(
+                      generator,
+                      domain,
+                      false,
+                      fullServletPath,
+                      rdapWhoisServer,
+                      now,
+                      outputDataType,
+                      authorization)));
       if (jsonList.size() >= rdapResultSetMaxSize) {
         break;
       }
@@ -14,6 +14,7 @@
 
 package google.registry.rdap;
 
+import static google.registry.model.EppResourceUtils.isLinked;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.rdap.RdapUtils.getRegistrarByIanaIdentifier;
 import static google.registry.request.Action.Method.GET;
@@ -91,6 +92,13 @@ public class RdapEntityAction extends RdapActionBase {
       // As per Andy Newton on the regext mailing list, contacts by themselves have no role, since
       // they are global, and might have different roles for different domains.
       if ((contactResource != null) && shouldBeVisible(contactResource, now)) {
+        if (setEntityTag(
+            pathSearchString,
+            getVersionInformation(contactResource, now),
+            isLinked(contactKey, now))) {
+          // The response doesn't need to be built; see setEntityTag.
+          return ImmutableMap.of();
+        }
         return rdapJsonFormatter.makeRdapJsonForContact(
             contactResource,
             true,
@@ -107,6 +115,15 @@ public class RdapEntityAction extends RdapActionBase {
       wasValidKey = true;
       Optional<Registrar> registrar = getRegistrarByIanaIdentifier(ianaIdentifier);
       if (registrar.isPresent() && shouldBeVisible(registrar.get())) {
+        // Registrar contacts are saved separately from the registrar, so they're versioned by their
+        // contents rather than by the registrar's last update time.
+        if (setEntityTag(
+            pathSearchString,
+            registrar.get().getLastUpdateTime(),
+            registrar.get().getContacts())) {
+          // The response doesn't need to be built; see setEntityTag.
+          return ImmutableMap.of();
+        }
         return rdapJsonFormatter.makeRdapJsonForRegistrar(
             registrar.get(), true, fullServletPath, rdapWhoisServer, now, OutputDataType.FULL);
       }
@@ -22,7 +22,6 @@ import static google.registry.request.Action.Method.HEAD;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Streams;
 import com.google.common.primitives.Booleans;
 import com.google.common.primitives.Longs;
 import com.googlecode.objectify.cmd.Query;
@@ -30,6 +29,7 @@ import google.registry.model.contact.ContactResource;
 import google.registry.model.registrar.Registrar;
 import google.registry.rdap.RdapJsonFormatter.BoilerplateType;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
+import google.registry.rdap.RdapJsonGenerator.Deferred;
 import google.registry.rdap.RdapMetrics.EndpointType;
 import google.registry.rdap.RdapMetrics.SearchType;
 import google.registry.rdap.RdapSearchResults.IncompletenessWarningType;
@@ -41,7 +41,6 @@ import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
 import google.registry.util.Clock;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import javax.inject.Inject;
@@ -271,9 +270,9 @@ public class RdapEntitySearchAction extends RdapSearchActionBase {
       registrars = ImmutableList.of();
     } else {
       registrars =
-          Streams.stream(Registrar.loadAllCached())
-              .sorted(
-                  Comparator.comparing(Registrar::getRegistrarName, String.CASE_INSENSITIVE_ORDER))
+          Registrar.loadLookupIndexCached()
+              .getByNamePrefix(partialStringQuery.getInitialString())
+              .stream()
               .filter(
                   registrar ->
                       partialStringQuery.matches(registrar.getRegistrarName())
@@ -377,10 +376,9 @@ public class RdapEntitySearchAction extends RdapSearchActionBase {
         // Even though we are searching by IANA identifier, we should still sort by name, because
         // the IANA identifier can by missing, and sorting on that would screw up our cursors.
         registrars =
-            Streams.stream(Registrar.loadAllCached())
-                .sorted(
-                    Comparator.comparing(
-                        Registrar::getRegistrarName, String.CASE_INSENSITIVE_ORDER))
+            Registrar.loadLookupIndexCached()
+                .getSortedByName()
+                .stream()
                 .filter(
                     registrar ->
                         ((cursorType != CursorType.REGISTRAR)
@@ -490,7 +488,7 @@ public class RdapEntitySearchAction extends RdapSearchActionBase {
     // (contacts and registrars), and partially because we try to fetch one more than the max size,
     // so we can tell whether to display the truncation notification.
     RdapAuthorization authorization = getAuthorization();
-    List<ImmutableMap<String, Object>> jsonOutputList = new ArrayList<>();
+    List<Deferred> jsonOutputList = new ArrayList<>();
     // Each time we add a contact or registrar to the output data set, remember what the appropriate
     // cursor would be if it were the last item returned. When we stop adding items, the last cursor
     // value we remembered will be the right one to pass back.
@@ -504,15 +502,19 @@ public class RdapEntitySearchAction extends RdapSearchActionBase {
       }
       // As per Andy Newton on the regext mailing list, contacts by themselves have no role, since
       // they are global, and might have different roles for different domains.
-      jsonOutputList.add(rdapJsonFormatter.makeRdapJsonForContact(
-          contact,
-          false,
-          Optional.empty(),
-          fullServletPath,
-          rdapWhoisServer,
-          now,
-          outputDataType,
-          authorization));
+      jsonOutputList.add(
+          RdapJsonGenerator.defer(
+              generator ->
+                  rdapJsonFormatter.writeRdapJsonForContact(
+                      generator,
+                      contact,
+                      false,
+                      Optional.empty(),
+                      fullServletPath,
+                      rdapWhoisServer,
+                      now,
+                      outputDataType,
+                      authorization)));
       newCursor =
           Optional.of(
               CONTACT_CURSOR_PREFIX
@@ -527,8 +529,17 @@ public class RdapEntitySearchAction extends RdapSearchActionBase {
             IncompletenessWarningType.TRUNCATED,
             newCursor);
       }
-      jsonOutputList.add(rdapJsonFormatter.makeRdapJsonForRegistrar(
-          registrar, false, fullServletPath, rdapWhoisServer, now, outputDataType));
+      jsonOutputList.add(
+          RdapJsonGenerator.defer(
+              generator ->
+                  rdapJsonFormatter.writeRdapJsonForRegistrar(
+                      generator,
+                      registrar,
+                      false,
+                      fullServletPath,
+                      rdapWhoisServer,
+                      now,
+                      outputDataType)));
       newCursor = Optional.of(REGISTRAR_CURSOR_PREFIX + registrar.getRegistrarName());
     }
     return RdapSearchResults.create(
@@ -17,6 +17,7 @@ package google.registry.rdap;
 import static com.google.common.base.Predicates.not;
 import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.ImmutableSortedSet.toImmutableSortedSet;
 import static google.registry.model.EppResourceUtils.isLinked;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -55,6 +56,7 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.URI;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -73,6 +75,10 @@ import org.joda.time.DateTime;
  * of the methods, is used as the first part of the link URL. For instance, if linkBase is
  * "http://rdap.org/dir/", the link URLs will look like "http://rdap.org/dir/domain/XXXX", etc.
  *
+ * <p>Domains, hosts, contacts and registrars can either be created as trees of maps and lists, or
+ * written to an {@link RdapJsonGenerator}, which is how search results are streamed to the response
+ * without a tree being built for each one.
+ *
  * @see <a href="https://tools.ietf.org/html/rfc7483">
  *        RFC 7483: JSON Responses for the Registration Data Access Protocol (RDAP)</a>
  */
@@ -330,6 +336,30 @@ public class RdapJsonFormatter {
       List<ImmutableMap<String, Object>> notices,
       List<ImmutableMap<String, Object>> remarks,
       String rdapLinkBase) {
+    jsonBuilder.putAll(makeTopLevelEntries(boilerplateType, notices, remarks, rdapLinkBase));
+  }
+
+  /**
+   * Writes the required top-level boilerplate to a JSON object being generated.
+   *
+   * @see #addTopLevelEntries
+   */
+  void writeTopLevelEntries(
+      RdapJsonGenerator generator,
+      BoilerplateType boilerplateType,
+      List<ImmutableMap<String, Object>> notices,
+      List<ImmutableMap<String, Object>> remarks,
+      String rdapLinkBase) {
+    makeTopLevelEntries(boilerplateType, notices, remarks, rdapLinkBase)
+        .forEach((name, value) -> generator.name(name).value(value));
+  }
+
+  private ImmutableMap<String, Object> makeTopLevelEntries(
+      BoilerplateType boilerplateType,
+      List<ImmutableMap<String, Object>> notices,
+      List<ImmutableMap<String, Object>> remarks,
+      String rdapLinkBase) {
+    ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
     jsonBuilder.put("rdapConformance", CONFORMANCE_LIST);
     ImmutableList.Builder<ImmutableMap<String, Object>> noticesBuilder =
         new ImmutableList.Builder<>();
@@ -362,6 +392,7 @@ public class RdapJsonFormatter {
     if (!remarks.isEmpty()) {
       jsonBuilder.put(REMARKS, remarks);
     }
+    return jsonBuilder.build();
   }
 
   /**
@@ -459,6 +490,54 @@ public class RdapJsonFormatter {
     return jsonBuilder.build();
   }
 
+  /**
+   * Loads the entities that formatting the given resources will need, in one batch per level.
+   *
+   * <p>Formatting a domain loads its nameservers and contacts, and formatting a host loads its
+   * superordinate domain, one resource at a time. Calling this first, with a whole page of search
+   * results, loads them for all the results at once into the Objectify session cache, so that the
+   * per-resource loads don't need Datastore round trips of their own.
+   *
+   * @param resources the domains, hosts or contacts which are about to be formatted
+   * @param outputDataType the type of data they'll be formatted with; summary data doesn't include
+   *        the nameservers and contacts of domains, so they aren't loaded for it
+   */
+  void preloadReferencedEntities(
+      Iterable<? extends EppResource> resources, OutputDataType outputDataType) {
+    ImmutableSet.Builder<Key<?>> keys = new ImmutableSet.Builder<>();
+    for (EppResource resource : resources) {
+      if (resource instanceof DomainResource) {
+        if (outputDataType == OutputDataType.FULL) {
+          keys.addAll(((DomainResource) resource).getNameservers());
+          keys.addAll(((DomainResource) resource).getReferencedContacts());
+        }
+      } else if (resource instanceof HostResource) {
+        if (((HostResource) resource).isSubordinate()) {
+          keys.add(((HostResource) resource).getSuperordinateDomain());
+        }
+      }
+    }
+    // The nameservers of domains in turn need their own superordinate domains.
+    ImmutableSet<Key<?>> superordinateDomainKeys =
+        loadKeys(keys.build())
+            .stream()
+            .filter(HostResource.class::isInstance)
+            .map(HostResource.class::cast)
+            .filter(HostResource::isSubordinate)
+            .<Key<?>>map(HostResource::getSuperordinateDomain)
+            .collect(toImmutableSet());
+    loadKeys(superordinateDomainKeys);
+  }
+
+  /** Batch loads entities of any kinds into the session cache, and returns those that exist. */
+  @SuppressWarnings("unchecked")
+  private static Collection<Object> loadKeys(ImmutableSet<Key<?>> keys) {
+    if (keys.isEmpty()) {
+      return ImmutableList.of();
+    }
+    return ofy().load().keys((Iterable<Key<Object>>) (Iterable<?>) keys).values();
+  }
+
   /**
    * Creates a JSON object for a {@link DomainResource}.
    *
@@ -480,22 +559,52 @@ public class RdapJsonFormatter {
       DateTime now,
       OutputDataType outputDataType,
       RdapAuthorization authorization) {
+    return RdapJsonGenerator.buildObject(
+        generator ->
+            writeRdapJsonForDomain(
+                generator,
+                domainResource,
+                isTopLevel,
+                linkBase,
+                whoisServer,
+                now,
+                outputDataType,
+                authorization));
+  }
+
+  /**
+   * Writes the JSON object for a {@link DomainResource} to a generator.
+   *
+   * @see #makeRdapJsonForDomain
+   */
+  void writeRdapJsonForDomain(
+      RdapJsonGenerator generator,
+      DomainResource domainResource,
+      boolean isTopLevel,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType,
+      RdapAuthorization authorization) {
     // Start with the domain-level information.
-    ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
-    jsonBuilder.put("objectClassName", "domain");
-    jsonBuilder.put("handle", domainResource.getRepoId());
-    jsonBuilder.put("ldhName", domainResource.getFullyQualifiedDomainName());
+    generator.beginObject();
+    generator.name("objectClassName").value("domain");
+    generator.name("handle").value(domainResource.getRepoId());
+    generator.name("ldhName").value(domainResource.getFullyQualifiedDomainName());
     // Only include the unicodeName field if there are unicode characters.
     if (hasUnicodeComponents(domainResource.getFullyQualifiedDomainName())) {
-      jsonBuilder.put("unicodeName", Idn.toUnicode(domainResource.getFullyQualifiedDomainName()));
-    }
-    jsonBuilder.put(
-        "status",
-        makeStatusValueList(
-            domainResource.getStatusValues(),
-            false, // isRedacted
-            domainResource.getDeletionTime().isBefore(now)));
-    jsonBuilder.put("links", ImmutableList.of(
+      generator
+          .name("unicodeName")
+          .value(Idn.toUnicode(domainResource.getFullyQualifiedDomainName()));
+    }
+    generator
+        .name("status")
+        .value(
+            makeStatusValueList(
+                domainResource.getStatusValues(),
+                false, // isRedacted
+                domainResource.getDeletionTime().isBefore(now)));
+    generator.name("links").value(ImmutableList.of(
         makeLink("domain", domainResource.getFullyQualifiedDomainName(), linkBase)));
     boolean displayContacts =
         authorization.isAuthorizedForClientId(domainResource.getCurrentSponsorClientId());
@@ -511,105 +620,92 @@ public class RdapJsonFormatter {
         : ImmutableList.of(RdapIcannStandardInformation.DOMAIN_CONTACTS_HIDDEN_DATA_REMARK);
       ImmutableList<Object> events = makeEvents(domainResource, now);
       if (!events.isEmpty()) {
-        jsonBuilder.put("events", events);
+        generator.name("events").value(events);
       }
       // Kick off the database loads of the nameservers that we will need, so it can load
       // asynchronously while we load and process the contacts.
       Map<Key<HostResource>, HostResource> loadedHosts =
           ofy().load().keys(domainResource.getNameservers());
       // Load the registrant and other contacts and add them to the data.
-      ImmutableList<ImmutableMap<String, Object>> entities;
+      Map<Key<ContactResource>, ContactResource> loadedContacts;
+      ImmutableList<DesignatedContact> designatedContacts;
       if (!displayContacts) {
-        entities = ImmutableList.of();
+        loadedContacts = ImmutableMap.of();
+        designatedContacts = ImmutableList.of();
       } else {
-        Map<Key<ContactResource>, ContactResource> loadedContacts =
-            ofy().load().keys(domainResource.getReferencedContacts());
-        entities =
+        loadedContacts = ofy().load().keys(domainResource.getReferencedContacts());
+        designatedContacts =
             Streams.concat(
                     domainResource.getContacts().stream(),
                     Stream.of(
                         DesignatedContact.create(Type.REGISTRANT, domainResource.getRegistrant())))
                 .sorted(DESIGNATED_CONTACT_ORDERING)
-                .map(
-                    designatedContact ->
-                        makeRdapJsonForContact(
-                            loadedContacts.get(designatedContact.getContactKey()),
-                            false,
-                            Optional.of(designatedContact.getType()),
-                            linkBase,
-                            null,
-                            now,
-                            outputDataType,
-                            authorization))
                 .collect(toImmutableList());
       }
-      entities =
-          addRegistrarEntity(
-              entities, domainResource.getCurrentSponsorClientId(), linkBase, whoisServer, now);
-      if (!entities.isEmpty()) {
-        jsonBuilder.put("entities", entities);
+      Optional<Registrar> registrar = loadRegistrar(domainResource.getCurrentSponsorClientId());
+      if (!designatedContacts.isEmpty() || registrar.isPresent()) {
+        generator.name("entities").beginArray();
+        for (DesignatedContact designatedContact : designatedContacts) {
+          writeRdapJsonForContact(
+              generator,
+              loadedContacts.get(designatedContact.getContactKey()),
+              false,
+              Optional.of(designatedContact.getType()),
+              linkBase,
+              null,
+              now,
+              outputDataType,
+              authorization);
+        }
+        if (registrar.isPresent()) {
+          writeRdapJsonForRegistrar(
+              generator,
+              registrar.get(),
+              false /* isTopLevel */,
+              linkBase,
+              whoisServer,
+              now,
+              OutputDataType.SUMMARY);
+        }
+        generator.endArray();
       }
       // Add the nameservers to the data; the load was kicked off above for efficiency.
-      ImmutableList.Builder<Object> nsBuilder = new ImmutableList.Builder<>();
-      for (HostResource hostResource
-          : HOST_RESOURCE_ORDERING.immutableSortedCopy(loadedHosts.values())) {
-        nsBuilder.add(makeRdapJsonForHost(
-            hostResource, false, linkBase, null, now, outputDataType));
-      }
-      ImmutableList<Object> ns = nsBuilder.build();
-      if (!ns.isEmpty()) {
-        jsonBuilder.put("nameservers", ns);
+      if (!loadedHosts.isEmpty()) {
+        generator.name("nameservers").beginArray();
+        for (HostResource hostResource
+            : HOST_RESOURCE_ORDERING.immutableSortedCopy(loadedHosts.values())) {
+          writeRdapJsonForHost(
+              generator, hostResource, false, linkBase, null, now, outputDataType);
+        }
+        generator.endArray();
       }
     }
     if (whoisServer != null) {
-      jsonBuilder.put("port43", whoisServer);
+      generator.name("port43").value(whoisServer);
     }
     if (isTopLevel) {
-      addTopLevelEntries(
-          jsonBuilder,
+      writeTopLevelEntries(
+          generator,
           BoilerplateType.DOMAIN,
           remarks,
           ImmutableList.of(), linkBase);
     } else if (!remarks.isEmpty()) {
-      jsonBuilder.put(REMARKS, remarks);
+      generator.name(REMARKS).value(remarks);
     }
-    return jsonBuilder.build();
+    generator.endObject();
   }
 
   /**
-   * Adds a JSON object for the desired registrar to an existing list of JSON objects.
+   * Loads the registrar to be listed as an entity of a domain or host.
    *
-   * @param entities list of entities to which the desired registrar should be added
    * @param clientId the registrar client ID
-   * @param linkBase the URL base to be used when creating links
-   * @param whoisServer the fully-qualified domain name of the WHOIS server to be listed in the
-   *     port43 field; if null, port43 is not added to the object
-   * @param now the as-date
+   * @return the registrar, or empty if there is no client ID or no such registrar
    */
-  ImmutableList<ImmutableMap<String, Object>> addRegistrarEntity(
-      ImmutableList<ImmutableMap<String, Object>> entities,
-      @Nullable String clientId,
-      @Nullable String linkBase,
-      @Nullable String whoisServer,
-      DateTime now) {
+  private static Optional<Registrar> loadRegistrar(@Nullable String clientId) {
     if (clientId == null) {
-      return entities;
-    }
-    Optional<Registrar> registrar = Registrar.loadByClientIdCached(clientId);
-    if (!registrar.isPresent()) {
-      return entities;
-    }
-    ImmutableList.Builder<ImmutableMap<String, Object>> builder = new ImmutableList.Builder<>();
-    builder.addAll(entities);
-    builder.add(
-        makeRdapJsonForRegistrar(
-            registrar.get(),
-            false /* isTopLevel */,
-            linkBase,
-            whoisServer,
-            now,
-            OutputDataType.SUMMARY));
-    return builder.build();
+      return Optional.empty();
+    }
+    return Registrar.loadByClientIdCached(clientId);
   }
 
   /**
@@ -630,13 +726,32 @@ public class RdapJsonFormatter {
       @Nullable String whoisServer,
       DateTime now,
       OutputDataType outputDataType) {
-    ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
-    jsonBuilder.put("objectClassName", "nameserver");
-    jsonBuilder.put("handle", hostResource.getRepoId());
-    jsonBuilder.put("ldhName", hostResource.getFullyQualifiedHostName());
+    return RdapJsonGenerator.buildObject(
+        generator ->
+            writeRdapJsonForHost(
+                generator, hostResource, isTopLevel, linkBase, whoisServer, now, outputDataType));
+  }
+
+  /**
+   * Writes the JSON object for a {@link HostResource} to a generator.
+   *
+   * @see #makeRdapJsonForHost
+   */
+  void writeRdapJsonForHost(
+      RdapJsonGenerator generator,
+      HostResource hostResource,
+      boolean isTopLevel,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType) {
+    generator.beginObject();
+    generator.name("objectClassName").value("nameserver");
+    generator.name("handle").value(hostResource.getRepoId());
+    generator.name("ldhName").value(hostResource.getFullyQualifiedHostName());
     // Only include the unicodeName field if there are unicode characters.
     if (hasUnicodeComponents(hostResource.getFullyQualifiedHostName())) {
-      jsonBuilder.put("unicodeName", Idn.toUnicode(hostResource.getFullyQualifiedHostName()));
+      generator.name("unicodeName").value(Idn.toUnicode(hostResource.getFullyQualifiedHostName()));
     }
 
     ImmutableSet.Builder<StatusValue> statuses = new ImmutableSet.Builder<>();
@@ -650,13 +765,14 @@ public class RdapJsonFormatter {
                 .contains(StatusValue.PENDING_TRANSFER)) {
       statuses.add(StatusValue.PENDING_TRANSFER);
     }
-    jsonBuilder.put(
-        "status",
-        makeStatusValueList(
-            statuses.build(),
-            false, // isRedacted
-            hostResource.getDeletionTime().isBefore(now)));
-    jsonBuilder.put("links", ImmutableList.of(
+    generator
+        .name("status")
+        .value(
+            makeStatusValueList(
+                statuses.build(),
+                false, // isRedacted
+                hostResource.getDeletionTime().isBefore(now)));
+    generator.name("links").value(ImmutableList.of(
         makeLink("nameserver", hostResource.getFullyQualifiedHostName(), linkBase)));
     List<ImmutableMap<String, Object>> remarks;
     // If we are outputting all data (not just summary data), also add events taken from the history
@@ -667,7 +783,7 @@ public class RdapJsonFormatter {
       remarks = ImmutableList.of();
       ImmutableList<Object> events = makeEvents(hostResource, now);
       if (!events.isEmpty()) {
-        jsonBuilder.put("events", events);
+        generator.name("events").value(events);
       }
     }
     ImmutableSet<InetAddress> inetAddresses = hostResource.getInetAddresses();
@@ -693,32 +809,36 @@ public class RdapJsonFormatter {
       }
       ImmutableMap<String, ImmutableList<String>> ipAddresses = ipAddressesBuilder.build();
       if (!ipAddresses.isEmpty()) {
-        jsonBuilder.put("ipAddresses", ipAddressesBuilder.build());
+        generator.name("ipAddresses").value(ipAddresses);
       }
     }
-    ImmutableList<ImmutableMap<String, Object>> entities =
-        addRegistrarEntity(
-            ImmutableList.of(),
-            hostResource.getPersistedCurrentSponsorClientId(),
-            linkBase,
-            whoisServer,
-            now);
-    if (!entities.isEmpty()) {
-      jsonBuilder.put("entities", entities);
+    Optional<Registrar> registrar =
+        loadRegistrar(hostResource.getPersistedCurrentSponsorClientId());
+    if (registrar.isPresent()) {
+      generator.name("entities").beginArray();
+      writeRdapJsonForRegistrar(
+          generator,
+          registrar.get(),
+          false /* isTopLevel */,
+          linkBase,
+          whoisServer,
+          now,
+          OutputDataType.SUMMARY);
+      generator.endArray();
     }
     if (whoisServer != null) {
-      jsonBuilder.put("port43", whoisServer);
+      generator.name("port43").value(whoisServer);
     }
     if (isTopLevel) {
-      addTopLevelEntries(
-          jsonBuilder,
+      writeTopLevelEntries(
+          generator,
           BoilerplateType.NAMESERVER,
           remarks,
           ImmutableList.of(), linkBase);
     } else if (!remarks.isEmpty()) {
-      jsonBuilder.put(REMARKS, remarks);
+      generator.name(REMARKS).value(remarks);
     }
-    return jsonBuilder.build();
+    generator.endObject();
   }
 
   /**
@@ -744,24 +864,55 @@ public class RdapJsonFormatter {
       DateTime now,
       OutputDataType outputDataType,
       RdapAuthorization authorization) {
+    return RdapJsonGenerator.buildObject(
+        generator ->
+            writeRdapJsonForContact(
+                generator,
+                contactResource,
+                isTopLevel,
+                contactType,
+                linkBase,
+                whoisServer,
+                now,
+                outputDataType,
+                authorization));
+  }
+
+  /**
+   * Writes the JSON object for a {@link ContactResource} to a generator.
+   *
+   * @see #makeRdapJsonForContact
+   */
+  void writeRdapJsonForContact(
+      RdapJsonGenerator generator,
+      ContactResource contactResource,
+      boolean isTopLevel,
+      Optional<DesignatedContact.Type> contactType,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType,
+      RdapAuthorization authorization) {
     boolean isAuthorized =
         authorization.isAuthorizedForClientId(contactResource.getCurrentSponsorClientId());
-    ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
     ImmutableList.Builder<ImmutableMap<String, Object>> remarksBuilder
         = new ImmutableList.Builder<>();
-    jsonBuilder.put("objectClassName", "entity");
-    jsonBuilder.put("handle", contactResource.getRepoId());
-    jsonBuilder.put(
-        "status",
-        makeStatusValueList(
-            isLinked(Key.create(contactResource), now)
-                ? union(contactResource.getStatusValues(), StatusValue.LINKED)
-                : contactResource.getStatusValues(),
-            !isAuthorized,
-            contactResource.getDeletionTime().isBefore(now)));
+    generator.beginObject();
+    generator.name("objectClassName").value("entity");
+    generator.name("handle").value(contactResource.getRepoId());
+    generator
+        .name("status")
+        .value(
+            makeStatusValueList(
+                isLinked(Key.create(contactResource), now)
+                    ? union(contactResource.getStatusValues(), StatusValue.LINKED)
+                    : contactResource.getStatusValues(),
+                !isAuthorized,
+                contactResource.getDeletionTime().isBefore(now)));
     contactType.ifPresent(
-        type -> jsonBuilder.put("roles", ImmutableList.of(convertContactTypeToRdapRole(type))));
-    jsonBuilder.put("links",
+        type ->
+            generator.name("roles").value(ImmutableList.of(convertContactTypeToRdapRole(type))));
+    generator.name("links").value(
         ImmutableList.of(makeLink("entity", contactResource.getRepoId(), linkBase)));
     // If we are logged in as the owner of this contact, create the vCard.
     if (isAuthorized) {
@@ -795,7 +946,7 @@ public class RdapJsonFormatter {
       if (emailAddress != null) {
         vcardBuilder.add(ImmutableList.of("email", ImmutableMap.of(), "text", emailAddress));
       }
-      jsonBuilder.put("vcardArray", ImmutableList.of("vcard", vcardBuilder.build()));
+      generator.name("vcardArray").value(ImmutableList.of("vcard", vcardBuilder.build()));
     } else {
       remarksBuilder.add(RdapIcannStandardInformation.CONTACT_PERSONAL_DATA_HIDDEN_DATA_REMARK);
     }
@@ -806,15 +957,15 @@ public class RdapJsonFormatter {
     } else {
       ImmutableList<Object> events = makeEvents(contactResource, now);
       if (!events.isEmpty()) {
-        jsonBuilder.put("events", events);
+        generator.name("events").value(events);
       }
     }
     if (whoisServer != null) {
-      jsonBuilder.put("port43", whoisServer);
+      generator.name("port43").value(whoisServer);
     }
     if (isTopLevel) {
-      addTopLevelEntries(
-          jsonBuilder,
+      writeTopLevelEntries(
+          generator,
           BoilerplateType.ENTITY,
           remarksBuilder.build(),
           ImmutableList.of(),
@@ -822,10 +973,10 @@ public class RdapJsonFormatter {
     } else {
       ImmutableList<ImmutableMap<String, Object>> remarks = remarksBuilder.build();
       if (!remarks.isEmpty()) {
-        jsonBuilder.put(REMARKS, remarks);
+        generator.name(REMARKS).value(remarks);
       }
     }
-    return jsonBuilder.build();
+    generator.endObject();
   }
 
   /**
@@ -846,20 +997,40 @@ public class RdapJsonFormatter {
       @Nullable String whoisServer,
       DateTime now,
       OutputDataType outputDataType) {
-    ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
-    jsonBuilder.put("objectClassName", "entity");
+    return RdapJsonGenerator.buildObject(
+        generator ->
+            writeRdapJsonForRegistrar(
+                generator, registrar, isTopLevel, linkBase, whoisServer, now, outputDataType));
+  }
+
+  /**
+   * Writes the JSON object for a {@link Registrar} to a generator.
+   *
+   * @see #makeRdapJsonForRegistrar
+   */
+  void writeRdapJsonForRegistrar(
+      RdapJsonGenerator generator,
+      Registrar registrar,
+      boolean isTopLevel,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType) {
+    generator.beginObject();
+    generator.name("objectClassName").value("entity");
     Long ianaIdentifier = registrar.getIanaIdentifier();
-    jsonBuilder.put("handle", (ianaIdentifier == null) ? "(none)" : ianaIdentifier.toString());
-    jsonBuilder.put("status", registrar.isLive() ? STATUS_LIST_ACTIVE : STATUS_LIST_INACTIVE);
-    jsonBuilder.put("roles", ImmutableList.of(RdapEntityRole.REGISTRAR.rfc7483String));
+    generator.name("handle").value((ianaIdentifier == null) ? "(none)" : ianaIdentifier.toString());
+    generator.name("status").value(registrar.isLive() ? STATUS_LIST_ACTIVE : STATUS_LIST_INACTIVE);
+    generator.name("roles").value(ImmutableList.of(RdapEntityRole.REGISTRAR.rfc7483String));
     if (ianaIdentifier != null) {
-      jsonBuilder.put("links",
+      generator.name("links").value(
           ImmutableList.of(makeLink("entity", ianaIdentifier.toString(), linkBase)));
-      jsonBuilder.put(
-          "publicIds",
-          ImmutableList.of(
-              ImmutableMap.of(
-                  "type", "IANA Registrar ID", "identifier", ianaIdentifier.toString())));
+      generator
+          .name("publicIds")
+          .value(
+              ImmutableList.of(
+                  ImmutableMap.of(
+                      "type", "IANA Registrar ID", "identifier", ianaIdentifier.toString())));
     }
     // Create the vCard.
     ImmutableList.Builder<Object> vcardBuilder = new ImmutableList.Builder<>();
@@ -890,7 +1061,7 @@ public class RdapJsonFormatter {
     if (emailAddress != null) {
       vcardBuilder.add(ImmutableList.of("email", ImmutableMap.of(), "text", emailAddress));
     }
-    jsonBuilder.put("vcardArray", ImmutableList.of("vcard", vcardBuilder.build()));
+    generator.name("vcardArray").value(ImmutableList.of("vcard", vcardBuilder.build()));
     // If we are outputting all data (not just summary data), also add registrar contacts. If we are
     // outputting summary data, instead add a remark indicating that fact.
     List<ImmutableMap<String, Object>> remarks;
@@ -900,53 +1071,59 @@ public class RdapJsonFormatter {
       remarks = ImmutableList.of();
       ImmutableList<Object> events = makeEvents(registrar, now);
       if (!events.isEmpty()) {
-        jsonBuilder.put("events", events);
+        generator.name("events").value(events);
       }
       // include the registrar contacts as subentities
-      ImmutableList<ImmutableMap<String, Object>> registrarContacts =
+      ImmutableList<RegistrarContact> registrarContacts =
           registrar
               .getContacts()
               .stream()
               .filter(RdapJsonFormatter::isVisible)
-              .map(registrarContact -> makeRdapJsonForRegistrarContact(registrarContact, null))
               .collect(toImmutableList());
       if (!registrarContacts.isEmpty()) {
-        jsonBuilder.put("entities", registrarContacts);
+        generator.name("entities").beginArray();
+        for (RegistrarContact registrarContact : registrarContacts) {
+          writeRdapJsonForRegistrarContact(generator, registrarContact, null);
+        }
+        generator.endArray();
       }
     }
     if (whoisServer != null) {
-      jsonBuilder.put("port43", whoisServer);
+      generator.name("port43").value(whoisServer);
     }
     if (isTopLevel) {
-      addTopLevelEntries(
-          jsonBuilder,
+      writeTopLevelEntries(
+          generator,
           BoilerplateType.ENTITY,
           remarks,
           ImmutableList.of(),
           linkBase);
     } else if (!remarks.isEmpty()) {
-      jsonBuilder.put(REMARKS, remarks);
+      generator.name(REMARKS).value(remarks);
     }
-    return jsonBuilder.build();
+    generator.endObject();
   }
 
   /**
-   * Creates a JSON object for a {@link RegistrarContact}.
+   * Writes the JSON object for a {@link RegistrarContact} to a generator.
    *
+   * @param generator the generator to which the JSON object should be written
    * @param registrarContact the registrar contact for which the JSON object should be created
    * @param whoisServer the fully-qualified domain name of the WHOIS server to be listed in the
    *        port43 field; if null, port43 is not added to the object
    */
-  static ImmutableMap<String, Object> makeRdapJsonForRegistrarContact(
-      RegistrarContact registrarContact, @Nullable String whoisServer) {
-    ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
-    jsonBuilder.put("objectClassName", "entity");
+  private static void writeRdapJsonForRegistrarContact(
+      RdapJsonGenerator generator,
+      RegistrarContact registrarContact,
+      @Nullable String whoisServer) {
+    generator.beginObject();
+    generator.name("objectClassName").value("entity");
     String gaeUserId = registrarContact.getGaeUserId();
     if (gaeUserId != null) {
-      jsonBuilder.put("handle", registrarContact.getGaeUserId());
+      generator.name("handle").value(registrarContact.getGaeUserId());
     }
-    jsonBuilder.put("status", STATUS_LIST_ACTIVE);
-    jsonBuilder.put("roles", makeRdapRoleList(registrarContact));
+    generator.name("status").value(STATUS_LIST_ACTIVE);
+    generator.name("roles").value(makeRdapRoleList(registrarContact));
     // Create the vCard.
     ImmutableList.Builder<Object> vcardBuilder = new ImmutableList.Builder<>();
     vcardBuilder.add(VCARD_ENTRY_VERSION);
@@ -966,11 +1143,11 @@ public class RdapJsonFormatter {
     if (emailAddress != null) {
       vcardBuilder.add(ImmutableList.of("email", ImmutableMap.of(), "text", emailAddress));
     }
-    jsonBuilder.put("vcardArray", ImmutableList.of("vcard", vcardBuilder.build()));
+    generator.name("vcardArray").value(ImmutableList.of("vcard", vcardBuilder.build()));
     if (whoisServer != null) {
-      jsonBuilder.put("port43", whoisServer);
+      generator.name("port43").value(whoisServer);
     }
-    return jsonBuilder.build();
+    generator.endObject();
   }
 
   /** Converts a domain registry contact type into a role as defined by RFC 7483. */
@@ -0,0 +1,344 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.json.simple.JSONAware;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
+
+/**
+ * Receives the JSON that {@link RdapJsonFormatter} generates, one object, array or value at a time.
+ *
+ * <p>There are two implementations. The streaming one writes the JSON straight to a {@link
+ * Writer}, exactly as json-simple would render the equivalent tree of maps and lists, so that a
+ * page of search results can be sent without building a tree for each result. The tree one builds
+ * that tree instead, for the callers which need an {@link ImmutableMap}, such as the lookup
+ * actions, the pretty-printer and the tests.
+ *
+ * <p>Each {@link #beginObject} and {@link #beginArray} call must be matched by an {@link
+ * #endObject} or {@link #endArray} call, and each value inside an object must be preceded by a
+ * {@link #name} call.
+ */
+abstract class RdapJsonGenerator {
+
+  /** Starts a JSON object. */
+  abstract RdapJsonGenerator beginObject();
+
+  /** Ends the innermost JSON object. */
+  abstract RdapJsonGenerator endObject();
+
+  /** Starts a JSON array. */
+  abstract RdapJsonGenerator beginArray();
+
+  /** Ends the innermost JSON array. */
+  abstract RdapJsonGenerator endArray();
+
+  /** Sets the name of the next member of the innermost JSON object. */
+  abstract RdapJsonGenerator name(String name);
+
+  /**
+   * Adds a value to the innermost JSON object or array.
+   *
+   * <p>The value can be anything json-simple knows how to render: a string, number or boolean, a
+   * map or collection of such values, or a {@link Deferred} object.
+   */
+  abstract RdapJsonGenerator value(Object value);
+
+  /** Builds the JSON object written by the given function as a tree of maps and lists. */
+  @SuppressWarnings("unchecked")
+  static ImmutableMap<String, Object> buildObject(Consumer<RdapJsonGenerator> writer) {
+    TreeGenerator generator = new TreeGenerator();
+    writer.accept(generator);
+    return (ImmutableMap<String, Object>) generator.getResult();
+  }
+
+  /**
+   * Returns a JSON object which is written by the given function when it is rendered, rather than
+   * built up front.
+   */
+  static Deferred defer(Consumer<RdapJsonGenerator> writer) {
+    return new Deferred(writer);
+  }
+
+  /**
+   * Returns a copy of the given JSON tree in which any {@link Deferred} objects have been built,
+   * for consumers other than json-simple, such as the pretty-printer.
+   */
+  @SuppressWarnings("unchecked")
+  static ImmutableMap<String, Object> materialize(Map<String, Object> json) {
+    return (ImmutableMap<String, Object>) materializeValue(json);
+  }
+
+  private static Object materializeValue(Object value) {
+    if (value instanceof Deferred) {
+      return ((Deferred) value).build();
+    }
+    if (value instanceof Map) {
+      ImmutableMap.Builder<String, Object> builder = new ImmutableMap.Builder<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        builder.put(String.valueOf(entry.getKey()), materializeValue(entry.getValue()));
+      }
+      return builder.build();
+    }
+    if (value instanceof Collection) {
+      ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>();
+      for (Object element : (Collection<?>) value) {
+        builder.add(materializeValue(element));
+      }
+      return builder.build();
+    }
+    return value;
+  }
+
+  /**
+   * A JSON object which is written by a formatter function when json-simple renders it.
+   *
+   * <p>Putting these in a JSON tree, for instance as the results of a search, means that
+   * json-simple streams each one straight to its writer, instead of the whole tree being built
+   * before any of it is written.
+   */
+  static final class Deferred implements JSONStreamAware, JSONAware {
+
+    private final Consumer<RdapJsonGenerator> writer;
+
+    private Deferred(Consumer<RdapJsonGenerator> writer) {
+      this.writer = writer;
+    }
+
+    /** Builds the object as a tree of maps and lists. */
+    ImmutableMap<String, Object> build() {
+      return buildObject(writer);
+    }
+
+    @Override
+    public void writeJSONString(Writer out) throws IOException {
+      try {
+        writer.accept(new StreamingGenerator(out));
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public String toJSONString() {
+      StringWriter out = new StringWriter();
+      writer.accept(new StreamingGenerator(out));
+      return out.toString();
+    }
+  }
+
+  /** Generator which writes JSON to a {@link Writer} in the same format as json-simple. */
+  private static final class StreamingGenerator extends RdapJsonGenerator {
+
+    private final Writer out;
+
+    /** Whether each enclosing object or array has anything written to it yet, innermost first. */
+    private final Deque<Boolean> hasMembers = new ArrayDeque<>();
+
+    /** Whether a name has just been written, so that the next value needs no separator. */
+    private boolean afterName;
+
+    StreamingGenerator(Writer out) {
+      this.out = out;
+    }
+
+    @Override
+    RdapJsonGenerator beginObject() {
+      startValue();
+      write("{");
+      hasMembers.push(false);
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator endObject() {
+      hasMembers.pop();
+      write("}");
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator beginArray() {
+      startValue();
+      write("[");
+      hasMembers.push(false);
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator endArray() {
+      hasMembers.pop();
+      write("]");
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator name(String name) {
+      checkState(!afterName, "Two names in a row: %s", name);
+      startMember();
+      write("\"");
+      write(JSONValue.escape(name));
+      write("\":");
+      afterName = true;
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator value(Object value) {
+      if (value instanceof Deferred) {
+        // Write it inline, so that it shares this generator's separators.
+        ((Deferred) value).writer.accept(this);
+        return this;
+      }
+      startValue();
+      try {
+        JSONValue.writeJSONString(value, out);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return this;
+    }
+
+    private void startValue() {
+      if (afterName) {
+        afterName = false;
+      } else {
+        startMember();
+      }
+    }
+
+    /** Writes the separator before a member of an object or an element of an array, if needed. */
+    private void startMember() {
+      if (hasMembers.isEmpty()) {
+        return;
+      }
+      if (hasMembers.peek()) {
+        write(",");
+      } else {
+        hasMembers.pop();
+        hasMembers.push(true);
+      }
+    }
+
+    private void write(String string) {
+      try {
+        out.write(string);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /** Generator which builds a tree of {@link ImmutableMap} and {@link ImmutableList} objects. */
+  private static final class TreeGenerator extends RdapJsonGenerator {
+
+    /** An object or array which is still being built. */
+    private static final class Container {
+      @Nullable final ImmutableMap.Builder<String, Object> object;
+      @Nullable final ImmutableList.Builder<Object> array;
+      @Nullable String name;
+
+      Container(
+          @Nullable ImmutableMap.Builder<String, Object> object,
+          @Nullable ImmutableList.Builder<Object> array) {
+        this.object = object;
+        this.array = array;
+      }
+    }
+
+    private final Deque<Container> containers = new ArrayDeque<>();
+    @Nullable private Object result;
+
+    @Override
+    RdapJsonGenerator beginObject() {
+      containers.push(new Container(new ImmutableMap.Builder<>(), null));
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator endObject() {
+      Container container = containers.pop();
+      checkState(container.object != null, "Not in an object");
+      add(container.object.build());
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator beginArray() {
+      containers.push(new Container(null, new ImmutableList.Builder<>()));
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator endArray() {
+      Container container = containers.pop();
+      checkState(container.array != null, "Not in an array");
+      add(container.array.build());
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator name(String name) {
+      Container container = containers.peek();
+      checkState(container != null && container.object != null, "Not in an object: %s", name);
+      checkState(container.name == null, "Two names in a row: %s", name);
+      container.name = name;
+      return this;
+    }
+
+    @Override
+    RdapJsonGenerator value(Object value) {
+      if (value instanceof Deferred) {
+        ((Deferred) value).writer.accept(this);
+      } else {
+        add(checkNotNull(value));
+      }
+      return this;
+    }
+
+    private void add(Object value) {
+      Container container = containers.peek();
+      if (container == null) {
+        result = value;
+      } else if (container.object != null) {
+        checkState(container.name != null, "Value without a name");
+        container.object.put(container.name, value);
+        container.name = null;
+      } else {
+        container.array.add(value);
+      }
+    }
+
+    Object getResult() {
+      checkState(result != null && containers.isEmpty(), "JSON object is not complete");
+      return result;
+    }
+  }
+}
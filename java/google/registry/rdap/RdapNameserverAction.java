@@ -15,12 +15,16 @@
 package google.registry.rdap;
 
 import static google.registry.flows.host.HostFlowUtils.validateHostName;
+import static google.registry.model.EppResourceUtils.isLinked;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.HEAD;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.Key;
 import google.registry.flows.EppException;
 import google.registry.model.host.HostResource;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
@@ -84,6 +88,23 @@ public class RdapNameserverAction extends RdapActionBase {
     if ((hostResource == null) || !shouldBeVisible(hostResource, now)) {
       throw new NotFoundException(pathSearchString + " not found");
     }
+    // The response's statuses also depend on whether the host is linked, and for subordinate hosts
+    // on whether the superordinate domain is pending transfer.
+    ImmutableList.Builder<Object> versionInformation =
+        new ImmutableList.Builder<>()
+            .addAll(getVersionInformation(hostResource, now))
+            .add(isLinked(Key.create(hostResource), now));
+    if (hostResource.isSubordinate()) {
+      versionInformation.addAll(
+          getVersionInformation(
+              ofy().load().key(hostResource.getSuperordinateDomain()).now()
+                  .cloneProjectedAtTime(now),
+              now));
+    }
+    if (setEntityTag(pathSearchString, versionInformation.build().toArray())) {
+      // The response doesn't need to be built; see setEntityTag.
+      return ImmutableMap.of();
+    }
     return rdapJsonFormatter.makeRdapJsonForHost(
         hostResource, true, fullServletPath, rdapWhoisServer, now, OutputDataType.FULL);
   }
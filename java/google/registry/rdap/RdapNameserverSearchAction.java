@@ -29,6 +29,7 @@ import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
 import google.registry.rdap.RdapJsonFormatter.BoilerplateType;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
+import google.registry.rdap.RdapJsonGenerator.Deferred;
 import google.registry.rdap.RdapMetrics.EndpointType;
 import google.registry.rdap.RdapMetrics.SearchType;
 import google.registry.rdap.RdapSearchResults.IncompletenessWarningType;
@@ -194,8 +195,16 @@ public class RdapNameserverSearchAction extends RdapSearchActionBase {
     metricInformationBuilder.setNumHostsRetrieved(1);
     return RdapSearchResults.create(
         ImmutableList.of(
-            rdapJsonFormatter.makeRdapJsonForHost(
-                hostResource, false, fullServletPath, rdapWhoisServer, now, OutputDataType.FULL)));
+            RdapJsonGenerator.defer(
+                generator ->
+                    rdapJsonFormatter.writeRdapJsonForHost(
+                        generator,
+                        hostResource,
+                        false,
+                        fullServletPath,
+                        rdapWhoisServer,
+                        now,
+                        OutputDataType.FULL))));
   }
 
   /** Searches for nameservers by name using the superordinate domain as a suffix. */
@@ -300,8 +309,9 @@ public class RdapNameserverSearchAction extends RdapSearchActionBase {
     metricInformationBuilder.setNumHostsRetrieved(numHostsRetrieved);
     OutputDataType outputDataType =
         (hosts.size() > 1) ? OutputDataType.SUMMARY : OutputDataType.FULL;
-    ImmutableList.Builder<ImmutableMap<String, Object>> jsonListBuilder =
-        new ImmutableList.Builder<>();
+    rdapJsonFormatter.preloadReferencedEntities(
+        Iterables.limit(hosts, rdapResultSetMaxSize), outputDataType);
+    ImmutableList.Builder<Deferred> jsonListBuilder = new ImmutableList.Builder<>();
     Optional<String> newCursor = Optional.empty();
     for (HostResource host : Iterables.limit(hosts, rdapResultSetMaxSize)) {
       newCursor =
@@ -310,10 +320,18 @@ public class RdapNameserverSearchAction extends RdapSearchActionBase {
                   ? host.getFullyQualifiedHostName()
                   : host.getRepoId());
       jsonListBuilder.add(
-          rdapJsonFormatter.makeRdapJsonForHost(
-              host, false, fullServletPath, rdapWhoisServer, now, outputDataType));
+          RdapJsonGenerator.defer(
+              generator ->
+                  rdapJsonFormatter.writeRdapJsonForHost(
+                      generator,
+                      host,
+                      false,
+                      fullServletPath,
+                      rdapWhoisServer,
+                      now,
+                      outputDataType)));
     }
-    ImmutableList<ImmutableMap<String, Object>> jsonList = jsonListBuilder.build();
+    ImmutableList<Deferred> jsonList = jsonListBuilder.build();
     if (jsonList.size() < hosts.size()) {
       return RdapSearchResults.create(jsonList, IncompletenessWarningType.TRUNCATED, newCursor);
     } else {
@@ -0,0 +1,79 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import google.registry.config.RegistryConfig.Config;
+import java.util.Optional;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.joda.time.Duration;
+
+/**
+ * In-memory cache of rendered RDAP lookup responses, shared by all requests on an instance.
+ *
+ * <p>Responses are keyed by their entity tags, which change whenever the data shown in them or the
+ * way it's shaped for the request does, so an entry never has to be invalidated; it's just no
+ * longer requested. Entries are evicted when the cache exceeds its configured size in bytes, and
+ * expire after the same duration responses may be cached by clients, so that the time-dependent
+ * parts of a response are never served more stale than a client's copy would be.
+ */
+@Singleton
+public class RdapResponseCache {
+
+  private final Optional<Cache<String, String>> cache;
+
+  @Inject
+  RdapResponseCache(
+      @Config("rdapResponseCacheMaxBytes") int maxBytes,
+      @Config("rdapResponseCachingDuration") Duration cachingDuration) {
+    this.cache =
+        (maxBytes <= 0)
+            ? Optional.empty()
+            : Optional.of(
+                CacheBuilder.newBuilder()
+                    // Java strings take two bytes per character.
+                    .<String, String>weigher(
+                        (entityTag, payload) -> 2 * (entityTag.length() + payload.length()))
+                    .maximumWeight(maxBytes)
+                    .expireAfterWrite(cachingDuration.getMillis(), MILLISECONDS)
+                    .build());
+  }
+
+  /** Returns a cache that never holds anything. */
+  @VisibleForTesting
+  static RdapResponseCache createDisabled() {
+    return new RdapResponseCache(0, Duration.ZERO);
+  }
+
+  /** Returns whether the cache is enabled, i.e. whether it's worth rendering responses for it. */
+  boolean isEnabled() {
+    return cache.isPresent();
+  }
+
+  /** Returns the cached response with the given entity tag, if there is one. */
+  Optional<String> get(String entityTag) {
+    return cache.map(c -> c.getIfPresent(entityTag));
+  }
+
+  /** Caches a rendered response under its entity tag, if the cache is enabled. */
+  void put(String entityTag, String payload) {
+    cache.ifPresent(c -> c.put(entityTag, payload));
+  }
+}
@@ -19,6 +19,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.request.Parameter;
 import google.registry.request.ParameterMap;
 import google.registry.request.RequestUrl;
@@ -41,9 +42,16 @@ public abstract class RdapSearchActionBase extends RdapActionBase {
   @Inject @RequestUrl String requestUrl;
   @Inject @ParameterMap ImmutableListMultimap<String, String> parameterMap;
   @Inject @Parameter("cursor") Optional<String> cursorTokenParam;
+  @Inject @Config("rateLimitSearchRequestTokens") int rateLimitSearchRequestTokens;
 
   protected Optional<String> cursorString;
 
+  /** Searches run Datastore queries, so they cost more than lookups. */
+  @Override
+  int getRateLimitTokens() {
+    return rateLimitSearchRequestTokens;
+  }
+
   /**
    * Decodes the cursor token passed in the HTTP request.
    *
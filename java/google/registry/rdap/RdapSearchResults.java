@@ -20,6 +20,7 @@ import static google.registry.rdap.RdapIcannStandardInformation.TRUNCATION_NOTIC
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import google.registry.rdap.RdapJsonGenerator.Deferred;
 import java.util.Optional;
 
 /**
@@ -46,19 +47,24 @@ abstract class RdapSearchResults {
     MIGHT_BE_INCOMPLETE
   }
 
-  static RdapSearchResults create(ImmutableList<ImmutableMap<String, Object>> jsonList) {
+  static RdapSearchResults create(ImmutableList<Deferred> jsonList) {
     return create(jsonList, IncompletenessWarningType.COMPLETE, Optional.empty());
   }
 
   static RdapSearchResults create(
-      ImmutableList<ImmutableMap<String, Object>> jsonList,
+      ImmutableList<Deferred> jsonList,
       IncompletenessWarningType incompletenessWarningType,
       Optional<String> nextCursor) {
     return new AutoValue_RdapSearchResults(jsonList, incompletenessWarningType, nextCursor);
   }
 
-  /** List of JSON result object representations. */
-  abstract ImmutableList<ImmutableMap<String, Object>> jsonList();
+  /**
+   * List of JSON result object representations.
+   *
+   * <p>The results are only formatted when the response is written, so that each one is streamed
+   * to the response rather than built as a tree first.
+   */
+  abstract ImmutableList<Deferred> jsonList();
 
   /** Type of warning to display regarding possible incomplete data. */
   abstract IncompletenessWarningType incompletenessWarningType();
@@ -14,9 +14,7 @@
 
 package google.registry.rdap;
 
-import com.google.common.collect.Streams;
 import google.registry.model.registrar.Registrar;
-import java.util.Objects;
 import java.util.Optional;
 
 /** Utility functions for RDAP. */
@@ -26,8 +24,6 @@ public final class RdapUtils {
 
   /** Looks up a registrar by its IANA identifier. */
   static Optional<Registrar> getRegistrarByIanaIdentifier(final long ianaIdentifier) {
-    return Streams.stream(Registrar.loadAllCached())
-        .filter(registrar -> Objects.equals(ianaIdentifier, registrar.getIanaIdentifier()))
-        .findFirst();
+    return Registrar.loadLookupIndexCached().getByIanaIdentifier(ianaIdentifier);
   }
 }
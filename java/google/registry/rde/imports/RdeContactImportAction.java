@@ -15,8 +15,8 @@
 package google.registry.rde.imports;
 
 import static google.registry.mapreduce.MapreduceRunner.PARAM_MAP_SHARDS;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static google.registry.util.PipelineUtils.createJobPath;
 
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
@@ -77,12 +77,12 @@ public class RdeContactImportAction implements Runnable {
 
   @Override
   public void run() {
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
         .setJobName("Import contacts from escrow file")
         .setModuleName("backend")
         .runMapOnly(
             createMapper(),
-            ImmutableList.of(createInput()))));
+            ImmutableList.of(createInput())));
   }
 
   /**
@@ -18,6 +18,7 @@ import static google.registry.flows.domain.DomainTransferUtils.createLosingTrans
 import static google.registry.flows.domain.DomainTransferUtils.createPendingTransferData;
 import static google.registry.flows.domain.DomainTransferUtils.createTransferServerApproveEntities;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_MAP_SHARDS;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.domain.DomainResource.extendRegistrationWithCap;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.pricing.PricingEngineProxy.getDomainRenewCost;
@@ -25,7 +26,6 @@ import static google.registry.rde.imports.RdeImportUtils.createAutoRenewBillingE
 import static google.registry.rde.imports.RdeImportUtils.createAutoRenewPollMessageForDomainImport;
 import static google.registry.rde.imports.RdeImportUtils.createHistoryEntryForDomainImport;
 import static google.registry.rde.imports.RdeImportsModule.PATH;
-import static google.registry.util.PipelineUtils.createJobPath;
 import static google.registry.util.PreconditionsUtils.checkArgumentNotNull;
 
 import com.google.appengine.tools.cloudstorage.GcsService;
@@ -103,12 +103,12 @@ public class RdeDomainImportAction implements Runnable {
     logger.atInfo().log(
         "Launching domains import mapreduce: bucket=%s, filename=%s",
         this.importBucketName, this.importFileName);
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
         .setJobName("Import domains from escrow file")
         .setModuleName("backend")
         .runMapOnly(
             createMapper(),
-            ImmutableList.of(createInput()))));
+            ImmutableList.of(createInput())));
   }
 
   /**
@@ -39,8 +39,11 @@ import google.registry.model.billing.BillingEvent.Flag;
 import google.registry.model.billing.BillingEvent.Reason;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.eppcommon.Trid;
+import google.registry.model.host.HostResource;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.registrar.Registrar;
@@ -98,8 +101,18 @@ public class RdeImportUtils {
         resource.getClass().getCanonicalName(),
         resource.getForeignKey(),
         resource.getRepoId());
-    return ImmutableSet.of(ForeignKeyIndex.create(resource, resource.getDeletionTime()),
-        EppResourceIndex.create(Key.create(resource)));
+    ImmutableSet.Builder<Object> indexes =
+        new ImmutableSet.Builder<>()
+            .add(
+                ForeignKeyIndex.create(resource, resource.getDeletionTime()),
+                EppResourceIndex.create(Key.create(resource)));
+    if (resource instanceof HostResource) {
+      indexes.addAll(HostInetAddressIndex.createUpdatedInstances(null, (HostResource) resource));
+    }
+    if (resource instanceof DomainResource) {
+      indexes.addAll(LinkedDomainIndex.createAddedLinks(null, (DomainResource) resource));
+    }
+    return indexes.build();
   }
 
   /**
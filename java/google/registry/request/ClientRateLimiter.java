@@ -0,0 +1,144 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package google.registry.request;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.min;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.request.HttpException.TooManyRequestsException;
+import google.registry.util.Clock;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Per-client token bucket rate limiter for anonymous public API requests, shared by all requests
+ * on an instance.
+ *
+ * <p>Each client IP address gets a separate bucket for each endpoint, holding up to a configured
+ * number of tokens and refilling continuously at a configured rate. A request takes tokens in
+ * proportion to how expensive it is, and is refused with a {@link TooManyRequestsException} if the
+ * bucket doesn't have enough.
+ *
+ * <p>Buckets are kept in a bounded in-memory cache, so a client whose bucket was evicted starts
+ * over with a full one. Since App Engine spreads a client's requests over all instances, the
+ * effective limit for a client is roughly the configured one times the number of instances.
+ */
+@Singleton
+@ThreadSafe
+public class ClientRateLimiter {
+
+  private final Clock clock;
+  private final int maxTokens;
+  private final double tokensPerSecond;
+  private final Optional<Cache<String, TokenBucket>> buckets;
+
+  @Inject
+  public ClientRateLimiter(
+      Clock clock,
+      @Config("rateLimitMaxTokens") int maxTokens,
+      @Config("rateLimitTokensPerSecond") double tokensPerSecond,
+      @Config("rateLimitMaxTrackedClients") int maxTrackedClients) {
+    this.clock = clock;
+    this.maxTokens = maxTokens;
+    this.tokensPerSecond = tokensPerSecond;
+    if (maxTokens <= 0) {
+      this.buckets = Optional.empty();
+    } else {
+      checkArgument(tokensPerSecond > 0, "Rate limit buckets must refill at a positive rate");
+      this.buckets =
+          Optional.of(CacheBuilder.newBuilder().maximumSize(maxTrackedClients).build());
+    }
+  }
+
+  /** Returns a rate limiter that lets every request through. */
+  @VisibleForTesting
+  public static ClientRateLimiter createDisabled() {
+    return new ClientRateLimiter(null, 0, 0, 0);
+  }
+
+  /** Returns whether rate limiting is enabled. */
+  public boolean isEnabled() {
+    return buckets.isPresent();
+  }
+
+  /**
+   * Takes tokens from the given client's bucket for an endpoint.
+   *
+   * @param endpoint the name of the endpoint being requested; each has separate buckets
+   * @param clientAddress the IP address of the client making the request
+   * @param tokens the cost of the request; this is capped at the size of a full bucket, so that
+   *     every request can eventually succeed
+   * @throws TooManyRequestsException if the bucket doesn't have enough tokens
+   */
+  public void take(String endpoint, String clientAddress, int tokens) {
+    if (!buckets.isPresent()) {
+      return;
+    }
+    TokenBucket bucket;
+    try {
+      bucket = buckets.get().get(endpoint + " " + clientAddress, TokenBucket::new);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    Optional<Duration> retryAfter = bucket.take(min(tokens, maxTokens), clock.nowUtc());
+    if (retryAfter.isPresent()) {
+      throw new TooManyRequestsException(
+          String.format("Too many %s requests; try again later", endpoint), retryAfter.get());
+    }
+  }
+
+  /** The tokens available to a single client, as of the last time any were taken. */
+  private final class TokenBucket {
+
+    @GuardedBy("this")
+    private double availableTokens = maxTokens;
+
+    @GuardedBy("this")
+    private DateTime lastRefillTime = clock.nowUtc();
+
+    /**
+     * Refills the bucket and takes the given number of tokens from it, if there are enough.
+     *
+     * @return empty if the tokens were taken, or else how long it'll take for there to be enough
+     */
+    synchronized Optional<Duration> take(int tokens, DateTime now) {
+      if (now.isAfter(lastRefillTime)) {
+        availableTokens =
+            min(
+                maxTokens,
+                availableTokens
+                    + tokensPerSecond * (now.getMillis() - lastRefillTime.getMillis()) / 1000);
+        lastRefillTime = now;
+      }
+      if (availableTokens >= tokens) {
+        availableTokens -= tokens;
+        return Optional.empty();
+      }
+      return Optional.of(
+          Duration.millis((long) Math.ceil((tokens - availableTokens) * 1000 / tokensPerSecond)));
+    }
+  }
+}
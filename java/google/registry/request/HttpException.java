@@ -19,6 +19,7 @@ import static com.google.common.html.HtmlEscapers.htmlEscaper;
 import com.google.common.flogger.FluentLogger;
 import java.io.IOException;
 import javax.servlet.http.HttpServletResponse;
+import org.joda.time.Duration;
 
 /** Base for exceptions that cause an HTTP error response. */
 public abstract class HttpException extends RuntimeException {
@@ -26,6 +27,9 @@ public abstract class HttpException extends RuntimeException {
   // as per https://tools.ietf.org/html/rfc4918
   private static final int SC_UNPROCESSABLE_ENTITY = 422;
 
+  // as per https://tools.ietf.org/html/rfc6585
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final int responseCode;
@@ -189,6 +193,31 @@ public abstract class HttpException extends RuntimeException {
     }
   }
 
+  /**
+   * Exception that causes a 429 response.
+   *
+   * <p>Actions that throw this should also send a {@code Retry-After} header with the value of
+   * {@link #getRetryAfterSeconds}, which {@link #send} can't do.
+   */
+  public static final class TooManyRequestsException extends HttpException {
+    private final Duration retryAfter;
+
+    public TooManyRequestsException(String message, Duration retryAfter) {
+      super(SC_TOO_MANY_REQUESTS, message, null);
+      this.retryAfter = retryAfter;
+    }
+
+    /** Returns how many whole seconds the client should wait before trying again. */
+    public long getRetryAfterSeconds() {
+      return Math.max(1, (retryAfter.getMillis() + 999) / 1000);
+    }
+
+    @Override
+    public String getResponseCodeString() {
+      return "Too Many Requests";
+    }
+  }
+
   /** Exception that causes a 500 response. */
   public static final class InternalServerErrorException extends HttpException {
     public InternalServerErrorException(String message) {
@@ -15,6 +15,7 @@
 package google.registry.request;
 
 import com.google.common.net.MediaType;
+import java.io.Writer;
 import javax.servlet.http.HttpServletResponse;
 import org.joda.time.DateTime;
 
@@ -38,6 +39,13 @@ public interface Response {
    */
   void setPayload(String payload);
 
+  /**
+   * Returns a writer to stream the HTTP payload to, instead of setting it all at once.
+   *
+   * @throws IllegalStateException if you've already written the payload
+   */
+  Writer getPayloadWriter();
+
   /**
    * Writes an HTTP header to the response.
    *
@@ -14,8 +14,11 @@
 
 package google.registry.request;
 
+import static com.google.common.base.Preconditions.checkState;
+
 import com.google.common.net.MediaType;
 import java.io.IOException;
+import java.io.Writer;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletResponse;
 import org.joda.time.DateTime;
@@ -28,6 +31,7 @@ public final class ResponseImpl implements Response {
       "<script>window.location.replace(\"%1$s\");</script><a href=\"%1$s\">%1$s</a>";
 
   private final HttpServletResponse rsp;
+  private boolean payloadWritten;
 
   @Inject
   public ResponseImpl(HttpServletResponse rsp) {
@@ -46,6 +50,7 @@ public final class ResponseImpl implements Response {
 
   @Override
   public void setPayload(String payload) {
+    payloadWritten = true;
     try {
       rsp.getWriter().write(payload);
     } catch (IOException e) {
@@ -53,6 +58,17 @@ public final class ResponseImpl implements Response {
     }
   }
 
+  @Override
+  public Writer getPayloadWriter() {
+    checkState(!payloadWritten, "Payload has already been written");
+    payloadWritten = true;
+    try {
+      return rsp.getWriter();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   @Override
   public void setHeader(String header, String value) {
     rsp.setHeader(header, value);
@@ -15,6 +15,7 @@
 package google.registry.tools;
 
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
 import com.google.common.base.Objects;
 
 /** Wraps {@link Entity} to do hashCode/equals based on both the entity's key and its properties. */
@@ -25,6 +26,10 @@ final class ComparableEntity {
     this.entity = entity;
   }
 
+  Key getKey() {
+    return entity.getKey();
+  }
+
   @Override
   public boolean equals(Object that) {
     if (that instanceof ComparableEntity) {
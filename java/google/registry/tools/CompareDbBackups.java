@@ -14,48 +14,85 @@
 
 package google.registry.tools;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
-import com.google.common.collect.Sets.SetView;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import google.registry.tools.PartitionedBackupComparator.Comparison;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 
-/** Compare two database backups. */
+/**
+ * Compare two database backups.
+ *
+ * <p>By default both backups are loaded into memory in full. If a number of partitions is given,
+ * the backups are instead hash-partitioned to a temporary directory and compared partition by
+ * partition in parallel (see {@link PartitionedBackupComparator}), which bounds the memory needed
+ * to compare backups of any size.
+ */
 class CompareDbBackups {
 
-  public static void main(String[] args) {
-    if (args.length != 2) {
-      System.err.println("Usage: compare_db_backups <directory1> <directory2>");
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 && args.length != 3) {
+      System.err.println("Usage: compare_db_backups <directory1> <directory2> [<num_partitions>]");
       return;
     }
 
-    ImmutableSet<ComparableEntity> entities1 =
-        new RecordAccumulator().readDirectory(new File(args[0])).getComparableEntitySet();
-    ImmutableSet<ComparableEntity> entities2 =
-        new RecordAccumulator().readDirectory(new File(args[1])).getComparableEntitySet();
-
-    // Calculate the entities added and removed.
-    SetView<ComparableEntity> added = Sets.difference(entities2, entities1);
-    SetView<ComparableEntity> removed = Sets.difference(entities1, entities2);
+    File dir1 = new File(args[0]);
+    File dir2 = new File(args[1]);
+    Comparison comparison =
+        (args.length == 3)
+            ? comparePartitioned(dir1, dir2, Integer.parseInt(args[2]))
+            : compareInMemory(dir1, dir2);
 
     printHeader(
-        String.format("First backup: %d records", entities1.size()),
-        String.format("Second backup: %d records", entities2.size()));
+        String.format("First backup: %d records", comparison.size1),
+        String.format("Second backup: %d records", comparison.size2));
 
-    if (!removed.isEmpty()) {
-      printHeader(removed.size() + " records were removed:");
-      for (ComparableEntity entity : removed) {
+    if (!comparison.removed.isEmpty()) {
+      printHeader(comparison.removed.size() + " records were removed:");
+      for (ComparableEntity entity : comparison.removed) {
         System.out.println(entity);
       }
     }
 
-    if (!added.isEmpty()) {
-      printHeader(added.size() + " records were added:");
-      for (ComparableEntity entity : added) {
+    if (!comparison.added.isEmpty()) {
+      printHeader(comparison.added.size() + " records were added:");
+      for (ComparableEntity entity : comparison.added) {
         System.out.println(entity);
       }
     }
   }
 
+  private static Comparison compareInMemory(File dir1, File dir2) {
+    ImmutableSet<ComparableEntity> entities1 =
+        new RecordAccumulator().readDirectory(dir1).getComparableEntitySet();
+    ImmutableSet<ComparableEntity> entities2 =
+        new RecordAccumulator().readDirectory(dir2).getComparableEntitySet();
+
+    // Calculate the entities added and removed.
+    return new Comparison(
+        entities1.size(),
+        entities2.size(),
+        ImmutableList.copyOf(Sets.difference(entities1, entities2)),
+        ImmutableList.copyOf(Sets.difference(entities2, entities1)));
+  }
+
+  private static Comparison comparePartitioned(File dir1, File dir2, int numPartitions)
+      throws IOException {
+    File workDir = Files.createTempDirectory("compare_db_backups").toFile();
+    try {
+      return new PartitionedBackupComparator(
+              workDir, numPartitions, Runtime.getRuntime().availableProcessors())
+          .compare(dir1, dir2);
+    } finally {
+      // Partition files are left behind if the comparison fails partway.
+      MoreFiles.deleteRecursively(workDir.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+  }
+
   /** Print out multi-line text in a pretty ASCII header frame. */
   private static void printHeader(String... headerLines) {
     System.out.println("========================================================================");
@@ -14,19 +14,29 @@
 
 package google.registry.tools;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.model.registry.Registries.assertTldsExist;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.joda.time.DateTimeZone.UTC;
 import static org.joda.time.Duration.standardMinutes;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import google.registry.tools.params.DateParameter;
+import google.registry.tools.params.PathParameter;
 import google.registry.tools.server.GenerateZoneFilesAction;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 import org.joda.time.DateTime;
+import org.json.simple.JSONValue;
 
 /** Command to generate zone files. */
 @Parameters(separators = " =", commandDescription = "Generate zone files")
@@ -45,6 +55,26 @@ final class GenerateZoneFilesCommand implements CommandWithConnection, CommandWi
       validateWith = DateParameter.class)
   private DateTime exportDate = DateTime.now(UTC).minus(standardMinutes(2)).withTimeAtStartOfDay();
 
+  @Parameter(
+      names = "--previous_export_date",
+      description = "If set, generate the files incrementally from the files of this earlier date "
+          + "and the changes since, instead of from scratch.",
+      validateWith = DateParameter.class)
+  private DateTime previousExportDate;
+
+  @Parameter(
+      names = "--shards_per_tld",
+      description = "If set, write each zone file as this many gzipped shards with a manifest, "
+          + "instead of as a single file.")
+  private Integer shardsPerTld;
+
+  @Parameter(
+      names = "--concatenate_shards_in",
+      description = "Instead of generating zone files, assemble the zone files of the export date "
+          + "from the manifests and shards downloaded into this directory.",
+      validateWith = PathParameter.InputDirectory.class)
+  private Path shardDirectory;
+
   private Connection connection;
 
   @Override
@@ -55,19 +85,83 @@ final class GenerateZoneFilesCommand implements CommandWithConnection, CommandWi
   @Override
   public void run() throws IOException {
     assertTldsExist(mainParameters);
-    ImmutableMap<String, Object> params = ImmutableMap.of(
-        "tlds", mainParameters,
-        "exportTime", exportDate.toString());
-    Map<String, Object> response = connection.sendJson(GenerateZoneFilesAction.PATH, params);
-    System.out.printf(
-        "Job started at %s%s\n",
-        connection.getServerUrl(),
-        response.get("jobPath"));
+    if (shardDirectory != null) {
+      for (String tld : mainParameters) {
+        System.out.println(concatenateShards(tld));
+      }
+      return;
+    }
+    ImmutableMap.Builder<String, Object> params =
+        new ImmutableMap.Builder<String, Object>()
+            .put("tlds", mainParameters)
+            .put("exportTime", exportDate.toString());
+    if (previousExportDate != null) {
+      params.put("previousExportTime", previousExportDate.toString());
+    }
+    if (shardsPerTld != null) {
+      params.put("shardsPerTld", shardsPerTld);
+    }
+    Map<String, Object> response =
+        connection.sendJson(GenerateZoneFilesAction.PATH, params.build());
+    if (response.containsKey("jobPath")) {
+      System.out.printf(
+          "Job started at %s%s\n",
+          connection.getServerUrl(),
+          response.get("jobPath"));
+    }
     System.out.println("Output files:");
     @SuppressWarnings("unchecked")
     List<String> filenames = (List<String>) response.get("filenames");
     for (String filename : filenames) {
       System.out.println(filename);
     }
+    @SuppressWarnings("unchecked")
+    List<String> deltaFilenames = (List<String>) response.get("deltaFilenames");
+    if (deltaFilenames != null) {
+      System.out.println("Delta files:");
+      for (String filename : deltaFilenames) {
+        System.out.println(filename);
+      }
+    }
+  }
+
+  /**
+   * Assembles the zone file of a TLD from the shards listed in its manifest, in order.
+   *
+   * @return the path of the zone file written
+   */
+  private Path concatenateShards(String tld) throws IOException {
+    Path manifestFile =
+        shardDirectory.resolve(
+            String.format(GenerateZoneFilesAction.MANIFEST_FILENAME_FORMAT, tld, exportDate));
+    checkArgument(Files.exists(manifestFile), "Manifest %s doesn't exist", manifestFile);
+    @SuppressWarnings("unchecked")
+    Map<String, Object> manifest =
+        (Map<String, Object>) JSONValue.parse(new String(Files.readAllBytes(manifestFile), UTF_8));
+    checkArgument(
+        "gzip".equals(manifest.get("compression")),
+        "Unsupported compression %s",
+        manifest.get("compression"));
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> shards = (List<Map<String, Object>>) manifest.get("shards");
+    Path zoneFile =
+        shardDirectory.resolve(
+            String.format(GenerateZoneFilesAction.FILENAME_FORMAT, tld, exportDate));
+    try (OutputStream output = Files.newOutputStream(zoneFile)) {
+      for (Map<String, Object> shard : shards) {
+        // The manifest names the shards by their GCS object names, but they're downloaded flat.
+        Path shardFile =
+            shardDirectory.resolve(
+                shardDirectory
+                    .getFileSystem()
+                    .getPath((String) shard.get("filename"))
+                    .getFileName());
+        checkArgument(Files.exists(shardFile), "Shard %s doesn't exist", shardFile);
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(shardFile))) {
+          ByteStreams.copy(input, output);
+        }
+      }
+    }
+    return zoneFile;
   }
 }
@@ -14,17 +14,30 @@
 
 package google.registry.tools;
 
+import static com.google.common.base.Preconditions.checkState;
+
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteStreams;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.FileSystems;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 
 /**
- * Reads records from a set of LevelDB files and builds a gigantic ImmutableList from them.
+ * Reads records from a set of LevelDB files.
+ *
+ * <p>Records can either be streamed one at a time from a memory-mapped file using {@link
+ * #readRecords(Path)}, which only ever holds the record currently being assembled in memory, or
+ * accumulated into a gigantic ImmutableList using the {@code readFrom} methods.
  *
  * <p>See <a
  * href="https://github.com/google/leveldb/blob/master/doc/log_format.md">log_format.md</a> for the
@@ -43,78 +56,64 @@ public final class LevelDbLogReader {
   @VisibleForTesting static final int BLOCK_SIZE = 32 * 1024;
   @VisibleForTesting static final int HEADER_SIZE = 7;
 
+  /**
+   * Maximum number of bytes of a file that are mapped into a single buffer.
+   *
+   * <p>A {@link ByteBuffer} can't address more than 2GB, so larger files are mapped as a sequence of
+   * block-aligned regions.
+   */
+  @VisibleForTesting static final int MAX_MAPPED_REGION_SIZE = BLOCK_SIZE * 32 * 1024;
+
   private final ByteArrayOutputStream recordContents = new ByteArrayOutputStream();
   private final ImmutableList.Builder<byte[]> recordListBuilder = new ImmutableList.Builder<>();
 
-  /** Read a complete block, which must be exactly 32 KB. */
-  private void processBlock(byte[] block) {
-    // Read records from the block until there is no longer enough space for a record (i.e. until
-    // we're at HEADER_SIZE - 1 bytes from the end of the block).
-    int i = 0;
-    while (i < BLOCK_SIZE - (HEADER_SIZE - 1)) {
-      RecordHeader recordHeader = readRecordHeader(block, i);
-      if (recordHeader.type == ChunkType.END) {
-        // A type of zero indicates that we've reached the padding zeroes at the end of the block.
-        break;
-      }
-
-      // Copy the contents of the record into recordContents.
-      recordContents.write(block, i + HEADER_SIZE, recordHeader.size);
-
-      // If this is the last (or only) chunk in the record, store the full contents into the List.
-      if (recordHeader.type == ChunkType.FULL || recordHeader.type == ChunkType.LAST) {
-        recordListBuilder.add(recordContents.toByteArray());
-        recordContents.reset();
-      }
-
-      i += recordHeader.size + HEADER_SIZE;
-    }
-  }
+  /** Scratch buffer that chunk contents are copied through, reused across all chunks. */
+  private final byte[] chunkBuffer = new byte[BLOCK_SIZE];
 
   /**
-   * Gets a byte from "block" as an unsigned value.
+   * Returns an iterator over the records of the file specified by "path".
    *
-   * <p>Java bytes are signed, which doesn't work very well for our bit-shifting operations.
+   * <p>The file is memory-mapped rather than read onto the heap, and records are only assembled as
+   * the iterator is advanced, so arbitrarily large files can be processed in constant memory.
    */
-  private int getUnsignedByte(byte[] block, int pos) {
-    return block[pos] & 0xFF;
+  public static Iterator<byte[]> readRecords(Path path) throws IOException {
+    return new LevelDbLogReader().iterateRecords(path);
   }
 
-  /** Reads the 7 byte record header. */
-  private RecordHeader readRecordHeader(byte[] block, int pos) {
-    // Read checksum (4 bytes, LE).
-    int checksum =
-        getUnsignedByte(block, pos)
-            | (getUnsignedByte(block, pos + 1) << 8)
-            | (getUnsignedByte(block, pos + 2) << 16)
-            | (getUnsignedByte(block, pos + 3) << 24);
-    // Read size (2 bytes, LE).
-    int size = getUnsignedByte(block, pos + 4) | (getUnsignedByte(block, pos + 5) << 8);
-    // Read type (1 byte).
-    int type = getUnsignedByte(block, pos + 6);
-
-    return new RecordHeader(checksum, size, ChunkType.fromCode(type));
+  /** Returns an iterator over the records of the file, sharing this reader's partial record. */
+  private Iterator<byte[]> iterateRecords(Path path) throws IOException {
+    ImmutableList.Builder<Iterator<byte[]>> regionIterators = new ImmutableList.Builder<>();
+    // The mappings remain valid after the channel is closed.
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      for (long offset = 0; offset < size; offset += MAX_MAPPED_REGION_SIZE) {
+        ByteBuffer region =
+            channel.map(MapMode.READ_ONLY, offset, Math.min(MAX_MAPPED_REGION_SIZE, size - offset));
+        regionIterators.add(new RecordIterator(region));
+      }
+    }
+    return Iterators.concat(regionIterators.build().iterator());
   }
 
   /** Reads all records in the Reader into the record set. */
   public void readFrom(InputStream source) throws IOException {
     byte[] block = new byte[BLOCK_SIZE];
+    ByteBuffer blockBuffer = ByteBuffer.wrap(block);
 
     // read until we have no more.
     while (true) {
-      int amountRead = source.read(block, 0, BLOCK_SIZE);
+      int amountRead = ByteStreams.read(source, block, 0, BLOCK_SIZE);
       if (amountRead <= 0) {
         break;
       }
-      assert amountRead == BLOCK_SIZE;
-
-      processBlock(block);
+      blockBuffer.clear().limit(amountRead);
+      recordListBuilder.addAll(new RecordIterator(blockBuffer));
     }
   }
 
   /** Reads all records from the file specified by "path" into the record set. */
   public void readFrom(Path path) throws IOException {
-    readFrom(Files.newInputStream(path));
+    recordListBuilder.addAll(iterateRecords(path));
   }
 
   /** Reads all records from the specified file into the record set. */
@@ -132,6 +131,86 @@ public final class LevelDbLogReader {
     return recordListBuilder.build();
   }
 
+  /**
+   * Gets a byte from "buffer" as an unsigned value.
+   *
+   * <p>Java bytes are signed, which doesn't work very well for our bit-shifting operations.
+   */
+  private static int getUnsignedByte(ByteBuffer buffer, int pos) {
+    return buffer.get(pos) & 0xFF;
+  }
+
+  /** Reads the 7 byte record header. */
+  private static RecordHeader readRecordHeader(ByteBuffer buffer, int pos) {
+    // Read checksum (4 bytes, LE).
+    int checksum =
+        getUnsignedByte(buffer, pos)
+            | (getUnsignedByte(buffer, pos + 1) << 8)
+            | (getUnsignedByte(buffer, pos + 2) << 16)
+            | (getUnsignedByte(buffer, pos + 3) << 24);
+    // Read size (2 bytes, LE).
+    int size = getUnsignedByte(buffer, pos + 4) | (getUnsignedByte(buffer, pos + 5) << 8);
+    // Read type (1 byte).
+    int type = getUnsignedByte(buffer, pos + 6);
+
+    return new RecordHeader(checksum, size, ChunkType.fromCode(type));
+  }
+
+  /**
+   * Lazily assembles records from a buffer consisting of whole blocks (except possibly the last).
+   *
+   * <p>The buffer must start on a block boundary. Chunks of a record that is still incomplete at
+   * the end of the buffer are kept in {@link #recordContents}, so that the record can be completed
+   * from the next buffer.
+   */
+  private final class RecordIterator extends AbstractIterator<byte[]> {
+
+    private final ByteBuffer buffer;
+    private int pos = 0;
+
+    RecordIterator(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    protected byte[] computeNext() {
+      while (pos < buffer.limit()) {
+        int blockEnd = Math.min((pos / BLOCK_SIZE + 1) * BLOCK_SIZE, buffer.limit());
+        // Stop reading records from the block once there is no longer enough space for a record
+        // (i.e. once we're at HEADER_SIZE - 1 bytes from the end of the block).
+        if (blockEnd - pos < HEADER_SIZE) {
+          pos = blockEnd;
+          continue;
+        }
+        RecordHeader recordHeader = readRecordHeader(buffer, pos);
+        if (recordHeader.type == ChunkType.END) {
+          // A type of zero indicates that we've reached the padding zeroes at the end of the block.
+          pos = blockEnd;
+          continue;
+        }
+        checkState(
+            pos + HEADER_SIZE + recordHeader.size <= blockEnd,
+            "Chunk at offset %s overruns the end of its block",
+            pos);
+
+        // Copy the contents of the record into recordContents.
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.position(pos + HEADER_SIZE);
+        chunk.get(chunkBuffer, 0, recordHeader.size);
+        recordContents.write(chunkBuffer, 0, recordHeader.size);
+        pos += recordHeader.size + HEADER_SIZE;
+
+        // If this is the last (or only) chunk in the record, return the full contents.
+        if (recordHeader.type == ChunkType.FULL || recordHeader.type == ChunkType.LAST) {
+          byte[] record = recordContents.toByteArray();
+          recordContents.reset();
+          return record;
+        }
+      }
+      return endOfData();
+    }
+  }
+
   /** Aggregates the fields in a record header. */
   private static final class RecordHeader {
     final int checksum;
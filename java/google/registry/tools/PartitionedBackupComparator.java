@@ -0,0 +1,192 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares two database backups in bounded memory.
+ *
+ * <p>The raw records of each backup are first hash-partitioned by entity key into files in a
+ * working directory, so that all versions of an entity land in the same partition number in both
+ * backups. Corresponding partitions are then loaded and compared in parallel, which means that only
+ * {@code numThreads} pairs of partitions are ever held in memory at once.
+ */
+final class PartitionedBackupComparator {
+
+  private final File workDir;
+  private final int numPartitions;
+  private final int numThreads;
+
+  PartitionedBackupComparator(File workDir, int numPartitions, int numThreads) {
+    checkArgument(numPartitions > 0, "Number of partitions must be positive");
+    checkArgument(numThreads > 0, "Number of threads must be positive");
+    this.workDir = workDir;
+    this.numPartitions = numPartitions;
+    this.numThreads = numThreads;
+  }
+
+  /** Compares the backups in the two directories. */
+  Comparison compare(File dir1, File dir2) {
+    int[] counts1 = partition(dir1, "first");
+    int[] counts2 = partition(dir2, "second");
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Comparison>> partitionComparisons = new ArrayList<>();
+      for (int i = 0; i < numPartitions; i++) {
+        int partition = i;
+        partitionComparisons.add(
+            executor.submit(
+                () ->
+                    comparePartition(
+                        getPartitionFile("first", partition),
+                        counts1[partition],
+                        getPartitionFile("second", partition),
+                        counts2[partition])));
+      }
+      int size1 = 0;
+      int size2 = 0;
+      ImmutableList.Builder<ComparableEntity> removed = new ImmutableList.Builder<>();
+      ImmutableList.Builder<ComparableEntity> added = new ImmutableList.Builder<>();
+      for (Future<Comparison> partitionComparison : partitionComparisons) {
+        Comparison comparison = getUnchecked(partitionComparison);
+        size1 += comparison.size1;
+        size2 += comparison.size2;
+        removed.addAll(comparison.removed);
+        added.addAll(comparison.added);
+      }
+      return new Comparison(size1, size2, removed.build(), added.build());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Writes the records of all files in the directory to length-prefixed partition files.
+   *
+   * @return the number of records written to each partition
+   */
+  private int[] partition(File dir, String prefix) {
+    int[] counts = new int[numPartitions];
+    // The closer closes all the partition files that were opened, even if partitioning fails.
+    try (Closer closer = Closer.create()) {
+      List<DataOutputStream> outputs = new ArrayList<>();
+      for (int i = 0; i < numPartitions; i++) {
+        outputs.add(
+            closer.register(
+                new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(getPartitionFile(prefix, i))))));
+      }
+      partitionDirectory(dir, outputs, counts);
+    } catch (IOException e) {
+      throw new UncheckedIOException("IOException partitioning backup: " + dir, e);
+    }
+    return counts;
+  }
+
+  private void partitionDirectory(File dir, List<DataOutputStream> outputs, int[] counts)
+      throws IOException {
+    for (File child : dir.listFiles()) {
+      if (child.isDirectory()) {
+        partitionDirectory(child, outputs, counts);
+      } else if (child.isFile()) {
+        Iterator<byte[]> records = LevelDbLogReader.readRecords(child.toPath());
+        while (records.hasNext()) {
+          byte[] record = records.next();
+          int keyHash = RecordAccumulator.parseEntity(record).getKey().hashCode();
+          int partition = Math.floorMod(keyHash, numPartitions);
+          outputs.get(partition).writeInt(record.length);
+          outputs.get(partition).write(record);
+          counts[partition]++;
+        }
+      }
+    }
+  }
+
+  private File getPartitionFile(String prefix, int partition) {
+    return new File(workDir, String.format("%s-%05d", prefix, partition));
+  }
+
+  /** Compares one pair of partitions, deleting their files once they have been read. */
+  private static Comparison comparePartition(File file1, int count1, File file2, int count2)
+      throws IOException {
+    ImmutableSet<ComparableEntity> entities1 = readPartition(file1, count1);
+    ImmutableSet<ComparableEntity> entities2 = readPartition(file2, count2);
+    return new Comparison(
+        entities1.size(),
+        entities2.size(),
+        ImmutableList.copyOf(Sets.difference(entities1, entities2)),
+        ImmutableList.copyOf(Sets.difference(entities2, entities1)));
+  }
+
+  private static ImmutableSet<ComparableEntity> readPartition(File file, int count)
+      throws IOException {
+    ImmutableSet.Builder<ComparableEntity> entities = new ImmutableSet.Builder<>();
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      for (int i = 0; i < count; i++) {
+        byte[] record = new byte[input.readInt()];
+        input.readFully(record);
+        entities.add(RecordAccumulator.parseEntity(record));
+      }
+    }
+    file.delete();
+    return entities.build();
+  }
+
+  /**
+   * The result of comparing two backups, or two partitions of them.
+   *
+   * <p>Sizes are numbers of distinct entities, since a backup can contain duplicate records.
+   */
+  static final class Comparison {
+    final int size1;
+    final int size2;
+    final ImmutableList<ComparableEntity> removed;
+    final ImmutableList<ComparableEntity> added;
+
+    Comparison(
+        int size1,
+        int size2,
+        ImmutableList<ComparableEntity> removed,
+        ImmutableList<ComparableEntity> added) {
+      this.size1 = size1;
+      this.size2 = size2;
+      this.removed = removed;
+      this.added = added;
+    }
+  }
+}
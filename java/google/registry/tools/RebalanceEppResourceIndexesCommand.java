@@ -0,0 +1,57 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import com.beust.jcommander.Parameters;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.MediaType;
+import google.registry.tools.server.RebalanceEppResourceIndexesAction;
+
+/**
+ * Command to move EPP resource indexes into the buckets they hash to after the bucket count grows.
+ *
+ * @see RebalanceEppResourceIndexesAction
+ */
+@Parameters(
+    separators = " =",
+    commandDescription = "Move EPP resource indexes into their current buckets")
+final class RebalanceEppResourceIndexesCommand extends ConfirmingCommand
+    implements CommandWithConnection {
+
+  private Connection connection;
+
+  @Override
+  public void setConnection(Connection connection) {
+    this.connection = connection;
+  }
+
+  @Override
+  protected String prompt() {
+    return "This starts a mapreduce that moves EPP resource indexes between buckets. Until it\n"
+        + "finishes, other mapreduces over EPP resources (such as RDE, zone file exports,\n"
+        + "billing event expansion and async contact and host deletion) may skip or repeat\n"
+        + "resources, so pause their crons and don't start any of them by hand.";
+  }
+
+  @Override
+  protected String execute() throws Exception {
+    connection.send(
+        RebalanceEppResourceIndexesAction.PATH,
+        ImmutableMap.of(),
+        MediaType.PLAIN_TEXT_UTF_8,
+        new byte[0]);
+    return "Started the mapreduce; follow its progress in the tools module's mapreduce console.";
+  }
+}
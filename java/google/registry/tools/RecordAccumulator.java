@@ -18,12 +18,13 @@ import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.common.collect.ImmutableSet;
 import com.google.storage.onestore.v3.OnestoreEntity.EntityProto;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Iterator;
 
 /** Utility class that accumulates Entity records from level db files. */
 class RecordAccumulator {
-  private final LevelDbLogReader reader = new LevelDbLogReader();
+  private final ImmutableSet.Builder<ComparableEntity> entitySetBuilder =
+      new ImmutableSet.Builder<>();
 
   /** Recursively reads all records in the directory. */
   public final RecordAccumulator readDirectory(File dir) {
@@ -32,7 +33,10 @@ class RecordAccumulator {
         readDirectory(child);
       } else if (child.isFile()) {
         try {
-          reader.readFrom(new FileInputStream(child));
+          Iterator<byte[]> records = LevelDbLogReader.readRecords(child.toPath());
+          while (records.hasNext()) {
+            entitySetBuilder.add(parseEntity(records.next()));
+          }
         } catch (IOException e) {
           throw new RuntimeException("IOException reading from file: " + child, e);
         }
@@ -42,18 +46,15 @@ class RecordAccumulator {
     return this;
   }
 
-  /** Creates an entity set from the current set of raw records. */
+  /** Returns the set of entities read so far. */
   ImmutableSet<ComparableEntity> getComparableEntitySet() {
-    ImmutableSet.Builder<ComparableEntity> builder = new ImmutableSet.Builder<>();
-    for (byte[] rawRecord : reader.getRecords()) {
-      // Parse the entity proto and create an Entity object from it.
-      EntityProto proto = new EntityProto();
-      proto.parseFrom(rawRecord);
-      ComparableEntity entity = new ComparableEntity(EntityTranslator.createFromPb(proto));
-
-      builder.add(entity);
-    }
+    return entitySetBuilder.build();
+  }
 
-    return builder.build();
+  /** Parses a raw LevelDB record into an entity. */
+  static ComparableEntity parseEntity(byte[] rawRecord) {
+    EntityProto proto = new EntityProto();
+    proto.parseFrom(rawRecord);
+    return new ComparableEntity(EntityTranslator.createFromPb(proto));
   }
 }
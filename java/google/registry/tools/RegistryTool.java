@@ -95,6 +95,7 @@ public final class RegistryTool {
           .put("logout", LogoutCommand.class)
           .put("pending_escrow", PendingEscrowCommand.class)
           .put("populate_null_registrar_fields", PopulateNullRegistrarFieldsCommand.class)
+          .put("rebalance_epp_resource_indexes", RebalanceEppResourceIndexesCommand.class)
           .put("registrar_contact", RegistrarContactCommand.class)
           .put("remove_ip_address", RemoveIpAddressCommand.class)
           .put("renew_domain", RenewDomainCommand.class)
@@ -80,6 +80,24 @@ public class PathParameter extends ParameterConverterValidator<Path> {
     }
   }
 
+  /** {@linkplain PathParameter} when you want an input directory that must exist. */
+  public static final class InputDirectory extends PathParameter {
+    @Override
+    public void validate(String name, String value) throws ParameterException {
+      super.validate(name, value);
+      Path file = convert(value).toAbsolutePath();
+      if (!Files.exists(file)) {
+        throw new ParameterException(String.format("%s not found: %s", name, file));
+      }
+      if (!Files.isDirectory(file)) {
+        throw new ParameterException(String.format("%s not a directory: %s", name, file));
+      }
+      if (!Files.isReadable(file)) {
+        throw new ParameterException(String.format("%s not readable: %s", name, file));
+      }
+    }
+  }
+
   /** {@linkplain PathParameter} when you want an input file that must exist. */
   public static final class InputFile extends PathParameter {
     @Override
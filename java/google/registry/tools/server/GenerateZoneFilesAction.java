@@ -15,9 +15,11 @@
 package google.registry.tools.server;
 
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.Iterators.filter;
 import static com.google.common.io.BaseEncoding.base16;
+import static google.registry.mapreduce.MapreduceRunner.isInProcessJob;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -28,12 +30,17 @@ import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.RetryParams;
+import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.appengine.tools.mapreduce.Output;
+import com.google.appengine.tools.mapreduce.OutputWriter;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.gcs.GcsUtils;
 import google.registry.mapreduce.MapreduceRunner;
@@ -51,16 +58,23 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Serializable;
 import java.io.Writer;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
+import org.json.simple.JSONValue;
 
 /**
  * MapReduce that requests generation of BIND zone files for a set of TLDs at a given time.
@@ -68,6 +82,17 @@ import org.joda.time.Duration;
  * <p>Zone files for each requested TLD are written to GCS. TLDs without entries produce zone files
  * with only a header. The export time must be at least two minutes in the past and no more than
  * 29 days in the past, and must be at midnight UTC.
+ *
+ * <p>If a {@code previousExportTime} is also given, the zone files are instead generated
+ * incrementally from the zone files of that earlier time, by {@link IncrementalZoneFileGenerator}.
+ * That only costs time proportional to the changes in between, rather than to the size of the
+ * registry, and also writes a delta file of the changed records for each TLD. A full run is then
+ * only needed to verify the incremental ones.
+ *
+ * <p>If a {@code shardsPerTld} is given, each zone file is instead written as that many gzipped
+ * shards, each holding the domains whose label hashes to its range, by as many reducers. A
+ * manifest listing the shards in order is written for each TLD once all of them are done.
+ * Concatenating the uncompressed shards in that order gives the zone file.
  */
 @Action(
   path = GenerateZoneFilesAction.PATH,
@@ -79,13 +104,22 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   public static final String PATH = "/_dr/task/generateZoneFiles";
 
   /** Format for the zone file name. */
-  private static final String FILENAME_FORMAT = "%s-%s.zone";
+  public static final String FILENAME_FORMAT = "%s-%s.zone";
+
+  /** Format for the name of the delta file written alongside an incrementally generated zone. */
+  static final String DELTA_FILENAME_FORMAT = "%s-%s.zone.delta";
+
+  /** Format for the name of a compressed shard of a sharded zone file. */
+  static final String SHARD_FILENAME_FORMAT = "%s-%s.zone.shard-%05d.gz";
+
+  /** Format for the name of the manifest listing the shards of a sharded zone file. */
+  public static final String MANIFEST_FILENAME_FORMAT = "%s-%s.zone.manifest";
 
   /** Format for the GCS path to a file. */
   private static final String GCS_PATH_FORMAT = "gs://%s/%s";
 
   /** Format for the zone file header. */
-  private static final String HEADER_FORMAT = "$ORIGIN\t%s.\n\n";
+  static final String HEADER_FORMAT = "$ORIGIN\t%s.\n\n";
 
   /** Format for NS records. */
   private static final String NS_FORMAT = "%s\t%d\tIN\tNS\t%s.\n";
@@ -96,6 +130,9 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   /** Format for A and AAAA records. */
   private static final String A_FORMAT = "%s\t%d\tIN\t%s\t%s\n";
 
+  /** Hash function used to assign domains to the shards of a sharded zone file. */
+  private static final HashFunction LABEL_HASH = Hashing.murmur3_32();
+
   @Inject MapreduceRunner mrRunner;
   @Inject JsonActionRunner jsonActionRunner;
   @Inject @Config("zoneFilesBucket") String bucket;
@@ -132,27 +169,90 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     if (!exportTime.equals(exportTime.toDateTime(UTC).withTimeAtStartOfDay())) {
       throw new BadRequestException("Invalid export time: must be midnight UTC");
     }
+    int shardsPerTld =
+        (json.get("shardsPerTld") == null)
+            ? 0
+            : Integer.parseInt(json.get("shardsPerTld").toString());
+    if (json.get("shardsPerTld") != null && shardsPerTld < 1) {
+      throw new BadRequestException("Invalid shards per TLD: must be positive");
+    }
+    if (json.get("previousExportTime") != null) {
+      if (shardsPerTld != 0) {
+        throw new BadRequestException("Incremental generation doesn't support sharded output");
+      }
+      DateTime previousExportTime = DateTime.parse(json.get("previousExportTime").toString());
+      // The previous export time is where we start reading commit logs from, so it needs to be
+      // within their retention as well.
+      if (!previousExportTime.isBefore(exportTime)) {
+        throw new BadRequestException(
+            "Invalid previous export time: must be before the export time");
+      }
+      if (previousExportTime.isBefore(now.minus(datastoreRetention))) {
+        throw new BadRequestException(String.format(
+            "Invalid previous export time: must be < %d days ago",
+            datastoreRetention.getStandardDays()));
+      }
+      if (!previousExportTime.equals(previousExportTime.toDateTime(UTC).withTimeAtStartOfDay())) {
+        throw new BadRequestException("Invalid previous export time: must be midnight UTC");
+      }
+      new IncrementalZoneFileGenerator(
+              new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize),
+              bucket,
+              dnsDefaultATtl,
+              dnsDefaultNsTtl,
+              dnsDefaultDsTtl)
+          .generate(tlds, previousExportTime, exportTime);
+      return ImmutableMap.of(
+          "filenames", getGcsPaths(tlds, FILENAME_FORMAT, exportTime),
+          "deltaFilenames", getGcsPaths(tlds, DELTA_FILENAME_FORMAT, exportTime));
+    }
+    GenerateBindFileMapper mapper =
+        new GenerateBindFileMapper(
+            tlds, exportTime, dnsDefaultATtl, dnsDefaultNsTtl, dnsDefaultDsTtl, shardsPerTld);
+    ImmutableList<Input<EppResource>> inputs =
+        ImmutableList.of(new NullInput<>(), createEntityInput(DomainResource.class));
+    if (shardsPerTld != 0) {
+      String jobId = mrRunner
+          .setJobName("Generate sharded bind file stanzas")
+          .setModuleName("tools")
+          .setDefaultReduceShards(tlds.size() * shardsPerTld)
+          .runMapreduce(
+              mapper,
+              new GenerateShardedBindFileReducer(bucket, exportTime, gcsBufferSize),
+              inputs,
+              new ZoneFileManifestOutput(bucket, exportTime, gcsBufferSize, shardsPerTld));
+      return createJobResponse(jobId, getGcsPaths(tlds, MANIFEST_FILENAME_FORMAT, exportTime));
+    }
     String jobId = mrRunner
         .setJobName("Generate bind file stanzas")
         .setModuleName("tools")
         .setDefaultReduceShards(tlds.size())
         .runMapreduce(
-            new GenerateBindFileMapper(
-                tlds, exportTime, dnsDefaultATtl, dnsDefaultNsTtl, dnsDefaultDsTtl),
-            new GenerateBindFileReducer(bucket, exportTime, gcsBufferSize),
-            ImmutableList.of(
-                new NullInput<>(),
-                createEntityInput(DomainResource.class)));
-    ImmutableList<String> filenames =
-        tlds.stream()
-            .map(
-                tld ->
-                    String.format(
-                        GCS_PATH_FORMAT, bucket, String.format(FILENAME_FORMAT, tld, exportTime)))
-            .collect(toImmutableList());
-    return ImmutableMap.of(
-        "jobPath", createJobPath(jobId),
-        "filenames", filenames);
+            mapper, new GenerateBindFileReducer(bucket, exportTime, gcsBufferSize), inputs);
+    return createJobResponse(jobId, getGcsPaths(tlds, FILENAME_FORMAT, exportTime));
+  }
+
+  /**
+   * Returns the response for a job writing the given files, with the path of its status page.
+   *
+   * <p>A job that was run in-process has already written the files, and has no status page.
+   */
+  private static ImmutableMap<String, Object> createJobResponse(
+      String jobId, ImmutableList<String> filenames) {
+    return isInProcessJob(jobId)
+        ? ImmutableMap.of("filenames", filenames)
+        : ImmutableMap.of("jobPath", createJobPath(jobId), "filenames", filenames);
+  }
+
+  /** Returns the GCS paths of the files of the given name format for each TLD. */
+  private ImmutableList<String> getGcsPaths(
+      ImmutableSet<String> tlds, String filenameFormat, DateTime exportTime) {
+    return tlds.stream()
+        .map(
+            tld ->
+                String.format(
+                    GCS_PATH_FORMAT, bucket, String.format(filenameFormat, tld, exportTime)))
+        .collect(toImmutableList());
   }
 
   /** Mapper to find domains that were active at a given time. */
@@ -165,25 +265,36 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     private final Duration dnsDefaultATtl;
     private final Duration dnsDefaultNsTtl;
     private final Duration dnsDefaultDsTtl;
+    /** The number of shards to split each zone file into, or 0 to write a single file. */
+    private final int shardsPerTld;
 
     GenerateBindFileMapper(
         ImmutableSet<String> tlds,
         DateTime exportTime,
         Duration dnsDefaultATtl,
         Duration dnsDefaultNsTtl,
-        Duration dnsDefaultDsTtl) {
+        Duration dnsDefaultDsTtl,
+        int shardsPerTld) {
       this.tlds = tlds;
       this.exportTime = exportTime;
       this.dnsDefaultATtl = dnsDefaultATtl;
       this.dnsDefaultNsTtl = dnsDefaultNsTtl;
       this.dnsDefaultDsTtl = dnsDefaultDsTtl;
+      this.shardsPerTld = shardsPerTld;
     }
 
     @Override
     public void map(EppResource resource) {
       if (resource == null) {  // Force the reducer to always generate a bind header for each tld.
         for (String tld : tlds) {
-          emit(tld, null);
+          if (shardsPerTld == 0) {
+            emit(tld, null);
+          } else {
+            // Also make sure every shard gets written, so the manifest can list them all.
+            for (int shard = 0; shard < shardsPerTld; shard++) {
+              emit(getShardKey(tld, shard), null);
+            }
+          }
         }
       } else {
         mapDomain((DomainResource) resource);
@@ -201,32 +312,243 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
         domain = loadAtPointInTime(domain, exportTime).now();
         // A null means the domain was deleted (or not created) at this time.
         if (domain != null && domain.shouldPublishToDns()) {
+          String reduceKey = getReduceKey(domain);
           String stanza = domainStanza(domain, exportTime, dnsDefaultNsTtl, dnsDefaultDsTtl);
           if (!stanza.isEmpty()) {
-            emit(domain.getTld(), stanza);
+            emit(reduceKey, stanza);
             getContext().incrementCounter(domain.getTld() + " domains");
           }
-          emitForSubordinateHosts(domain);
+          emitForSubordinateHosts(domain, reduceKey);
         }
       }
     }
 
-    private void emitForSubordinateHosts(DomainResource domain) {
-      ImmutableSet<String> subordinateHosts = domain.getSubordinateHosts();
-      if (!subordinateHosts.isEmpty()) {
-        for (HostResource unprojectedHost : ofy().load().keys(domain.getNameservers()).values()) {
-          HostResource host = loadAtPointInTime(unprojectedHost, exportTime).now();
-          // A null means the host was deleted (or not created) at this time.
-          if ((host != null) && subordinateHosts.contains(host.getFullyQualifiedHostName())) {
-            String stanza = hostStanza(host, dnsDefaultATtl, domain.getTld());
-            if (!stanza.isEmpty()) {
-              emit(domain.getTld(), stanza);
-              getContext().incrementCounter(domain.getTld() + " hosts");
-            }
-          }
+    private void emitForSubordinateHosts(DomainResource domain, String reduceKey) {
+      for (HostResource host : loadGlueHosts(domain, exportTime)) {
+        String stanza = hostStanza(host, dnsDefaultATtl, domain.getTld());
+        if (!stanza.isEmpty()) {
+          emit(reduceKey, stanza);
+          getContext().incrementCounter(domain.getTld() + " hosts");
+        }
+      }
+    }
+
+    /**
+     * Returns the key to emit the stanzas of a domain and its glue under.
+     *
+     * <p>When sharding, this picks the shard by the hash of the domain label, so that a domain's
+     * glue always ends up in the same shard as the domain.
+     */
+    private String getReduceKey(DomainResource domain) {
+      if (shardsPerTld == 0) {
+        return domain.getTld();
+      }
+      String label = stripTld(domain.getFullyQualifiedDomainName(), domain.getTld());
+      long labelHash = Integer.toUnsignedLong(LABEL_HASH.hashString(label, UTF_8).asInt());
+      return getShardKey(domain.getTld(), (int) ((labelHash * shardsPerTld) >>> 32));
+    }
+  }
+
+  /** Returns the reduce key of a shard of a zone file. */
+  private static String getShardKey(String tld, int shard) {
+    return tld + "/" + shard;
+  }
+
+  /**
+   * Returns the first label hash in the range of a shard.
+   *
+   * <p>The 32-bit label hashes are split into {@code shardsPerTld} contiguous ranges, so the range
+   * of a shard runs up to (and not including) the start of the next one.
+   */
+  private static long getLabelHashRangeStart(int shard, int shardsPerTld) {
+    return (((long) shard << 32) + shardsPerTld - 1) / shardsPerTld;
+  }
+
+  /** A compressed shard of a zone file, as written by {@link GenerateShardedBindFileReducer}. */
+  static class ZoneFileShard implements Serializable {
+
+    private static final long serialVersionUID = 2378417283476123587L;
+
+    final String tld;
+    final int shard;
+    final String filename;
+    final long numStanzas;
+
+    ZoneFileShard(String tld, int shard, String filename, long numStanzas) {
+      this.tld = tld;
+      this.shard = shard;
+      this.filename = filename;
+      this.numStanzas = numStanzas;
+    }
+  }
+
+  /**
+   * Reducer to write a shard of a zone file to GCS, compressing it as it's streamed out.
+   *
+   * <p>Only the first shard of each TLD gets the zone file header.
+   */
+  static class GenerateShardedBindFileReducer extends Reducer<String, String, ZoneFileShard> {
+
+    private static final long serialVersionUID = 6210983240934802312L;
+
+    private final String bucket;
+    private final DateTime exportTime;
+    private final int gcsBufferSize;
+
+    GenerateShardedBindFileReducer(String bucket, DateTime exportTime, int gcsBufferSize) {
+      this.bucket = bucket;
+      this.exportTime = exportTime;
+      this.gcsBufferSize = gcsBufferSize;
+    }
+
+    @Override
+    public void reduce(String shardKey, ReducerInput<String> stanzas) {
+      int separator = shardKey.lastIndexOf('/');
+      String tld = shardKey.substring(0, separator);
+      int shard = Integer.parseInt(shardKey.substring(separator + 1));
+      String stanzaCounter = tld + " stanzas";
+      GcsFilename filename =
+          new GcsFilename(
+              bucket, String.format(SHARD_FILENAME_FORMAT, tld, exportTime, shard));
+      GcsUtils cloudStorage =
+          new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize);
+      long numStanzas = 0;
+      try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename);
+          OutputStream gzipOutput = new GZIPOutputStream(gcsOutput, gcsBufferSize);
+          Writer osWriter = new OutputStreamWriter(gzipOutput, UTF_8);
+          PrintWriter writer = new PrintWriter(osWriter)) {
+        if (shard == 0) {
+          writer.printf(HEADER_FORMAT, tld);
+        }
+        for (Iterator<String> stanzaIter = filter(stanzas, Objects::nonNull);
+            stanzaIter.hasNext(); ) {
+          writer.println(stanzaIter.next());
+          numStanzas++;
+          getContext().incrementCounter(stanzaCounter);
+        }
+        writer.flush();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      emit(new ZoneFileShard(tld, shard, filename.getObjectName(), numStanzas));
+    }
+  }
+
+  /**
+   * Output that writes the manifest of each sharded zone file once all the shards are written.
+   *
+   * <p>The manifest is a JSON object naming the TLD, export time and compression, with the list of
+   * shards in the order they should be concatenated in. Each shard lists its file, the range of
+   * label hashes it holds and how many stanzas it has.
+   */
+  static class ZoneFileManifestOutput extends Output<ZoneFileShard, Void> {
+
+    private static final long serialVersionUID = -1638823598413241376L;
+
+    private final String bucket;
+    private final DateTime exportTime;
+    private final int gcsBufferSize;
+    private final int shardsPerTld;
+
+    ZoneFileManifestOutput(
+        String bucket, DateTime exportTime, int gcsBufferSize, int shardsPerTld) {
+      this.bucket = bucket;
+      this.exportTime = exportTime;
+      this.gcsBufferSize = gcsBufferSize;
+      this.shardsPerTld = shardsPerTld;
+    }
+
+    /** Writer that collects the shards written by one reducer. */
+    private static class ShardCollector extends OutputWriter<ZoneFileShard> {
+
+      private static final long serialVersionUID = 5073642346781295830L;
+
+      private final ArrayList<ZoneFileShard> shards = new ArrayList<>();
+
+      @Override
+      public void write(ZoneFileShard shard) {
+        shards.add(shard);
+      }
+
+      @Override
+      public boolean allowSliceRetry() {
+        return true;
+      }
+    }
+
+    @Override
+    public List<ShardCollector> createWriters(int numShards) {
+      return Stream.generate(ShardCollector::new).limit(numShards).collect(toImmutableList());
+    }
+
+    @Override
+    public Void finish(Collection<? extends OutputWriter<ZoneFileShard>> writers) {
+      // A retried reducer can report its shard twice, so keep one entry per shard.
+      TreeMap<String, TreeMap<Integer, ZoneFileShard>> shardsByTld = new TreeMap<>();
+      for (OutputWriter<ZoneFileShard> writer : writers) {
+        for (ZoneFileShard shard : ((ShardCollector) writer).shards) {
+          shardsByTld.computeIfAbsent(shard.tld, tld -> new TreeMap<>()).put(shard.shard, shard);
+        }
+      }
+      GcsUtils cloudStorage =
+          new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize);
+      for (Map.Entry<String, TreeMap<Integer, ZoneFileShard>> entry : shardsByTld.entrySet()) {
+        String tld = entry.getKey();
+        checkState(
+            entry.getValue().size() == shardsPerTld,
+            "Expected %s shards for %s but got %s",
+            shardsPerTld,
+            tld,
+            entry.getValue().size());
+        ImmutableMap<String, Object> manifest =
+            ImmutableMap.of(
+                "tld", tld,
+                "exportTime", exportTime.toString(),
+                "compression", "gzip",
+                "shards",
+                entry
+                    .getValue()
+                    .values()
+                    .stream()
+                    .map(
+                        shard ->
+                            ImmutableMap.of(
+                                "filename", shard.filename,
+                                "labelHashStart", getLabelHashRangeStart(shard.shard, shardsPerTld),
+                                "labelHashEnd",
+                                getLabelHashRangeStart(shard.shard + 1, shardsPerTld),
+                                "stanzas", shard.numStanzas))
+                    .collect(toImmutableList()));
+        try {
+          cloudStorage.createFromBytes(
+              new GcsFilename(bucket, String.format(MANIFEST_FILENAME_FORMAT, tld, exportTime)),
+              JSONValue.toJSONString(manifest).getBytes(UTF_8));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
         }
       }
+      return null;
+    }
+  }
+
+  /**
+   * Returns the in-bailiwick nameservers of a domain, which need glue records, as of the given
+   * time.
+   */
+  static ImmutableList<HostResource> loadGlueHosts(DomainResource domain, DateTime exportTime) {
+    ImmutableSet<String> subordinateHosts = domain.getSubordinateHosts();
+    if (subordinateHosts.isEmpty()) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<HostResource> glueHosts = new ImmutableList.Builder<>();
+    for (HostResource unprojectedHost : ofy().load().keys(domain.getNameservers()).values()) {
+      HostResource host = loadAtPointInTime(unprojectedHost, exportTime).now();
+      // A null means the host was deleted (or not created) at this time.
+      if ((host != null) && subordinateHosts.contains(host.getFullyQualifiedHostName())) {
+        glueHosts.add(host);
+      }
     }
+    return glueHosts.build();
   }
 
   /** Reducer to write zone files to GCS. */
@@ -276,7 +598,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    *   foo 86400 IN DS 1 2 3 000102
    * }
    */
-  private static String domainStanza(
+  static String domainStanza(
       DomainResource domain,
       DateTime exportTime,
       Duration dnsDefaultNsTtl,
@@ -313,7 +635,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    *   ns.foo.tld 3600 IN AAAA 0:0:0:0:0:0:0:1
    * }
    */
-  private static String hostStanza(HostResource host, Duration dnsDefaultATtl, String tld) {
+  static String hostStanza(HostResource host, Duration dnsDefaultATtl, String tld) {
     StringBuilder result = new StringBuilder();
     for (InetAddress addr : host.getInetAddresses()) {
       // must be either IPv4 or IPv6
@@ -338,7 +660,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    * If, for some unforeseen reason, the TLD is not present, indicate an error condition, so that
    * our process for comparing Datastore and DNS data will realize that something is amiss.
    */
-  private static String stripTld(String fullyQualifiedName, String tld) {
+  static String stripTld(String fullyQualifiedName, String tld) {
     return fullyQualifiedName.endsWith(tld)
         ? fullyQualifiedName.substring(0, fullyQualifiedName.length() - tld.length() - 1)
         : (fullyQualifiedName + "***");
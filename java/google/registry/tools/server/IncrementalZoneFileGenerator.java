@@ -0,0 +1,331 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static google.registry.model.EppResourceUtils.loadAtPointInTime;
+import static google.registry.model.EppResourceUtils.queryForLinkedDomains;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.tools.server.GenerateZoneFilesAction.DELTA_FILENAME_FORMAT;
+import static google.registry.tools.server.GenerateZoneFilesAction.FILENAME_FORMAT;
+import static google.registry.tools.server.GenerateZoneFilesAction.HEADER_FORMAT;
+import static google.registry.tools.server.GenerateZoneFilesAction.domainStanza;
+import static google.registry.tools.server.GenerateZoneFilesAction.hostStanza;
+import static google.registry.tools.server.GenerateZoneFilesAction.loadGlueHosts;
+import static google.registry.tools.server.GenerateZoneFilesAction.stripTld;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.common.collect.TreeMultimap;
+import com.google.common.flogger.FluentLogger;
+import com.googlecode.objectify.Key;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.ofy.CommitLogBucket;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.request.HttpException.BadRequestException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Generates zone files from the zone files of an earlier export time and the commit logs since.
+ *
+ * <p>The domains and hosts saved or deleted between the two export times are found in the commit
+ * logs. Only the stanzas of the domains they could have affected are regenerated, and every other
+ * line is copied over from the earlier zone file, so the cost tracks the churn rather than the size
+ * of the TLD.
+ *
+ * <p>Alongside each new zone file, a delta file lists the records that were removed (prefixed by
+ * {@code -}) and added (prefixed by {@code +}) since the earlier zone file.
+ */
+class IncrementalZoneFileGenerator {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final Splitter LINE_SPLITTER = Splitter.on('\n').omitEmptyStrings();
+
+  private final GcsUtils gcsUtils;
+  private final String bucket;
+  private final Duration dnsDefaultATtl;
+  private final Duration dnsDefaultNsTtl;
+  private final Duration dnsDefaultDsTtl;
+
+  IncrementalZoneFileGenerator(
+      GcsUtils gcsUtils,
+      String bucket,
+      Duration dnsDefaultATtl,
+      Duration dnsDefaultNsTtl,
+      Duration dnsDefaultDsTtl) {
+    this.gcsUtils = gcsUtils;
+    this.bucket = bucket;
+    this.dnsDefaultATtl = dnsDefaultATtl;
+    this.dnsDefaultNsTtl = dnsDefaultNsTtl;
+    this.dnsDefaultDsTtl = dnsDefaultDsTtl;
+  }
+
+  /** Writes the zone and delta files of the given TLDs as of {@code exportTime}. */
+  void generate(ImmutableSet<String> tlds, DateTime previousExportTime, DateTime exportTime) {
+    for (String tld : tlds) {
+      GcsFilename previousFile =
+          new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, previousExportTime));
+      if (!gcsUtils.existsAndNotEmpty(previousFile)) {
+        throw new BadRequestException(
+            String.format("Previous zone file %s doesn't exist", previousFile.getObjectName()));
+      }
+    }
+    ImmutableSetMultimap<String, DomainResource> affectedDomains =
+        findAffectedDomains(tlds, previousExportTime, exportTime);
+    for (String tld : tlds) {
+      updateZoneFile(tld, affectedDomains.get(tld), previousExportTime, exportTime);
+    }
+  }
+
+  /**
+   * Returns the domains whose stanzas might have changed between the export times, keyed by TLD.
+   *
+   * <p>This includes the domains that were changed themselves, the superordinate domains of the
+   * hosts that were changed (for their glue), and the domains using any host that was renamed (for
+   * their NS records).
+   *
+   * <p>A domain or host also counts as changed when its deletion time falls between the export
+   * times, since one deleted with a grace period (e.g. a domain in pending delete) leaves the zone
+   * at that time without being saved again. The other times a resource is projected to (pending
+   * transfers, autorenews and grace periods) never change its records, so they are ignored.
+   */
+  private static ImmutableSetMultimap<String, DomainResource> findAffectedDomains(
+      ImmutableSet<String> tlds, DateTime previousExportTime, DateTime exportTime) {
+    Set<Key<DomainBase>> domainKeys = new HashSet<>();
+    Iterable<Key<?>> changedKeys =
+        Iterables.concat(
+            loadChangedKeys(previousExportTime, exportTime),
+            loadKeysDeletedBetween(DomainBase.class, previousExportTime, exportTime),
+            loadKeysDeletedBetween(HostResource.class, previousExportTime, exportTime));
+    for (Key<?> key : changedKeys) {
+      if (key.getKind().equals(Key.getKind(DomainBase.class))) {
+        domainKeys.add(Key.create(key.getRaw()));
+      } else if (key.getKind().equals(Key.getKind(HostResource.class))) {
+        HostResource host = ofy().load().key(Key.<HostResource>create(key.getRaw())).now();
+        if (host == null) {
+          continue;
+        }
+        HostResource hostAtPreviousExport = loadAtPointInTime(host, previousExportTime).now();
+        HostResource hostAtExport = loadAtPointInTime(host, exportTime).now();
+        for (HostResource version : new HostResource[] {hostAtPreviousExport, hostAtExport}) {
+          if (version != null && version.getSuperordinateDomain() != null) {
+            domainKeys.add(Key.create(version.getSuperordinateDomain().getRaw()));
+          }
+        }
+        if (!Objects.equals(getHostName(hostAtPreviousExport), getHostName(hostAtExport))) {
+          queryForLinkedDomains(Key.create(host), previousExportTime)
+              .keys()
+              .forEach(domainKeys::add);
+        }
+      }
+    }
+    ImmutableSetMultimap.Builder<String, DomainResource> affectedDomains =
+        new ImmutableSetMultimap.Builder<>();
+    for (DomainBase domain : ofy().load().keys(domainKeys).values()) {
+      if (domain instanceof DomainResource && tlds.contains(domain.getTld())) {
+        affectedDomains.put(domain.getTld(), (DomainResource) domain);
+      }
+    }
+    return affectedDomains.build();
+  }
+
+  private static String getHostName(HostResource host) {
+    return (host == null) ? null : host.getFullyQualifiedHostName();
+  }
+
+  /**
+   * Returns the keys of the resources of the given type whose deletion time is after {@code
+   * lowerBound}, up to and including {@code upperBound}.
+   */
+  private static ImmutableSet<Key<?>> loadKeysDeletedBetween(
+      Class<?> clazz, DateTime lowerBound, DateTime upperBound) {
+    return ImmutableSet.<Key<?>>copyOf(
+        ofy()
+            .load()
+            .type(clazz)
+            .filter("deletionTime >", lowerBound)
+            .filter("deletionTime <=", upperBound)
+            .keys());
+  }
+
+  /**
+   * Returns the keys of all entities saved or deleted after {@code lowerBound}, up to and including
+   * {@code upperBound}, according to the commit logs.
+   */
+  private static ImmutableSet<Key<?>> loadChangedKeys(DateTime lowerBound, DateTime upperBound) {
+    ImmutableSet.Builder<Key<?>> changedKeys = new ImmutableSet.Builder<>();
+    for (Key<CommitLogBucket> bucketKey : CommitLogBucket.getAllCheckpointedBucketKeys()) {
+      // Commit log manifest ids are their commit times, so this loads those committed in
+      // (lowerBound, upperBound].
+      for (CommitLogManifest manifest :
+          ofy()
+              .load()
+              .type(CommitLogManifest.class)
+              .ancestor(bucketKey)
+              .filterKey(">", CommitLogManifest.createKey(bucketKey, lowerBound))
+              .filterKey("<=", CommitLogManifest.createKey(bucketKey, upperBound))) {
+        changedKeys.addAll(manifest.getDeletions());
+        // The id of a mutation is the key of the entity it saved, so there's no need to load and
+        // parse the entities themselves.
+        for (Key<CommitLogMutation> mutationKey :
+            ofy().load().type(CommitLogMutation.class).ancestor(manifest).keys()) {
+          changedKeys.add(Key.create(KeyFactory.stringToKey(mutationKey.getName())));
+        }
+      }
+    }
+    return changedKeys.build();
+  }
+
+  /**
+   * Writes the zone and delta files of a TLD.
+   *
+   * <p>The zone file is streamed from the previous zone file, dropping the stanzas of the affected
+   * domains (and their glue), which are regenerated and appended at the end. Only the dropped lines
+   * are held in memory, to work out the delta.
+   */
+  private void updateZoneFile(
+      String tld,
+      Set<DomainResource> affectedDomains,
+      DateTime previousExportTime,
+      DateTime exportTime) {
+    TreeMultimap<String, String> newLinesByLabel = TreeMultimap.create();
+    for (DomainResource domain : affectedDomains) {
+      newLinesByLabel.putAll(
+          stripTld(domain.getFullyQualifiedDomainName(), tld),
+          generateStanzaLines(domain, exportTime));
+    }
+    ImmutableSet<String> affectedLabels =
+        affectedDomains
+            .stream()
+            .map(domain -> stripTld(domain.getFullyQualifiedDomainName(), tld))
+            .collect(toImmutableSet());
+    TreeMultimap<String, String> oldLinesByLabel = TreeMultimap.create();
+    GcsFilename previousFile =
+        new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, previousExportTime));
+    GcsFilename newFile = new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, exportTime));
+    try (BufferedReader reader =
+            new BufferedReader(
+                new InputStreamReader(gcsUtils.openInputStream(previousFile), UTF_8));
+        PrintWriter writer =
+            new PrintWriter(new OutputStreamWriter(gcsUtils.openOutputStream(newFile), UTF_8))) {
+      writer.printf(HEADER_FORMAT, tld);
+      boolean lastLineBlank = true;
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.startsWith("$ORIGIN")) {
+          continue;
+        }
+        if (line.isEmpty()) {
+          // Don't leave runs of blank lines where stanzas were dropped.
+          if (!lastLineBlank) {
+            writer.println();
+            lastLineBlank = true;
+          }
+          continue;
+        }
+        String label = getDomainLabel(line);
+        if (affectedLabels.contains(label)) {
+          oldLinesByLabel.put(label, line);
+        } else {
+          writer.println(line);
+          lastLineBlank = false;
+        }
+      }
+      for (String label : newLinesByLabel.keySet()) {
+        newLinesByLabel.get(label).forEach(writer::println);
+        writer.println();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    writeDelta(tld, exportTime, oldLinesByLabel, newLinesByLabel);
+    logger.atInfo().log(
+        "Incrementally generated %s from %s, regenerating %d domains",
+        newFile.getObjectName(), previousFile.getObjectName(), affectedLabels.size());
+  }
+
+  /** Returns the lines of the stanzas of a domain and its glue hosts at the export time. */
+  private ImmutableSet<String> generateStanzaLines(DomainResource domain, DateTime exportTime) {
+    DomainResource domainAtExport = loadAtPointInTime(domain, exportTime).now();
+    // A null means the domain was deleted (or not created) at this time.
+    if (domainAtExport == null || !domainAtExport.shouldPublishToDns()) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<String> lines = new ImmutableSet.Builder<>();
+    lines.addAll(
+        LINE_SPLITTER.split(
+            domainStanza(domainAtExport, exportTime, dnsDefaultNsTtl, dnsDefaultDsTtl)));
+    for (HostResource host : loadGlueHosts(domainAtExport, exportTime)) {
+      lines.addAll(LINE_SPLITTER.split(hostStanza(host, dnsDefaultATtl, domain.getTld())));
+    }
+    return lines.build();
+  }
+
+  /**
+   * Returns the label of the domain a zone file line belongs to.
+   *
+   * <p>Records are named relative to the TLD, and glue records are named after hosts subordinate to
+   * their domain, so this is the last label of the record name.
+   */
+  private static String getDomainLabel(String line) {
+    int nameEnd = line.indexOf('\t');
+    String name = (nameEnd < 0) ? line : line.substring(0, nameEnd);
+    return name.substring(name.lastIndexOf('.') + 1);
+  }
+
+  /** Writes the records that differ between the old and new lines of the affected domains. */
+  private void writeDelta(
+      String tld,
+      DateTime exportTime,
+      TreeMultimap<String, String> oldLinesByLabel,
+      TreeMultimap<String, String> newLinesByLabel) {
+    GcsFilename deltaFile =
+        new GcsFilename(bucket, String.format(DELTA_FILENAME_FORMAT, tld, exportTime));
+    try (PrintWriter writer =
+        new PrintWriter(new OutputStreamWriter(gcsUtils.openOutputStream(deltaFile), UTF_8))) {
+      writer.printf(HEADER_FORMAT, tld);
+      for (String label :
+          ImmutableSortedSet.copyOf(
+              Sets.union(oldLinesByLabel.keySet(), newLinesByLabel.keySet()))) {
+        Set<String> oldLines = oldLinesByLabel.get(label);
+        Set<String> newLines = newLinesByLabel.get(label);
+        Sets.difference(oldLines, newLines).forEach(line -> writer.println("-" + line));
+        Sets.difference(newLines, oldLines).forEach(line -> writer.println("+" + line));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
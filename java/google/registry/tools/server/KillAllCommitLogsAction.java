@@ -16,9 +16,9 @@ package google.registry.tools.server;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.request.Action.Method.POST;
-import static google.registry.util.PipelineUtils.createJobPath;
 
 import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.Mapper;
@@ -69,16 +69,16 @@ public class KillAllCommitLogsAction implements Runnable {
             Lists.partition(
                 Streams.concat(
                         Stream.of(CommitLogCheckpointRoot.getKey()),
-                        CommitLogBucket.getAllBucketKeys().stream())
+                        CommitLogBucket.getAllCheckpointedBucketKeys().stream())
                     .collect(toImmutableList()),
                 1));
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
         .setJobName("Delete all commit logs")
         .setModuleName("tools")
         .runMapreduce(
             new KillAllCommitLogsMapper(),
             new KillAllEntitiesReducer(),
-            ImmutableList.of(input))));
+            ImmutableList.of(input)));
   }
 
   /**
@@ -15,9 +15,9 @@
 package google.registry.tools.server;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.request.Action.Method.POST;
-import static google.registry.util.PipelineUtils.createJobPath;
 
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.common.collect.ImmutableList;
@@ -27,12 +27,17 @@ import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.EppResourceInputs;
 import google.registry.model.EppResource;
 import google.registry.model.domain.DomainApplication;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.host.HostResource;
 import google.registry.model.index.DomainApplicationIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.request.Action;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
+import java.net.InetAddress;
 import javax.inject.Inject;
 
 /**
@@ -60,13 +65,13 @@ public class KillAllEppResourcesAction implements Runnable {
         RegistryEnvironment.get() == RegistryEnvironment.CRASH
             || RegistryEnvironment.get() == RegistryEnvironment.UNITTEST,
         "DO NOT RUN ANYWHERE ELSE EXCEPT CRASH OR TESTS.");
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
         .setJobName("Delete all EppResources, children, and indices")
         .setModuleName("tools")
         .runMapreduce(
             new KillAllEppResourcesMapper(),
             new KillAllEntitiesReducer(),
-            ImmutableList.of(EppResourceInputs.createIndexInput()))));
+            ImmutableList.of(EppResourceInputs.createIndexInput())));
   }
 
   static class KillAllEppResourcesMapper extends Mapper<EppResourceIndex, Key<?>, Key<?>> {
@@ -81,6 +86,8 @@ public class KillAllEppResourcesAction implements Runnable {
      * <ul>
      *   <li>All {@link ForeignKeyIndex} types
      *   <li>{@link DomainApplicationIndex}
+     *   <li>{@link HostInetAddressIndex}
+     *   <li>{@link LinkedDomainIndex}
      *   <li>{@link EppResourceIndex}
      *   <li>All {@link EppResource} types
      *   <li>{@code HistoryEntry}
@@ -102,6 +109,19 @@ public class KillAllEppResourcesAction implements Runnable {
           ? DomainApplicationIndex.createKey((DomainApplication) resource)
           : ForeignKeyIndex.createKey(resource);
       emitAndIncrementCounter(indexKey, indexKey);
+      if (resource instanceof DomainBase) {
+        for (Key<?> linkKey : LinkedDomainIndex.createAllLinkKeys((DomainBase) resource)) {
+          emitAndIncrementCounter(linkKey, linkKey);
+        }
+      }
+      if (resource instanceof HostResource) {
+        HostResource host = (HostResource) resource;
+        int shard = HostInetAddressIndex.getShard(Key.create(host));
+        for (InetAddress inetAddress : host.getInetAddresses()) {
+          Key<?> inetAddressIndexKey = HostInetAddressIndex.createKey(inetAddress, shard);
+          emitAndIncrementCounter(inetAddressIndexKey, inetAddressIndexKey);
+        }
+      }
     }
 
     private void emitAndIncrementCounter(Key<?> ancestor, Key<?> child) {
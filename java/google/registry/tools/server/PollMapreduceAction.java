@@ -15,6 +15,7 @@
 package google.registry.tools.server;
 
 import static com.google.appengine.tools.pipeline.PipelineServiceFactory.newPipelineService;
+import static google.registry.mapreduce.MapreduceRunner.isInProcessJob;
 import static google.registry.request.Action.Method.POST;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
@@ -41,6 +42,13 @@ public class PollMapreduceAction implements Runnable {
 
   @Override
   public void run() {
+    // A job run in-process has no pipeline, and had already finished when its ID was returned.
+    if (isInProcessJob(jobId)) {
+      response.setPayload(
+          ImmutableMap.of("state", JobInfo.State.COMPLETED_SUCCESSFULLY.toString()));
+      response.setStatus(SC_OK);
+      return;
+    }
     JobInfo jobInfo;
     try {
       jobInfo = newPipelineService().getJobInfo(jobId);
@@ -0,0 +1,97 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.mapreduce.MapreduceRunner;
+import google.registry.mapreduce.inputs.EppResourceInputs;
+import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.EppResourceIndexBucket;
+import google.registry.request.Action;
+import google.registry.request.Response;
+import google.registry.request.auth.Auth;
+import javax.inject.Inject;
+
+/**
+ * A mapreduce that moves each {@link EppResourceIndex} into the bucket its resource now hashes to.
+ *
+ * <p>This must be run after increasing the number of {@link EppResourceIndexBucket}s, since
+ * existing indexes otherwise stay in their old buckets, which leaves the new buckets nearly empty
+ * and the old ones as big as before. Mapreduces over the indexes still see every resource exactly
+ * once before and after this runs, but may see some twice or not at all while it is running, so
+ * they shouldn't be run at the same time. Nothing enforces this, since a lock only lasts as long
+ * as the request that took it, so it should be started with the {@code
+ * rebalance_epp_resource_indexes} command, which warns about it.
+ *
+ * <p>Because there are no auth settings in the {@link Action} annotation, this command can only be
+ * run internally, or by pretending to be internal by setting the X-AppEngine-QueueName header,
+ * which only admin users can do.
+ */
+@Action(
+  path = RebalanceEppResourceIndexesAction.PATH,
+  auth = Auth.AUTH_INTERNAL_OR_ADMIN
+)
+public class RebalanceEppResourceIndexesAction implements Runnable {
+
+  public static final String PATH = "/_dr/task/rebalanceEppResourceIndexes";
+
+  @Inject MapreduceRunner mrRunner;
+  @Inject Response response;
+  @Inject RebalanceEppResourceIndexesAction() {}
+
+  @Override
+  public void run() {
+    sendJobStatus(response, mrRunner
+        .setJobName("Rebalance EppResourceIndex entities")
+        .setModuleName("tools")
+        .runMapOnly(
+            new RebalanceEppResourceIndexesMapper(),
+            ImmutableList.of(EppResourceInputs.createIndexInput())));
+  }
+
+  /** Mapper that moves each index that isn't in the right bucket. */
+  public static class RebalanceEppResourceIndexesMapper
+      extends Mapper<EppResourceIndex, Void, Void> {
+
+    private static final long serialVersionUID = 4370187345621809174L;
+
+    @Override
+    public final void map(final EppResourceIndex index) {
+      if (index.getBucket().equals(EppResourceIndexBucket.getBucketKey(index.getKey()))) {
+        getContext().incrementCounter("indexes already in the right bucket");
+        return;
+      }
+      Key<EppResourceIndex> oldKey = Key.create(index);
+      boolean moved =
+          ofy()
+              .transactNew(
+                  () -> {
+                    // Skip the index if it was already moved by an earlier attempt of this slice.
+                    if (ofy().load().key(oldKey).now() == null) {
+                      return false;
+                    }
+                    ofy().delete().key(oldKey);
+                    ofy().save().entity(EppResourceIndex.create(index.getKey()));
+                    return true;
+                  });
+      getContext().incrementCounter(moved ? "indexes moved" : "indexes already moved");
+    }
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.googlecode.objectify.Key.getKind;
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.appengine.tools.mapreduce.Reducer;
+import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.appengine.tools.mapreduce.inputs.DatastoreKeyInput;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.googlecode.objectify.Key;
+import google.registry.mapreduce.MapreduceRunner;
+import google.registry.mapreduce.inputs.EppResourceInputs;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.request.Action;
+import google.registry.request.Response;
+import google.registry.request.auth.Auth;
+import java.util.Set;
+import javax.inject.Inject;
+
+/**
+ * A mapreduce that rebuilds all {@link HostInetAddressIndex} entities from the hosts.
+ *
+ * <p>This is needed to populate the index for hosts created before it existed, and to repair it if
+ * the entity integrity verification finds it to be out of sync with the hosts. Indexes for IP
+ * addresses that no active host has any more are emptied. It must be run to completion before
+ * setting {@code hostInetAddressIndexEnabled} in the config, which makes WHOIS and RDAP look hosts
+ * up by IP address through the index.
+ *
+ * <p>Because there are no auth settings in the {@link Action} annotation, this command can only be
+ * run internally, or by pretending to be internal by setting the X-AppEngine-QueueName header,
+ * which only admin users can do.
+ */
+@Action(
+  path = "/_dr/task/rebuildHostInetAddressIndex",
+  auth = Auth.AUTH_INTERNAL_OR_ADMIN
+)
+public class RebuildHostInetAddressIndexAction implements Runnable {
+
+  private static final int NUM_INDEX_SHARDS = 20;
+
+  @Inject MapreduceRunner mrRunner;
+  @Inject Response response;
+  @Inject RebuildHostInetAddressIndexAction() {}
+
+  @Override
+  public void run() {
+    sendJobStatus(response, mrRunner
+        .setJobName("Rebuild HostInetAddressIndex entities")
+        .setModuleName("tools")
+        .runMapreduce(
+            new RebuildHostInetAddressIndexMapper(),
+            new RebuildHostInetAddressIndexReducer(),
+            ImmutableList.of(
+                EppResourceInputs.createEntityInput(HostResource.class),
+                new DatastoreKeyInput(
+                    getKind(HostInetAddressIndex.class), NUM_INDEX_SHARDS))));
+  }
+
+  /**
+   * Mapper that emits the key of each active host under the key of each index shard it belongs in.
+   *
+   * <p>The keys of the existing indexes are emitted under themselves, so that indexes that no host
+   * belongs in any more are still reduced, and emptied.
+   */
+  public static class RebuildHostInetAddressIndexMapper
+      extends Mapper<Object, Key<HostInetAddressIndex>, Key<?>> {
+
+    private static final long serialVersionUID = -2178339720286426305L;
+
+    @Override
+    public final void map(Object hostOrIndexKey) {
+      if (hostOrIndexKey instanceof HostResource) {
+        HostResource host = (HostResource) hostOrIndexKey;
+        if (!host.getDeletionTime().equals(END_OF_TIME)) {
+          getContext().incrementCounter("deleted hosts skipped");
+          return;
+        }
+        for (Key<HostInetAddressIndex> indexKey : HostInetAddressIndex.createKeysForHost(host)) {
+          emit(indexKey, Key.create(host));
+        }
+        getContext().incrementCounter("active hosts mapped");
+      } else {
+        Key<HostInetAddressIndex> indexKey =
+            Key.create((com.google.appengine.api.datastore.Key) hostOrIndexKey);
+        emit(indexKey, indexKey);
+        getContext().incrementCounter("existing indexes mapped");
+      }
+    }
+  }
+
+  /**
+   * Reducer that rewrites an index shard with the active hosts that belong in it.
+   *
+   * <p>Flows may be adding hosts to or removing them from the index while this runs, so rather
+   * than overwriting the index with the hosts that were mapped, this rechecks both those and the
+   * hosts already in the index within a transaction on the index. A flow that changes one of the
+   * hosts concurrently also saves the index, so one of the two transactions will be retried.
+   */
+  public static class RebuildHostInetAddressIndexReducer
+      extends Reducer<Key<HostInetAddressIndex>, Key<?>, Void> {
+
+    private static final long serialVersionUID = 7381405281942196428L;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void reduce(Key<HostInetAddressIndex> indexKey, ReducerInput<Key<?>> keys) {
+      ImmutableSet.Builder<Key<HostResource>> mappedHostKeys = new ImmutableSet.Builder<>();
+      while (keys.hasNext()) {
+        Key<?> key = keys.next();
+        if (key.getKind().equals(getKind(HostResource.class))) {
+          mappedHostKeys.add((Key<HostResource>) key);
+        }
+      }
+      HostInetAddressIndex index =
+          ofy()
+              .transact(
+                  () -> {
+                    HostInetAddressIndex existing = ofy().load().key(indexKey).now();
+                    Set<Key<HostResource>> hostKeys =
+                        Sets.union(
+                            mappedHostKeys.build(),
+                            (existing == null) ? ImmutableSet.of() : existing.getHosts());
+                    // Load the hosts outside the transaction, since there may be more of them than
+                    // a transaction can span entity groups.
+                    ImmutableList<HostResource> hosts =
+                        ofy()
+                            .doWithFreshSessionCache(
+                                () -> ImmutableList.copyOf(ofy().load().keys(hostKeys).values()));
+                    HostInetAddressIndex rebuilt =
+                        HostInetAddressIndex.createWithSpecifiedKeys(
+                            indexKey,
+                            hosts
+                                .stream()
+                                .filter(
+                                    host ->
+                                        HostInetAddressIndex.createKeysForHost(host)
+                                            .contains(indexKey))
+                                .map(Key::create)
+                                .collect(toImmutableSet()));
+                    ofy().save().entity(rebuilt);
+                    return rebuilt;
+                  });
+      getContext().incrementCounter(
+          index.getHosts().isEmpty() ? "indexes emptied" : "indexes rebuilt");
+    }
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package google.registry.tools.server;
+
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.common.collect.ImmutableList;
+import google.registry.mapreduce.MapreduceRunner;
+import google.registry.mapreduce.inputs.EppResourceInputs;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.index.LinkedDomainIndex;
+import google.registry.request.Action;
+import google.registry.request.Response;
+import google.registry.request.auth.Auth;
+import javax.inject.Inject;
+
+/**
+ * A mapreduce that writes the {@link LinkedDomainIndex} entities for all domains and applications.
+ *
+ * <p>This is needed to populate the index for domains created before it existed, and must be run
+ * to completion before setting {@code linkedDomainIndexEnabled} in the config, which makes the
+ * asynchronous contact and host deletions rely on it. The links of domains that are already
+ * deleted, including pending delete domains past their deletion time, which the flows don't remove,
+ * are deleted instead. Other stale links are left alone; they are harmless, since their readers
+ * check each domain they load.
+ *
+ * <p>Because there are no auth settings in the {@link Action} annotation, this command can only be
+ * run internally, or by pretending to be internal by setting the X-AppEngine-QueueName header,
+ * which only admin users can do.
+ */
+@Action(
+  path = "/_dr/task/rebuildLinkedDomainIndex",
+  auth = Auth.AUTH_INTERNAL_OR_ADMIN
+)
+public class RebuildLinkedDomainIndexAction implements Runnable {
+
+  @Inject MapreduceRunner mrRunner;
+  @Inject Response response;
+  @Inject RebuildLinkedDomainIndexAction() {}
+
+  @Override
+  public void run() {
+    sendJobStatus(response, mrRunner
+        .setJobName("Rebuild LinkedDomainIndex entities")
+        .setModuleName("tools")
+        .runMapOnly(
+            new RebuildLinkedDomainIndexMapper(),
+            ImmutableList.of(EppResourceInputs.createEntityInput(DomainBase.class))));
+  }
+
+  /**
+   * Mapper that saves the links from each undeleted domain to its contacts and nameservers, and
+   * deletes those of each deleted one.
+   */
+  public static class RebuildLinkedDomainIndexMapper extends Mapper<DomainBase, Void, Void> {
+
+    private static final long serialVersionUID = -6012935871063411047L;
+
+    @Override
+    public final void map(final DomainBase domain) {
+      boolean saved =
+          ofy()
+              .transact(
+                  () -> {
+                    DomainBase current = ofy().load().entity(domain).now();
+                    if (!ofy().getTransactionTime().isBefore(current.getDeletionTime())) {
+                      ofy().delete().keys(LinkedDomainIndex.createAllLinkKeys(current)).now();
+                      return false;
+                    }
+                    ofy().save().entities(LinkedDomainIndex.createAllLinks(current)).now();
+                    return true;
+                  });
+      getContext().incrementCounter(saved ? "domains indexed" : "deleted domains unindexed");
+    }
+  }
+}
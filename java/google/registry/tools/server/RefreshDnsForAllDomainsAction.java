@@ -14,11 +14,11 @@
 
 package google.registry.tools.server;
 
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.registry.Registries.assertTldsExist;
 import static google.registry.request.RequestParameters.PARAM_TLDS;
-import static google.registry.util.PipelineUtils.createJobPath;
 
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.common.annotations.VisibleForTesting;
@@ -64,15 +64,15 @@ public class RefreshDnsForAllDomainsAction implements Runnable {
   @Override
   public void run() {
     assertTldsExist(tlds);
-    response.sendJavaScriptRedirect(
-        createJobPath(
-            mrRunner
-                .setJobName("Refresh DNS for all domains")
-                .setModuleName("tools")
-                .setDefaultMapShards(10)
-                .runMapOnly(
-                    new RefreshDnsForAllDomainsActionMapper(tlds),
-                    ImmutableList.of(createEntityInput(DomainResource.class)))));
+    sendJobStatus(
+        response,
+        mrRunner
+            .setJobName("Refresh DNS for all domains")
+            .setModuleName("tools")
+            .setDefaultMapShards(10)
+            .runMapOnly(
+                new RefreshDnsForAllDomainsActionMapper(tlds),
+                ImmutableList.of(createEntityInput(DomainResource.class))));
   }
 
   /** Mapper to refresh DNS for all active domain resources. */
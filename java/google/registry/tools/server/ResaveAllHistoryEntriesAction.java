@@ -14,8 +14,8 @@
 
 package google.registry.tools.server;
 
+import static google.registry.mapreduce.MapreduceRunner.sendJobStatus;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static google.registry.util.PipelineUtils.createJobPath;
 
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.common.collect.ImmutableList;
@@ -51,14 +51,14 @@ public class ResaveAllHistoryEntriesAction implements Runnable {
   @SuppressWarnings("unchecked")
   @Override
   public void run() {
-    response.sendJavaScriptRedirect(createJobPath(mrRunner
+    sendJobStatus(response, mrRunner
         .setJobName("Re-save all HistoryEntry entities")
         .setModuleName("tools")
         .runMapOnly(
             new ResaveAllHistoryEntriesActionMapper(),
             ImmutableList.of(EppResourceInputs.createChildEntityInput(
                 ImmutableSet.of(EppResource.class),
-                ImmutableSet.of(HistoryEntry.class))))));
+                ImmutableSet.of(HistoryEntry.class)))));
   }
 
   /** Mapper to re-save all HistoryEntry entities. */
@@ -31,6 +31,11 @@ public class DomainLookupCommand extends DomainOrHostLookupCommand {
     this.fullOutput = fullOutput;
   }
 
+  @Override
+  public Optional<String> getCacheKey() {
+    return super.getCacheKey().map(key -> key + (fullOutput ? " full" : " summary"));
+  }
+
   @Override
   protected Optional<WhoisResponse> getResponse(InternetDomainName domainName, DateTime now) {
     final DomainResource domainResource =
@@ -49,6 +49,11 @@ public abstract class DomainOrHostLookupCommand implements WhoisCommand {
     throw new WhoisException(now, SC_NOT_FOUND, errorPrefix + " not found.");
   }
 
+  @Override
+  public Optional<String> getCacheKey() {
+    return Optional.of(getClass().getName() + " " + domainOrHostName);
+  }
+
   /** Renders a response record, provided its successfully retrieved Datastore entity. */
   protected abstract Optional<WhoisResponse> getResponse(
       InternetDomainName domainName, DateTime now);
@@ -22,17 +22,21 @@ import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Streams;
+import com.google.common.net.InetAddresses;
 import com.google.common.net.InternetDomainName;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.HostInetAddressIndex;
 import google.registry.model.registry.Registries;
 import java.net.InetAddress;
+import java.util.Optional;
 import org.joda.time.DateTime;
 
 /**
  * Represents a WHOIS lookup for a nameserver based on its IP.
  *
- * <p>Both IPv4 and IPv6 addresses are supported. Unlike other WHOIS commands, this is an eventually
- * consistent query.
+ * <p>Both IPv4 and IPv6 addresses are supported. If {@code hostInetAddressIndexEnabled} is set in
+ * the config, the hosts are found through their {@link HostInetAddressIndex}, which is strongly
+ * consistent. Otherwise, unlike other WHOIS commands, this is an eventually consistent query.
  *
  * <p><b>Note:</b> There may be multiple nameservers with the same IP.
  */
@@ -41,14 +45,20 @@ final class NameserverLookupByIpCommand implements WhoisCommand {
   @VisibleForTesting
   final InetAddress ipAddress;
 
-  NameserverLookupByIpCommand(InetAddress ipAddress) {
+  private final boolean hostInetAddressIndexEnabled;
+
+  NameserverLookupByIpCommand(InetAddress ipAddress, boolean hostInetAddressIndexEnabled) {
     this.ipAddress = checkNotNull(ipAddress, "ipAddress");
+    this.hostInetAddressIndexEnabled = hostInetAddressIndexEnabled;
   }
 
   @Override
   public WhoisResponse executeQuery(DateTime now) throws WhoisException {
     ImmutableList<HostResource> hosts =
-        Streams.stream(queryNotDeleted(HostResource.class, now, "inetAddresses", ipAddress))
+        (hostInetAddressIndexEnabled
+                ? HostInetAddressIndex.loadActiveHosts(ipAddress, now).stream()
+                : Streams.stream(
+                    queryNotDeleted(HostResource.class, now, "inetAddresses", ipAddress)))
             .filter(
                 host ->
                     Registries.findTldForName(
@@ -60,4 +70,9 @@ final class NameserverLookupByIpCommand implements WhoisCommand {
     }
     return new NameserverWhoisResponse(hosts, now);
   }
+
+  @Override
+  public Optional<String> getCacheKey() {
+    return Optional.of(getClass().getName() + " " + InetAddresses.toAddrString(ipAddress));
+  }
 }
@@ -16,72 +16,17 @@ package google.registry.whois;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Strings.isNullOrEmpty;
-import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
 import static google.registry.util.RegistrarUtils.normalizeRegistrarName;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.CharMatcher;
-import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
-import com.google.common.base.Supplier;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.flogger.FluentLogger;
 import google.registry.model.registrar.Registrar;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 import org.joda.time.DateTime;
 
 /** Represents a WHOIS lookup for a registrar by its name. */
 final class RegistrarLookupCommand implements WhoisCommand {
 
-  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
-
-  /**
-   * Cache of a map from a stripped-down (letters and digits only) name to the registrar. This map
-   * includes only active, publicly visible registrars, because the others should be invisible to
-   * WHOIS.
-   */
-  private static final Supplier<Map<String, Registrar>> REGISTRAR_BY_NORMALIZED_NAME_CACHE =
-      memoizeWithShortExpiration(
-          () -> {
-            Map<String, Registrar> map = new HashMap<>();
-            // Use the normalized registrar name as a key, and ignore inactive and hidden
-            // registrars.
-            for (Registrar registrar : Registrar.loadAllCached()) {
-              if (!registrar.isLiveAndPubliclyVisible() || registrar.getRegistrarName() == null) {
-                continue;
-              }
-              String normalized = normalizeRegistrarName(registrar.getRegistrarName());
-              if (map.put(normalized, registrar) != null) {
-                logger.atWarning().log(
-                    "%s appeared as a normalized registrar name for more than one registrar.",
-                    normalized);
-              }
-            }
-            // Use the normalized registrar name without its last word as a key, assuming there are
-            // multiple words in the name. This allows searches without LLC or INC, etc. Only insert
-            // if there isn't already a mapping for this string, so that if there's a registrar with
-            // a
-            // two word name (Go Daddy) and no business-type suffix and another registrar with just
-            // that first word as its name (Go), the latter will win.
-            for (Registrar registrar : ImmutableList.copyOf(map.values())) {
-              if (registrar.getRegistrarName() == null) {
-                continue;
-              }
-              List<String> words =
-                  Splitter.on(CharMatcher.whitespace()).splitToList(registrar.getRegistrarName());
-              if (words.size() > 1) {
-                String normalized =
-                    normalizeRegistrarName(Joiner.on("").join(words.subList(0, words.size() - 1)));
-                map.putIfAbsent(normalized, registrar);
-              }
-            }
-            return ImmutableMap.copyOf(map);
-          });
-
   @VisibleForTesting
   final String registrarName;
 
@@ -92,12 +37,16 @@ final class RegistrarLookupCommand implements WhoisCommand {
 
   @Override
   public WhoisResponse executeQuery(DateTime now) throws WhoisException {
+    // If a registrar is in the index, we know it must be active and publicly visible.
     Registrar registrar =
-        REGISTRAR_BY_NORMALIZED_NAME_CACHE.get().get(normalizeRegistrarName(registrarName));
-    // If a registrar is in the cache, we know it must be active and publicly visible.
-    if (registrar == null) {
-      throw new WhoisException(now, SC_NOT_FOUND, "No registrar found.");
-    }
+        Registrar.loadLookupIndexCached()
+            .getPubliclyVisibleByNormalizedName(registrarName)
+            .orElseThrow(() -> new WhoisException(now, SC_NOT_FOUND, "No registrar found."));
     return new RegistrarWhoisResponse(registrar, now);
   }
+
+  @Override
+  public Optional<String> getCacheKey() {
+    return Optional.of(getClass().getName() + " " + normalizeRegistrarName(registrarName));
+  }
 }
@@ -23,6 +23,7 @@ import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.net.MediaType;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.model.EppResourceGeneration;
 import google.registry.request.Action;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
@@ -32,6 +33,7 @@ import google.registry.whois.WhoisException.UncheckedWhoisException;
 import google.registry.whois.WhoisMetrics.WhoisMetric;
 import google.registry.whois.WhoisResponse.WhoisResponseResults;
 import java.io.Reader;
+import java.util.Optional;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -71,6 +73,7 @@ public class WhoisAction implements Runnable {
   @Inject @Config("whoisDisclaimer") String disclaimer;
   @Inject WhoisMetric.Builder metricBuilder;
   @Inject WhoisMetrics whoisMetrics;
+  @Inject WhoisResponseCache whoisResponseCache;
 
   @Inject
   WhoisAction() {}
@@ -82,19 +85,21 @@ public class WhoisAction implements Runnable {
     try {
       final WhoisCommand command = whoisReader.readCommand(input, false, now);
       metricBuilder.setCommand(command);
+      Optional<String> cacheKey =
+          whoisResponseCache.isEnabled()
+              ? command.getCacheKey().map(key -> key + (PREFER_UNICODE ? " unicode" : " ascii"))
+              : Optional.empty();
+      // Read the generation before querying, so that a change committed while the query runs
+      // invalidates what it caches. Nothing is cached if the generation can't be read.
+      Optional<Long> generation = cacheKey.flatMap(key -> EppResourceGeneration.get());
+      Optional<WhoisResponseResults> cachedResults =
+          generation.flatMap(gen -> whoisResponseCache.get(cacheKey.get(), gen));
+      generation.ifPresent(
+          gen -> whoisMetrics.recordResponseCacheLookup(command, cachedResults.isPresent()));
       WhoisResponseResults results =
-          retrier.callWithRetry(
-              () -> {
-                WhoisResponseResults results1;
-                try {
-                  results1 = command.executeQuery(now).getResponse(PREFER_UNICODE, disclaimer);
-                } catch (WhoisException e) {
-                  throw new UncheckedWhoisException(e);
-                }
-                return results1;
-              },
-              DatastoreTimeoutException.class,
-              DatastoreFailureException.class);
+          cachedResults.isPresent()
+              ? cachedResults.get()
+              : executeQuery(command, now, cacheKey, generation);
       responseText = results.plainTextOutput();
       setWhoisMetrics(metricBuilder, results.numResults(), SC_OK);
     } catch (UncheckedWhoisException u) {
@@ -121,6 +126,31 @@ public class WhoisAction implements Runnable {
     whoisMetrics.recordWhoisMetric(metricBuilder.build());
   }
 
+  /**
+   * Executes the command with retries, caching its response under the given key and generation, if
+   * there are both.
+   */
+  private WhoisResponseResults executeQuery(
+      WhoisCommand command, DateTime now, Optional<String> cacheKey, Optional<Long> generation) {
+    WhoisResponseResults results =
+        retrier.callWithRetry(
+            () -> {
+              WhoisResponseResults results1;
+              try {
+                results1 = command.executeQuery(now).getResponse(PREFER_UNICODE, disclaimer);
+              } catch (WhoisException e) {
+                throw new UncheckedWhoisException(e);
+              }
+              return results1;
+            },
+            DatastoreTimeoutException.class,
+            DatastoreFailureException.class);
+    if (cacheKey.isPresent() && generation.isPresent()) {
+      whoisResponseCache.put(cacheKey.get(), generation.get(), results);
+    }
+    return results;
+  }
+
   private static void setWhoisMetrics(
       WhoisMetric.Builder metricBuilder, int numResults, int status) {
     metricBuilder.setNumResults(numResults);
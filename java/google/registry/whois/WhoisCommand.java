@@ -14,6 +14,7 @@
 
 package google.registry.whois;
 
+import java.util.Optional;
 import org.joda.time.DateTime;
 
 /** Represents a WHOIS command request from a client. */
@@ -26,4 +27,16 @@ public interface WhoisCommand {
    * @throws WhoisException If some error occured while executing the command.
    */
   WhoisResponse executeQuery(DateTime now) throws WhoisException;
+
+  /**
+   * Returns a key identifying this query, under which its rendered response may be cached, or
+   * empty if its responses should never be cached.
+   *
+   * <p>Two commands with the same key must produce the same response from the same data.
+   *
+   * @see WhoisResponseCache
+   */
+  default Optional<String> getCacheKey() {
+    return Optional.empty();
+  }
 }
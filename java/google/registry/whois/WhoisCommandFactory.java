@@ -15,6 +15,7 @@
 package google.registry.whois;
 
 import com.google.common.net.InternetDomainName;
+import google.registry.config.RegistryConfig;
 import google.registry.config.RegistryConfig.ConfigModule;
 import java.net.InetAddress;
 
@@ -35,7 +36,8 @@ public class WhoisCommandFactory {
    * Returns a new {@link WhoisCommand} to perform a nameserver lookup on the specified IP address.
    */
   public WhoisCommand nameserverLookupByIp(InetAddress inetAddress) {
-    return new NameserverLookupByIpCommand(inetAddress);
+    return new NameserverLookupByIpCommand(
+        inetAddress, RegistryConfig.getHostInetAddressIndexEnabled());
   }
 
   /**
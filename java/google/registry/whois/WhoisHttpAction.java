@@ -20,6 +20,7 @@ import static com.google.common.net.HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN;
 import static com.google.common.net.HttpHeaders.CACHE_CONTROL;
 import static com.google.common.net.HttpHeaders.EXPIRES;
 import static com.google.common.net.HttpHeaders.LAST_MODIFIED;
+import static com.google.common.net.HttpHeaders.RETRY_AFTER;
 import static com.google.common.net.HttpHeaders.X_CONTENT_TYPE_OPTIONS;
 import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
@@ -31,6 +32,8 @@ import com.google.common.base.Splitter;
 import com.google.common.flogger.FluentLogger;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.request.Action;
+import google.registry.request.ClientRateLimiter;
+import google.registry.request.HttpException.TooManyRequestsException;
 import google.registry.request.RequestPath;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
@@ -42,6 +45,7 @@ import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
@@ -131,6 +135,7 @@ public final class WhoisHttpAction implements Runnable {
   private static final Joiner JOINER = Joiner.on(' ');
 
   @Inject Clock clock;
+  @Inject HttpServletRequest request;
   @Inject Response response;
   @Inject @Config("whoisDisclaimer") String disclaimer;
   @Inject @Config("whoisHttpExpires") Duration expires;
@@ -138,6 +143,7 @@ public final class WhoisHttpAction implements Runnable {
   @Inject @RequestPath String requestPath;
   @Inject WhoisMetric.Builder metricBuilder;
   @Inject WhoisMetrics whoisMetrics;
+  @Inject ClientRateLimiter clientRateLimiter;
 
   @Inject
   WhoisHttpAction() {}
@@ -147,6 +153,9 @@ public final class WhoisHttpAction implements Runnable {
     verify(requestPath.startsWith(PATH));
     String path = nullToEmpty(requestPath);
     try {
+      if (clientRateLimiter.isEnabled()) {
+        clientRateLimiter.take("whois", request.getRemoteAddr(), 1);
+      }
       // Extremely permissive parsing that turns stuff like "/hello/world/" into "hello world".
       String commandText =
           decode(JOINER.join(SLASHER.split(path.substring(PATH.length())))) + "\r\n";
@@ -158,6 +167,14 @@ public final class WhoisHttpAction implements Runnable {
       metricBuilder.setStatus(e.getStatus());
       metricBuilder.setNumResults(0);
       sendResponse(e.getStatus(), e);
+    } catch (TooManyRequestsException e) {
+      metricBuilder.setStatus(e.getResponseCode());
+      metricBuilder.setNumResults(0);
+      response.setStatus(e.getResponseCode());
+      response.setHeader(RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()));
+      response.setHeader(ACCESS_CONTROL_ALLOW_ORIGIN, CORS_ALLOW_ORIGIN);
+      response.setContentType(PLAIN_TEXT_UTF_8);
+      response.setPayload(e.getMessage() + "\r\n");
     } catch (IOException e) {
       metricBuilder.setStatus(SC_INTERNAL_SERVER_ERROR);
       metricBuilder.setNumResults(0);
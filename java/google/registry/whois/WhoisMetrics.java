@@ -56,6 +56,19 @@ public class WhoisMetrics {
               LABEL_DESCRIPTORS,
               DEFAULT_FITTER);
 
+  private static final ImmutableSet<LabelDescriptor> CACHE_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("command_name", "The name of the WHOIS command."),
+          LabelDescriptor.create("hit", "Whether the response was found in the cache."));
+
+  private static final IncrementableMetric responseCacheLookups =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/whois/response_cache_lookups",
+              "Count of WHOIS response cache lookups",
+              "count",
+              CACHE_LABEL_DESCRIPTORS);
+
   @Inject
   public WhoisMetrics() {}
 
@@ -72,6 +85,21 @@ public class WhoisMetrics {
         Integer.toString(metric.status()));
   }
 
+  /** Records a lookup of the given command's response in the {@link WhoisResponseCache}. */
+  public void recordResponseCacheLookup(WhoisCommand command, boolean hit) {
+    responseCacheLookups.increment(getCommandName(command), Boolean.toString(hit));
+  }
+
+  /**
+   * Returns the label under which metrics for the given command are recorded.
+   *
+   * <p>All WHOIS command class names share the "Command" suffix, so strip it out in order to have
+   * shorter labels.
+   */
+  static String getCommandName(WhoisCommand command) {
+    return command.getClass().getSimpleName().replaceFirst("Command$", "");
+  }
+
   /** A value class for recording attributes of a WHOIS metric. */
   @AutoValue
   public abstract static class WhoisMetric {
@@ -111,9 +139,7 @@ public class WhoisMetrics {
       private Clock clock = null;
 
       public Builder setCommand(WhoisCommand command) {
-        // All WHOIS command class names share the "Command" suffix, so strip it out in order to
-        // have shorter labels.
-        return setCommandName(command.getClass().getSimpleName().replaceFirst("Command$", ""));
+        return setCommandName(getCommandName(command));
       }
 
       public abstract Builder setCommandName(String commandName);
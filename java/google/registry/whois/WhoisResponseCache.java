@@ -0,0 +1,103 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package google.registry.whois;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.model.EppResourceGeneration;
+import google.registry.whois.WhoisResponse.WhoisResponseResults;
+import java.util.Optional;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.joda.time.Duration;
+
+/**
+ * In-memory cache of rendered WHOIS responses, shared by all requests on an instance.
+ *
+ * <p>Responses are keyed by {@link WhoisCommand#getCacheKey} together with the output mode. Each
+ * entry remembers the {@link EppResourceGeneration} read before its query ran, and is ignored once
+ * an EPP flow on any instance has committed a change to a domain, host or contact since then.
+ * Entries also expire after the configured duration, which bounds how stale a response can be
+ * after changes made elsewhere, such as to registrars or by asynchronous deletes.
+ */
+@Singleton
+public class WhoisResponseCache {
+
+  private final Optional<Cache<String, CachedResponse>> cache;
+
+  @Inject
+  WhoisResponseCache(
+      @Config("whoisResponseCacheMaxEntries") int maxEntries,
+      @Config("whoisResponseCachingDuration") Duration cachingDuration) {
+    this.cache =
+        (maxEntries <= 0)
+            ? Optional.empty()
+            : Optional.of(
+                CacheBuilder.newBuilder()
+                    .maximumSize(maxEntries)
+                    .expireAfterWrite(cachingDuration.getMillis(), MILLISECONDS)
+                    .build());
+  }
+
+  /** Returns a cache that never holds anything. */
+  @VisibleForTesting
+  static WhoisResponseCache createDisabled() {
+    return new WhoisResponseCache(0, Duration.ZERO);
+  }
+
+  /** Returns whether the cache is enabled. */
+  boolean isEnabled() {
+    return cache.isPresent();
+  }
+
+  /**
+   * Returns the cached response for the given key, if there is one and it's still current.
+   *
+   * @param generation the current {@link EppResourceGeneration}
+   */
+  Optional<WhoisResponseResults> get(String cacheKey, long generation) {
+    return cache
+        .map(c -> c.getIfPresent(cacheKey))
+        .filter(cached -> cached.generation() == generation)
+        .map(CachedResponse::results);
+  }
+
+  /**
+   * Caches a rendered response, if the cache is enabled.
+   *
+   * @param generation the {@link EppResourceGeneration} read before the query was executed
+   */
+  void put(String cacheKey, long generation, WhoisResponseResults results) {
+    cache.ifPresent(c -> c.put(cacheKey, CachedResponse.create(generation, results)));
+  }
+
+  /** A rendered response, along with the generation at which it was computed. */
+  @AutoValue
+  abstract static class CachedResponse {
+    abstract long generation();
+
+    abstract WhoisResponseResults results();
+
+    static CachedResponse create(long generation, WhoisResponseResults results) {
+      return new AutoValue_WhoisResponseCache_CachedResponse(generation, results);
+    }
+  }
+}
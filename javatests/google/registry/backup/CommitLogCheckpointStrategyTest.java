@@ -27,6 +27,7 @@ import com.google.common.collect.ImmutableMap;
 import google.registry.model.common.Cursor;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registry.Registry;
 import google.registry.testing.AppEngineRule;
@@ -130,6 +131,30 @@ public class CommitLogCheckpointStrategyTest {
         .containsExactly(1, secondTime, 2, firstTime, 3, firstTime);
   }
 
+  @Test
+  public void test_readBucketCount_noPreviousCheckpoint_returnsConfiguredCount() {
+    assertThat(strategy.readBucketCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void test_readBucketCount_previousCheckpointHasMoreBuckets_returnsCheckpointCount() {
+    DateTime previousCheckpointTime = clock.nowUtc();
+    persistCheckpointWithBucketCount(previousCheckpointTime, 5);
+    assertThat(strategy.readBucketCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void test_computeCheckpoint_previousCheckpointHasMoreBuckets_keepsExtraBuckets() {
+    persistCheckpointWithBucketCount(clock.nowUtc(), 4);
+    clock.advanceOneMilli();
+    DateTime checkpointTime = clock.nowUtc();
+    assertThat(strategy.computeCheckpoint())
+        .isEqualTo(CommitLogCheckpoint.create(
+            checkpointTime,
+            ImmutableMap.of(
+                1, START_OF_TIME, 2, START_OF_TIME, 3, START_OF_TIME, 4, START_OF_TIME)));
+  }
+
   @Test
   public void test_readNewCommitLogsAndFindThreshold_noCommitsAtAll_returnsEndOfTime() {
     ImmutableMap<Integer, DateTime> bucketTimes =
@@ -298,6 +323,19 @@ public class CommitLogCheckpointStrategyTest {
     fakeBucketIdSupplier.value = null;
   }
 
+  private void persistCheckpointWithBucketCount(DateTime checkpointTime, int bucketCount) {
+    ImmutableMap.Builder<Integer, DateTime> bucketTimes = new ImmutableMap.Builder<>();
+    for (int bucketId = 1; bucketId <= bucketCount; bucketId++) {
+      bucketTimes.put(bucketId, START_OF_TIME);
+    }
+    ofy.transact(
+        () ->
+            ofy.saveWithoutBackup()
+                .entities(
+                    CommitLogCheckpoint.create(checkpointTime, bucketTimes.build()),
+                    CommitLogCheckpointRoot.create(checkpointTime)));
+  }
+
   private void saveBucketWithLastWrittenTime(final int bucketId, final DateTime lastWrittenTime) {
     ofy.transact(
         () ->
@@ -16,6 +16,8 @@ package google.registry.backup;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.COMPRESSION;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_TRANSACTIONS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.UPPER_BOUND_CHECKPOINT;
@@ -28,6 +30,7 @@ import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import com.googlecode.objectify.Key;
 import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
@@ -35,9 +38,12 @@ import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogManifest;
 import google.registry.model.ofy.CommitLogMutation;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
 import google.registry.testing.GcsTestingUtils;
 import google.registry.testing.TestObject;
+import java.io.ByteArrayInputStream;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
@@ -67,6 +73,9 @@ public class ExportCommitLogDiffActionTest {
     task.gcsService = gcsService;
     task.gcsBucket = "gcs bucket";
     task.batchSize = 5;
+    task.compressionEnabled = false;
+    task.executor = newDirectExecutorService();
+    task.clock = new FakeClock(now);
   }
 
   @Test
@@ -446,6 +455,52 @@ public class ExportCommitLogDiffActionTest {
             .inOrder();
   }
 
+  @Test
+  public void testRun_compressionEnabled_exportsGzippedDiff() throws Exception {
+    task.compressionEnabled = true;
+    task.lowerCheckpointTime = oneMinuteAgo;
+    task.upperCheckpointTime = now;
+
+    persistResource(CommitLogCheckpoint.create(
+        oneMinuteAgo,
+        ImmutableMap.of(1, oneMinuteAgo, 2, oneMinuteAgo, 3, oneMinuteAgo)));
+    CommitLogCheckpoint upperCheckpoint = persistResource(CommitLogCheckpoint.create(
+        now,
+        ImmutableMap.of(1, now, 2, now, 3, now)));
+    persistManifestAndMutation(1, now.minusMillis(1));
+    persistManifestAndMutation(2, now);
+
+    task.run();
+
+    GcsFilename expectedFilename = new GcsFilename("gcs bucket", "commit_diff_until_" + now);
+    assertThat(gcsService.getMetadata(expectedFilename).getOptions().getUserMetadata())
+        .containsExactly(
+            LOWER_BOUND_CHECKPOINT,
+            oneMinuteAgo.toString(),
+            UPPER_BOUND_CHECKPOINT,
+            now.toString(),
+            NUM_TRANSACTIONS,
+            "2",
+            COMPRESSION,
+            "gzip");
+    List<ImmutableObject> exported =
+        deserializeEntities(
+            ByteStreams.toByteArray(
+                new GZIPInputStream(
+                    new ByteArrayInputStream(
+                        GcsTestingUtils.readGcsFile(gcsService, expectedFilename)))));
+    CommitLogManifest manifest1 = createManifest(1, now.minusMillis(1));
+    CommitLogManifest manifest2 = createManifest(2, now);
+    assertThat(exported)
+        .containsExactly(
+            upperCheckpoint,
+            manifest1,
+            createMutation(manifest1),
+            manifest2,
+            createMutation(manifest2))
+        .inOrder();
+  }
+
   private CommitLogManifest createManifest(int bucketNum, DateTime commitTime) {
     return CommitLogManifest.create(CommitLogBucket.getBucketKey(bucketNum), commitTime, null);
   }
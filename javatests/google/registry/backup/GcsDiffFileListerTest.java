@@ -17,6 +17,7 @@ package google.registry.backup;
 import static com.google.common.collect.Iterables.transform;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.COMPRESSION;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
 import static google.registry.backup.ExportCommitLogDiffAction.DIFF_FILE_PREFIX;
 import static google.registry.testing.JUnitBackports.assertThrows;
@@ -239,4 +240,34 @@ public class GcsDiffFileListerTest {
             now.minusMinutes(2))
         .inOrder();
   }
+
+  @Test
+  public void testList_mixedCompressionFormats_listsAllFiles() throws Exception {
+    gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now.plusMinutes(1)),
+        new GcsFileOptions.Builder()
+            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.toString())
+            .addUserMetadata(COMPRESSION, "gzip")
+            .build(),
+        ByteBuffer.wrap(new byte[]{1, 2, 3}));
+    assertThat(listDiffFiles(now.minusMinutes(1).minusSeconds(1), null))
+        .containsExactly(now.minusMinutes(1), now, now.plusMinutes(1))
+        .inOrder();
+  }
+
+  @Test
+  public void testList_unknownCompressionFormat_throws() throws Exception {
+    gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now.plusMinutes(1)),
+        new GcsFileOptions.Builder()
+            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.toString())
+            .addUserMetadata(COMPRESSION, "lzma")
+            .build(),
+        ByteBuffer.wrap(new byte[]{1, 2, 3}));
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> listDiffFiles(now.minusMinutes(1).minusSeconds(1), null));
+    assertThat(thrown).hasMessageThat().contains("Unknown diff file compression: lzma");
+  }
 }
@@ -19,6 +19,7 @@ import static com.google.common.collect.Iterables.transform;
 import static com.google.common.collect.Maps.toMap;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.COMPRESSION;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.serializeEntity;
 import static google.registry.backup.ExportCommitLogDiffAction.DIFF_FILE_PREFIX;
@@ -37,6 +38,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Longs;
 import com.googlecode.objectify.Key;
+import google.registry.backup.BackupUtils.DiffFileCompression;
 import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
@@ -50,6 +52,7 @@ import google.registry.testing.TestObject;
 import google.registry.util.Retrier;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
@@ -87,6 +90,9 @@ public class RestoreCommitLogsActionTest {
     action.diffLister.gcsService = gcsService;
     action.diffLister.gcsBucket = GCS_BUCKET;
     action.diffLister.executor = newDirectExecutorService();
+    action.executor = newDirectExecutorService();
+    action.clock = new FakeClock(now);
+    action.resume = false;
   }
 
   @Test
@@ -245,23 +251,123 @@ public class RestoreCommitLogsActionTest {
     assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
   }
 
+  @Test
+  public void testRestore_sameEntityGroupInOneFile_appliesTransactionsInOrder() throws Exception {
+    Key<CommitLogManifest> manifest1Key =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMillis(2));
+    Key<CommitLogManifest> manifest2Key =
+        CommitLogManifest.createKey(getBucketKey(2), now.minusMillis(1));
+    Key<CommitLogManifest> manifest3Key = CommitLogManifest.createKey(getBucketKey(1), now);
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    saveDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(getBucketKey(1), now.minusMillis(2), null),
+        CommitLogMutation.create(manifest1Key, TestObject.create("existing", "a")),
+        CommitLogManifest.create(getBucketKey(2), now.minusMillis(1), null),
+        CommitLogMutation.create(manifest2Key, TestObject.create("existing", "b")),
+        CommitLogManifest.create(
+            getBucketKey(1), now, ImmutableSet.of(Key.create(TestObject.create("existing")))));
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds();
+    assertThat(ofy().load().key(manifest3Key).now()).isNotNull();
+    assertCommitLogBuckets(ImmutableMap.of(1, now, 2, now.minusMillis(1)));
+  }
+
+  @Test
+  public void testRestore_resume_skipsAlreadyRestoredFiles() throws Exception {
+    Key<CommitLogManifest> manifestKey =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(2));
+    // The first file was already restored, but then the entity it saved was changed, so that we
+    // can tell if it gets restored again.
+    saveDiffFile(
+        createCheckpoint(now.minusMinutes(1)),
+        CommitLogManifest.create(getBucketKey(1), now.minusMinutes(2), null),
+        CommitLogMutation.create(manifestKey, TestObject.create("a", "restored")));
+    ofy().saveWithoutBackup().entities(
+        TestObject.create("a", "already restored and changed"),
+        CommitLogCheckpointRoot.create(now.minusMinutes(1))).now();
+    Key<CommitLogManifest> manifest2Key = CommitLogManifest.createKey(getBucketKey(1), now);
+    saveDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(getBucketKey(1), now, null),
+        CommitLogMutation.create(manifest2Key, TestObject.create("b")));
+    action.fromTime = now.minusMinutes(1).minusMillis(1);
+    action.resume = true;
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("a", "b");
+    assertThat(ofy().load().entity(TestObject.create("a")).now().getField())
+        .isEqualTo("already restored and changed");
+    assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
+  }
+
+  @Test
+  public void testRestore_dryRun_writesNothing() throws Exception {
+    ofy().saveWithoutBackup().entity(TestObject.create("previous to keep")).now();
+    Key<CommitLogManifest> manifestKey = CommitLogManifest.createKey(getBucketKey(1), now);
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    saveDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(
+            getBucketKey(1), now, ImmutableSet.of(Key.create(TestObject.create("previous to keep")))),
+        CommitLogMutation.create(manifestKey, TestObject.create("a")));
+    action.dryRun = true;
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("previous to keep");
+    assertThat(ofy().load().key(manifestKey).now()).isNull();
+    assertCommitLogBuckets(ImmutableMap.of());
+  }
+
+  @Test
+  public void testRestore_gzippedDiffFile() throws Exception {
+    ofy().saveWithoutBackup().entity(TestObject.create("previous to keep")).now();
+    Key<CommitLogBucket> bucketKey = getBucketKey(1);
+    Key<CommitLogManifest> manifestKey = CommitLogManifest.createKey(bucketKey, now);
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    Iterable<ImmutableObject> commitLogs = saveDiffFile(
+        DiffFileCompression.GZIP,
+        createCheckpoint(now),
+        CommitLogManifest.create(bucketKey, now, null),
+        CommitLogMutation.create(manifestKey, TestObject.create("a")));
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("previous to keep", "a");
+    assertInDatastore(commitLogs);
+    assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
+    assertCommitLogBuckets(ImmutableMap.of(1, now));
+  }
+
   private CommitLogCheckpoint createCheckpoint(DateTime now) {
     return CommitLogCheckpoint.create(now, toMap(getBucketIds(), x -> now));
   }
 
   private Iterable<ImmutableObject> saveDiffFile(
       CommitLogCheckpoint checkpoint, ImmutableObject... entities) throws IOException {
+    return saveDiffFile(DiffFileCompression.NONE, checkpoint, entities);
+  }
+
+  private Iterable<ImmutableObject> saveDiffFile(
+      DiffFileCompression compression, CommitLogCheckpoint checkpoint, ImmutableObject... entities)
+      throws IOException {
     DateTime now = checkpoint.getCheckpointTime();
     List<ImmutableObject> allEntities = Lists.asList(checkpoint, entities);
     ByteArrayOutputStream output = new ByteArrayOutputStream();
-    for (ImmutableObject entity : allEntities) {
-      serializeEntity(entity, output);
+    try (OutputStream compressedOutput = compression.compress(output)) {
+      for (ImmutableObject entity : allEntities) {
+        serializeEntity(entity, compressedOutput);
+      }
+    }
+    GcsFileOptions.Builder options =
+        new GcsFileOptions.Builder()
+            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.minusMinutes(1).toString());
+    if (compression != DiffFileCompression.NONE) {
+      options.addUserMetadata(COMPRESSION, compression.getMetadataValue());
     }
     gcsService.createOrReplace(
         new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now),
-        new GcsFileOptions.Builder()
-            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.minusMinutes(1).toString())
-            .build(),
+        options.build(),
         ByteBuffer.wrap(output.toByteArray()));
     return allEntities;
   }
@@ -82,6 +82,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppResponse.ResponseData;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.poll.PendingActionNotificationResponse;
 import google.registry.model.poll.PendingActionNotificationResponse.ContactPendingActionNotificationResponse;
@@ -167,6 +168,7 @@ public class DeleteContactsAndHostsActionTest
     action.asyncFlowMetrics = asyncFlowMetricsMock;
     inject.setStaticField(DeleteEppResourceReducer.class, "asyncFlowMetrics", asyncFlowMetricsMock);
     action.clock = clock;
+    action.linkedDomainIndexEnabled = true;
     action.mrRunner = makeDefaultRunner();
     action.requestStatusChecker = requestStatusChecker;
     action.response = fakeResponse;
@@ -180,6 +182,26 @@ public class DeleteContactsAndHostsActionTest
     clock.advanceOneMilli();
   }
 
+  @Test
+  public void testSuccess_linkedDomainIndexDisabled_referencedContact_doesNotGetDeleted()
+      throws Exception {
+    action.linkedDomainIndexEnabled = false;
+    ContactResource contact = persistContactPendingDelete("blah8221");
+    persistResource(newDomainResource("example.tld", contact));
+    enqueuer.enqueueAsyncDelete(
+        contact,
+        clock.nowUtc(),
+        "TheRegistrar",
+        Trid.create("fakeClientTrid", "fakeServerTrid"),
+        false);
+    runMapreduce();
+    assertAboutContacts()
+        .that(loadByForeignKey(ContactResource.class, "blah8221", clock.nowUtc()))
+        .doesNotHaveStatusValue(PENDING_DELETE)
+        .and()
+        .hasDeletionTime(END_OF_TIME);
+  }
+
   @Test
   public void testSuccess_contact_referencedByActiveDomain_doesNotGetDeleted() throws Exception {
     ContactResource contact = persistContactPendingDelete("blah8221");
@@ -417,6 +439,32 @@ public class DeleteContactsAndHostsActionTest
     assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
   }
 
+  @Test
+  public void testSuccess_linksFromDomainsDeletedBeforeTheRequest_areRemoved() throws Exception {
+    ContactResource contact = persistContactPendingDelete("blah1234");
+    DomainResource deletedDomain =
+        persistResource(
+            newDomainResource("example.tld", contact)
+                .asBuilder()
+                .setDeletionTime(clock.nowUtc().minusDays(3))
+                .build());
+    DomainResource activeDomain = persistResource(newDomainResource("example2.tld", contact));
+    Key<LinkedDomainIndex> staleLink =
+        LinkedDomainIndex.createKey(Key.create(contact), Key.create(deletedDomain));
+    Key<LinkedDomainIndex> activeLink =
+        LinkedDomainIndex.createKey(Key.create(contact), Key.create(activeDomain));
+    assertThat(ofy().load().key(staleLink).now()).isNotNull();
+    enqueuer.enqueueAsyncDelete(
+        contact,
+        clock.nowUtc(),
+        "TheRegistrar",
+        Trid.create("fakeClientTrid", "fakeServerTrid"),
+        false);
+    runMapreduce();
+    assertThat(ofy().load().key(staleLink).now()).isNull();
+    assertThat(ofy().load().key(activeLink).now()).isNotNull();
+  }
+
   @Test
   public void testSuccess_contact_notRequestedByOwner_doesNotGetDeleted() throws Exception {
     ContactResource contact = persistContactPendingDelete("jane0991");
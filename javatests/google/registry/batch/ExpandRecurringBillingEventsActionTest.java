@@ -29,14 +29,18 @@ import static google.registry.testing.DatastoreHelper.persistDeletedDomain;
 import static google.registry.testing.DatastoreHelper.persistPremiumList;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.JUnitBackports.assertThrows;
+import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static org.joda.money.CurrencyUnit.USD;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
+import google.registry.batch.ExpandRecurringBillingEventsAction.ExpandRecurringBillingEventsMapper;
+import google.registry.mapreduce.MapreduceRunner;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Flag;
 import google.registry.model.billing.BillingEvent.OneTime;
@@ -165,6 +169,26 @@ public class ExpandRecurringBillingEventsActionTest
     assertCursorAt(beginningOfTest);
   }
 
+  @Test
+  public void testSuccess_expandSingleEvent_inProcess() throws Exception {
+    persistResource(recurring);
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    action.mrRunner = new MapreduceRunner(Optional.empty(), Optional.of(1), Optional.of(true), 0);
+    FakeResponse response = new FakeResponse();
+    action.response = response;
+    action.run();
+    // The expansion is done by the time the action returns, without running any tasks.
+    assertNoTasksEnqueued("mapreduce");
+    assertThat(response.getPayload()).startsWith("Finished in-process job in-process-");
+    ofy().clearSessionCache();
+    HistoryEntry persistedEntry = getOnlyHistoryEntryOfType(domain, DOMAIN_AUTORENEW);
+    assertHistoryEntryMatches(
+        domain, persistedEntry, "TheRegistrar", DateTime.parse("2000-02-19T00:00:00Z"));
+    assertBillingEventsForResource(
+        domain, defaultOneTimeBuilder().setParent(persistedEntry).build(), recurring);
+    assertCursorAt(beginningOfTest);
+  }
+
   @Test
   public void testSuccess_expandSingleEvent_deletedDomain() throws Exception {
     DateTime deletionTime = DateTime.parse("2000-08-01T00:00:00Z");
@@ -581,6 +605,62 @@ public class ExpandRecurringBillingEventsActionTest
     assertCursorAt(beginningOfTest);
   }
 
+  @Test
+  public void testSuccess_expandEventsOnMoreDomainsThanFitInOneTransaction() throws Exception {
+    persistResource(recurring);
+    ImmutableList.Builder<DomainResource> domains = new ImmutableList.Builder<>();
+    domains.add(domain);
+    for (int i = 1; i <= ExpandRecurringBillingEventsMapper.MAX_DOMAINS_PER_TRANSACTION + 1; i++) {
+      DomainResource otherDomain = persistActiveDomain(String.format("example%d.tld", i));
+      persistResource(
+          recurring
+              .asBuilder()
+              .setId(null)
+              .setParent(persistResource(new HistoryEntry.Builder().setParent(otherDomain).build()))
+              .setTargetId(otherDomain.getFullyQualifiedDomainName())
+              .build());
+      domains.add(otherDomain);
+    }
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    for (DomainResource expandedDomain : domains.build()) {
+      assertHistoryEntryMatches(
+          expandedDomain,
+          getOnlyHistoryEntryOfType(expandedDomain, DOMAIN_AUTORENEW),
+          "TheRegistrar",
+          DateTime.parse("2000-02-19T00:00:00Z"));
+    }
+    assertCursorAt(beginningOfTest);
+  }
+
+  @Test
+  public void testFailure_domainThatFailsToExpand_doesNotStopOthersInTransaction()
+      throws Exception {
+    persistResource(recurring);
+    // A TLD whose pricing engine doesn't exist fails only once a renewal is priced, inside the
+    // transaction that expands it along with the other domain.
+    createTld("bad");
+    persistResource(Registry.get("bad").asBuilder().setPremiumPricingEngine("fake").build());
+    DomainResource badDomain = persistActiveDomain("example.bad");
+    persistResource(
+        recurring
+            .asBuilder()
+            .setId(null)
+            .setParent(persistResource(new HistoryEntry.Builder().setParent(badDomain).build()))
+            .setTargetId(badDomain.getFullyQualifiedDomainName())
+            .build());
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    assertHistoryEntryMatches(
+        domain,
+        getOnlyHistoryEntryOfType(domain, DOMAIN_AUTORENEW),
+        "TheRegistrar",
+        DateTime.parse("2000-02-19T00:00:00Z"));
+    assertThat(getHistoryEntriesOfType(badDomain, DOMAIN_AUTORENEW)).isEmpty();
+    // The cursor isn't advanced, so the failed domain is tried again on the next run.
+    assertThat(ofy().load().key(Cursor.createGlobalKey(RECURRING_BILLING)).now()).isNull();
+  }
+
   @Test
   public void testSuccess_premiumDomain() throws Exception {
     persistResource(
@@ -105,6 +105,7 @@ public class RefreshDnsOnHostRenameActionTest
     inject.setStaticField(
         RefreshDnsOnHostRenameReducer.class, "asyncFlowMetrics", asyncFlowMetricsMock);
     action.clock = clock;
+    action.linkedDomainIndexEnabled = true;
     action.mrRunner = makeDefaultRunner();
     action.pullQueue = getQueue(QUEUE_ASYNC_HOST_RENAME);
     action.requestStatusChecker = requestStatusChecker;
@@ -158,6 +159,18 @@ public class RefreshDnsOnHostRenameActionTest
     verifyNoMoreInteractions(action.asyncFlowMetrics);
   }
 
+  @Test
+  public void testSuccess_linkedDomainIndexDisabled_dnsUpdateEnqueued() throws Exception {
+    action.linkedDomainIndexEnabled = false;
+    HostResource host = persistActiveHost("ns1.example.tld");
+    persistResource(newDomainResource("example.tld", host));
+    persistResource(newDomainResource("untouched.tld", persistActiveHost("ns2.example.tld")));
+    enqueuer.enqueueAsyncDnsRefresh(host, clock.nowUtc());
+    runMapreduce();
+    assertDnsTasksEnqueued("example.tld");
+    assertNoTasksEnqueued(QUEUE_ASYNC_HOST_RENAME);
+  }
+
   @Test
   public void testSuccess_multipleHostsProcessedInBatch() throws Exception {
     HostResource host1 = persistActiveHost("ns1.example.tld");
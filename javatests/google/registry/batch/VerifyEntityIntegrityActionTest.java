@@ -14,11 +14,15 @@
 
 package google.registry.batch;
 
+import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.common.Cursor.CursorType.ENTITY_INTEGRITY;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.deleteResource;
 import static google.registry.testing.DatastoreHelper.newContactResource;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.newHostResource;
 import static google.registry.testing.DatastoreHelper.persistActiveContact;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
@@ -41,14 +45,19 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.net.InetAddresses;
 import com.googlecode.objectify.Key;
 import google.registry.bigquery.BigqueryFactory;
 import google.registry.mapreduce.MapreduceRunner;
+import google.registry.model.common.Cursor;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.EppResourceIndexBucket;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.model.ofy.CommitLogManifest;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
 import google.registry.testing.FakeSleeper;
@@ -59,6 +68,7 @@ import java.util.Map;
 import java.util.Optional;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -93,6 +103,8 @@ public class VerifyEntityIntegrityActionTest
     action = new VerifyEntityIntegrityAction();
     action.mrRunner = new MapreduceRunner(Optional.of(2), Optional.of(2));
     action.response = new FakeResponse();
+    action.incremental = false;
+    action.commitLogDatastoreRetention = Duration.standardDays(30);
     BatchComponent component = mock(BatchComponent.class);
     inject.setStaticField(VerifyEntityIntegrityAction.class, "component", component);
     integrity =
@@ -186,6 +198,41 @@ public class VerifyEntityIntegrityActionTest
         Data.NULL_STRING, cooperKey, "Missing EPP resource index for EPP resource"));
   }
 
+  @Test
+  public void test_hostMissingFromInetAddressIndex() throws Exception {
+    HostResource host =
+        persistResource(
+            newHostResource("ns1.example.tld")
+                .asBuilder()
+                .setInetAddresses(ImmutableSet.of(InetAddresses.forString("192.0.2.1")))
+                .build());
+    Key<HostInetAddressIndex> indexKey =
+        getOnlyElement(HostInetAddressIndex.createKeysForHost(host));
+    deleteResource(ofy().load().key(indexKey).now());
+    runMapreduce();
+    assertIntegrityErrors(
+        IntegrityError.create(
+            indexKey, Key.create(host), "Missing host from host IP address index"));
+  }
+
+  @Test
+  public void test_inetAddressIndexPointsToHostWithoutThatAddress() throws Exception {
+    HostResource host = persistActiveHost("ns1.example.tld");
+    HostInetAddressIndex index =
+        persistSimpleResource(
+            HostInetAddressIndex.createWithSpecifiedKeys(
+                HostInetAddressIndex.createKey(
+                    InetAddresses.forString("192.0.2.1"),
+                    HostInetAddressIndex.getShard(Key.create(host))),
+                ImmutableSet.of(Key.create(host))));
+    runMapreduce();
+    assertIntegrityErrors(
+        IntegrityError.create(
+            Key.create(index),
+            Key.create(host),
+            "Host IP address index points to host that doesn't have that IP address"));
+  }
+
   @Test
   public void test_referencesToHostsThatDontExist() throws Exception {
     Key<HostResource> missingHost1 = Key.create(HostResource.class, "DEADBEEF-ROID");
@@ -272,6 +319,84 @@ public class VerifyEntityIntegrityActionTest
             "Foreign key index points to EppResource with different foreign key"));
   }
 
+  @Test
+  public void test_advancesCursor() throws Exception {
+    DateTime startTime = DateTime.now(UTC);
+    persistActiveDomain("ninetails.tld");
+    runMapreduce();
+    assertThat(loadCursorTime()).isAtLeast(startTime);
+  }
+
+  @Test
+  public void test_incremental_noCursor_verifiesAllEntities() throws Exception {
+    persistActiveDomain("ninetails.tld");
+    deleteResource(ForeignKeyIndex.load(DomainResource.class, "ninetails.tld", DateTime.now(UTC)));
+    action.incremental = true;
+    runMapreduce();
+    assertIntegrityErrors(IntegrityError.create(
+        "ninetails.tld", "DomainBase", "Missing foreign key index for EppResource"));
+  }
+
+  @Test
+  public void test_incremental_verifiesEntitiesWrittenSinceCursor() throws Exception {
+    DateTime startTime = DateTime.now(UTC);
+    persistResource(Cursor.createGlobal(ENTITY_INTEGRITY, startTime.minusHours(1)));
+    persistActiveDomain("ninetails.tld");
+    deleteResource(ForeignKeyIndex.load(DomainResource.class, "ninetails.tld", DateTime.now(UTC)));
+    Key<ContactResource> cooperKey = Key.create(persistActiveContact("cooper"));
+    deleteResource(EppResourceIndex.create(cooperKey));
+    action.incremental = true;
+    runMapreduce();
+    assertIntegrityErrors(
+        IntegrityError.create(
+            "ninetails.tld", "DomainBase", "Missing foreign key index for EppResource"),
+        IntegrityError.create(
+            Data.NULL_STRING, cooperKey, "Missing EPP resource index for EPP resource"));
+    assertThat(loadCursorTime()).isAtLeast(startTime);
+  }
+
+  @Test
+  public void test_incremental_findsIndexInBucketForFewerBuckets() throws Exception {
+    persistResource(Cursor.createGlobal(ENTITY_INTEGRITY, DateTime.now(UTC).minusHours(1)));
+    Key<ContactResource> cooperKey = Key.create(persistActiveContact("cooper"));
+    deleteResource(EppResourceIndex.create(cooperKey));
+    // The only bucket there is when there's one, as if written before the bucket count grew.
+    persistSimpleResource(
+        EppResourceIndex.create(EppResourceIndexBucket.getBucketKey(1), cooperKey));
+    action.incremental = true;
+    runMapreduce();
+    verifyZeroInteractions(bigquery);
+  }
+
+  @Test
+  public void test_incremental_skipsEntitiesWrittenBeforeCursor() throws Exception {
+    persistActiveDomain("ninetails.tld");
+    deleteResource(ForeignKeyIndex.load(DomainResource.class, "ninetails.tld", DateTime.now(UTC)));
+    DateTime cursorTime = DateTime.now(UTC).plusHours(1);
+    persistResource(Cursor.createGlobal(ENTITY_INTEGRITY, cursorTime));
+    action.incremental = true;
+    runMapreduce();
+    verifyZeroInteractions(bigquery);
+    assertThat(loadCursorTime()).isEqualTo(cursorTime);
+  }
+
+  @Test
+  public void test_incremental_cursorOlderThanCommitLogs_verifiesAllEntities() throws Exception {
+    persistActiveDomain("ninetails.tld");
+    deleteResource(ForeignKeyIndex.load(DomainResource.class, "ninetails.tld", DateTime.now(UTC)));
+    persistResource(Cursor.createGlobal(ENTITY_INTEGRITY, DateTime.now(UTC).minusDays(31)));
+    // Remove the commit logs, as the retention would have, so only a full scan finds the error.
+    ofy().deleteWithoutBackup().keys(ofy().load().type(CommitLogManifest.class).keys()).now();
+    action.incremental = true;
+    runMapreduce();
+    assertIntegrityErrors(IntegrityError.create(
+        "ninetails.tld", "DomainBase", "Missing foreign key index for EppResource"));
+  }
+
+  private DateTime loadCursorTime() {
+    return ofy().load().key(Cursor.createGlobalKey(ENTITY_INTEGRITY)).now().getCursorTime();
+  }
+
   /** Encapsulates the data representing a single integrity error. */
   private static class IntegrityError {
     String source;
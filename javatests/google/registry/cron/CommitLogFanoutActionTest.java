@@ -15,10 +15,16 @@
 package google.registry.cron;
 
 import static google.registry.cron.CommitLogFanoutAction.BUCKET_PARAM;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import google.registry.model.ofy.CommitLogBucket;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
 import google.registry.util.Retrier;
@@ -26,6 +32,7 @@ import google.registry.util.TaskQueueUtils;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import org.joda.time.DateTime;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -51,18 +58,39 @@ public class CommitLogFanoutActionTest {
           "</queue-entries>"))
       .build();
 
-  @Test
-  public void testSuccess() {
+  private CommitLogFanoutAction createAction() {
     CommitLogFanoutAction action = new CommitLogFanoutAction();
     action.taskQueueUtils = new TaskQueueUtils(new Retrier(null, 1));
     action.endpoint = ENDPOINT;
     action.queue = QUEUE;
     action.jitterSeconds = Optional.empty();
-    action.run();
+    return action;
+  }
+
+  private static void assertTasksEnqueuedForBuckets(Iterable<Integer> bucketIds) {
     List<TaskMatcher> matchers = new ArrayList<>();
-    for (int bucketId : CommitLogBucket.getBucketIds()) {
+    for (int bucketId : bucketIds) {
       matchers.add(new TaskMatcher().url(ENDPOINT).param(BUCKET_PARAM, Integer.toString(bucketId)));
     }
     assertTasksEnqueued(QUEUE, matchers);
   }
+
+  @Test
+  public void testSuccess() {
+    createAction().run();
+    assertTasksEnqueuedForBuckets(CommitLogBucket.getBucketIds());
+  }
+
+  @Test
+  public void testSuccess_checkpointCoversMoreBuckets_fansOutToThemToo() {
+    DateTime checkpointTime = DateTime.parse("2000-01-01TZ");
+    ofy().transact(() -> ofy().saveWithoutBackup().entities(
+        CommitLogCheckpoint.create(
+            checkpointTime,
+            ImmutableMap.of(
+                1, START_OF_TIME, 2, START_OF_TIME, 3, START_OF_TIME, 4, START_OF_TIME)),
+        CommitLogCheckpointRoot.create(checkpointTime)));
+    createAction().run();
+    assertTasksEnqueuedForBuckets(ImmutableList.of(1, 2, 3, 4));
+  }
 }
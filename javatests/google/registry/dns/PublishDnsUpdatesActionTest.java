@@ -22,6 +22,7 @@ import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.JUnitBackports.assertThrows;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -32,7 +33,10 @@ import com.google.common.collect.ImmutableSet;
 import google.registry.dns.DnsMetrics.ActionStatus;
 import google.registry.dns.DnsMetrics.CommitStatus;
 import google.registry.dns.DnsMetrics.PublishStatus;
+import google.registry.dns.writer.BatchAwareDnsWriter;
 import google.registry.dns.writer.DnsWriter;
+import google.registry.dns.writer.PartialCommitException;
+import google.registry.dns.writer.PrefetchedDnsEntities;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registry.Registry;
@@ -49,6 +53,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 /** Unit tests for {@link PublishDnsUpdatesAction}. */
 @RunWith(JUnit4.class)
@@ -202,6 +208,68 @@ public class PublishDnsUpdatesActionTest {
     verifyNoMoreInteractions(dnsQueue);
   }
 
+  @Test
+  public void testPublish_partialCommitFailure_requeuesFailedNames() {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c", "example2.xn--q9jyb4c");
+    action.hosts =
+        ImmutableSet.of(
+            "ns1.example.xn--q9jyb4c", "ns2.example.xn--q9jyb4c", "ns1.example2.xn--q9jyb4c");
+    doThrow(
+            new PartialCommitException(
+                "2 of 5 updates failed",
+                ImmutableSet.of("example2.xn--q9jyb4c"),
+                ImmutableSet.of("ns1.example2.xn--q9jyb4c"),
+                new RuntimeException()))
+        .when(dnsWriter)
+        .commit();
+
+    action.run();
+
+    verify(dnsMetrics).incrementPublishDomainRequests(2, PublishStatus.ACCEPTED);
+    verify(dnsMetrics).incrementPublishDomainRequests(0, PublishStatus.REJECTED);
+    verify(dnsMetrics).incrementPublishHostRequests(3, PublishStatus.ACCEPTED);
+    verify(dnsMetrics).incrementPublishHostRequests(0, PublishStatus.REJECTED);
+    verify(dnsMetrics).recordCommit("correctWriter", CommitStatus.FAILURE, Duration.ZERO, 2, 3);
+    verify(dnsMetrics)
+        .recordActionResult(
+            "correctWriter",
+            ActionStatus.PARTIAL_COMMIT_FAILURE,
+            5,
+            Duration.standardHours(2),
+            Duration.standardHours(1));
+    verifyNoMoreInteractions(dnsMetrics);
+    verify(dnsQueue).addDomainRefreshTask("example2.xn--q9jyb4c");
+    verify(dnsQueue).addHostRefreshTask("ns1.example2.xn--q9jyb4c");
+    verifyNoMoreInteractions(dnsQueue);
+  }
+
+  @Test
+  public void testBatchAwareWriter_receivesPrefetchedEntitiesBeforePublishing() {
+    BatchAwareDnsWriter batchAwareWriter = mock(BatchAwareDnsWriter.class);
+    action = createAction("xn--q9jyb4c");
+    action.dnsWriterProxy = new DnsWriterProxy(ImmutableMap.of("correctWriter", batchAwareWriter));
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c", "example.com");
+    action.hosts = ImmutableSet.of("ns1.example.xn--q9jyb4c");
+
+    action.run();
+
+    ArgumentCaptor<PrefetchedDnsEntities> prefetchCaptor =
+        ArgumentCaptor.forClass(PrefetchedDnsEntities.class);
+    InOrder inOrder = inOrder(batchAwareWriter);
+    inOrder.verify(batchAwareWriter).setPrefetchedEntities(prefetchCaptor.capture());
+    inOrder.verify(batchAwareWriter).publishDomain("example.xn--q9jyb4c");
+    inOrder.verify(batchAwareWriter).publishHost("ns1.example.xn--q9jyb4c");
+    inOrder.verify(batchAwareWriter).commit();
+    verifyNoMoreInteractions(batchAwareWriter);
+    PrefetchedDnsEntities prefetchedEntities = prefetchCaptor.getValue();
+    assertThat(prefetchedEntities.loadDomain("example.xn--q9jyb4c", clock.nowUtc())).isNotNull();
+    assertThat(
+            prefetchedEntities.loadNameserverHostNames(
+                prefetchedEntities.loadDomain("example.xn--q9jyb4c", clock.nowUtc())))
+        .isEmpty();
+  }
+
   @Test
   public void testHostAndDomain_published() {
     action = createAction("xn--q9jyb4c");
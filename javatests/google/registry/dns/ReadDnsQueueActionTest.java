@@ -43,6 +43,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import com.google.common.net.InternetDomainName;
 import google.registry.dns.DnsConstants.TargetType;
+import google.registry.model.dns.DnsPublishStats;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
 import google.registry.testing.AppEngineRule;
@@ -118,6 +119,7 @@ public class ReadDnsQueueActionTest {
   private void run() {
     ReadDnsQueueAction action = new ReadDnsQueueAction();
     action.tldUpdateBatchSize = TEST_TLD_UPDATE_BATCH_SIZE;
+    action.targetBatchDuration = Duration.standardSeconds(30);
     action.requestedMaximumDuration = Duration.standardSeconds(10);
     action.clock = clock;
     action.dnsQueue = dnsQueue;
@@ -223,6 +225,107 @@ public class ReadDnsQueueActionTest {
         .containsExactlyElementsIn(domains);
   }
 
+  private static ImmutableList<Integer> getQueuedBatchSizes(String dnsWriter) {
+    return getQueuedParams(DNS_PUBLISH_PUSH_QUEUE_NAME)
+        .stream()
+        .filter(params -> params.get("dnsWriter").contains(dnsWriter))
+        .map(params -> params.get("domains").stream().collect(onlyElement()))
+        .map(domains -> Splitter.on(',').splitToList(domains).size())
+        .sorted()
+        .collect(toImmutableList());
+  }
+
+  private void addDomainRefreshTasks(int count) {
+    IntStream.range(0, count)
+        .mapToObj(i -> String.format("domain%04d.com", i))
+        .forEach(dnsQueue::addDomainRefreshTask);
+  }
+
+  @Test
+  public void testSuccess_slowWriter_smallerBatches() {
+    persistResource(
+        Registry.get("com")
+            .asBuilder()
+            .setDnsWriters(ImmutableSet.of("comWriter", "otherWriter"))
+            .build());
+    // At one second per name, a 30 second batch fits 30 names.
+    DnsPublishStats.recordBatch(
+        "com", "comWriter", 1, 10, 0, Duration.standardSeconds(10), clock.nowUtc());
+    addDomainRefreshTasks(100);
+
+    run();
+
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    assertThat(getQueuedBatchSizes("comWriter")).containsExactly(10, 30, 30, 30).inOrder();
+    // The other writer has no stats yet, so it gets the default batch size.
+    assertThat(getQueuedBatchSizes("otherWriter")).containsExactly(100);
+  }
+
+  @Test
+  public void testSuccess_failingWriter_smallerBatches() {
+    DnsPublishStats.recordBatch(
+        "com", "comWriter", 1, 10, 5, Duration.millis(10), clock.nowUtc());
+    addDomainRefreshTasks(100);
+
+    run();
+
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    assertThat(getQueuedBatchSizes("comWriter")).containsExactly(50, 50);
+  }
+
+  @Test
+  public void testSuccess_verySlowWriter_minimumBatchSize() {
+    DnsPublishStats.recordBatch(
+        "com", "comWriter", 1, 1, 0, Duration.standardMinutes(5), clock.nowUtc());
+    addDomainRefreshTasks(25);
+
+    run();
+
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    assertThat(getQueuedBatchSizes("comWriter")).containsExactly(5, 10, 10).inOrder();
+  }
+
+  @Test
+  public void testSuccess_staleStats_ignored() {
+    DnsPublishStats.recordBatch(
+        "com", "comWriter", 1, 10, 0, Duration.standardSeconds(10), clock.nowUtc());
+    clock.advanceBy(Duration.standardDays(1));
+    addDomainRefreshTasks(100);
+
+    run();
+
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    assertThat(getQueuedBatchSizes("comWriter")).containsExactly(100);
+  }
+
+  @Test
+  public void testSuccess_repeatedRefreshes_publishedOnceWithEarliestTime() {
+    clock.setTo(DateTime.parse("3000-02-03TZ"));
+    dnsQueue.addDomainRefreshTask("domain.com");
+    dnsQueue.addHostRefreshTask("ns1.domain.com");
+    clock.setTo(DateTime.parse("3000-02-04TZ"));
+    dnsQueue.addDomainRefreshTask("domain.com");
+    dnsQueue.addDomainRefreshTask("other.com");
+    clock.setTo(DateTime.parse("3000-02-05TZ"));
+    dnsQueue.addDomainRefreshTask("domain.com");
+    dnsQueue.addHostRefreshTask("ns1.domain.com");
+
+    run();
+
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    assertThat(getQueuedParams(DNS_PUBLISH_PUSH_QUEUE_NAME)).hasSize(1);
+    assertThat(getQueuedParams(DNS_PUBLISH_PUSH_QUEUE_NAME).get(0))
+        .containsExactly(
+            "enqueued", "3000-02-05T01:00:00.000Z",
+            "itemsCreated", "3000-02-03T00:00:00.000Z",
+            "tld", "com",
+            "dnsWriter", "comWriter",
+            "domains", "domain.com,other.com",
+            "hosts", "ns1.domain.com",
+            "lockIndex", "1",
+            "numPublishLocks", "1");
+  }
+
   @Test
   public void testSuccess_twoDnsWriters() {
     persistResource(
@@ -0,0 +1,135 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistDeletedDomain;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.ofy.Ofy;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PrefetchedDnsEntities}. */
+@RunWith(JUnit4.class)
+public class PrefetchedDnsEntitiesTest {
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+  @Rule public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2010-01-01TZ"));
+
+  @Before
+  public void setUp() {
+    inject.setStaticField(Ofy.class, "clock", clock);
+    createTld("tld");
+    HostResource host1 = persistActiveHost("ns1.example.net");
+    HostResource host2 = persistActiveHost("ns2.example.net");
+    persistResource(
+        persistActiveDomain("example.tld")
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(host1), Key.create(host2)))
+            .build());
+    persistDeletedDomain("deleted.tld", clock.nowUtc().minusDays(1));
+    clock.advanceOneMilli();
+  }
+
+  private PrefetchedDnsEntities prefetchDomain(String domainName) {
+    return PrefetchedDnsEntities.load(
+        ImmutableSet.of(domainName), ImmutableSet.of(), clock.nowUtc());
+  }
+
+  /** Deletes everything from Datastore, to show that later reads are served from the prefetch. */
+  private void deleteAllEntities() {
+    ImmutableList<Key<?>> keys =
+        new ImmutableList.Builder<Key<?>>()
+            .addAll(ofy().load().type(DomainResource.class).keys())
+            .addAll(ofy().load().type(HostResource.class).keys())
+            .build();
+    ofy().transact(() -> ofy().deleteWithoutBackup().keys(keys));
+    ofy().clearSessionCache();
+  }
+
+  @Test
+  public void testLoadDomain_usesPrefetchedDomain() {
+    PrefetchedDnsEntities prefetched = prefetchDomain("example.tld");
+    deleteAllEntities();
+
+    DomainResource loaded = prefetched.loadDomain("example.tld", clock.nowUtc());
+    assertThat(loaded).isNotNull();
+    assertThat(loaded.getFullyQualifiedDomainName()).isEqualTo("example.tld");
+    assertThat(prefetched.loadNameserverHostNames(loaded))
+        .containsExactly("ns1.example.net", "ns2.example.net")
+        .inOrder();
+  }
+
+  @Test
+  public void testLoadDomain_prefetchesSuperordinateDomainOfHost() {
+    PrefetchedDnsEntities prefetched =
+        PrefetchedDnsEntities.load(
+            ImmutableSet.of(), ImmutableSet.of("ns1.example.tld"), clock.nowUtc());
+    deleteAllEntities();
+
+    assertThat(prefetched.loadDomain("example.tld", clock.nowUtc())).isNotNull();
+  }
+
+  @Test
+  public void testLoadDomain_deletedOrMissingDomain_returnsNull() {
+    PrefetchedDnsEntities prefetched =
+        PrefetchedDnsEntities.load(
+            ImmutableSet.of("deleted.tld", "missing.tld"), ImmutableSet.of(), clock.nowUtc());
+
+    assertThat(prefetched.loadDomain("deleted.tld", clock.nowUtc())).isNull();
+    assertThat(prefetched.loadDomain("missing.tld", clock.nowUtc())).isNull();
+  }
+
+  @Test
+  public void testLoadHost_usesPrefetchedNameserver() {
+    PrefetchedDnsEntities prefetched = prefetchDomain("example.tld");
+    deleteAllEntities();
+
+    HostResource host = prefetched.loadHost("ns1.example.net", clock.nowUtc());
+    assertThat(host).isNotNull();
+    assertThat(host.getFullyQualifiedHostName()).isEqualTo("ns1.example.net");
+  }
+
+  @Test
+  public void testEmpty_loadsOnDemand() {
+    PrefetchedDnsEntities empty = PrefetchedDnsEntities.empty();
+
+    DomainResource loaded = empty.loadDomain("example.tld", clock.nowUtc());
+    assertThat(loaded).isNotNull();
+    assertThat(empty.loadNameserverHostNames(loaded))
+        .containsExactly("ns1.example.net", "ns2.example.net");
+    assertThat(empty.loadHost("ns2.example.net", clock.nowUtc())).isNotNull();
+    assertThat(empty.loadDomain("deleted.tld", clock.nowUtc())).isNull();
+  }
+}
@@ -15,12 +15,16 @@
 package google.registry.dns.writer.clouddns;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
 import static google.registry.testing.DatastoreHelper.newHostResource;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.JUnitBackports.assertThrows;
+import static java.util.Collections.synchronizedList;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -33,12 +37,15 @@ import com.google.api.services.dns.Dns;
 import com.google.api.services.dns.model.Change;
 import com.google.api.services.dns.model.ResourceRecordSet;
 import com.google.api.services.dns.model.ResourceRecordSetsListResponse;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 import com.google.common.net.InetAddresses;
 import com.google.common.util.concurrent.RateLimiter;
 import com.googlecode.objectify.Key;
+import google.registry.dns.writer.PartialCommitException;
 import google.registry.dns.writer.clouddns.CloudDnsWriter.ZoneStateException;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
@@ -53,6 +60,10 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
@@ -80,12 +91,16 @@ public class CloudDnsWriterTest {
   @Mock private Dns dnsConnection;
   @Mock private Dns.ResourceRecordSets resourceRecordSets;
   @Mock private Dns.Changes changes;
-  @Mock private Dns.Changes.Create createChangeRequest;
   @Captor ArgumentCaptor<String> zoneNameCaptor;
-  @Captor ArgumentCaptor<Change> changeCaptor;
 
   private CloudDnsWriter writer;
-  private ImmutableSet<ResourceRecordSet> stubZone;
+  private volatile ImmutableSet<ResourceRecordSet> stubZone;
+  private final Multiset<String> namesRead = ConcurrentHashMultiset.create();
+  private final List<Change> createdChanges = synchronizedList(new ArrayList<>());
+  /** Changes that add records for any of these names fail, as if the API rejected them. */
+  private final Set<String> failingNames = new HashSet<>();
+  /** Changes that add records for any of these names conflict once, and then succeed. */
+  private final Set<String> conflictingNames = new HashSet<>();
 
   /*
    * Because of multi-threading in the CloudDnsWriter, we need to return a different instance of
@@ -97,7 +112,11 @@ public class CloudDnsWriterTest {
         mock(Dns.ResourceRecordSets.List.class);
     ArgumentCaptor<String> recordNameCaptor = ArgumentCaptor.forClass(String.class);
     when(listResourceRecordSetsRequest.setName(recordNameCaptor.capture()))
-        .thenReturn(listResourceRecordSetsRequest);
+        .thenAnswer(
+            invocationOnMock -> {
+              namesRead.add((String) invocationOnMock.getArguments()[0]);
+              return listResourceRecordSetsRequest;
+            });
     // Return records from our stub zone when a request to list the records is executed
     when(listResourceRecordSetsRequest.execute())
         .thenAnswer(
@@ -116,18 +135,7 @@ public class CloudDnsWriterTest {
   @Before
   public void setUp() throws Exception {
     createTld("tld");
-    writer =
-        new CloudDnsWriter(
-            dnsConnection,
-            "projectId",
-            "triple.secret.tld", // used by testInvalidZoneNames()
-            DEFAULT_A_TTL,
-            DEFAULT_NS_TTL,
-            DEFAULT_DS_TTL,
-            RateLimiter.create(20),
-            10, // max num threads
-            new SystemClock(),
-            new Retrier(new SystemSleeper(), 5));
+    writer = createWriter(100);
 
     // Create an empty zone.
     stubZone = ImmutableSet.of();
@@ -136,27 +144,60 @@ public class CloudDnsWriterTest {
     when(dnsConnection.resourceRecordSets()).thenReturn(resourceRecordSets);
     when(resourceRecordSets.list(anyString(), anyString()))
         .thenAnswer(invocationOnMock -> newListResourceRecordSetsRequestMock());
-    when(changes.create(anyString(), zoneNameCaptor.capture(), changeCaptor.capture()))
-        .thenReturn(createChangeRequest);
+    when(changes.create(anyString(), zoneNameCaptor.capture(), Matchers.any(Change.class)))
+        .thenAnswer(
+            invocationOnMock ->
+                newCreateChangeRequestMock((Change) invocationOnMock.getArguments()[2]));
+  }
+
+  /*
+   * Changes of one commit are applied concurrently, so like the List requests above, every Create
+   * request gets its own mock, and the stub zone is changed by one request at a time.
+   */
+  private Dns.Changes.Create newCreateChangeRequestMock(Change requestedChange) throws Exception {
+    Dns.Changes.Create createChangeRequest = mock(Dns.Changes.Create.class);
     // Change our stub zone when a request to change the records is executed
     when(createChangeRequest.execute())
-        .thenAnswer(
-            invocationOnMock -> {
-              Change requestedChange = changeCaptor.getValue();
-              ImmutableSet<ResourceRecordSet> toDelete =
-                  ImmutableSet.copyOf(requestedChange.getDeletions());
-              ImmutableSet<ResourceRecordSet> toAdd =
-                  ImmutableSet.copyOf(requestedChange.getAdditions());
-              // Fail if the records to delete has records that aren't in the stub zone.
-              // This matches documented Google Cloud DNS behavior.
-              if (!Sets.difference(toDelete, stubZone).isEmpty()) {
-                throw new IOException();
-              }
-              stubZone =
-                  Sets.union(Sets.difference(stubZone, toDelete).immutableCopy(), toAdd)
-                      .immutableCopy();
-              return requestedChange;
-            });
+        .thenAnswer(invocationOnMock -> applyChange(requestedChange));
+    return createChangeRequest;
+  }
+
+  private synchronized Change applyChange(Change requestedChange) throws IOException {
+    createdChanges.add(requestedChange);
+    ImmutableSet<ResourceRecordSet> toDelete = ImmutableSet.copyOf(requestedChange.getDeletions());
+    ImmutableSet<ResourceRecordSet> toAdd = ImmutableSet.copyOf(requestedChange.getAdditions());
+    ImmutableSet<String> namesToAdd =
+        toAdd.stream().map(ResourceRecordSet::getName).collect(toImmutableSet());
+    if (!Sets.intersection(namesToAdd, failingNames).isEmpty()) {
+      throw new IOException();
+    }
+    if (!Sets.intersection(namesToAdd, conflictingNames).isEmpty()) {
+      conflictingNames.removeAll(namesToAdd);
+      throw new ZoneStateException("preconditionFailed");
+    }
+    // Fail if the records to delete has records that aren't in the stub zone.
+    // This matches documented Google Cloud DNS behavior.
+    if (!Sets.difference(toDelete, stubZone).isEmpty()) {
+      throw new IOException();
+    }
+    stubZone =
+        Sets.union(Sets.difference(stubZone, toDelete).immutableCopy(), toAdd).immutableCopy();
+    return requestedChange;
+  }
+
+  private CloudDnsWriter createWriter(int maxRecordSetsPerChange) {
+    return new CloudDnsWriter(
+        dnsConnection,
+        "projectId",
+        "triple.secret.tld", // used by testInvalidZoneNames()
+        DEFAULT_A_TTL,
+        DEFAULT_NS_TTL,
+        DEFAULT_DS_TTL,
+        RateLimiter.create(20),
+        10, // max num threads
+        maxRecordSetsPerChange,
+        new SystemClock(),
+        new Retrier(new SystemSleeper(), 5));
   }
 
   private void verifyZone(ImmutableSet<ResourceRecordSet> expectedRecords) {
@@ -428,10 +469,14 @@ public class CloudDnsWriterTest {
   public void retryMutateZoneOnError() {
     CloudDnsWriter spyWriter = spy(writer);
     // First call - throw. Second call - do nothing.
-    doThrow(ZoneStateException.class).doNothing().when(spyWriter).mutateZone(Matchers.any());
+    doThrow(ZoneStateException.class)
+        .doNothing()
+        .when(spyWriter)
+        .mutateZone(Matchers.any(), anyInt());
+    spyWriter.publishDomain("example.tld");
     spyWriter.commit();
 
-    verify(spyWriter, times(2)).mutateZone(Matchers.any());
+    verify(spyWriter, times(2)).mutateZone(Matchers.any(), anyInt());
   }
 
   @Test
@@ -518,4 +563,108 @@ public class CloudDnsWriterTest {
     writer.commit();
     verify(dnsConnection, times(0)).changes();
   }
+
+  /** Persists a domain with an external nameserver, and returns its expected records. */
+  private static ImmutableSet<ResourceRecordSet> persistDomainWithExternalNs(String domainName) {
+    persistResource(
+        fakeDomain(domainName, ImmutableSet.of(persistResource(fakeHost("0.external"))), 0));
+    return fakeDomainRecords(domainName, 0, 0, 1, 0);
+  }
+
+  @Test
+  public void testLargeCommit_splitIntoChanges() {
+    // Two names per change.
+    writer = createWriter(4);
+    ImmutableSet.Builder<ResourceRecordSet> expectedRecords = new ImmutableSet.Builder<>();
+    for (String domainName : ImmutableList.of("a.tld", "b.tld", "c.tld")) {
+      expectedRecords.addAll(persistDomainWithExternalNs(domainName));
+      writer.publishDomain(domainName);
+    }
+
+    verifyZone(expectedRecords.build());
+    verify(changes, times(2)).create(anyString(), anyString(), Matchers.any(Change.class));
+  }
+
+  @Test
+  public void testLargeCommit_keepsGlueWithItsDomain() {
+    // One name per change.
+    writer = createWriter(2);
+    persistResource(
+        fakeDomain(
+                "example.tld",
+                ImmutableSet.of(persistResource(fakeHost("0.ip4.example.tld", IPv4))),
+                0)
+            .asBuilder()
+            .addSubordinateHost("0.ip4.example.tld")
+            .build());
+    writer.publishDomain("example.tld");
+    ImmutableSet<ResourceRecordSet> otherRecords = persistDomainWithExternalNs("other.tld");
+    writer.publishDomain("other.tld");
+
+    verifyZone(
+        Sets.union(fakeDomainRecords("example.tld", 1, 0, 0, 0), otherRecords).immutableCopy());
+    // The domain and its glue host don't fit in one change, but are never split up.
+    assertThat(
+            createdChanges
+                .stream()
+                .map(
+                    change ->
+                        change
+                            .getAdditions()
+                            .stream()
+                            .map(ResourceRecordSet::getName)
+                            .collect(toImmutableSet()))
+                .collect(toImmutableList()))
+        .containsExactly(
+            ImmutableSet.of("example.tld.", "0.ip4.example.tld."),
+            ImmutableSet.of("other.tld."));
+  }
+
+  @Test
+  public void testConflict_onlyRereadsAffectedChange() {
+    writer = createWriter(2);
+    ImmutableSet.Builder<ResourceRecordSet> expectedRecords = new ImmutableSet.Builder<>();
+    for (String domainName : ImmutableList.of("a.tld", "b.tld", "c.tld")) {
+      expectedRecords.addAll(persistDomainWithExternalNs(domainName));
+      writer.publishDomain(domainName);
+    }
+    conflictingNames.add("b.tld.");
+
+    verifyZone(expectedRecords.build());
+    assertThat(namesRead.count("a.tld.")).isEqualTo(1);
+    assertThat(namesRead.count("b.tld.")).isEqualTo(2);
+    assertThat(namesRead.count("c.tld.")).isEqualTo(1);
+  }
+
+  @Test
+  public void testPartialFailure_throwsWithFailedDomains() {
+    writer = createWriter(2);
+    ImmutableSet<ResourceRecordSet> expectedRecords =
+        Sets.union(persistDomainWithExternalNs("a.tld"), persistDomainWithExternalNs("c.tld"))
+            .immutableCopy();
+    persistDomainWithExternalNs("b.tld");
+    for (String domainName : ImmutableList.of("a.tld", "b.tld", "c.tld")) {
+      writer.publishDomain(domainName);
+    }
+    failingNames.add("b.tld.");
+
+    PartialCommitException thrown = assertThrows(PartialCommitException.class, writer::commit);
+    assertThat(thrown.getFailedDomains()).containsExactly("b.tld");
+    assertThat(thrown.getFailedHosts()).isEmpty();
+    assertThat(stubZone).containsExactlyElementsIn(expectedRecords);
+  }
+
+  @Test
+  public void testFailure_allChangesFail_rethrown() {
+    writer = createWriter(2);
+    for (String domainName : ImmutableList.of("a.tld", "b.tld")) {
+      persistDomainWithExternalNs(domainName);
+      writer.publishDomain(domainName);
+      failingNames.add(domainName + ".");
+    }
+
+    RuntimeException thrown = assertThrows(RuntimeException.class, writer::commit);
+    assertThat(thrown).isNotInstanceOf(PartialCommitException.class);
+    assertThat(stubZone).isEmpty();
+  }
 }
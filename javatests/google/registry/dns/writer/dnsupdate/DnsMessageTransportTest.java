@@ -17,20 +17,35 @@ package google.registry.dns.writer.dnsupdate;
 import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.JUnitBackports.assertThrows;
+import static google.registry.dns.writer.dnsupdate.DnsMessageTransport.DNS_PORT;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Bytes;
+import google.registry.testing.FakeClock;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.net.SocketFactory;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -56,10 +71,12 @@ public class DnsMessageTransportTest {
 
   private final SocketFactory mockFactory = mock(SocketFactory.class);
   private final Socket mockSocket = mock(Socket.class);
+  private final FakeClock clock = new FakeClock();
 
   private Message simpleQuery;
   private Message expectedResponse;
   private DnsMessageTransport resolver;
+
   @Before
   public void before() throws Exception {
     simpleQuery =
@@ -67,7 +84,7 @@ public class DnsMessageTransportTest {
     expectedResponse = responseMessageWithCode(simpleQuery, Rcode.NOERROR);
     when(mockFactory.createSocket(InetAddress.getByName(UPDATE_HOST), DnsMessageTransport.DNS_PORT))
         .thenReturn(mockSocket);
-    resolver = new DnsMessageTransport(mockFactory, UPDATE_HOST, Duration.ZERO);
+    resolver = new DnsMessageTransport(mockFactory, UPDATE_HOST, Duration.ZERO, clock);
   }
 
   @Test
@@ -119,7 +136,8 @@ public class DnsMessageTransportTest {
     when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
 
     Duration testTimeout = Duration.standardSeconds(1);
-    DnsMessageTransport resolver = new DnsMessageTransport(mockFactory, UPDATE_HOST, testTimeout);
+    DnsMessageTransport resolver =
+        new DnsMessageTransport(mockFactory, UPDATE_HOST, testTimeout, clock);
     Message expectedQuery = new Message();
     assertThrows(SocketTimeoutException.class, () -> resolver.send(expectedQuery));
     verify(mockSocket).setSoTimeout((int) testTimeout.getMillis());
@@ -171,7 +189,172 @@ public class DnsMessageTransportTest {
         .contains("response opcode 'STATUS' does not match query opcode 'QUERY'");
   }
 
-  private Message responseMessageWithCode(Message query, int responseCode) {
+  @Test
+  public void testSend_reusesConnection() throws Exception {
+    when(mockSocket.getInputStream())
+        .thenReturn(
+            new ByteArrayInputStream(
+                Bytes.concat(
+                    messageToBytesWithLength(expectedResponse),
+                    messageToBytesWithLength(expectedResponse))));
+    when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+    resolver.send(simpleQuery);
+    resolver.send(simpleQuery);
+
+    verify(mockFactory).createSocket(InetAddress.getByName(UPDATE_HOST), DNS_PORT);
+    verify(mockSocket, never()).close();
+    resolver.close();
+    verify(mockSocket).close();
+  }
+
+  @Test
+  public void testSendAll_pipelinesMessagesAndMatchesResponsesById() throws Exception {
+    try (FakeDnsServer server = new FakeDnsServer(3, false)) {
+      DnsMessageTransport transport = createLocalTransport(server);
+      ImmutableList<Message> queries = makeQueries(3);
+
+      ImmutableList<Message> responses = transport.sendAll(queries);
+      ImmutableList<Message> moreResponses = transport.sendAll(queries);
+      transport.close();
+
+      assertThat(getIds(responses)).containsExactlyElementsIn(getIds(queries)).inOrder();
+      assertThat(getIds(moreResponses)).containsExactlyElementsIn(getIds(queries)).inOrder();
+      assertThat(server.connectionCount.get()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testSendAll_duplicateIds_waitsForFirstResponse() throws Exception {
+    try (FakeDnsServer server = new FakeDnsServer(1, false)) {
+      DnsMessageTransport transport = createLocalTransport(server);
+      ImmutableList<Message> queries = makeQueries(2);
+      queries.get(1).getHeader().setID(queries.get(0).getHeader().getID());
+
+      ImmutableList<Message> responses = transport.sendAll(queries);
+      transport.close();
+
+      assertThat(getIds(responses)).containsExactlyElementsIn(getIds(queries)).inOrder();
+    }
+  }
+
+  @Test
+  public void testSendAll_reconnectsWhenServerClosedConnection() throws Exception {
+    try (FakeDnsServer server = new FakeDnsServer(2, true)) {
+      DnsMessageTransport transport = createLocalTransport(server);
+      ImmutableList<Message> queries = makeQueries(2);
+
+      transport.sendAll(queries);
+      ImmutableList<Message> responses = transport.sendAll(queries);
+      transport.close();
+
+      assertThat(getIds(responses)).containsExactlyElementsIn(getIds(queries)).inOrder();
+      assertThat(server.connectionCount.get()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void testSendAll_failureOnNewConnection_closesConnection() throws Exception {
+    byte[] messageBytes = messageToBytesWithLength(expectedResponse);
+    when(mockSocket.getInputStream())
+        .thenReturn(new ByteArrayInputStream(Arrays.copyOf(messageBytes, 1)));
+    when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+    assertThrows(EOFException.class, () -> resolver.sendAll(ImmutableList.of(simpleQuery)));
+    verify(mockSocket).close();
+  }
+
+  private DnsMessageTransport createLocalTransport(FakeDnsServer server) {
+    return new DnsMessageTransport(
+        SocketFactory.getDefault(),
+        UPDATE_HOST,
+        server.getPort(),
+        Duration.standardSeconds(10),
+        clock);
+  }
+
+  private static ImmutableList<Message> makeQueries(int count) throws Exception {
+    ImmutableList.Builder<Message> queries = new ImmutableList.Builder<>();
+    for (int i = 0; i < count; i++) {
+      Message query =
+          Message.newQuery(
+              Record.newRecord(Name.fromString("example" + i + ".com."), Type.A, DClass.IN));
+      query.getHeader().setID(1000 + i);
+      queries.add(query);
+    }
+    return queries.build();
+  }
+
+  private static ImmutableList<Integer> getIds(List<Message> messages) {
+    ImmutableList.Builder<Integer> ids = new ImmutableList.Builder<>();
+    for (Message message : messages) {
+      ids.add(message.getHeader().getID());
+    }
+    return ids.build();
+  }
+
+  /**
+   * An in-process stand-in for a DNS server, which answers each batch of a fixed number of queries
+   * in reverse order.
+   */
+  private static final class FakeDnsServer implements Closeable {
+
+    final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final ServerSocket serverSocket;
+    private final int batchSize;
+    private final boolean closeAfterBatch;
+
+    FakeDnsServer(int batchSize, boolean closeAfterBatch) throws IOException {
+      this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName(UPDATE_HOST));
+      this.batchSize = batchSize;
+      this.closeAfterBatch = closeAfterBatch;
+      Thread thread = new Thread(this::serve);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    private void serve() {
+      try {
+        while (true) {
+          try (Socket connection = serverSocket.accept()) {
+            connectionCount.incrementAndGet();
+            DataInputStream input = new DataInputStream(connection.getInputStream());
+            DataOutputStream output =
+                new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            do {
+              List<Message> batch = new ArrayList<>();
+              for (int i = 0; i < batchSize; i++) {
+                byte[] messageData = new byte[input.readUnsignedShort()];
+                input.readFully(messageData);
+                batch.add(new Message(messageData));
+              }
+              for (Message query : Lists.reverse(batch)) {
+                output.write(
+                    messageToBytesWithLength(responseMessageWithCode(query, Rcode.NOERROR)));
+              }
+              output.flush();
+            } while (!closeAfterBatch);
+          } catch (EOFException e) {
+            // The client closed the connection.
+          }
+        }
+      } catch (IOException e) {
+        // The server socket was closed.
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+
+  private static Message responseMessageWithCode(Message query, int responseCode) {
     Message message = new Message(query.getHeader().getID());
     message.getHeader().setOpcode(query.getHeader().getOpcode());
     message.getHeader().setFlag(Flags.QR);
@@ -179,7 +362,7 @@ public class DnsMessageTransportTest {
     return message;
   }
 
-  private byte[] messageToBytesWithLength(Message message) {
+  private static byte[] messageToBytesWithLength(Message message) {
     byte[] bytes = message.toWire();
     ByteBuffer buffer =
         ByteBuffer.allocate(bytes.length + DnsMessageTransport.MESSAGE_LENGTH_FIELD_BYTES);
@@ -14,6 +14,7 @@
 
 package google.registry.dns.writer.dnsupdate;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assert_;
@@ -28,6 +29,9 @@ import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.JUnitBackports.assertThrows;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -37,6 +41,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InetAddresses;
 import com.googlecode.objectify.Key;
+import google.registry.dns.writer.PartialCommitException;
+import google.registry.dns.writer.PrefetchedDnsEntities;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.eppcommon.StatusValue;
@@ -49,6 +55,7 @@ import google.registry.testing.MockitoJUnitRule;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -95,7 +102,7 @@ public class DnsUpdateWriterTest {
     when(mockResolver.send(any(Update.class))).thenReturn(messageWithResponseCode(Rcode.NOERROR));
 
     writer = new DnsUpdateWriter(
-        "tld", Duration.ZERO, Duration.ZERO, Duration.ZERO, mockResolver, clock);
+        "tld", Duration.ZERO, Duration.ZERO, Duration.ZERO, mockResolver, 1, clock);
   }
 
   @Test
@@ -120,6 +127,38 @@ public class DnsUpdateWriterTest {
     assertThatTotalUpdateSetsIs(update, 2); // The delete and NS sets
   }
 
+  @Test
+  public void testPublishDomain_withPrefetchedEntities_publishesNameServers() throws Exception {
+    HostResource host = persistActiveHost("ns1.example.tld");
+    persistResource(
+        persistActiveDomain("example.tld")
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(host)))
+            .build());
+
+    writer.setPrefetchedEntities(
+        PrefetchedDnsEntities.load(
+            ImmutableSet.of("example.tld"), ImmutableSet.of(), clock.nowUtc()));
+    writer.publishDomain("example.tld");
+    writer.commit();
+
+    verify(mockResolver).send(updateCaptor.capture());
+    Update update = updateCaptor.getValue();
+    assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
+    assertThatUpdateAdds(update, "example.tld.", Type.NS, "ns1.example.tld.");
+  }
+
+  @Test
+  public void testCommit_closesTransport() throws Exception {
+    persistActiveDomain("example.tld");
+
+    writer.publishDomain("example.tld");
+    writer.commit();
+
+    verify(mockResolver).send(any(Update.class));
+    verify(mockResolver).close();
+  }
+
   @Test
   public void testPublishAtomic_noCommit() {
     HostResource host1 = persistActiveHost("ns.example1.tld");
@@ -414,6 +453,84 @@ public class DnsUpdateWriterTest {
     assertThat(thrown).hasMessageThat().contains("SERVFAIL");
   }
 
+  @Test
+  public void testCommit_splitsLargeBatchIntoMessagesWithinMaximumSize() throws Exception {
+    ImmutableList<String> domainNames = persistDomainsWithManyNameservers(200);
+    domainNames.forEach(writer::publishDomain);
+    writer.commit();
+
+    verify(mockResolver, atLeast(2)).send(updateCaptor.capture());
+    ImmutableSet.Builder<String> publishedNames = new ImmutableSet.Builder<>();
+    for (Update update : updateCaptor.getAllValues()) {
+      assertThat(update.toWire().length).isAtMost(65535);
+      assertThatUpdatedZoneIs(update, "tld.");
+      for (Record record : update.getSectionArray(Section.UPDATE)) {
+        if (record.getType() == Type.ANY) {
+          publishedNames.add(record.getName().toString());
+        }
+      }
+    }
+    assertThat(publishedNames.build())
+        .containsExactlyElementsIn(
+            domainNames.stream().map(name -> name + ".").collect(toImmutableList()));
+  }
+
+  @Test
+  public void testCommit_concurrentMessages_sentTogether() throws Exception {
+    writer =
+        new DnsUpdateWriter(
+            "tld", Duration.ZERO, Duration.ZERO, Duration.ZERO, mockResolver, 4, clock);
+    when(mockResolver.sendAll(anyListOf(Message.class)))
+        .thenAnswer(
+            invocation ->
+                ((List<?>) invocation.getArguments()[0])
+                    .stream()
+                    .map(query -> messageWithResponseCode(Rcode.NOERROR))
+                    .collect(toImmutableList()));
+    persistDomainsWithManyNameservers(200).forEach(writer::publishDomain);
+    writer.commit();
+
+    verify(mockResolver).sendAll(anyListOf(Message.class));
+    verify(mockResolver, never()).send(any(Message.class));
+  }
+
+  @Test
+  public void testCommit_someMessagesFail_throwsPartialCommitException() throws Exception {
+    ImmutableList<String> domainNames = persistDomainsWithManyNameservers(200);
+    when(mockResolver.send(any(Update.class)))
+        .thenReturn(messageWithResponseCode(Rcode.NOERROR))
+        .thenReturn(messageWithResponseCode(Rcode.SERVFAIL));
+    domainNames.forEach(writer::publishDomain);
+
+    PartialCommitException thrown = assertThrows(PartialCommitException.class, writer::commit);
+
+    assertThat(thrown.getFailedHosts()).isEmpty();
+    assertThat(thrown.getFailedDomains()).isNotEmpty();
+    assertThat(domainNames).containsAllIn(thrown.getFailedDomains());
+    assertThat(thrown.getFailedDomains()).doesNotContain(domainNames.get(0));
+    assertThat(thrown).hasCauseThat().hasMessageThat().contains("SERVFAIL");
+  }
+
+  /** Persists domains with enough nameservers that their updates can't all fit in one message. */
+  private ImmutableList<String> persistDomainsWithManyNameservers(int numDomains) {
+    ImmutableSet.Builder<Key<HostResource>> nameservers = new ImmutableSet.Builder<>();
+    for (int i = 0; i < 10; i++) {
+      nameservers.add(
+          Key.create(persistActiveHost(String.format("ns%d.a-rather-long-external-name.net", i))));
+    }
+    ImmutableList.Builder<String> domainNames = new ImmutableList.Builder<>();
+    for (int i = 0; i < numDomains; i++) {
+      String domainName = String.format("example-domain-%d.tld", i);
+      persistResource(
+          persistActiveDomain(domainName)
+              .asBuilder()
+              .setNameservers(nameservers.build())
+              .build());
+      domainNames.add(domainName);
+    }
+    return domainNames.build();
+  }
+
   private void assertThatUpdatedZoneIs(Update update, String zoneName) {
     Record[] zoneRecords = update.getSectionArray(Section.ZONE);
     assertThat(zoneRecords[0].getName().toString()).isEqualTo(zoneName);
@@ -16,6 +16,7 @@ package google.registry.export;
 
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.export.ExportDomainListsAction.EXPORT_TIME_METADATA_KEY;
 import static google.registry.export.ExportDomainListsAction.ExportDomainListsReducer.EXPORT_MIME_TYPE;
 import static google.registry.export.ExportDomainListsAction.ExportDomainListsReducer.REGISTERED_DOMAINS_FILENAME;
 import static google.registry.testing.DatastoreHelper.createTld;
@@ -26,6 +27,7 @@ import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.GcsTestingUtils.readGcsFile;
 import static google.registry.testing.JUnitBackports.assertThrows;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.joda.time.DateTimeZone.UTC;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -36,6 +38,7 @@ import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.ListOptions;
 import com.google.appengine.tools.cloudstorage.ListResult;
 import google.registry.export.ExportDomainListsAction.ExportDomainListsReducer;
+import google.registry.gcs.GcsUtils;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
 import google.registry.storage.drive.DriveConnection;
@@ -103,6 +106,21 @@ public class ExportDomainListsActionTest extends MapreduceTestCase<ExportDomainL
     verifyNoMoreInteractions(driveConnection);
   }
 
+  @Test
+  public void test_recordsExportTime() throws Exception {
+    persistActiveDomain("onetwo.tld");
+    DateTime before = DateTime.now(UTC);
+    runMapreduce();
+    DateTime exportTime =
+        DateTime.parse(
+            new GcsUtils(gcsService, 500)
+                .getUserMetadata(new GcsFilename("outputbucket", "tld.txt"))
+                .get()
+                .get(EXPORT_TIME_METADATA_KEY));
+    assertThat(exportTime).isAtLeast(before);
+    assertThat(exportTime).isAtMost(DateTime.now(UTC));
+  }
+
   @Test
   public void test_outputsOnlyDomainsOnRealTlds() throws Exception {
     persistActiveDomain("onetwo.tld");
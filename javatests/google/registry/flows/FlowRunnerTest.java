@@ -29,6 +29,7 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.LoggerConfig;
 import com.google.common.testing.TestLogHandler;
+import google.registry.model.EppResourceGeneration;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppOutput.ResponseOrGreeting;
 import google.registry.model.eppoutput.EppResponse;
@@ -110,6 +111,31 @@ public class FlowRunnerTest extends ShardableTestCase {
     assertThat(eppMetricBuilder.build().getCommandName()).hasValue("TestCommand");
   }
 
+  @Test
+  public void testRun_transactionalCommand_incrementsEppResourceGeneration() throws Exception {
+    flowRunner.isTransactional = true;
+    long generation = EppResourceGeneration.get().get();
+    flowRunner.run(eppMetricBuilder);
+    assertThat(EppResourceGeneration.get()).hasValue(generation + 1);
+  }
+
+  @Test
+  public void testRun_dryRun_doesNotIncrementEppResourceGeneration() throws Exception {
+    flowRunner.isTransactional = true;
+    flowRunner.isDryRun = true;
+    long generation = EppResourceGeneration.get().get();
+    flowRunner.run(eppMetricBuilder);
+    assertThat(EppResourceGeneration.get()).hasValue(generation);
+  }
+
+  @Test
+  public void testRun_nonTransactionalCommand_doesNotIncrementEppResourceGeneration()
+      throws Exception {
+    long generation = EppResourceGeneration.get().get();
+    flowRunner.run(eppMetricBuilder);
+    assertThat(EppResourceGeneration.get()).hasValue(generation);
+  }
+
   @Test
   public void testRun_callsFlowReporterOnce() throws Exception {
     flowRunner.run(eppMetricBuilder);
@@ -24,6 +24,7 @@ import static google.registry.model.eppcommon.StatusValue.OK;
 import static google.registry.model.eppcommon.StatusValue.SERVER_HOLD;
 import static google.registry.model.eppcommon.StatusValue.SERVER_TRANSFER_PROHIBITED;
 import static google.registry.model.eppcommon.StatusValue.SERVER_UPDATE_PROHIBITED;
+import static google.registry.model.index.LinkedDomainIndex.loadLinkedDomainKeys;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registry.TldState.GENERAL_AVAILABILITY;
 import static google.registry.model.registry.Registry.TldState.START_DATE_SUNRISE;
@@ -136,6 +137,7 @@ import google.registry.flows.exceptions.ResourceAlreadyExistsException;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Flag;
 import google.registry.model.billing.BillingEvent.Reason;
+import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.GracePeriod;
 import google.registry.model.domain.launch.ApplicationStatus;
@@ -144,6 +146,7 @@ import google.registry.model.domain.rgp.GracePeriodStatus;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.domain.token.AllocationToken;
 import google.registry.model.eppcommon.StatusValue;
+import google.registry.model.host.HostResource;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.registrar.Registrar;
@@ -388,6 +391,21 @@ public class DomainCreateFlowTest extends ResourceFlowTestCase<DomainCreateFlow,
     doSuccessfulTest();
   }
 
+  @Test
+  public void testSuccess_linksDomainToContactsAndNameservers() throws Exception {
+    persistContactsAndHosts();
+    doSuccessfulTest();
+    DomainResource domain = reloadResourceByForeignKey();
+    assertThat(domain.getReferencedContacts()).isNotEmpty();
+    for (Key<ContactResource> contact : domain.getReferencedContacts()) {
+      assertThat(loadLinkedDomainKeys(contact)).containsExactly(Key.create(domain));
+    }
+    assertThat(domain.getNameservers()).isNotEmpty();
+    for (Key<HostResource> host : domain.getNameservers()) {
+      assertThat(loadLinkedDomainKeys(host)).containsExactly(Key.create(domain));
+    }
+  }
+
   @Test
   public void testSuccess_cachingDisabled() throws Exception {
     RegistryConfig.overrideIsEppResourceCachingEnabledForTesting(false);
@@ -23,6 +23,7 @@ import static google.registry.flows.async.AsyncFlowEnqueuer.PATH_RESAVE_ENTITY;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_ACTIONS;
 import static google.registry.flows.domain.DomainTransferFlowTestCase.persistWithPendingTransfer;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.index.LinkedDomainIndex.loadLinkedDomainKeys;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.reporting.DomainTransactionRecord.TransactionReportField.DELETED_DOMAINS_GRACE;
 import static google.registry.model.reporting.DomainTransactionRecord.TransactionReportField.DELETED_DOMAINS_NOGRACE;
@@ -333,6 +334,16 @@ public class DomainDeleteFlowTest extends ResourceFlowTestCase<DomainDeleteFlow,
     doImmediateDeleteTest(GracePeriodStatus.ADD, "generic_success_response.xml");
   }
 
+  @Test
+  public void testSuccess_immediateDelete_removesLinks() throws Exception {
+    sessionMetadata.setServiceExtensionUris(ImmutableSet.of());
+    doImmediateDeleteTest(GracePeriodStatus.ADD, "generic_success_response.xml");
+    assertThat(domain.getReferencedContacts()).isNotEmpty();
+    for (Key<ContactResource> contact : domain.getReferencedContacts()) {
+      assertThat(loadLinkedDomainKeys(contact)).isEmpty();
+    }
+  }
+
   @Test
   public void testSuccess_addGracePeriodCredit_v06() throws Exception {
     removeServiceExtensionUri(ServiceExtension.FEE_0_11.getUri());
@@ -424,6 +435,16 @@ public class DomainDeleteFlowTest extends ResourceFlowTestCase<DomainDeleteFlow,
     doSuccessfulTest_noAddGracePeriod("domain_delete_response_pending.xml");
   }
 
+  @Test
+  public void testSuccess_pendingDelete_keepsLinks() throws Exception {
+    sessionMetadata.setServiceExtensionUris(ImmutableSet.of());
+    doSuccessfulTest_noAddGracePeriod("domain_delete_response_pending.xml");
+    assertThat(domain.getReferencedContacts()).isNotEmpty();
+    for (Key<ContactResource> contact : domain.getReferencedContacts()) {
+      assertThat(loadLinkedDomainKeys(contact)).containsExactly(Key.create(domain));
+    }
+  }
+
   @Test
   public void testSuccess_renewGracePeriodCredit_v06() throws Exception {
     removeServiceExtensionUri(ServiceExtension.FEE_0_11.getUri());
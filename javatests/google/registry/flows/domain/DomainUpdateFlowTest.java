@@ -19,6 +19,7 @@ import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.eppcommon.StatusValue.SERVER_UPDATE_PROHIBITED;
+import static google.registry.model.index.LinkedDomainIndex.loadLinkedDomainKeys;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.assertBillingEvents;
 import static google.registry.testing.DatastoreHelper.assertNoBillingEvents;
@@ -179,6 +180,26 @@ public class DomainUpdateFlowTest extends ResourceFlowTestCase<DomainUpdateFlow,
     doSuccessfulTest();
   }
 
+  @Test
+  public void testSuccess_updatesLinks() throws Exception {
+    persistReferencedEntities();
+    DomainResource domain = persistDomain();
+    Key<HostResource> removedHost =
+        Key.create(loadByForeignKey(HostResource.class, "ns1.example.foo", clock.nowUtc()));
+    Key<HostResource> addedHost =
+        Key.create(loadByForeignKey(HostResource.class, "ns2.example.foo", clock.nowUtc()));
+    assertThat(loadLinkedDomainKeys(removedHost)).containsExactly(Key.create(domain));
+    assertThat(loadLinkedDomainKeys(addedHost)).isEmpty();
+    doSuccessfulTest();
+    assertThat(loadLinkedDomainKeys(removedHost)).isEmpty();
+    assertThat(loadLinkedDomainKeys(addedHost)).containsExactly(Key.create(domain));
+    assertThat(loadLinkedDomainKeys(Key.create(mak21Contact)))
+        .containsExactly(Key.create(domain));
+    // The removed tech contact is still linked, since it's now the registrant.
+    assertThat(loadLinkedDomainKeys(Key.create(sh8013Contact)))
+        .containsExactly(Key.create(domain));
+  }
+
   @Test
   public void testSuccess_clTridNotSpecified() throws Exception {
     setEppInput("domain_update_no_cltrid.xml");
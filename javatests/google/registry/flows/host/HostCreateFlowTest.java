@@ -29,6 +29,7 @@ import static google.registry.testing.HostResourceSubject.assertAboutHosts;
 import static google.registry.testing.JUnitBackports.assertThrows;
 import static google.registry.testing.TaskQueueHelper.assertDnsTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertNoDnsTasksEnqueued;
+import static java.util.stream.Collectors.joining;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
@@ -48,10 +49,12 @@ import google.registry.flows.host.HostFlowUtils.HostNameTooShallowException;
 import google.registry.flows.host.HostFlowUtils.InvalidHostNameException;
 import google.registry.flows.host.HostFlowUtils.SuperordinateDomainDoesNotExistException;
 import google.registry.flows.host.HostFlowUtils.SuperordinateDomainInPendingDeleteException;
+import google.registry.flows.host.HostFlowUtils.TooManyInetAddressesException;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
 import google.registry.model.reporting.HistoryEntry;
+import java.util.stream.IntStream;
 import org.joda.time.DateTime;
 import org.junit.Test;
 
@@ -248,6 +251,20 @@ public class HostCreateFlowTest extends ResourceFlowTestCase<HostCreateFlow, Hos
     assertAboutEppExceptions().that(thrown).marshalsToXml();
   }
 
+  @Test
+  public void testFailure_tooManyInetAddresses() {
+    createTld("tld");
+    persistActiveDomain("example.tld");
+    setEppHostCreateInput(
+        "ns1.example.tld",
+        IntStream.rangeClosed(1, 9)
+            .mapToObj(i -> String.format("<host:addr ip=\"v4\">192.0.2.%d</host:addr>", i))
+            .collect(joining("\n")));
+    EppException thrown = assertThrows(TooManyInetAddressesException.class, this::runFlow);
+    assertThat(thrown).hasMessageThat().contains("Only 8 IP addresses are allowed per host");
+    assertAboutEppExceptions().that(thrown).marshalsToXml();
+  }
+
   private void doFailingHostNameTest(String hostName, Class<? extends EppException> exception) {
     setEppHostCreateInputWithIps(hostName);
     EppException thrown = assertThrows(exception, this::runFlow);
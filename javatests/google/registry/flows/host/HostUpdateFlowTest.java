@@ -15,6 +15,7 @@
 package google.registry.flows.host;
 
 import static com.google.common.base.Strings.nullToEmpty;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_HOST_RENAME;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
@@ -39,6 +40,7 @@ import static google.registry.testing.TaskQueueHelper.assertDnsTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertNoDnsTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static java.util.stream.Collectors.joining;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
@@ -63,6 +65,7 @@ import google.registry.flows.host.HostFlowUtils.HostNameTooShallowException;
 import google.registry.flows.host.HostFlowUtils.InvalidHostNameException;
 import google.registry.flows.host.HostFlowUtils.SuperordinateDomainDoesNotExistException;
 import google.registry.flows.host.HostFlowUtils.SuperordinateDomainInPendingDeleteException;
+import google.registry.flows.host.HostFlowUtils.TooManyInetAddressesException;
 import google.registry.flows.host.HostUpdateFlow.CannotAddIpToExternalHostException;
 import google.registry.flows.host.HostUpdateFlow.CannotRemoveSubordinateHostLastIpException;
 import google.registry.flows.host.HostUpdateFlow.CannotRenameExternalHostException;
@@ -77,6 +80,7 @@ import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.transfer.TransferData;
 import google.registry.model.transfer.TransferStatus;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
+import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -995,6 +999,43 @@ public class HostUpdateFlowTest extends ResourceFlowTestCase<HostUpdateFlow, Hos
     assertAboutEppExceptions().that(thrown).marshalsToXml();
   }
 
+  @Test
+  public void testFailure_tooManyInetAddresses() throws Exception {
+    createTld("tld");
+    persistActiveSubordinateHost(oldHostName(), persistActiveDomain("example.tld"));
+    setEppHostUpdateInput(
+        "ns1.example.tld",
+        "ns2.example.tld",
+        IntStream.rangeClosed(1, 8)
+            .mapToObj(i -> String.format("<host:addr ip=\"v4\">192.0.2.%d</host:addr>", i))
+            .collect(joining("\n")),
+        null);
+    EppException thrown = assertThrows(TooManyInetAddressesException.class, this::runFlow);
+    assertThat(thrown).hasMessageThat().contains("Only 8 IP addresses are allowed per host");
+    assertAboutEppExceptions().that(thrown).marshalsToXml();
+  }
+
+  @Test
+  public void testSuccess_tooManyInetAddresses_removingAddresses() throws Exception {
+    createTld("tld");
+    persistResource(
+        newHostResource(oldHostName())
+            .asBuilder()
+            .setSuperordinateDomain(Key.create(persistActiveDomain("example.tld")))
+            .setInetAddresses(
+                IntStream.rangeClosed(1, 10)
+                    .mapToObj(i -> InetAddresses.forString("192.0.2." + i))
+                    .collect(toImmutableSet()))
+            .build());
+    setEppHostUpdateInput(
+        "ns1.example.tld",
+        "ns2.example.tld",
+        null,
+        "<host:addr ip=\"v4\">192.0.2.10</host:addr>");
+    HostResource renamedHost = doSuccessfulTest();
+    assertThat(renamedHost.getInetAddresses()).hasSize(9);
+  }
+
   @Test
   public void testSuccess_clientUpdateProhibited_removed() throws Exception {
     setEppInput("host_update_remove_client_update_prohibited.xml");
@@ -0,0 +1,166 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.mapreduce;
+
+import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.mapreduce.inputs.EppResourceInputs.createKeyInput;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.appengine.tools.mapreduce.Reducer;
+import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.contact.ContactResource;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.mapreduce.MapreduceTestCase;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link MapreduceRunner}. */
+@RunWith(JUnit4.class)
+public class MapreduceRunnerTest extends MapreduceTestCase<MapreduceRunner> {
+
+  /** What the test mappers and reducers saw, since they run on copies that can't be inspected. */
+  private static final List<String> results = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void init() {
+    results.clear();
+    persistActiveContact("alice");
+    persistActiveContact("barbara");
+    persistActiveContact("bob");
+  }
+
+  private MapreduceRunner createRunner(Optional<Boolean> inProcess, int maxInProcessInputSize) {
+    return new MapreduceRunner(Optional.empty(), Optional.of(2), inProcess, maxInProcessInputSize)
+        .setJobName("Test job")
+        .setModuleName("backend");
+  }
+
+  private String runMapreduce(MapreduceRunner runner) {
+    return runner.runMapreduce(
+        new GroupByInitialMapper(),
+        new ListNamesReducer(),
+        ImmutableList.of(createKeyInput(ContactResource.class)));
+  }
+
+  @Test
+  public void testRunMapreduce_inProcess() {
+    String jobId = runMapreduce(createRunner(Optional.of(true), 0));
+    assertThat(jobId).startsWith("in-process-");
+    assertNoTasksEnqueued("mapreduce");
+    assertThat(results).containsExactly("a: [alice]", "b: [barbara, bob]");
+  }
+
+  @Test
+  public void testRunMapOnly_inProcess() {
+    createRunner(Optional.of(true), 0)
+        .runMapOnly(
+            new RecordNameMapper(), ImmutableList.of(createKeyInput(ContactResource.class)));
+    assertNoTasksEnqueued("mapreduce");
+    assertThat(results).containsExactly("alice", "barbara", "bob");
+  }
+
+  @Test
+  public void testRunMapreduce_smallInput_runsInProcessAutomatically() {
+    String jobId = runMapreduce(createRunner(Optional.empty(), 3));
+    assertThat(jobId).startsWith("in-process-");
+    assertThat(results).containsExactly("a: [alice]", "b: [barbara, bob]");
+  }
+
+  @Test
+  public void testRunMapreduce_largeInput_runsAsPipeline() throws Exception {
+    String jobId = runMapreduce(createRunner(Optional.empty(), 2));
+    assertThat(jobId).doesNotContain("in-process");
+    assertThat(results).isEmpty();
+    executeTasksUntilEmpty("mapreduce");
+    assertThat(results).containsExactly("a: [alice]", "b: [barbara, bob]");
+  }
+
+  @Test
+  public void testRunMapreduce_inProcessFalse_runsAsPipeline() throws Exception {
+    String jobId = runMapreduce(createRunner(Optional.of(false), 100));
+    assertThat(jobId).doesNotContain("in-process");
+    assertThat(results).isEmpty();
+    executeTasksUntilEmpty("mapreduce");
+    assertThat(results).containsExactly("a: [alice]", "b: [barbara, bob]");
+  }
+
+  @Test
+  public void testSendJobStatus_inProcess_saysFinished() {
+    String jobId = runMapreduce(createRunner(Optional.of(true), 0));
+    FakeResponse response = new FakeResponse();
+    MapreduceRunner.sendJobStatus(response, jobId);
+    assertThat(response.getContentType()).isEqualTo(PLAIN_TEXT_UTF_8);
+    assertThat(response.getPayload()).isEqualTo("Finished in-process job " + jobId + "\n");
+  }
+
+  @Test
+  public void testSendJobStatus_pipeline_redirectsToStatusPage() {
+    String jobId = runMapreduce(createRunner(Optional.of(false), 0));
+    FakeResponse response = new FakeResponse();
+    MapreduceRunner.sendJobStatus(response, jobId);
+    assertThat(response.getPayload()).contains("/_ah/pipeline/status.html?root=" + jobId);
+  }
+
+  /** Mapper that groups contacts by the first letter of their IDs. */
+  private static class GroupByInitialMapper extends Mapper<Key<ContactResource>, String, String> {
+
+    private static final long serialVersionUID = 3586474213740163226L;
+
+    @Override
+    public void map(Key<ContactResource> key) {
+      String contactId = persistedContactId(key);
+      emit(contactId.substring(0, 1), contactId);
+    }
+  }
+
+  /** Reducer that records each letter with the sorted contact IDs that start with it. */
+  private static class ListNamesReducer extends Reducer<String, String, Void> {
+
+    private static final long serialVersionUID = -4721340264826310719L;
+
+    @Override
+    public void reduce(String initial, ReducerInput<String> contactIds) {
+      results.add(String.format("%s: %s", initial, ImmutableSortedSet.copyOf(contactIds)));
+    }
+  }
+
+  /** Map-only mapper that records each contact ID. */
+  private static class RecordNameMapper extends Mapper<Key<ContactResource>, Void, Void> {
+
+    private static final long serialVersionUID = 8126739563170391047L;
+
+    @Override
+    public void map(Key<ContactResource> key) {
+      results.add(persistedContactId(key));
+    }
+  }
+
+  private static String persistedContactId(Key<ContactResource> key) {
+    return ofy().load().key(key).now().getContactId();
+  }
+}
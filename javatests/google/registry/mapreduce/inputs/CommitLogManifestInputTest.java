@@ -100,6 +100,34 @@ public final class CommitLogManifestInputTest {
     assertThat(seen).containsExactlyElementsIn(old);
   }
 
+  @Test
+  public void testInputNewerThan_skipsOld() throws Exception {
+    Set<Key<CommitLogManifest>> newer = new HashSet<>();
+    for (int i = 1; i <= 3; i++) {
+      newer.add(createManifest(CommitLogBucket.getBucketKey(i), DATE_TIME_NEW));
+      newer.add(createManifest(CommitLogBucket.getBucketKey(i), DATE_TIME_NEW2));
+      createManifest(CommitLogBucket.getBucketKey(i), DATE_TIME_OLD);
+      createManifest(CommitLogBucket.getBucketKey(i), DATE_TIME_OLD2);
+    }
+    List<Key<CommitLogManifest>> seen = new ArrayList<>();
+    Input<Key<CommitLogManifest>> input = new CommitLogManifestInput(null, DATE_TIME_THRESHOLD);
+    for (InputReader<Key<CommitLogManifest>> reader
+        : input.createReaders()) {
+      reader.beginShard();
+      reader.beginSlice();
+      try {
+        Key<CommitLogManifest> key = null;
+        for (int i = 0; i < 10; i++) {
+          key = reader.next();
+          seen.add(key);
+        }
+        assert_().fail("Unexpected element: " + key);
+      } catch (NoSuchElementException expected) {
+      }
+    }
+    assertThat(seen).containsExactlyElementsIn(newer);
+  }
+
   @Test
   public void testInputAll() throws Exception {
     Set<Key<CommitLogManifest>> created = new HashSet<>();
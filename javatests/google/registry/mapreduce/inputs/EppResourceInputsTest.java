@@ -16,8 +16,10 @@ package google.registry.mapreduce.inputs;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assert_;
+import static google.registry.config.RegistryConfig.getLinkedDomainIndexBucketCount;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createKeyInput;
+import static google.registry.mapreduce.inputs.EppResourceInputs.createLinkedDomainInput;
 import static google.registry.model.index.EppResourceIndexBucket.getBucketKey;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newContactResource;
@@ -25,12 +27,16 @@ import static google.registry.testing.DatastoreHelper.newDomainApplication;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
 import static google.registry.testing.DatastoreHelper.newHostResource;
 import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistEppResourceInFirstBucket;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistSimpleResource;
 import static google.registry.testing.JUnitBackports.assertThrows;
 
 import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
 import google.registry.model.contact.ContactResource;
@@ -39,12 +45,17 @@ import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.LinkedDomainIndexBucket;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.InjectRule;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import org.junit.Rule;
@@ -60,6 +71,9 @@ public class EppResourceInputsTest {
 
   @Rule
   public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
   @SuppressWarnings("unchecked")
   private <T> T serializeAndDeserialize(T obj) throws Exception {
     try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
@@ -172,6 +186,62 @@ public class EppResourceInputsTest {
     assertThat(seen).containsExactlyElementsIn(domains);
   }
 
+  @Test
+  public void testChooseSplitKeys_splitsEachBucketEveryNSamples() throws Exception {
+    List<Key<EppResourceIndex>> firstBucketKeys = new ArrayList<>();
+    for (int i = 1; i <= 5; i++) {
+      firstBucketKeys.add(
+          Key.create(
+              EppResourceIndex.create(
+                  getBucketKey(1), Key.create(newContactResource("contact" + i)))));
+    }
+    List<Key<EppResourceIndex>> sampleKeys = new ArrayList<>(firstBucketKeys);
+    sampleKeys.add(
+        Key.create(
+            EppResourceIndex.create(getBucketKey(2), Key.create(newContactResource("other")))));
+    Collections.shuffle(sampleKeys);
+    List<Key<EppResourceIndex>> sortedKeys = Ordering.natural().sortedCopy(firstBucketKeys);
+    // The first bucket is split into readers of two samples each, and the second isn't split.
+    assertThat(EppResourceBaseInput.chooseSplitKeys(sampleKeys, 2))
+        .containsExactly(getBucketKey(1), sortedKeys.get(2), getBucketKey(1), sortedKeys.get(4))
+        .inOrder();
+  }
+
+  @Test
+  public void testEntityInput_withMaxIndexesPerReader_readsEachResourceOnce() throws Exception {
+    inject.setStaticField(EppResourceBaseInput.class, "maxIndexesPerReader", 2);
+    Set<ContactResource> contacts = new HashSet<>();
+    for (int i = 1; i <= 5; i++) {
+      contacts.add(persistEppResourceInFirstBucket(newContactResource("contact" + i)));
+    }
+    List<ContactResource> seen = new ArrayList<>();
+    for (InputReader<ContactResource> reader
+        : createEntityInput(ContactResource.class).createReaders()) {
+      reader.beginShard();
+      reader.beginSlice();
+      try {
+        while (true) {
+          seen.add(reader.next());
+        }
+      } catch (NoSuchElementException expected) {
+      }
+    }
+    assertThat(seen).containsExactlyElementsIn(contacts);
+  }
+
+  @Test
+  public void testCountUpTo_countsIndexesOfTheInputKindsUpToTheLimit() {
+    persistActiveContact("contact1");
+    persistActiveContact("contact2");
+    persistActiveHost("ns1.example.com");
+    assertThat(((CountableInput) createKeyInput(ContactResource.class)).countUpTo(10))
+        .isEqualTo(2);
+    assertThat(((CountableInput) createKeyInput(ContactResource.class)).countUpTo(1))
+        .isEqualTo(1);
+    assertThat(((CountableInput) createEntityInput(EppResource.class)).countUpTo(10))
+        .isEqualTo(3);
+  }
+
   @Test
   public void testSuccess_keyReader_survivesAcrossSerialization() throws Exception {
     createTld("tld");
@@ -223,6 +293,38 @@ public class EppResourceInputsTest {
     assertThrows(NoSuchElementException.class, deserializedReader::next);
   }
 
+  @Test
+  public void testSuccess_entityReader_prefetchedResultsSurviveSerialization() throws Exception {
+    inject.setStaticField(RetryingInputReader.class, "prefetchBatchSize", 2);
+    createTld("tld");
+    List<DomainResource> domains = new ArrayList<>();
+    for (char c = 'a'; c <= 'e'; c++) {
+      domains.add(persistEppResourceInFirstBucket(newDomainResource(c + ".tld")));
+    }
+    List<DomainResource> seen = new ArrayList<>();
+    InputReader<DomainResource> reader =
+        createEntityInput(DomainResource.class).createReaders().get(0);
+    reader.beginShard();
+    reader.beginSlice();
+    // Stop partway through the second prefetched batch, so that some results have been read ahead.
+    for (int i = 0; i < 3; i++) {
+      seen.add(reader.next());
+    }
+    assertThat(reader.getProgress()).isWithin(EPSILON).of(0.6);
+    reader.endSlice();
+    reader = serializeAndDeserialize(reader);
+    reader.beginSlice();
+    assertThat(reader.getProgress()).isWithin(EPSILON).of(0.6);
+    try {
+      while (true) {
+        seen.add(reader.next());
+      }
+    } catch (NoSuchElementException expected) {
+    }
+    reader.endSlice();
+    assertThat(seen).containsExactlyElementsIn(domains);
+  }
+
   @Test
   public void testSuccess_entityReader_allowsPolymorphicMatches() throws Exception {
     createTld("tld");
@@ -304,4 +406,83 @@ public class EppResourceInputsTest {
     assertThat(seen).containsExactly(domain, host, application, contact);
     assertThrows(NoSuchElementException.class, reader::next);
   }
+
+  @Test
+  public void testSuccess_linkedDomainInput_oneReaderPerLinkedResourceAndBucket()
+      throws Exception {
+    createTld("tld");
+    ContactResource contact = persistActiveContact("contact");
+    HostResource host = persistActiveHost("ns1.example.com");
+    assertThat(
+            createLinkedDomainInput(
+                    ImmutableSet.of(Key.create(contact), Key.create(host)), DomainBase.class)
+                .createReaders())
+        .hasSize(2 * getLinkedDomainIndexBucketCount());
+  }
+
+  /** Reads everything from all the given readers. */
+  private static <R> ImmutableList<R> readAll(List<? extends InputReader<R>> readers) {
+    ImmutableList.Builder<R> seen = new ImmutableList.Builder<>();
+    for (InputReader<R> reader : readers) {
+      reader.beginShard();
+      reader.beginSlice();
+      while (true) {
+        try {
+          seen.add(reader.next());
+        } catch (NoSuchElementException e) {
+          break;
+        }
+      }
+    }
+    return seen.build();
+  }
+
+  @Test
+  public void testSuccess_linkedDomainReader_readsLinksFromAllBuckets() throws Exception {
+    createTld("tld");
+    ContactResource contact = persistActiveContact("contact");
+    ImmutableList.Builder<DomainResource> domains = new ImmutableList.Builder<>();
+    for (int i = 0; i < 10; i++) {
+      domains.add(persistResource(newDomainResource(String.format("domain%d.tld", i), contact)));
+    }
+    persistResource(newDomainResource("unlinked.tld"));
+    assertThat(
+            readAll(
+                createLinkedDomainInput(ImmutableSet.of(Key.create(contact)), DomainBase.class)
+                    .createReaders()))
+        .containsExactlyElementsIn(domains.build());
+  }
+
+  @Test
+  public void testSuccess_linkedDomainReader_filtersByDomainClass() throws Exception {
+    createTld("tld");
+    ContactResource contact = persistActiveContact("contact");
+    DomainResource domain = persistResource(newDomainResource("a.tld", contact));
+    persistResource(newDomainApplication("b.tld", contact));
+    persistResource(newDomainResource("c.tld"));
+    assertThat(
+            readAll(
+                createLinkedDomainInput(ImmutableSet.of(Key.create(contact)), DomainResource.class)
+                    .createReaders()))
+        .containsExactly(domain);
+  }
+
+  @Test
+  public void testSuccess_linkedDomainReader_survivesSerialization() throws Exception {
+    createTld("tld");
+    ContactResource contact = persistActiveContact("contact");
+    DomainResource domain = persistResource(newDomainResource("a.tld", contact));
+    // For a single linked resource, the readers are in bucket order.
+    InputReader<DomainBase> reader =
+        createLinkedDomainInput(ImmutableSet.of(Key.create(contact)), DomainBase.class)
+            .createReaders()
+            .get((int) LinkedDomainIndexBucket.getBucketKey(Key.create(domain)).getId() - 1);
+    reader.beginShard();
+    reader.beginSlice();
+    assertThat(reader.next()).isEqualTo(domain);
+    reader.endSlice();
+    reader = serializeAndDeserialize(reader);
+    reader.beginSlice();
+    assertThrows(NoSuchElementException.class, reader::next);
+  }
 }
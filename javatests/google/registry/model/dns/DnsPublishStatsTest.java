@@ -0,0 +1,113 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.dns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.dns.DnsPublishStats.createKey;
+import static google.registry.model.dns.DnsPublishStats.recordBatch;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import com.google.common.collect.ImmutableSet;
+import google.registry.testing.AppEngineRule;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DnsPublishStats}. */
+@RunWith(JUnit4.class)
+public class DnsPublishStatsTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  private final DateTime now = DateTime.parse("2018-06-01TZ");
+
+  private static DnsPublishStats load(String tld, String dnsWriter, int lockIndex) {
+    ofy().clearSessionCache();
+    return ofy().load().key(createKey(tld, dnsWriter, lockIndex)).now();
+  }
+
+  @Test
+  public void testRecordBatch_firstBatch_takenAsIs() {
+    recordBatch("tld", "writer", 1, 10, 2, Duration.millis(500), now);
+    DnsPublishStats stats = load("tld", "writer", 1);
+    assertThat(stats.getAverageMillisPerItem()).isWithin(1e-9).of(50);
+    assertThat(stats.getFailureRate()).isWithin(1e-9).of(0.2);
+    assertThat(stats.getLastUpdateTime()).isEqualTo(now);
+    assertThat(stats.getExpectedDuration(4)).isEqualTo(Duration.millis(200));
+  }
+
+  @Test
+  public void testRecordBatch_laterBatches_smoothed() {
+    recordBatch("tld", "writer", 1, 10, 0, Duration.millis(1000), now);
+    recordBatch("tld", "writer", 1, 10, 10, Duration.millis(9000), now.plusMinutes(1));
+    recordBatch("tld", "writer", 1, 20, 0, Duration.millis(4000), now.plusMinutes(2));
+    DnsPublishStats stats = load("tld", "writer", 1);
+    // The fully failed batch only counts towards the failure rate.
+    assertThat(stats.getAverageMillisPerItem()).isWithin(1e-9).of(100 + 0.2 * (200 - 100));
+    assertThat(stats.getFailureRate()).isWithin(1e-9).of(0.2 * 0.8);
+    assertThat(stats.getLastUpdateTime()).isEqualTo(now.plusMinutes(2));
+  }
+
+  @Test
+  public void testRecordBatch_firstBatchFailed_noLatency() {
+    recordBatch("tld", "writer", 1, 10, 10, Duration.millis(9000), now);
+    DnsPublishStats stats = load("tld", "writer", 1);
+    assertThat(stats.getAverageMillisPerItem()).isWithin(1e-9).of(0);
+    assertThat(stats.getFailureRate()).isWithin(1e-9).of(1);
+  }
+
+  @Test
+  public void testRecordBatch_separatePerWriterAndLock() {
+    recordBatch("tld", "writer", 1, 10, 0, Duration.millis(1000), now);
+    recordBatch("tld", "writer", 2, 10, 0, Duration.millis(2000), now);
+    recordBatch("tld", "other", 1, 10, 0, Duration.millis(3000), now);
+    assertThat(load("tld", "writer", 1).getAverageMillisPerItem()).isWithin(1e-9).of(100);
+    assertThat(load("tld", "writer", 2).getAverageMillisPerItem()).isWithin(1e-9).of(200);
+    assertThat(load("tld", "other", 1).getAverageMillisPerItem()).isWithin(1e-9).of(300);
+  }
+
+  @Test
+  public void testLoad_omitsMissing() {
+    recordBatch("tld", "writer", 1, 10, 0, Duration.millis(1000), now);
+    assertThat(
+            DnsPublishStats.load(
+                    ImmutableSet.of(createKey("tld", "writer", 1), createKey("tld", "writer", 2)))
+                .keySet())
+        .containsExactly(createKey("tld", "writer", 1));
+  }
+
+  @Test
+  public void testFailure_emptyBatch() {
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> recordBatch("tld", "writer", 1, 0, 0, Duration.ZERO, now));
+    assertThat(thrown).hasMessageThat().contains("Can't record an empty batch");
+  }
+
+  @Test
+  public void testFailure_tooManyFailedItems() {
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> recordBatch("tld", "writer", 1, 2, 3, Duration.ZERO, now));
+    assertThat(thrown).hasMessageThat().contains("Number of failed items 3 not within [0, 2]");
+  }
+}
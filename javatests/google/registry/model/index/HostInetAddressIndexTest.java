@@ -0,0 +1,172 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.index.HostInetAddressIndex.createKey;
+import static google.registry.model.index.HostInetAddressIndex.createKeys;
+import static google.registry.model.index.HostInetAddressIndex.createKeysForHost;
+import static google.registry.model.index.HostInetAddressIndex.createUpdatedInstances;
+import static google.registry.model.index.HostInetAddressIndex.createWithSpecifiedKeys;
+import static google.registry.model.index.HostInetAddressIndex.getShard;
+import static google.registry.model.index.HostInetAddressIndex.loadActiveHosts;
+import static google.registry.model.index.HostInetAddressIndex.loadHostKeys;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistSimpleResource;
+import static google.registry.testing.DatastoreHelper.persistSimpleResources;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.InetAddresses;
+import com.googlecode.objectify.Key;
+import google.registry.model.EntityTestCase;
+import google.registry.model.host.HostResource;
+import java.net.InetAddress;
+import java.util.Comparator;
+import org.junit.Test;
+
+/** Unit tests for {@link HostInetAddressIndex}. */
+public class HostInetAddressIndexTest extends EntityTestCase {
+
+  private static final InetAddress IPV4 = InetAddresses.forString("192.0.2.1");
+  private static final InetAddress IPV6 = InetAddresses.forString("2001:db8::1");
+
+  private static HostResource newHostWithAddresses(String hostName, InetAddress... addresses) {
+    return newHostResource(hostName)
+        .asBuilder()
+        .setInetAddresses(ImmutableSet.copyOf(addresses))
+        .build();
+  }
+
+  @Test
+  public void testSuccess_noHosts() {
+    assertThat(ofy().load().keys(createKeys(IPV4))).isEmpty();
+    assertThat(loadHostKeys(IPV4)).isEmpty();
+    assertThat(loadActiveHosts(IPV4, clock.nowUtc())).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_createdHost_isIndexedUnderEachAddress() {
+    HostResource host =
+        persistSimpleResource(newHostWithAddresses("ns1.example.com", IPV4, IPV6));
+    persistSimpleResources(createUpdatedInstances(null, host));
+    assertThat(loadHostKeys(IPV4)).containsExactly(Key.create(host));
+    assertThat(loadHostKeys(IPV6)).containsExactly(Key.create(host));
+    assertThat(loadActiveHosts(IPV4, clock.nowUtc())).containsExactly(host);
+  }
+
+  @Test
+  public void testSuccess_indexUsesCanonicalAddress() {
+    HostResource host = persistResource(newHostWithAddresses("ns1.example.com", IPV6));
+    assertThat(ofy().load().key(getOnlyElement(createKeysForHost(host))).now().getInetAddress())
+        .isEqualTo("2001:db8::1");
+    assertThat(loadHostKeys(InetAddresses.forString("2001:0db8:0:0:0:0:0:0001")))
+        .containsExactly(Key.create(host));
+  }
+
+  @Test
+  public void testSuccess_hostsSharingAddress_areAllIndexed() {
+    HostResource host1 = persistResource(newHostWithAddresses("ns1.example.com", IPV4));
+    HostResource host2 = persistResource(newHostWithAddresses("ns2.example.com", IPV4));
+    assertThat(loadHostKeys(IPV4)).containsExactly(Key.create(host1), Key.create(host2));
+    assertThat(loadActiveHosts(IPV4, clock.nowUtc())).containsExactly(host1, host2);
+  }
+
+  @Test
+  public void testSuccess_updatedHost_movesBetweenAddresses() {
+    HostResource oldHost = persistResource(newHostWithAddresses("ns1.example.com", IPV4));
+    HostResource newHost = oldHost.asBuilder().setInetAddresses(ImmutableSet.of(IPV6)).build();
+    persistSimpleResources(createUpdatedInstances(oldHost, newHost));
+    assertThat(loadHostKeys(IPV4)).isEmpty();
+    assertThat(loadHostKeys(IPV6)).containsExactly(Key.create(newHost));
+  }
+
+  @Test
+  public void testSuccess_unchangedAddresses_noIndexesToSave() {
+    HostResource host = persistResource(newHostWithAddresses("ns1.example.com", IPV4));
+    assertThat(createUpdatedInstances(host, host.asBuilder().build())).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_deletedHost_isRemovedFromAllAddresses() {
+    HostResource otherHost = persistResource(newHostWithAddresses("ns2.example.com", IPV4));
+    HostResource host = persistResource(newHostWithAddresses("ns1.example.com", IPV4, IPV6));
+    HostResource deletedHost = host.asBuilder().setDeletionTime(clock.nowUtc()).build();
+    persistSimpleResources(createUpdatedInstances(host, deletedHost));
+    assertThat(loadHostKeys(IPV4)).containsExactly(Key.create(otherHost));
+    assertThat(loadHostKeys(IPV6)).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_loadActiveHosts_skipsStaleEntries() {
+    HostResource activeHost = persistResource(newHostWithAddresses("ns1.example.com", IPV4));
+    HostResource deletedHost =
+        persistSimpleResource(
+            newHostWithAddresses("ns2.example.com", IPV4)
+                .asBuilder()
+                .setDeletionTime(clock.nowUtc().minusDays(1))
+                .build());
+    HostResource movedHost = persistSimpleResource(newHostWithAddresses("ns3.example.com", IPV6));
+    for (HostResource host : ImmutableList.of(deletedHost, movedHost)) {
+      Key<HostInetAddressIndex> indexKey = createKey(IPV4, getShard(Key.create(host)));
+      HostInetAddressIndex index = ofy().load().key(indexKey).now();
+      persistSimpleResource(
+          createWithSpecifiedKeys(
+              indexKey,
+              new ImmutableSet.Builder<Key<HostResource>>()
+                  .addAll((index == null) ? ImmutableSet.of() : index.getHosts())
+                  .add(Key.create(host))
+                  .build()));
+    }
+    assertThat(loadHostKeys(IPV4))
+        .containsExactly(Key.create(activeHost), Key.create(deletedHost), Key.create(movedHost));
+    assertThat(loadActiveHosts(IPV4, clock.nowUtc())).containsExactly(activeHost);
+  }
+
+  @Test
+  public void testSuccess_loadActiveHosts_appliesFilterAndLimit() {
+    ImmutableList.Builder<HostResource> hosts = new ImmutableList.Builder<>();
+    for (int i = 1; i <= 5; i++) {
+      hosts.add(persistResource(newHostWithAddresses(String.format("ns%d.example.com", i), IPV4)));
+    }
+    ImmutableList<HostResource> sortedHosts =
+        ImmutableList.sortedCopyOf(
+            Comparator.comparing((HostResource host) -> Key.create(host)), hosts.build());
+    HostResource excludedHost = sortedHosts.get(1);
+    assertThat(loadActiveHosts(IPV4, clock.nowUtc(), host -> !host.equals(excludedHost), 3))
+        .containsExactly(sortedHosts.get(0), sortedHosts.get(2), sortedHosts.get(3))
+        .inOrder();
+    assertThat(loadActiveHosts(IPV4, clock.nowUtc(), host -> true, 0)).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_createUpdatedInstances_onlyUpdatesHostsShard() {
+    HostResource host = persistSimpleResource(newHostWithAddresses("ns1.example.com", IPV4));
+    assertThat(Key.create(getOnlyElement(createUpdatedInstances(null, host))))
+        .isEqualTo(createKey(IPV4, getShard(Key.create(host))));
+    assertThat(createKeys(IPV4)).hasSize(HostInetAddressIndex.NUM_SHARDS);
+  }
+
+  @Test
+  public void testSuccess_persistedHostChanges_updateIndex() {
+    HostResource host = persistResource(newHostWithAddresses("ns1.example.com", IPV4));
+    persistResource(host.asBuilder().setInetAddresses(ImmutableSet.of(IPV6)).build());
+    assertThat(loadHostKeys(IPV4)).isEmpty();
+    assertThat(loadHostKeys(IPV6)).containsExactly(Key.create(host));
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.index.LinkedDomainIndex.createAddedLinks;
+import static google.registry.model.index.LinkedDomainIndex.createAllLinkKeys;
+import static google.registry.model.index.LinkedDomainIndex.getRemovedLinkKeys;
+import static google.registry.model.index.LinkedDomainIndex.loadLinkedDomainKeys;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainApplication;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.EntityTestCase;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainApplication;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for {@link LinkedDomainIndex}. */
+public class LinkedDomainIndexTest extends EntityTestCase {
+
+  private ContactResource contact;
+  private HostResource host;
+
+  @Before
+  public void setUp() {
+    createTld("tld");
+    contact = persistActiveContact("jd1234");
+    host = persistActiveHost("ns1.example.tld");
+  }
+
+  @Test
+  public void testSuccess_noLinks() {
+    assertThat(loadLinkedDomainKeys(Key.create(contact))).isEmpty();
+    assertThat(loadLinkedDomainKeys(Key.create(host))).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_persistedDomain_isLinkedToContactsAndNameservers() {
+    DomainResource domain =
+        persistResource(
+            newDomainResource("example.tld", contact)
+                .asBuilder()
+                .setNameservers(ImmutableSet.of(Key.create(host)))
+                .build());
+    assertThat(loadLinkedDomainKeys(Key.create(contact))).containsExactly(Key.create(domain));
+    assertThat(loadLinkedDomainKeys(Key.create(host))).containsExactly(Key.create(domain));
+  }
+
+  @Test
+  public void testSuccess_persistedApplication_isLinked() {
+    DomainApplication application = persistResource(newDomainApplication("example.tld", contact));
+    assertThat(loadLinkedDomainKeys(Key.create(contact))).containsExactly(Key.create(application));
+  }
+
+  @Test
+  public void testSuccess_linksFromManyDomains_areAllLoaded() {
+    DomainResource domain1 = persistResource(newDomainResource("example1.tld", contact));
+    DomainResource domain2 = persistResource(newDomainResource("example2.tld", contact));
+    DomainResource domain3 = persistResource(newDomainResource("example3.tld", contact));
+    assertThat(loadLinkedDomainKeys(Key.create(contact)))
+        .containsExactly(Key.create(domain1), Key.create(domain2), Key.create(domain3));
+  }
+
+  @Test
+  public void testSuccess_linksAreInTheDomainsBucket() {
+    DomainResource domain = persistResource(newDomainResource("example.tld", contact));
+    Key<LinkedDomainIndex> link =
+        LinkedDomainIndex.createKey(Key.create(contact), Key.create(domain));
+    assertThat(link.getParent())
+        .isEqualTo(LinkedDomainIndexBucket.getBucketKey(Key.create(domain)));
+    assertThat(ofy().load().key(link).now()).isNotNull();
+    assertThat(LinkedDomainIndex.queryLinks(Key.create(contact), link.getParent()).keys())
+        .containsExactly(link);
+  }
+
+  @Test
+  public void testSuccess_createAddedLinks_onlyReturnsNewLinks() {
+    DomainResource oldDomain = newDomainResource("example.tld", contact);
+    DomainResource newDomain =
+        oldDomain.asBuilder().setNameservers(ImmutableSet.of(Key.create(host))).build();
+    assertThat(createAddedLinks(oldDomain, newDomain))
+        .containsExactly(LinkedDomainIndex.create(Key.create(host), Key.create(newDomain)));
+    assertThat(createAddedLinks(null, newDomain))
+        .containsExactly(
+            LinkedDomainIndex.create(Key.create(contact), Key.create(newDomain)),
+            LinkedDomainIndex.create(Key.create(host), Key.create(newDomain)));
+    assertThat(createAddedLinks(newDomain, newDomain)).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_getRemovedLinkKeys() {
+    DomainResource oldDomain =
+        newDomainResource("example.tld", contact)
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(host)))
+            .build();
+    DomainResource newDomain = oldDomain.asBuilder().setNameservers(ImmutableSet.of()).build();
+    assertThat(getRemovedLinkKeys(oldDomain, newDomain))
+        .containsExactly(LinkedDomainIndex.createKey(Key.create(host), Key.create(newDomain)));
+    assertThat(getRemovedLinkKeys(newDomain, oldDomain)).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_createAllLinkKeys() {
+    DomainResource domain =
+        newDomainResource("example.tld", contact)
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(host)))
+            .build();
+    assertThat(createAllLinkKeys(domain))
+        .containsExactly(
+            LinkedDomainIndex.createKey(Key.create(contact), Key.create(domain)),
+            LinkedDomainIndex.createKey(Key.create(host), Key.create(domain)));
+  }
+
+  @Test
+  public void testSuccess_getDomain() {
+    DomainResource domain = persistResource(newDomainResource("example.tld", contact));
+    LinkedDomainIndex link = LinkedDomainIndex.create(Key.create(contact), Key.create(domain));
+    assertThat(link.getDomain()).isEqualTo(Key.create(domain));
+    assertThat(link.getLinkedResource()).isEqualTo(Key.create(contact));
+    assertThat(LinkedDomainIndex.getDomain(Key.create(link))).isEqualTo(Key.create(domain));
+  }
+}
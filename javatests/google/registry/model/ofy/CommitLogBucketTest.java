@@ -15,18 +15,25 @@
 package google.registry.model.ofy;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.CommitLogBucket.getAllCheckpointedBucketKeys;
 import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
+import static google.registry.model.ofy.CommitLogBucket.getCheckpointedBucketCount;
+import static google.registry.model.ofy.CommitLogBucket.getCheckpointedBucketKey;
 import static google.registry.model.ofy.CommitLogBucket.loadAllBuckets;
 import static google.registry.model.ofy.CommitLogBucket.loadBucket;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.JUnitBackports.assertThrows;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.annotation.Cache;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.InjectRule;
+import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -77,6 +84,37 @@ public class CommitLogBucketTest {
     assertThat(thrown).hasMessageThat().contains("11 not in [");
   }
 
+  @Test
+  public void test_getCheckpointedBucketKey_bucketNumberAboveConfiguredCount_succeeds() {
+    assertThat(getCheckpointedBucketKey(11).getId()).isEqualTo(11);
+  }
+
+  @Test
+  public void test_getCheckpointedBucketCount_noCheckpoint_returnsConfiguredCount() {
+    assertThat(getCheckpointedBucketCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void test_getCheckpointedBucketCount_checkpointHasMoreBuckets_returnsCheckpointCount() {
+    DateTime checkpointTime = DateTime.parse("2000-01-01TZ");
+    ofy().transact(() -> ofy().saveWithoutBackup().entities(
+        CommitLogCheckpoint.create(
+            checkpointTime,
+            ImmutableMap.of(
+                1, START_OF_TIME, 2, START_OF_TIME, 3, START_OF_TIME, 4, START_OF_TIME)),
+        CommitLogCheckpointRoot.create(checkpointTime)));
+    assertThat(getCheckpointedBucketCount()).isEqualTo(4);
+    assertThat(getAllCheckpointedBucketKeys()).containsExactly(
+        getBucketKey(1), getBucketKey(2), getBucketKey(3), getCheckpointedBucketKey(4)).inOrder();
+  }
+
+  @Test
+  public void test_getCheckpointedBucketKey_bucketNumberTooLow_throws() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> getCheckpointedBucketKey(0));
+    assertThat(thrown).hasMessageThat().contains("0 is not a valid bucket ID");
+  }
+
   @Test
   public void test_getArbitraryBucketId_withSupplierOverridden() {
     inject.setStaticField(
@@ -108,6 +146,14 @@ public class CommitLogBucketTest {
     assertThat(buckets).contains(new CommitLogBucket.Builder().setBucketNum(3).build());
   }
 
+  @Test
+  public void test_loadAllBuckets_withBucketCount_includesBucketsAboveConfiguredCount() {
+    ImmutableSet<CommitLogBucket> buckets = loadAllBuckets(4);
+    assertThat(buckets).hasSize(4);
+    assertThat(buckets).contains(bucket);
+    assertThat(buckets).contains(new CommitLogBucket.Builder().setBucketNum(4).build());
+  }
+
   @Test
   public void test_noCacheAnnotation() {
     // Don't ever put @Cache on CommitLogBucket; it could mess up the checkpointing algorithm.
@@ -65,13 +65,21 @@ public class CommitLogCheckpointTest {
   }
 
   @Test
-  public void test_create_tooManyBucketTimestamps_throws() {
+  public void test_create_moreBucketTimestampsThanConfigured_succeeds() {
+    CommitLogCheckpoint checkpoint =
+        CommitLogCheckpoint.create(
+            DateTime.now(UTC), ImmutableMap.of(1, T1, 2, T2, 3, T3, 4, T1));
+    assertThat(checkpoint.getBucketTimestamps()).containsExactly(1, T1, 2, T2, 3, T3, 4, T1);
+  }
+
+  @Test
+  public void test_create_nonContiguousBucketIds_throws() {
     IllegalArgumentException thrown =
         assertThrows(
             IllegalArgumentException.class,
             () ->
                 CommitLogCheckpoint.create(
-                    DateTime.now(UTC), ImmutableMap.of(1, T1, 2, T2, 3, T3, 4, T1)));
+                    DateTime.now(UTC), ImmutableMap.of(1, T1, 2, T2, 3, T3, 5, T1)));
     assertThat(thrown).hasMessageThat().contains("Bucket ids are incorrect");
   }
 
@@ -0,0 +1,110 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package google.registry.model.registrar;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrar;
+
+import com.google.common.collect.ImmutableList;
+import google.registry.model.EntityTestCase;
+import google.registry.model.registrar.Registrar.State;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for {@link RegistrarLookupIndex}. */
+public class RegistrarLookupIndexTest extends EntityTestCase {
+
+  private Registrar goDaddy;
+  private Registrar go;
+  private Registrar example;
+  private Registrar exampleSuspended;
+  private Registrar zed;
+  private RegistrarLookupIndex index;
+
+  @Before
+  public void setUp() {
+    goDaddy = makeRegistrar("godaddy", "Go Daddy", State.ACTIVE, 101L);
+    go = makeRegistrar("go", "go", State.ACTIVE, 102L);
+    example = makeRegistrar("example", "Example Registrar, Inc.", State.ACTIVE, 103L);
+    exampleSuspended = makeRegistrar("examplesusp", "Example Hidden", State.SUSPENDED, 103L);
+    zed = makeRegistrar("zed", "zed", State.ACTIVE, 104L);
+    index =
+        RegistrarLookupIndex.create(ImmutableList.of(example, exampleSuspended, goDaddy, go, zed));
+  }
+
+  @Test
+  public void testGetAll_preservesOrder() {
+    assertThat(index.getAll())
+        .containsExactly(example, exampleSuspended, goDaddy, go, zed)
+        .inOrder();
+  }
+
+  @Test
+  public void testGetByClientId() {
+    assertThat(index.getByClientId("go")).hasValue(go);
+    assertThat(index.getByClientId("nonexistent")).isEmpty();
+  }
+
+  @Test
+  public void testGetByIanaIdentifier_firstSuppliedWins() {
+    assertThat(index.getByIanaIdentifier(101L)).hasValue(goDaddy);
+    assertThat(index.getByIanaIdentifier(103L)).hasValue(example);
+    assertThat(index.getByIanaIdentifier(999L)).isEmpty();
+  }
+
+  @Test
+  public void testGetPubliclyVisibleByNormalizedName() {
+    assertThat(index.getPubliclyVisibleByNormalizedName("GO-DADDY")).hasValue(goDaddy);
+    assertThat(index.getPubliclyVisibleByNormalizedName("example registrar inc"))
+        .hasValue(example);
+    assertThat(index.getPubliclyVisibleByNormalizedName("Example Registrar,")).hasValue(example);
+  }
+
+  @Test
+  public void testGetPubliclyVisibleByNormalizedName_exactNameBeatsDroppedLastWord() {
+    assertThat(index.getPubliclyVisibleByNormalizedName("Go")).hasValue(go);
+  }
+
+  @Test
+  public void testGetPubliclyVisibleByNormalizedName_excludesInvisibleRegistrars() {
+    assertThat(index.getPubliclyVisibleByNormalizedName("Example Hidden")).isEmpty();
+  }
+
+  @Test
+  public void testGetSortedByName_caseInsensitive() {
+    assertThat(index.getSortedByName())
+        .containsExactly(exampleSuspended, example, go, goDaddy, zed)
+        .inOrder();
+  }
+
+  @Test
+  public void testGetByNamePrefix() {
+    assertThat(index.getByNamePrefix("GO")).containsExactly(go, goDaddy).inOrder();
+    assertThat(index.getByNamePrefix("example r")).containsExactly(example);
+    assertThat(index.getByNamePrefix("z")).containsExactly(zed);
+    assertThat(index.getByNamePrefix("")).hasSize(5);
+    assertThat(index.getByNamePrefix("f")).isEmpty();
+    assertThat(index.getByNamePrefix("zzz")).isEmpty();
+  }
+
+  @Test
+  public void testLoadLookupIndexCached_reflectsDatastore() {
+    assertThat(Registrar.loadLookupIndexCached().getByClientId("TheRegistrar")).isPresent();
+    assertThat(Registrar.loadLookupIndexCached().getByNamePrefix("the reg"))
+        .containsExactly(Registrar.loadByClientId("TheRegistrar").get());
+  }
+}
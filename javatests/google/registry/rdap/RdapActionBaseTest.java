@@ -15,6 +15,7 @@
 package google.registry.rdap;
 
 import static com.google.common.net.HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static com.google.common.net.HttpHeaders.RETRY_AFTER;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.HEAD;
@@ -22,6 +23,7 @@ import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.TestDataHelper.loadFile;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.users.User;
 import com.google.common.collect.ImmutableList;
@@ -33,6 +35,7 @@ import google.registry.rdap.RdapMetrics.SearchType;
 import google.registry.rdap.RdapMetrics.WildcardType;
 import google.registry.rdap.RdapSearchResults.IncompletenessWarningType;
 import google.registry.request.Action;
+import google.registry.request.ClientRateLimiter;
 import google.registry.request.auth.AuthLevel;
 import google.registry.request.auth.AuthResult;
 import google.registry.request.auth.UserAuthInfo;
@@ -42,6 +45,7 @@ import google.registry.testing.FakeResponse;
 import google.registry.testing.InjectRule;
 import google.registry.ui.server.registrar.SessionUtils;
 import java.util.Optional;
+import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
 import org.json.simple.JSONValue;
 import org.junit.Before;
@@ -127,6 +131,7 @@ public class RdapActionBaseTest {
     action.response = response;
     action.rdapJsonFormatter = RdapTestHelper.getTestRdapJsonFormatter();
     action.rdapMetrics = rdapMetrics;
+    action.clientRateLimiter = ClientRateLimiter.createDisabled();
   }
 
   private Object generateActualJson(String domainName) {
@@ -258,4 +263,30 @@ public class RdapActionBaseTest {
     assertThat(response.getPayload())
         .isEqualTo(loadFileWithoutTrailingNewline("rdap_formatted_output.json"));
   }
+
+  @Test
+  public void testRateLimited_returns429WithRetryAfter() {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getRemoteAddr()).thenReturn("192.0.2.1");
+    action.request = request;
+    action.clientRateLimiter = new ClientRateLimiter(clock, 1, 0.5, 10);
+    action.clientRateLimiter.take("HELP", "192.0.2.1", 1);
+    assertThat(generateActualJson("no.thing")).isEqualTo(JSONValue.parse(
+        "{\"lang\":\"en\", \"errorCode\":429, \"title\":\"Too Many Requests\","
+        + "\"rdapConformance\":[\"rdap_level_0\"],"
+        + "\"description\":[\"Too many HELP requests; try again later\"]}"));
+    assertThat(response.getStatus()).isEqualTo(429);
+    assertThat(response.getHeaders()).containsEntry(RETRY_AFTER, "2");
+  }
+
+  @Test
+  public void testRateLimited_otherClientsUnaffected() {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getRemoteAddr()).thenReturn("192.0.2.2");
+    action.request = request;
+    action.clientRateLimiter = new ClientRateLimiter(clock, 1, 0.5, 10);
+    action.clientRateLimiter.take("HELP", "192.0.2.1", 1);
+    generateActualJson("no.thing");
+    assertThat(response.getStatus()).isEqualTo(200);
+  }
 }
@@ -0,0 +1,193 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static google.registry.export.ExportDomainListsAction.EXPORT_TIME_METADATA_KEY;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistDomainAsDeleted;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.registry.Registry;
+import google.registry.model.registry.Registry.TldType;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import java.io.OutputStream;
+import java.util.Optional;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RdapDomainNameIndex}. */
+@RunWith(JUnit4.class)
+public class RdapDomainNameIndexTest {
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2018-06-01T00:00:00Z"));
+  private final GcsUtils gcsUtils = new GcsUtils(GcsServiceFactory.createGcsService(), 1024);
+  private final RdapDomainNameIndex index =
+      new RdapDomainNameIndex(gcsUtils, "domain-lists", Duration.standardMinutes(10));
+
+  @Before
+  public void setUp() throws Exception {
+    createTld("lol");
+    createTld("1.test");
+    persistActiveDomain("cat.lol");
+    persistActiveDomain("cat2.lol");
+    persistActiveDomain("dog.lol");
+    persistActiveDomain("cat.1.test");
+    persistDomainAsDeleted(persistActiveDomain("cat3.lol"), clock.nowUtc().minusDays(1));
+    DateTime exportTime = clock.nowUtc().minusHours(1);
+    writeDomainList("lol", exportTime, "cat.lol", "cat2.lol", "dog.lol");
+    writeDomainList("1.test", exportTime, "cat.1.test");
+  }
+
+  private void writeDomainList(String tld, DateTime exportTime, String... names)
+      throws Exception {
+    try (OutputStream output =
+        gcsUtils.openOutputStream(
+            new GcsFilename("domain-lists", tld + ".txt"),
+            ImmutableMap.of(EXPORT_TIME_METADATA_KEY, exportTime.toString()))) {
+      output.write(Joiner.on('\n').join(names).getBytes(UTF_8));
+    }
+  }
+
+  private Iterable<String> findNames(String pattern, Optional<String> cursorString) {
+    return index
+        .findNames(RdapSearchPattern.create(pattern, true), cursorString, clock.nowUtc())
+        .get();
+  }
+
+  @Test
+  public void testFindNames_prefix() {
+    assertThat(findNames("cat*", Optional.empty()))
+        .containsExactly("cat.1.test", "cat.lol", "cat2.lol")
+        .inOrder();
+  }
+
+  @Test
+  public void testFindNames_prefixAndSuffix() {
+    assertThat(findNames("cat*.lol", Optional.empty()))
+        .containsExactly("cat.lol", "cat2.lol")
+        .inOrder();
+  }
+
+  @Test
+  public void testFindNames_suffixOnly() {
+    assertThat(findNames("*.lol", Optional.empty()))
+        .containsExactly("cat.lol", "cat2.lol", "dog.lol")
+        .inOrder();
+  }
+
+  @Test
+  public void testFindNames_multipartTld() {
+    assertThat(findNames("*.1.test", Optional.empty())).containsExactly("cat.1.test");
+  }
+
+  @Test
+  public void testFindNames_cursor() {
+    assertThat(findNames("*.lol", Optional.of("cat.lol")))
+        .containsExactly("cat2.lol", "dog.lol")
+        .inOrder();
+  }
+
+  @Test
+  public void testFindNames_noMatches() {
+    assertThat(findNames("bird*", Optional.empty())).isEmpty();
+  }
+
+  @Test
+  public void testFindNames_tldWithoutDomainList_empty() {
+    createTld("nolist");
+    assertThat(
+            index.findNames(
+                RdapSearchPattern.create("cat*.nolist", true), Optional.empty(), clock.nowUtc()))
+        .isEmpty();
+    // Searches across all TLDs can't use the index either.
+    assertThat(
+            index.findNames(
+                RdapSearchPattern.create("cat*", true), Optional.empty(), clock.nowUtc()))
+        .isEmpty();
+  }
+
+  @Test
+  public void testFindNames_noSuffix_skipsTestTlds() {
+    // Domain lists are only exported for real TLDs, so test TLDs don't stop the index being used.
+    createTld("example");
+    persistResource(Registry.get("example").asBuilder().setTldType(TldType.TEST).build());
+    persistActiveDomain("cat.example");
+    assertThat(findNames("cat*", Optional.empty()))
+        .containsExactly("cat.1.test", "cat.lol", "cat2.lol")
+        .inOrder();
+  }
+
+  @Test
+  public void testFindNames_tldWithoutDomainList_notLookedForUntilRefresh() throws Exception {
+    createTld("nolist");
+    RdapSearchPattern pattern = RdapSearchPattern.create("cat*.nolist", true);
+    assertThat(index.findNames(pattern, Optional.empty(), clock.nowUtc())).isEmpty();
+    writeDomainList("nolist", clock.nowUtc(), "cat.nolist");
+
+    clock.advanceBy(Duration.standardMinutes(9));
+    assertThat(index.findNames(pattern, Optional.empty(), clock.nowUtc())).isEmpty();
+
+    clock.advanceBy(Duration.standardMinutes(1));
+    assertThat(index.findNames(pattern, Optional.empty(), clock.nowUtc()).get())
+        .containsExactly("cat.nolist");
+  }
+
+  @Test
+  public void testFindNames_mergesDomainsCreatedSinceExport() {
+    persistActiveDomain("cat4.lol", clock.nowUtc().minusMinutes(30));
+    persistDomainAsDeleted(
+        persistActiveDomain("cat5.lol", clock.nowUtc().minusMinutes(30)),
+        clock.nowUtc().minusMinutes(10));
+    assertThat(findNames("cat*.lol", Optional.empty()))
+        .containsExactly("cat.lol", "cat2.lol", "cat4.lol")
+        .inOrder();
+  }
+
+  @Test
+  public void testFindNames_keepsNamesUntilRefresh() throws Exception {
+    assertThat(findNames("*.lol", Optional.empty()))
+        .containsExactly("cat.lol", "cat2.lol", "dog.lol")
+        .inOrder();
+    writeDomainList("lol", clock.nowUtc(), "cat.lol", "emu.lol");
+    persistActiveDomain("fox.lol", clock.nowUtc().plusMinutes(1));
+
+    clock.advanceBy(Duration.standardMinutes(9));
+    assertThat(findNames("*.lol", Optional.empty()))
+        .containsExactly("cat.lol", "cat2.lol", "dog.lol")
+        .inOrder();
+
+    clock.advanceBy(Duration.standardMinutes(1));
+    assertThat(findNames("*.lol", Optional.empty()))
+        .containsExactly("cat.lol", "emu.lol", "fox.lol")
+        .inOrder();
+  }
+}
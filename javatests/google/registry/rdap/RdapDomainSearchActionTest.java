@@ -15,7 +15,11 @@
 package google.registry.rdap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.export.ExportDomainListsAction.EXPORT_TIME_METADATA_KEY;
+import static google.registry.model.EppResourceUtils.isActive;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.rdap.RdapAuthorization.Role.ADMINISTRATOR;
 import static google.registry.rdap.RdapAuthorization.Role.REGISTRAR;
 import static google.registry.request.Action.Method.POST;
@@ -31,23 +35,30 @@ import static google.registry.testing.FullFieldsTestEntityHelper.makeHistoryEntr
 import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrar;
 import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrarContacts;
 import static google.registry.testing.TestDataHelper.loadFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.users.User;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Range;
 import com.google.common.net.InetAddresses;
 import com.googlecode.objectify.Key;
+import google.registry.gcs.GcsUtils;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.Period;
 import google.registry.model.host.HostResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
+import google.registry.model.registry.Registries;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.rdap.RdapMetrics.EndpointType;
@@ -55,6 +66,7 @@ import google.registry.rdap.RdapMetrics.SearchType;
 import google.registry.rdap.RdapMetrics.WildcardType;
 import google.registry.rdap.RdapSearchResults.IncompletenessWarningType;
 import google.registry.request.Action;
+import google.registry.request.ClientRateLimiter;
 import google.registry.request.auth.AuthLevel;
 import google.registry.request.auth.AuthResult;
 import google.registry.request.auth.UserAuthInfo;
@@ -64,6 +76,9 @@ import google.registry.testing.FakeResponse;
 import google.registry.testing.InjectRule;
 import google.registry.ui.server.registrar.SessionUtils;
 import google.registry.util.Idn;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.IDN;
 import java.net.URLDecoder;
 import java.util.HashMap;
@@ -73,6 +88,7 @@ import java.util.Optional;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
@@ -98,6 +114,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase {
   private final UserAuthInfo userAuthInfo = UserAuthInfo.create(user, false);
   private final UserAuthInfo adminUserAuthInfo = UserAuthInfo.create(user, true);
   private final RdapDomainSearchAction action = new RdapDomainSearchAction();
+  private final GcsUtils gcsUtils = new GcsUtils(GcsServiceFactory.createGcsService(), 1024);
 
   private FakeResponse response = new FakeResponse();
 
@@ -161,10 +178,42 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase {
         action.cursorTokenParam = Optional.of(cursor);
       }
     }
+    exportDomainLists();
     action.run();
     return JSONValue.parse(response.getPayload());
   }
 
+  /**
+   * Exports the lists of active domains that the domain name index is loaded from, as the cron
+   * would, and gives the action a new index, so that it reflects the domains as of now.
+   */
+  private void exportDomainLists() {
+    DateTime now = clock.nowUtc();
+    ImmutableListMultimap<String, String> namesByTld =
+        ofy()
+            .load()
+            .type(DomainResource.class)
+            .list()
+            .stream()
+            .filter(domain -> isActive(domain, now))
+            .collect(
+                toImmutableListMultimap(
+                    DomainResource::getTld, DomainResource::getFullyQualifiedDomainName));
+    for (String tld : Registries.getTlds()) {
+      try (OutputStream output =
+          gcsUtils.openOutputStream(
+              new GcsFilename("domain-lists", tld + ".txt"),
+              ImmutableMap.of(EXPORT_TIME_METADATA_KEY, now.toString()))) {
+        List<String> names = Ordering.natural().sortedCopy(namesByTld.get(tld));
+        output.write(Joiner.on('\n').join(names).getBytes(UTF_8));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    action.domainNameIndex =
+        new RdapDomainNameIndex(gcsUtils, "domain-lists", Duration.standardMinutes(10));
+  }
+
   private HostResource addHostToMap(HostResource host) {
     hostNameToHostMap.put(host.getFullyQualifiedHostName(), host);
     return host;
@@ -403,8 +452,10 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase {
     action.sessionUtils = sessionUtils;
     action.authResult = AuthResult.create(AuthLevel.USER, userAuthInfo);
     action.rdapMetrics = rdapMetrics;
+    action.clientRateLimiter = ClientRateLimiter.createDisabled();
     action.cursorTokenParam = Optional.empty();
     action.rdapResultSetMaxSize = 4;
+    action.hostInetAddressIndexEnabled = true;
   }
 
   private void login(String clientId) {
@@ -1258,7 +1309,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase {
   public void testDomainMatchDeletedDomainWithWildcard_notFound() {
     persistDomainAsDeleted(domainCatLol, clock.nowUtc().minusDays(1));
     runNotFoundTest(RequestType.NAME, "cat.lo*", "No domains found");
-    verifyErrorMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(1L), 404);
+    verifyErrorMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(0L), 404);
   }
 
   @Test
@@ -1266,7 +1317,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase {
     persistDomainAsDeleted(domainCatLol, clock.nowUtc().minusDays(1));
     persistDomainAsDeleted(domainCatLol2, clock.nowUtc().minusDays(1));
     runNotFoundTest(RequestType.NAME, "cat*.lol", "No domains found");
-    verifyErrorMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(2L), 404);
+    verifyErrorMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(0L), 404);
   }
 
   // TODO(b/27378695): reenable or delete this test
@@ -1280,13 +1331,14 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase {
 
   @Test
   public void testDomainMatch_manyDeletedDomains_fullResultSet() {
-    // There are enough domains to fill a full result set; deleted domains are ignored.
+    // There are enough domains to fill a full result set; deleted domains are ignored, and aren't
+    // even loaded, since they aren't in the domain name index.
     createManyDomainsAndHosts(4, 4, 2);
     rememberWildcardType("domain*.lol");
     Object obj = generateActualJson(RequestType.NAME, "domain*.lol");
     assertThat(response.getStatus()).isEqualTo(200);
     checkNumberOfDomainsInResult(obj, 4);
-    verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(16L));
+    verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(4L));
   }
 
   @Test
@@ -1297,15 +1349,38 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase {
     Object obj = generateActualJson(RequestType.NAME, "domain*.lol");
     assertThat(response.getStatus()).isEqualTo(200);
     checkNumberOfDomainsInResult(obj, 3);
-    verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(60L));
+    verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(3L));
+  }
+
+  @Test
+  public void testDomainMatch_manyDeletedDomains_fullResultSetDespiteFetchingLimit() {
+    // There are so many deleted domains that a Datastore query would run out of patience before
+    // working its way through all of them, but the domain name index skips them.
+    createManyDomainsAndHosts(4, 50, 2);
+    rememberWildcardType("domain*.lol");
+    assertThat(generateActualJson(RequestType.NAME, "domain*.lol"))
+        .isEqualTo(readMultiDomainFile(
+            "rdap_nontruncated_domains.json",
+            "domain100.lol",
+            "A7-LOL",
+            "domain150.lol",
+            "75-LOL",
+            "domain200.lol",
+            "43-LOL",
+            "domain50.lol",
+            "D9-LOL"));
+    assertThat(response.getStatus()).isEqualTo(200);
+    verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(4L));
   }
 
   @Test
   public void testDomainMatch_manyDeletedDomains_partialResultSetDueToFetchingLimit() {
     // This is not exactly desired behavior, but expected: There are enough domains to fill a full
     // result set, but there are so many deleted domains that we run out of patience before we work
-    // our way through all of them.
+    // our way through all of them. This only happens when filtering by registrar, which can't use
+    // the domain name index.
     createManyDomainsAndHosts(4, 50, 2);
+    action.registrarParam = Optional.of("multiregistrar");
     rememberWildcardType("domain*.lol");
     assertThat(generateActualJson(RequestType.NAME, "domain*.lol"))
         .isEqualTo(readMultiDomainFile(
@@ -1407,7 +1482,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase {
             "43-LOL",
             "name=domain*.lol&cursor=ZG9tYWluMzAubG9s"));
     assertThat(response.getStatus()).isEqualTo(200);
-    verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(27L), IncompletenessWarningType.TRUNCATED);
+    verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(5L), IncompletenessWarningType.TRUNCATED);
   }
 
   @Test
@@ -1917,6 +1992,24 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase {
     verifyErrorMetrics(SearchType.BY_NAMESERVER_ADDRESS, Optional.empty(), Optional.of(0L), 404);
   }
 
+  @Test
+  public void testAddressMatchV4Address_hostInetAddressIndexDisabled_foundMultiple() {
+    action.hostInetAddressIndexEnabled = false;
+    rememberWildcardType("1.2.3.4");
+    assertThat(generateActualJson(RequestType.NS_IP, "1.2.3.4"))
+        .isEqualTo(generateExpectedJsonForTwoDomains());
+    assertThat(response.getStatus()).isEqualTo(200);
+    verifyMetrics(SearchType.BY_NAMESERVER_ADDRESS, 2, 1);
+  }
+
+  @Test
+  public void testAddressMatchV4Address_hostInetAddressIndexDisabled_differentRegistrarRequested() {
+    action.hostInetAddressIndexEnabled = false;
+    action.registrarParam = Optional.of("otherregistrar");
+    runNotFoundTest(RequestType.NS_IP, "1.2.3.4", "No domains found");
+    verifyErrorMetrics(SearchType.BY_NAMESERVER_ADDRESS, Optional.empty(), Optional.of(0L), 404);
+  }
+
   @Test
   public void testAddressMatchV6Address_foundOne() {
     runSuccessfulTestWithCatLol(
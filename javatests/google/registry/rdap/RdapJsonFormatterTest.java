@@ -49,6 +49,7 @@ import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
 import java.util.Optional;
+import java.util.function.Consumer;
 import org.joda.time.DateTime;
 import org.json.simple.JSONValue;
 import org.junit.Before;
@@ -281,6 +282,19 @@ public class RdapJsonFormatterTest {
     return JSONValue.parse(loadFile(this.getClass(), expectedFileName));
   }
 
+  /**
+   * Checks that the JSON object written by the given function matches the golden file when it is
+   * built as a tree, and that streaming it produces exactly the string json-simple renders for the
+   * tree.
+   */
+  private void assertStreamsSameJson(
+      Consumer<RdapJsonGenerator> writer, String expectedFileName) {
+    ImmutableMap<String, Object> tree = RdapJsonGenerator.buildObject(writer);
+    assertThat(tree).isEqualTo(loadJson(expectedFileName));
+    assertThat(RdapJsonGenerator.defer(writer).toJSONString())
+        .isEqualTo(JSONValue.toJSONString(tree));
+  }
+
   @Test
   public void testRegistrar() {
     assertThat(rdapJsonFormatter.makeRdapJsonForRegistrar(
@@ -566,6 +580,101 @@ public class RdapJsonFormatterTest {
         .isEqualTo(loadJson("rdapjson_domain_no_nameservers.json"));
   }
 
+  @Test
+  public void testDomain_full_streamsSameJson() {
+    assertStreamsSameJson(
+        generator ->
+            rdapJsonFormatter.writeRdapJsonForDomain(
+                generator,
+                domainResourceFull,
+                false,
+                LINK_BASE,
+                WHOIS_SERVER,
+                clock.nowUtc(),
+                OutputDataType.FULL,
+                RdapAuthorization.create(RdapAuthorization.Role.REGISTRAR, "unicoderegistrar")),
+        "rdapjson_domain_full.json");
+  }
+
+  @Test
+  public void testDomain_summary_streamsSameJson() {
+    assertStreamsSameJson(
+        generator ->
+            rdapJsonFormatter.writeRdapJsonForDomain(
+                generator,
+                domainResourceFull,
+                false,
+                LINK_BASE,
+                WHOIS_SERVER,
+                clock.nowUtc(),
+                OutputDataType.SUMMARY,
+                RdapAuthorization.create(RdapAuthorization.Role.REGISTRAR, "unicoderegistrar")),
+        "rdapjson_domain_summary.json");
+  }
+
+  @Test
+  public void testDomain_loggedOut_streamsSameJson() {
+    assertStreamsSameJson(
+        generator ->
+            rdapJsonFormatter.writeRdapJsonForDomain(
+                generator,
+                domainResourceFull,
+                false,
+                LINK_BASE,
+                WHOIS_SERVER,
+                clock.nowUtc(),
+                OutputDataType.FULL,
+                RdapAuthorization.PUBLIC_AUTHORIZATION),
+        "rdapjson_domain_logged_out.json");
+  }
+
+  @Test
+  public void testHost_both_streamsSameJson() {
+    assertStreamsSameJson(
+        generator ->
+            rdapJsonFormatter.writeRdapJsonForHost(
+                generator,
+                hostResourceBoth,
+                false,
+                LINK_BASE,
+                WHOIS_SERVER,
+                clock.nowUtc(),
+                OutputDataType.FULL),
+        "rdapjson_host_both.json");
+  }
+
+  @Test
+  public void testRegistrant_streamsSameJson() {
+    assertStreamsSameJson(
+        generator ->
+            rdapJsonFormatter.writeRdapJsonForContact(
+                generator,
+                contactResourceRegistrant,
+                false,
+                Optional.of(DesignatedContact.Type.REGISTRANT),
+                LINK_BASE,
+                WHOIS_SERVER,
+                clock.nowUtc(),
+                OutputDataType.FULL,
+                RdapAuthorization.create(RdapAuthorization.Role.REGISTRAR, "unicoderegistrar")),
+        "rdapjson_registrant.json");
+  }
+
+  @Test
+  public void testRegistrar_streamsSameJson() {
+    assertStreamsSameJson(
+        generator ->
+            rdapJsonFormatter.writeRdapJsonForRegistrar(
+                generator,
+                registrar,
+                false,
+                LINK_BASE,
+                WHOIS_SERVER,
+                clock.nowUtc(),
+                OutputDataType.FULL),
+        "rdapjson_registrar.json");
+  }
+
   @Test
   public void testError() {
     assertThat(
@@ -0,0 +1,143 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import google.registry.rdap.RdapJsonGenerator.Deferred;
+import java.io.StringWriter;
+import java.util.function.Consumer;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RdapJsonGenerator}. */
+@RunWith(JUnit4.class)
+public class RdapJsonGeneratorTest {
+
+  /** Writes an object using every kind of generator call, and strings json-simple escapes. */
+  private static final Consumer<RdapJsonGenerator> WRITER =
+      generator -> {
+        generator.beginObject();
+        generator.name("handle").value("2-ROID");
+        generator.name("link").value("https://example.com/rdap/domain/\"quoted\"\tname");
+        generator.name("unicode").value("みんな ");
+        generator.name("count").value(3L);
+        generator.name("flag").value(true);
+        generator.name("empty").beginArray().endArray();
+        generator.name("list").beginArray();
+        generator.value("one");
+        generator.beginObject().name("nested").value(ImmutableList.of("a", "b")).endObject();
+        generator.value(ImmutableMap.of("key", ImmutableList.of()));
+        generator.endArray();
+        generator.name("object").beginObject().endObject();
+        generator.endObject();
+      };
+
+  @Test
+  public void testBuildObject_buildsTree() {
+    assertThat(RdapJsonGenerator.buildObject(WRITER))
+        .containsExactly(
+            "handle", "2-ROID",
+            "link", "https://example.com/rdap/domain/\"quoted\"\tname",
+            "unicode", "みんな ",
+            "count", 3L,
+            "flag", true,
+            "empty", ImmutableList.of(),
+            "list",
+                ImmutableList.of(
+                    "one",
+                    ImmutableMap.of("nested", ImmutableList.of("a", "b")),
+                    ImmutableMap.of("key", ImmutableList.of())),
+            "object", ImmutableMap.of())
+        .inOrder();
+  }
+
+  @Test
+  public void testDeferred_streamsSameStringAsJsonSimple() throws Exception {
+    StringWriter writer = new StringWriter();
+    RdapJsonGenerator.defer(WRITER).writeJSONString(writer);
+    assertThat(writer.toString())
+        .isEqualTo(JSONValue.toJSONString(RdapJsonGenerator.buildObject(WRITER)));
+  }
+
+  @Test
+  public void testDeferred_toJsonString() {
+    assertThat(RdapJsonGenerator.defer(WRITER).toJSONString())
+        .isEqualTo(JSONValue.toJSONString(RdapJsonGenerator.buildObject(WRITER)));
+  }
+
+  @Test
+  public void testDeferred_insideTree_rendersSameStringAsTree() {
+    Deferred deferred = RdapJsonGenerator.defer(WRITER);
+    ImmutableMap<String, Object> built = RdapJsonGenerator.buildObject(WRITER);
+    assertThat(
+            JSONValue.toJSONString(
+                ImmutableMap.of("results", ImmutableList.of(deferred, deferred), "last", 1)))
+        .isEqualTo(
+            JSONValue.toJSONString(
+                ImmutableMap.of("results", ImmutableList.of(built, built), "last", 1)));
+  }
+
+  @Test
+  public void testDeferred_asGeneratorValue_isWrittenInline() {
+    Deferred deferred = RdapJsonGenerator.defer(WRITER);
+    Consumer<RdapJsonGenerator> outerWriter =
+        generator -> {
+          generator.beginObject();
+          generator.name("results").beginArray().value(deferred).value(deferred).endArray();
+          generator.endObject();
+        };
+    ImmutableMap<String, Object> built = RdapJsonGenerator.buildObject(WRITER);
+    ImmutableMap<String, Object> expected =
+        ImmutableMap.of("results", ImmutableList.of(built, built));
+    assertThat(RdapJsonGenerator.buildObject(outerWriter)).isEqualTo(expected);
+    assertThat(RdapJsonGenerator.defer(outerWriter).toJSONString())
+        .isEqualTo(JSONValue.toJSONString(expected));
+  }
+
+  @Test
+  public void testMaterialize_buildsDeferredObjects() {
+    assertThat(
+            RdapJsonGenerator.materialize(
+                ImmutableMap.of(
+                    "results", ImmutableList.of(RdapJsonGenerator.defer(WRITER)), "last", 1)))
+        .isEqualTo(
+            ImmutableMap.of(
+                "results", ImmutableList.of(RdapJsonGenerator.buildObject(WRITER)), "last", 1));
+  }
+
+  @Test
+  public void testFailure_valueWithoutName() {
+    IllegalStateException thrown =
+        assertThrows(
+            IllegalStateException.class,
+            () -> RdapJsonGenerator.buildObject(generator -> generator.beginObject().value("x")));
+    assertThat(thrown).hasMessageThat().contains("Value without a name");
+  }
+
+  @Test
+  public void testFailure_incompleteObject() {
+    IllegalStateException thrown =
+        assertThrows(
+            IllegalStateException.class,
+            () -> RdapJsonGenerator.buildObject(generator -> generator.beginObject()));
+    assertThat(thrown).hasMessageThat().contains("JSON object is not complete");
+  }
+}
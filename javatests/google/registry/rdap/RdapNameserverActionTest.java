@@ -14,7 +14,11 @@
 
 package google.registry.rdap;
 
+import static com.google.common.net.HttpHeaders.CACHE_CONTROL;
+import static com.google.common.net.HttpHeaders.ETAG;
+import static com.google.common.net.HttpHeaders.IF_NONE_MATCH;
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.FullFieldsTestEntityHelper.makeAndPersistHostResource;
@@ -28,6 +32,7 @@ import com.google.appengine.api.users.User;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import google.registry.model.host.HostResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
 import google.registry.rdap.RdapMetrics.EndpointType;
@@ -35,6 +40,7 @@ import google.registry.rdap.RdapMetrics.SearchType;
 import google.registry.rdap.RdapMetrics.WildcardType;
 import google.registry.rdap.RdapSearchResults.IncompletenessWarningType;
 import google.registry.request.Action;
+import google.registry.request.ClientRateLimiter;
 import google.registry.request.auth.AuthLevel;
 import google.registry.request.auth.AuthResult;
 import google.registry.request.auth.UserAuthInfo;
@@ -48,6 +54,7 @@ import java.util.Optional;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.json.simple.JSONValue;
 import org.junit.Before;
 import org.junit.Rule;
@@ -130,6 +137,9 @@ public class RdapNameserverActionTest {
     action.authResult = authResult;
     action.sessionUtils = sessionUtils;
     action.rdapMetrics = rdapMetrics;
+    action.clientRateLimiter = ClientRateLimiter.createDisabled();
+    action.rdapResponseCache = RdapResponseCache.createDisabled();
+    action.rdapResponseCachingDuration = Duration.standardMinutes(1);
     return action;
   }
 
@@ -456,4 +466,75 @@ public class RdapNameserverActionTest {
                 .setIncompletenessWarningType(IncompletenessWarningType.COMPLETE)
                 .build());
   }
+
+  @Test
+  public void testNameserver_setsEntityTagAndCacheControl() {
+    generateActualJson("ns1.cat.lol");
+    assertThat((String) response.getHeaders().get(ETAG)).startsWith("W/\"");
+    assertThat(response.getHeaders()).containsEntry(CACHE_CONTROL, "public, max-age=60");
+  }
+
+  @Test
+  public void testInvalidNameserver_noEntityTag() {
+    generateActualJson("invalid/host/name");
+    assertThat(response.getHeaders()).doesNotContainKey(ETAG);
+    assertThat(response.getHeaders()).doesNotContainKey(CACHE_CONTROL);
+  }
+
+  @Test
+  public void testNameserver_matchingIfNoneMatch_returns304() {
+    generateActualJson("ns1.cat.lol");
+    String entityTag = (String) response.getHeaders().get(ETAG);
+    when(request.getHeader(IF_NONE_MATCH)).thenReturn("\"something-else\", " + entityTag);
+    FakeResponse conditionalResponse = new FakeResponse();
+    RdapNameserverAction action =
+        newRdapNameserverAction("ns1.cat.lol", Optional.empty(), Optional.empty());
+    action.response = conditionalResponse;
+    action.run();
+    assertThat(conditionalResponse.getStatus()).isEqualTo(304);
+    assertThat(conditionalResponse.getPayload()).isEmpty();
+    assertThat(conditionalResponse.getHeaders()).containsEntry(ETAG, entityTag);
+  }
+
+  @Test
+  public void testNameserver_changedSinceIfNoneMatch_returnsFullResponse() {
+    generateActualJson("ns1.cat.lol");
+    String entityTag = (String) response.getHeaders().get(ETAG);
+    clock.advanceOneMilli();
+    persistResource(
+        loadByForeignKey(HostResource.class, "ns1.cat.lol", clock.nowUtc())
+            .asBuilder()
+            .setLastEppUpdateTime(clock.nowUtc())
+            .build());
+    when(request.getHeader(IF_NONE_MATCH)).thenReturn(entityTag);
+    FakeResponse conditionalResponse = new FakeResponse();
+    RdapNameserverAction action =
+        newRdapNameserverAction("ns1.cat.lol", Optional.empty(), Optional.empty());
+    action.response = conditionalResponse;
+    action.run();
+    assertThat(conditionalResponse.getStatus()).isEqualTo(200);
+    assertThat(conditionalResponse.getPayload()).isNotEmpty();
+    assertThat(conditionalResponse.getHeaders().get(ETAG)).isNotEqualTo(entityTag);
+  }
+
+  @Test
+  public void testNameserver_responseCache_servesCachedResponse() {
+    RdapResponseCache responseCache =
+        new RdapResponseCache(1_000_000, Duration.standardMinutes(1));
+    RdapNameserverAction action =
+        newRdapNameserverAction("ns1.cat.lol", Optional.empty(), Optional.empty());
+    action.rdapResponseCache = responseCache;
+    action.run();
+    String entityTag = (String) response.getHeaders().get(ETAG);
+    assertThat(responseCache.get(entityTag)).isEqualTo(Optional.of(response.getPayload()));
+    // The second request mustn't need the formatter, since it's answered from the cache.
+    FakeResponse cachedResponse = new FakeResponse();
+    action = newRdapNameserverAction("ns1.cat.lol", Optional.empty(), Optional.empty());
+    action.response = cachedResponse;
+    action.rdapResponseCache = responseCache;
+    action.rdapJsonFormatter = null;
+    action.run();
+    assertThat(cachedResponse.getStatus()).isEqualTo(200);
+    assertThat(cachedResponse.getPayload()).isEqualTo(response.getPayload());
+  }
 }
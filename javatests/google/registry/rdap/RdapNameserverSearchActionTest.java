@@ -15,10 +15,12 @@
 package google.registry.rdap;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.rdap.RdapAuthorization.Role.ADMINISTRATOR;
 import static google.registry.rdap.RdapAuthorization.Role.REGISTRAR;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistResources;
 import static google.registry.testing.DatastoreHelper.persistSimpleResources;
@@ -33,6 +35,9 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.users.User;
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.Environment;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
@@ -47,6 +52,7 @@ import google.registry.rdap.RdapMetrics.SearchType;
 import google.registry.rdap.RdapMetrics.WildcardType;
 import google.registry.rdap.RdapSearchResults.IncompletenessWarningType;
 import google.registry.request.Action;
+import google.registry.request.ClientRateLimiter;
 import google.registry.request.auth.AuthLevel;
 import google.registry.request.auth.AuthResult;
 import google.registry.request.auth.UserAuthInfo;
@@ -56,7 +62,10 @@ import google.registry.testing.FakeResponse;
 import google.registry.testing.InjectRule;
 import google.registry.ui.server.registrar.SessionUtils;
 import java.net.URLDecoder;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Future;
+import java.util.logging.LogRecord;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
@@ -197,6 +206,7 @@ public class RdapNameserverSearchActionTest extends RdapSearchActionTestCase {
     action.authResult = AuthResult.create(AuthLevel.USER, userAuthInfo);
     action.sessionUtils = sessionUtils;
     action.rdapMetrics = rdapMetrics;
+    action.clientRateLimiter = ClientRateLimiter.createDisabled();
     action.cursorTokenParam = Optional.empty();
   }
 
@@ -283,6 +293,90 @@ public class RdapNameserverSearchActionTest extends RdapSearchActionTestCase {
             .build());
   }
 
+  /** Creates hosts named ns1.domainN.lol, each subordinate to a different domain. */
+  private void createManySubordinateHostsOfDifferentDomains(int numHosts) {
+    ImmutableList.Builder<HostResource> hostsBuilder = new ImmutableList.Builder<>();
+    for (int i = 1; i <= numHosts; i++) {
+      DomainResource domain = persistActiveDomain(String.format("domain%d.lol", i));
+      hostsBuilder.add(
+          makeHostResource(String.format("ns1.domain%d.lol", i), null)
+              .asBuilder()
+              .setSuperordinateDomain(Key.create(domain))
+              .build());
+    }
+    persistResources(hostsBuilder.build());
+  }
+
+  /**
+   * Runs a nameserver name search against the local Datastore, and returns how many Datastore get
+   * calls it made.
+   */
+  private int countDatastoreGetsForNameSearch(String name, int resultSetMaxSize) {
+    action.rdapResultSetMaxSize = resultSetMaxSize;
+    action.nameParam = Optional.of(name);
+    action.parameterMap = ImmutableListMultimap.of("name", name);
+    response = new FakeResponse();
+    action.response = response;
+    ofy().clearSessionCache();
+    DatastoreGetCounter counter = new DatastoreGetCounter();
+    ApiProxy.setDelegate(counter);
+    try {
+      action.run();
+    } finally {
+      ApiProxy.setDelegate(counter.delegate);
+    }
+    assertThat(response.getStatus()).isEqualTo(200);
+    return counter.gets;
+  }
+
+  /** An API proxy delegate which counts the Datastore get calls passing through it. */
+  private static class DatastoreGetCounter implements ApiProxy.Delegate<Environment> {
+
+    @SuppressWarnings("unchecked")
+    final ApiProxy.Delegate<Environment> delegate = ApiProxy.getDelegate();
+
+    int gets;
+
+    private void count(String packageName, String methodName) {
+      if (packageName.equals("datastore_v3") && methodName.equals("Get")) {
+        gets++;
+      }
+    }
+
+    @Override
+    public byte[] makeSyncCall(
+        Environment environment, String packageName, String methodName, byte[] request) {
+      count(packageName, methodName);
+      return delegate.makeSyncCall(environment, packageName, methodName, request);
+    }
+
+    @Override
+    public Future<byte[]> makeAsyncCall(
+        Environment environment,
+        String packageName,
+        String methodName,
+        byte[] request,
+        ApiConfig apiConfig) {
+      count(packageName, methodName);
+      return delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+    }
+
+    @Override
+    public void log(Environment environment, LogRecord record) {
+      delegate.log(environment, record);
+    }
+
+    @Override
+    public void flushLogs(Environment environment) {
+      delegate.flushLogs(environment);
+    }
+
+    @Override
+    public List<Thread> getRequestThreads(Environment environment) {
+      return delegate.getRequestThreads(environment);
+    }
+  }
+
   private void createDeletedHost() {
     persistResource(
         makeAndPersistHostResource("nsdeleted.cat.lol", "4.3.2.1", clock.nowUtc().minusYears(1))
@@ -973,4 +1067,14 @@ public class RdapNameserverSearchActionTest extends RdapSearchActionTestCase {
             "nsx8.cat.lol",
             "nsx9.cat.lol"));
   }
+
+  @Test
+  public void testNameMatch_superordinateDomainsLoadedInOneBatchPerPage() {
+    createManySubordinateHostsOfDifferentDomains(12);
+    // Loading each host's superordinate domain separately would make the number of Datastore gets
+    // grow with the page size; loading them for the whole page at once keeps it constant.
+    int smallPageGets = countDatastoreGetsForNameSearch("ns1.domain*", 2);
+    int largePageGets = countDatastoreGetsForNameSearch("ns1.domain*", 10);
+    assertThat(largePageGets).isAtMost(smallPageGets);
+  }
 }
@@ -0,0 +1,228 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistResources;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeAndPersistContactResource;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeAndPersistHostResource;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeDomainResource;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeHistoryEntry;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrar;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.CharStreams;
+import com.sun.management.ThreadMXBean;
+import google.registry.config.RegistryConfig.ConfigModule;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.domain.Period;
+import google.registry.model.host.HostResource;
+import google.registry.model.ofy.Ofy;
+import google.registry.model.registrar.Registrar;
+import google.registry.model.reporting.HistoryEntry;
+import google.registry.rdap.RdapJsonFormatter.OutputDataType;
+import google.registry.rdap.RdapJsonGenerator.Deferred;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import org.joda.time.DateTime;
+import org.json.simple.JSONValue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmark of writing a full page of RDAP domain search results.
+ *
+ * <p>The page is written in two ways: by building a tree of maps and lists for each result and
+ * rendering the trees, as the search actions used to, and by streaming each result straight to the
+ * writer, as they do now. Both must write exactly the same response. For each, the benchmark prints
+ * the average latency and the average number of bytes allocated per page.
+ *
+ * <p>This isn't run with the unit tests. To run it:
+ *
+ * <pre>
+ * bazel test --test_output=streamed //javatests/google/registry/rdap:RdapSearchResponseBenchmark
+ * </pre>
+ *
+ * <p>The page holds {@code rdapResultSetMaxSize} domains, each with three contacts and two
+ * nameservers. The referenced entities are preloaded before each page is written, as the search
+ * actions do, but the figures still include the history entry queries made for each full result,
+ * which are the same on both paths. The output is written to a null writer, so the cost of encoding
+ * it for the servlet response isn't included either.
+ */
+@RunWith(JUnit4.class)
+public class RdapSearchResponseBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 20;
+  private static final String LINK_BASE = "https://example.com/rdap/";
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+  @Rule public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2018-01-01T00:00:00Z"));
+  private final RdapAuthorization authorization =
+      RdapAuthorization.create(RdapAuthorization.Role.REGISTRAR, "evilregistrar");
+  private final RdapJsonFormatter rdapJsonFormatter = RdapTestHelper.getTestRdapJsonFormatter();
+
+  private ImmutableList<DomainResource> domains;
+
+  /** Writes a page of search results to a writer. */
+  private interface PageWriter {
+    void write(Writer writer) throws IOException;
+  }
+
+  @Before
+  public void setUp() {
+    inject.setStaticField(Ofy.class, "clock", clock);
+    createTld("lol");
+    Registrar registrar =
+        persistResource(makeRegistrar("evilregistrar", "Yes Virginia", Registrar.State.ACTIVE));
+    ContactResource registrant =
+        makeAndPersistContactResource(
+            "5372808-ERL", "Goblin Market", "lol@cat.lol", clock.nowUtc().minusYears(1), registrar);
+    ContactResource admin =
+        makeAndPersistContactResource(
+            "5372808-IRL", "Santa Claus", "BOFH@cat.lol", clock.nowUtc().minusYears(2), registrar);
+    ContactResource tech =
+        makeAndPersistContactResource(
+            "5372808-TRL", "The Raven", "bog@cat.lol", clock.nowUtc().minusYears(3), registrar);
+    HostResource ns1 =
+        makeAndPersistHostResource("ns1.cat.lol", "1.2.3.4", clock.nowUtc().minusYears(1));
+    HostResource ns2 =
+        makeAndPersistHostResource(
+            "ns2.cat.lol", "bad:f00d:cafe:0:0:0:15:beef", clock.nowUtc().minusYears(2));
+    int resultSetMaxSize = ConfigModule.provideRdapResultSetMaxSize();
+    ImmutableList.Builder<DomainResource> domainsBuilder = new ImmutableList.Builder<>();
+    for (int i = 1; i <= resultSetMaxSize; i++) {
+      domainsBuilder.add(
+          makeDomainResource(
+              String.format("domain%d.lol", i), registrant, admin, tech, ns1, ns2, registrar));
+    }
+    domains = domainsBuilder.build();
+    persistResources(domains);
+    for (DomainResource domain : domains) {
+      persistResource(
+          makeHistoryEntry(
+              domain,
+              HistoryEntry.Type.DOMAIN_CREATE,
+              Period.create(1, Period.Unit.YEARS),
+              "created",
+              clock.nowUtc()));
+    }
+  }
+
+  @Test
+  public void benchmarkSummaryResults() throws Exception {
+    runBenchmark(OutputDataType.SUMMARY);
+  }
+
+  @Test
+  public void benchmarkFullResults() throws Exception {
+    runBenchmark(OutputDataType.FULL);
+  }
+
+  private void runBenchmark(OutputDataType outputDataType) throws IOException {
+    PageWriter treeWriter = writer -> writeTreePage(outputDataType, writer);
+    PageWriter streamingWriter = writer -> writeStreamedPage(outputDataType, writer);
+    StringWriter treeOutput = new StringWriter();
+    treeWriter.write(treeOutput);
+    StringWriter streamedOutput = new StringWriter();
+    streamingWriter.write(streamedOutput);
+    assertThat(streamedOutput.toString()).isEqualTo(treeOutput.toString());
+    measure(outputDataType + " results built as trees", outputDataType, treeWriter);
+    measure(outputDataType + " results streamed", outputDataType, streamingWriter);
+  }
+
+  private void writeTreePage(OutputDataType outputDataType, Writer writer) throws IOException {
+    ImmutableList<ImmutableMap<String, Object>> results =
+        domains
+            .stream()
+            .map(
+                domain ->
+                    rdapJsonFormatter.makeRdapJsonForDomain(
+                        domain,
+                        false,
+                        LINK_BASE,
+                        null,
+                        clock.nowUtc(),
+                        outputDataType,
+                        authorization))
+            .collect(toImmutableList());
+    JSONValue.writeJSONString(ImmutableMap.of("domainSearchResults", results), writer);
+  }
+
+  private void writeStreamedPage(OutputDataType outputDataType, Writer writer)
+      throws IOException {
+    ImmutableList<Deferred> results =
+        domains
+            .stream()
+            .map(
+                domain ->
+                    RdapJsonGenerator.defer(
+                        generator ->
+                            rdapJsonFormatter.writeRdapJsonForDomain(
+                                generator,
+                                domain,
+                                false,
+                                LINK_BASE,
+                                null,
+                                clock.nowUtc(),
+                                outputDataType,
+                                authorization)))
+            .collect(toImmutableList());
+    JSONValue.writeJSONString(ImmutableMap.of("domainSearchResults", results), writer);
+  }
+
+  private void measure(String name, OutputDataType outputDataType, PageWriter pageWriter)
+      throws IOException {
+    ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long totalNanos = 0;
+    long totalBytes = 0;
+    for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+      ofy().clearSessionCache();
+      rdapJsonFormatter.preloadReferencedEntities(domains, outputDataType);
+      long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+      long startNanos = System.nanoTime();
+      pageWriter.write(CharStreams.nullWriter());
+      long nanos = System.nanoTime() - startNanos;
+      long bytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+      if (i >= WARMUP_ITERATIONS) {
+        totalNanos += nanos;
+        totalBytes += bytes;
+      }
+    }
+    System.out.printf(
+        "%s: %.2f ms and %d KB allocated per page of %d results\n",
+        name,
+        totalNanos / 1e6 / MEASURED_ITERATIONS,
+        totalBytes / 1024 / MEASURED_ITERATIONS,
+        domains.size());
+  }
+}
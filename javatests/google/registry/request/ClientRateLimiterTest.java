@@ -0,0 +1,99 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package google.registry.request;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import google.registry.request.HttpException.TooManyRequestsException;
+import google.registry.testing.FakeClock;
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ClientRateLimiter}. */
+@RunWith(JUnit4.class)
+public class ClientRateLimiterTest {
+
+  private final FakeClock clock = new FakeClock();
+  private final ClientRateLimiter rateLimiter = new ClientRateLimiter(clock, 10, 2, 100);
+
+  @Test
+  public void testDisabled_neverLimits() {
+    ClientRateLimiter disabled = ClientRateLimiter.createDisabled();
+    assertThat(disabled.isEnabled()).isFalse();
+    for (int i = 0; i < 100; i++) {
+      disabled.take("domain", "192.0.2.1", 10);
+    }
+  }
+
+  @Test
+  public void testTake_limitsOnceBucketIsEmpty() {
+    assertThat(rateLimiter.isEnabled()).isTrue();
+    for (int i = 0; i < 10; i++) {
+      rateLimiter.take("domain", "192.0.2.1", 1);
+    }
+    TooManyRequestsException thrown =
+        assertThrows(
+            TooManyRequestsException.class, () -> rateLimiter.take("domain", "192.0.2.1", 1));
+    assertThat(thrown.getResponseCode()).isEqualTo(429);
+    assertThat(thrown.getRetryAfterSeconds()).isEqualTo(1);
+  }
+
+  @Test
+  public void testTake_weightedRequests() {
+    rateLimiter.take("domains", "192.0.2.1", 5);
+    rateLimiter.take("domains", "192.0.2.1", 5);
+    TooManyRequestsException thrown =
+        assertThrows(
+            TooManyRequestsException.class, () -> rateLimiter.take("domains", "192.0.2.1", 5));
+    // Five tokens at two tokens per second take three seconds, rounded up.
+    assertThat(thrown.getRetryAfterSeconds()).isEqualTo(3);
+  }
+
+  @Test
+  public void testTake_costCappedAtBucketSize() {
+    rateLimiter.take("domains", "192.0.2.1", 50);
+    assertThrows(
+        TooManyRequestsException.class, () -> rateLimiter.take("domains", "192.0.2.1", 1));
+  }
+
+  @Test
+  public void testTake_refillsOverTime() {
+    rateLimiter.take("domain", "192.0.2.1", 10);
+    assertThrows(
+        TooManyRequestsException.class, () -> rateLimiter.take("domain", "192.0.2.1", 2));
+    clock.advanceBy(Duration.standardSeconds(1));
+    rateLimiter.take("domain", "192.0.2.1", 2);
+    assertThrows(
+        TooManyRequestsException.class, () -> rateLimiter.take("domain", "192.0.2.1", 1));
+    // The bucket never holds more than its size, however long the client waits.
+    clock.advanceBy(Duration.standardDays(1));
+    rateLimiter.take("domain", "192.0.2.1", 10);
+    assertThrows(
+        TooManyRequestsException.class, () -> rateLimiter.take("domain", "192.0.2.1", 1));
+  }
+
+  @Test
+  public void testTake_separateBucketsPerClientAndEndpoint() {
+    rateLimiter.take("domain", "192.0.2.1", 10);
+    rateLimiter.take("domain", "192.0.2.2", 10);
+    rateLimiter.take("nameserver", "192.0.2.1", 10);
+    assertThrows(
+        TooManyRequestsException.class, () -> rateLimiter.take("domain", "192.0.2.1", 1));
+  }
+}
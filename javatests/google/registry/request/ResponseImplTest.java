@@ -16,6 +16,7 @@ package google.registry.request;
 
 import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -23,6 +24,7 @@ import static org.mockito.Mockito.when;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -56,6 +58,32 @@ public class ResponseImplTest {
     assertThat(httpOutput.toString()).isEqualTo("hello world");
   }
 
+  @Test
+  public void testGetPayloadWriter() throws Exception {
+    StringWriter httpOutput = new StringWriter();
+    when(rsp.getWriter()).thenReturn(new PrintWriter(httpOutput));
+    Writer writer = new ResponseImpl(rsp).getPayloadWriter();
+    writer.write("hello ");
+    writer.write("world");
+    assertThat(httpOutput.toString()).isEqualTo("hello world");
+  }
+
+  @Test
+  public void testGetPayloadWriter_afterSetPayload_throws() throws Exception {
+    when(rsp.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    ResponseImpl response = new ResponseImpl(rsp);
+    response.setPayload("hello world");
+    assertThrows(IllegalStateException.class, response::getPayloadWriter);
+  }
+
+  @Test
+  public void testGetPayloadWriter_calledTwice_throws() throws Exception {
+    when(rsp.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    ResponseImpl response = new ResponseImpl(rsp);
+    response.getPayloadWriter();
+    assertThrows(IllegalStateException.class, response::getPayloadWriter);
+  }
+
   @Test
   public void testSendJavaScriptRedirect_producesHtmlScript() throws Exception {
     StringWriter httpOutput = new StringWriter();
@@ -68,6 +68,7 @@ import google.registry.model.domain.DesignatedContact;
 import google.registry.model.domain.DesignatedContact.Type;
 import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainAuthInfo;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.GracePeriod;
 import google.registry.model.domain.launch.LaunchPhase;
@@ -80,6 +81,8 @@ import google.registry.model.index.DomainApplicationIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.pricing.StaticPremiumListPricingEngine;
@@ -916,14 +919,20 @@ public class DatastoreHelper {
 
   private static <R> void saveResource(R resource, boolean wantBackup) {
     Saver saver = wantBackup ? ofy().save() : ofy().saveWithoutBackup();
-    saver.entity(resource);
     if (resource instanceof EppResource) {
       EppResource eppResource = (EppResource) resource;
       persistEppResourceExtras(
           eppResource, EppResourceIndex.create(Key.create(eppResource)), saver);
     }
+    saver.entity(resource);
   }
 
+  /**
+   * Saves the indexes for an EPP resource.
+   *
+   * <p>This must be called before the resource itself is saved, since some indexes are updated
+   * from the previously saved version of the resource.
+   */
   private static <R extends EppResource> void persistEppResourceExtras(
       R resource, EppResourceIndex index, Saver saver) {
     assertWithMessage("Cannot persist an EppResource with a missing repoId in tests")
@@ -936,6 +945,14 @@ public class DatastoreHelper {
     if (resource instanceof DomainApplication) {
       saver.entity(DomainApplicationIndex.createUpdatedInstance((DomainApplication) resource));
     }
+    if (resource instanceof HostResource) {
+      HostResource oldHost = ofy().load().key(Key.create((HostResource) resource)).now();
+      saver.entities(
+          HostInetAddressIndex.createUpdatedInstances(oldHost, (HostResource) resource));
+    }
+    if (resource instanceof DomainBase) {
+      saver.entities(LinkedDomainIndex.createAddedLinks(null, (DomainBase) resource));
+    }
   }
 
   private static <R> R persistResource(final R resource, final boolean wantBackup) {
@@ -959,8 +976,8 @@ public class DatastoreHelper {
         .transact(
             () -> {
               Saver saver = ofy().save();
-              saver.entity(resource);
               persistEppResourceExtras(resource, eppResourceIndex, saver);
+              saver.entity(resource);
             });
     ofy().clearSessionCache();
     return ofy().load().entity(resource).now();
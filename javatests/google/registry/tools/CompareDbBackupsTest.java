@@ -36,14 +36,40 @@ public class CompareDbBackupsTest {
   // Capture standard output.
   private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
 
+  private File dump1;
+  private File dump2;
+
   @Rule public final TemporaryFolder tempFs = new TemporaryFolder();
   @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
 
   @Test
   public void testCommand() throws Exception {
+    createDumps();
+
+    System.setOut(new PrintStream(stdout));
+    CompareDbBackups.main(new String[] {dump1.getCanonicalPath(), dump2.getCanonicalPath()});
+    String output = new String(stdout.toByteArray(), UTF_8);
+    assertThat(output)
+        .containsMatch("(?s)1 records were removed.*eeny.*1 records were added.*blutzy");
+  }
+
+  @Test
+  public void testCommand_partitioned() throws Exception {
+    createDumps();
+
+    System.setOut(new PrintStream(stdout));
+    CompareDbBackups.main(
+        new String[] {dump1.getCanonicalPath(), dump2.getCanonicalPath(), "4"});
+    String output = new String(stdout.toByteArray(), UTF_8);
+    assertThat(output).contains("First backup: 2 records");
+    assertThat(output).contains("Second backup: 2 records");
+    assertThat(output)
+        .containsMatch("(?s)1 records were removed.*eeny.*1 records were added.*blutzy");
+  }
 
-    // Create two directories corresponding to data dumps.
-    File dump1 = tempFs.newFolder("dump1");
+  /** Creates two directories corresponding to data dumps. */
+  private void createDumps() throws Exception {
+    dump1 = tempFs.newFolder("dump1");
     LevelDbFileBuilder builder = new LevelDbFileBuilder(new File(dump1, "data1"));
     builder.addEntityProto(
         BASE_ID,
@@ -57,7 +83,7 @@ public class CompareDbBackupsTest {
         Property.create("motz", 300L));
     builder.build();
 
-    File dump2 = tempFs.newFolder("dump2");
+    dump2 = tempFs.newFolder("dump2");
     builder = new LevelDbFileBuilder(new File(dump2, "data2"));
     builder.addEntityProto(
         BASE_ID + 1,
@@ -70,11 +96,5 @@ public class CompareDbBackupsTest {
         Property.create("fishey", 200L),
         Property.create("strutz", 300L));
     builder.build();
-
-    System.setOut(new PrintStream(stdout));
-    CompareDbBackups.main(new String[] {dump1.getCanonicalPath(), dump2.getCanonicalPath()});
-    String output = new String(stdout.toByteArray(), UTF_8);
-    assertThat(output)
-        .containsMatch("(?s)1 records were removed.*eeny.*1 records were added.*blutzy");
   }
 }
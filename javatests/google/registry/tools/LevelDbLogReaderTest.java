@@ -19,12 +19,19 @@ import static google.registry.tools.LevelDbUtil.MAX_RECORD;
 import static google.registry.tools.LevelDbUtil.addRecord;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.primitives.Bytes;
 import google.registry.tools.LevelDbLogReader.ChunkType;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -40,6 +47,8 @@ public final class LevelDbLogReaderTest {
   private static final int MAX_TEST_RECORD_OFFSET =
       LevelDbLogReader.BLOCK_SIZE - (LevelDbLogReader.HEADER_SIZE + TEST_RECORD_SIZE);
 
+  @Rule public final TemporaryFolder tempFs = new TemporaryFolder();
+
   private TestBlock makeBlockOfRepeatingBytes(int startVal) {
     byte[] block = new byte[LevelDbLogReader.BLOCK_SIZE];
     int pos = 0;
@@ -102,6 +111,59 @@ public final class LevelDbLogReaderTest {
     assertThat(reader.getRecords()).hasSize(block0.recordCount + block1.recordCount);
   }
 
+  @Test
+  public void readRecords_streamsRecordsFromMultipleBlocks() throws IOException {
+    TestBlock block0 = makeBlockOfRepeatingBytes(0);
+    TestBlock block1 = makeBlockOfRepeatingBytes(138);
+    File file = tempFs.newFile();
+    Files.write(file.toPath(), Bytes.concat(block0.data, block1.data));
+
+    LevelDbLogReader reader = new LevelDbLogReader();
+    reader.readFrom(new ByteArrayInputStream(Bytes.concat(block0.data, block1.data)));
+    ImmutableList<byte[]> expected = reader.getRecords();
+
+    Iterator<byte[]> records = LevelDbLogReader.readRecords(file.toPath());
+    for (byte[] expectedRecord : expected) {
+      assertThat(records.hasNext()).isTrue();
+      assertThat(records.next()).isEqualTo(expectedRecord);
+    }
+    assertThat(records.hasNext()).isFalse();
+  }
+
+  @Test
+  public void readRecords_recordSpanningBlocks() throws IOException {
+    byte[] data = new byte[LevelDbLogReader.BLOCK_SIZE * 3];
+    addRecord(data, 0, ChunkType.FIRST, MAX_RECORD, (byte) 1);
+    addRecord(data, LevelDbLogReader.BLOCK_SIZE, ChunkType.MIDDLE, MAX_RECORD, (byte) 2);
+    addRecord(data, LevelDbLogReader.BLOCK_SIZE * 2, ChunkType.LAST, MAX_RECORD, (byte) 3);
+    File file = tempFs.newFile();
+    Files.write(file.toPath(), data);
+
+    ImmutableList<byte[]> records =
+        ImmutableList.copyOf(LevelDbLogReader.readRecords(file.toPath()));
+    assertThat(records).hasSize(1);
+    assertThat(records.get(0)).hasLength(MAX_RECORD * 3);
+  }
+
+  @Test
+  public void readRecords_partialLastBlock() throws IOException {
+    TestBlock block = makeBlockOfRepeatingBytes(0);
+    // Truncate the block right after its second record.
+    byte[] data =
+        Arrays.copyOf(block.data, 2 * (LevelDbLogReader.HEADER_SIZE + TEST_RECORD_SIZE));
+    File file = tempFs.newFile();
+    Files.write(file.toPath(), data);
+
+    assertThat(Iterators.size(LevelDbLogReader.readRecords(file.toPath()))).isEqualTo(2);
+  }
+
+  @Test
+  public void readRecords_emptyFile() throws IOException {
+    File file = tempFs.newFile();
+
+    assertThat(LevelDbLogReader.readRecords(file.toPath()).hasNext()).isFalse();
+  }
+
   @Test
   public void testChunkTypesToCode() {
     // Verify that we're translating chunk types to code values correctly.z
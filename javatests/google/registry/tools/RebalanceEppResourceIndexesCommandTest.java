@@ -0,0 +1,55 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.MediaType;
+import google.registry.tools.CommandWithConnection.Connection;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+/** Unit tests for {@link RebalanceEppResourceIndexesCommand}. */
+public class RebalanceEppResourceIndexesCommandTest
+    extends CommandTestCase<RebalanceEppResourceIndexesCommand> {
+
+  @Mock
+  private Connection connection;
+
+  @Before
+  public void init() {
+    command.setConnection(connection);
+  }
+
+  @Test
+  public void test_startsMapreduce() throws Exception {
+    runCommandForced();
+    verify(connection).send(
+        eq("/_dr/task/rebalanceEppResourceIndexes"),
+        eq(ImmutableMap.of()),
+        eq(MediaType.PLAIN_TEXT_UTF_8),
+        eq(new byte[0]));
+    assertInStdout("Started the mapreduce");
+  }
+
+  @Test
+  public void test_warnsAboutOtherMapreduces() throws Exception {
+    runCommandForced();
+    assertInStdout("other mapreduces over EPP resources");
+  }
+}
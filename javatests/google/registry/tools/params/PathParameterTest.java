@@ -119,6 +119,42 @@ public class PathParameterTest {
     assertThat(thrown).hasMessageThat().contains("not readable");
   }
 
+  // =========================== Test InputDirectory Validate ===================================
+
+  private final PathParameter inputDirectory = new PathParameter.InputDirectory();
+
+  @Test
+  public void testInputDirectoryValidate_directory_works() {
+    inputDirectory.validate("input", folder.getRoot().toString());
+  }
+
+  @Test
+  public void testInputDirectoryValidate_missingDirectory_throws() {
+    ParameterException thrown =
+        assertThrows(
+            ParameterException.class,
+            () -> inputDirectory.validate("input", new File(folder.getRoot(), "foo").toString()));
+    assertThat(thrown).hasMessageThat().contains("not found");
+  }
+
+  @Test
+  public void testInputDirectoryValidate_file_throws() throws Exception {
+    String file = folder.newFile().toString();
+    ParameterException thrown =
+        assertThrows(ParameterException.class, () -> inputDirectory.validate("input", file));
+    assertThat(thrown).hasMessageThat().contains("not a directory");
+  }
+
+  @Test
+  public void testInputDirectoryValidate_unreadableDirectory_throws() throws Exception {
+    Path dir = Paths.get(folder.newFolder().toString());
+    Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("-wx------"));
+    ParameterException thrown =
+        assertThrows(
+            ParameterException.class, () -> inputDirectory.validate("input", dir.toString()));
+    assertThat(thrown).hasMessageThat().contains("not readable");
+  }
+
   // =========================== Test OutputFile Validate ========================================
 
   private final PathParameter outputFile = new PathParameter.OutputFile();
@@ -25,27 +25,42 @@ import static google.registry.testing.DatastoreHelper.persistActiveDomainApplica
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.GcsTestingUtils.readGcsFile;
+import static google.registry.testing.JUnitBackports.assertThrows;
 import static google.registry.testing.TestDataHelper.loadFile;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.joda.time.Duration.standardDays;
 
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import com.googlecode.objectify.Key;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
+import google.registry.model.ofy.Ofy;
+import google.registry.request.HttpException.BadRequestException;
 import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
 import google.registry.testing.mapreduce.MapreduceTestCase;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.net.InetAddress;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
+import org.json.simple.JSONValue;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -54,12 +69,35 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneFilesAction> {
 
+  @Rule public final InjectRule inject = new InjectRule();
+
   private final GcsService gcsService = createGcsService();
 
-  @Test
-  public void testGenerate() throws Exception {
-    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+  private GenerateZoneFilesAction createAction(DateTime now) {
+    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
+    action.mrRunner = makeDefaultRunner();
+    action.bucket = "zonefiles-bucket";
+    action.gcsBufferSize = 123;
+    action.datastoreRetention = standardDays(29);
+    action.dnsDefaultATtl = Duration.standardSeconds(11);
+    action.dnsDefaultNsTtl = Duration.standardSeconds(222);
+    action.dnsDefaultDsTtl = Duration.standardSeconds(3333);
+    action.clock = new FakeClock(now.plusMinutes(2));  // Move past the actions' 2 minute check.
+    return action;
+  }
+
+  private ImmutableList<String> readLines(String filename) throws Exception {
+    return ImmutableList.copyOf(
+        Splitter.on('\n')
+            .omitEmptyStrings()
+            .split(
+                new String(
+                    readGcsFile(gcsService, new GcsFilename("zonefiles-bucket", filename)),
+                    UTF_8)));
+  }
 
+  /** Persists the resources whose zone file is golden file {@code tld.zone}. */
+  private void persistZoneFileResources() throws Exception {
     createTld("tld");
     createTld("com");
 
@@ -117,18 +155,28 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
         .addNameservers(nameservers)
         .setDsData(ImmutableSet.of(DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2})))
         .build());
+  }
 
-    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
-    action.mrRunner = makeDefaultRunner();
-    action.bucket = "zonefiles-bucket";
-    action.gcsBufferSize = 123;
-    action.datastoreRetention = standardDays(29);
-    action.dnsDefaultATtl = Duration.standardSeconds(11);
-    action.dnsDefaultNsTtl = Duration.standardSeconds(222);
-    action.dnsDefaultDsTtl = Duration.standardSeconds(3333);
-    action.clock = new FakeClock(now.plusMinutes(2));  // Move past the actions' 2 minute check.
+  /** Checks that the lines of a generated zone file match those of golden file {@code tld.zone}. */
+  private void assertMatchesGoldenZoneFile(String generatedFile) {
+    // The generated file contains spaces and tabs, but the golden file contains only spaces, as
+    // files with literal tabs irritate our build tools.
+    Splitter splitter = Splitter.on('\n').omitEmptyStrings();
+    Iterable<String> generatedFileLines = splitter.split(generatedFile.replaceAll("\t", " "));
+    Iterable<String> goldenFileLines = splitter.split(loadFile(getClass(), "tld.zone"));
+    // The first line needs to be the same as the golden file.
+    assertThat(generatedFileLines.iterator().next()).isEqualTo(goldenFileLines.iterator().next());
+    // The remaining lines can be in any order.
+    assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
+  }
 
-    Map<String, Object> response = action.handleJsonRequest(ImmutableMap.<String, Object>of(
+  @Test
+  public void testGenerate() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+
+    persistZoneFileResources();
+
+    Map<String, Object> response = createAction(now).handleJsonRequest(ImmutableMap.of(
         "tlds", ImmutableList.of("tld"),
         "exportTime", now));
     assertThat(response).containsEntry(
@@ -139,15 +187,216 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
 
     GcsFilename gcsFilename =
         new GcsFilename("zonefiles-bucket", String.format("tld-%s.zone", now));
-    String generatedFile = new String(readGcsFile(gcsService, gcsFilename), UTF_8);
-    // The generated file contains spaces and tabs, but the golden file contains only spaces, as
-    // files with literal tabs irritate our build tools.
-    Splitter splitter = Splitter.on('\n').omitEmptyStrings();
-    Iterable<String> generatedFileLines = splitter.split(generatedFile.replaceAll("\t", " "));
-    Iterable<String> goldenFileLines = splitter.split(loadFile(getClass(), "tld.zone"));
-    // The first line needs to be the same as the golden file.
-    assertThat(generatedFileLines.iterator().next()).isEqualTo(goldenFileLines.iterator().next());
-    // The remaining lines can be in any order.
-    assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
+    assertMatchesGoldenZoneFile(new String(readGcsFile(gcsService, gcsFilename), UTF_8));
+  }
+
+  @Test
+  public void testGenerate_sharded() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    persistZoneFileResources();
+
+    Map<String, Object> response = createAction(now).handleJsonRequest(ImmutableMap.of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", now,
+        "shardsPerTld", 3));
+    assertThat(response).containsEntry(
+        "filenames",
+        ImmutableList.of("gs://zonefiles-bucket/tld-" + now + ".zone.manifest"));
+
+    executeTasksUntilEmpty("mapreduce");
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> manifest =
+        (Map<String, Object>)
+            JSONValue.parse(
+                new String(
+                    readGcsFile(
+                        gcsService,
+                        new GcsFilename(
+                            "zonefiles-bucket", String.format("tld-%s.zone.manifest", now))),
+                    UTF_8));
+    assertThat(manifest).containsEntry("tld", "tld");
+    assertThat(manifest).containsEntry("exportTime", now.toString());
+    assertThat(manifest).containsEntry("compression", "gzip");
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> shards = (List<Map<String, Object>>) manifest.get("shards");
+    assertThat(shards).hasSize(3);
+    // The shards' label hash ranges must cover all 32-bit hashes, without gaps or overlaps.
+    assertThat(shards.get(0)).containsEntry("labelHashStart", 0L);
+    assertThat(shards.get(0).get("labelHashEnd")).isEqualTo(shards.get(1).get("labelHashStart"));
+    assertThat(shards.get(1).get("labelHashEnd")).isEqualTo(shards.get(2).get("labelHashStart"));
+    assertThat(shards.get(2)).containsEntry("labelHashEnd", 1L << 32);
+    ByteArrayOutputStream zoneFile = new ByteArrayOutputStream();
+    long numStanzas = 0;
+    for (int i = 0; i < shards.size(); i++) {
+      String filename = (String) shards.get(i).get("filename");
+      assertThat(filename).isEqualTo(String.format("tld-%s.zone.shard-%05d.gz", now, i));
+      try (InputStream input =
+          new GZIPInputStream(
+              new ByteArrayInputStream(
+                  readGcsFile(gcsService, new GcsFilename("zonefiles-bucket", filename))))) {
+        ByteStreams.copy(input, zoneFile);
+      }
+      numStanzas += (Long) shards.get(i).get("stanzas");
+    }
+    // There are stanzas for bar, ns-only, ns-and-ds and the glue host ns.bar.
+    assertThat(numStanzas).isEqualTo(4);
+    assertMatchesGoldenZoneFile(new String(zoneFile.toByteArray(), UTF_8));
+  }
+
+  @Test
+  public void testGenerate_sharded_invalidShardsPerTld() {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    BadRequestException thrown =
+        assertThrows(
+            BadRequestException.class,
+            () ->
+                createAction(now)
+                    .handleJsonRequest(
+                        ImmutableMap.of(
+                            "tlds", ImmutableList.of("tld"),
+                            "exportTime", now,
+                            "shardsPerTld", 0)));
+    assertThat(thrown).hasMessageThat().isEqualTo("Invalid shards per TLD: must be positive");
+  }
+
+  @Test
+  public void testGenerate_sharded_incremental() {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    BadRequestException thrown =
+        assertThrows(
+            BadRequestException.class,
+            () ->
+                createAction(now)
+                    .handleJsonRequest(
+                        ImmutableMap.of(
+                            "tlds", ImmutableList.of("tld"),
+                            "exportTime", now,
+                            "previousExportTime", now.minusDays(1),
+                            "shardsPerTld", 3)));
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("Incremental generation doesn't support sharded output");
+  }
+
+  @Test
+  public void testGenerate_incremental() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    DateTime previousExportTime = now.minusDays(1);
+    FakeClock clock = new FakeClock(previousExportTime.minusHours(1));
+    inject.setStaticField(Ofy.class, "clock", clock);
+
+    createTld("tld");
+    HostResource externalHost = persistActiveHost("ns.external.com");
+    HostResource renamedHost = persistActiveHost("ns.old-name.com");
+    persistResource(newDomainResource("unchanged.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(externalHost)))
+        .build());
+    DomainResource changed = persistResource(newDomainResource("changed.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(externalHost)))
+        .build());
+    DomainResource deleted = persistResource(newDomainResource("deleted.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(externalHost)))
+        .build());
+    persistResource(newDomainResource("uses-renamed.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(renamedHost)))
+        .build());
+    // This domain leaves the zone between the export times without being saved again.
+    persistResource(newDomainResource("pending-delete.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(externalHost)))
+        .setDeletionTime(previousExportTime.plusHours(2))
+        .build());
+    // The TTL of the unchanged domain is off, to show that its stanza is copied over rather than
+    // regenerated.
+    new GcsUtils(gcsService, 123)
+        .createFromBytes(
+            new GcsFilename("zonefiles-bucket", String.format("tld-%s.zone", previousExportTime)),
+            Joiner.on('\n')
+                .join(
+                    "$ORIGIN\ttld.",
+                    "",
+                    "unchanged\t999\tIN\tNS\tns.external.com.",
+                    "",
+                    "changed\t222\tIN\tNS\tns.external.com.",
+                    "",
+                    "deleted\t222\tIN\tNS\tns.external.com.",
+                    "",
+                    "pending-delete\t222\tIN\tNS\tns.external.com.",
+                    "",
+                    "uses-renamed\t222\tIN\tNS\tns.old-name.com.",
+                    "")
+                .getBytes(UTF_8));
+
+    clock.setTo(previousExportTime.plusHours(1));
+    persistResource(changed.asBuilder()
+        .setDsData(ImmutableSet.of(DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2})))
+        .build());
+    persistResource(deleted.asBuilder().setDeletionTime(clock.nowUtc()).build());
+    persistResource(renamedHost.asBuilder().setFullyQualifiedHostName("ns.new-name.com").build());
+    persistResource(newDomainResource("new.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(externalHost)))
+        .build());
+
+    Map<String, Object> response = createAction(now).handleJsonRequest(ImmutableMap.of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", now,
+        "previousExportTime", previousExportTime));
+    assertThat(response).containsExactly(
+        "filenames", ImmutableList.of("gs://zonefiles-bucket/tld-" + now + ".zone"),
+        "deltaFilenames", ImmutableList.of("gs://zonefiles-bucket/tld-" + now + ".zone.delta"));
+    assertThat(readLines(String.format("tld-%s.zone", now)))
+        .containsExactly(
+            "$ORIGIN\ttld.",
+            "unchanged\t999\tIN\tNS\tns.external.com.",
+            "changed\t222\tIN\tNS\tns.external.com.",
+            "changed\t3333\tIN\tDS\t1 2 3 000102",
+            "new\t222\tIN\tNS\tns.external.com.",
+            "uses-renamed\t222\tIN\tNS\tns.new-name.com.")
+        .inOrder();
+    assertThat(readLines(String.format("tld-%s.zone.delta", now)))
+        .containsExactly(
+            "$ORIGIN\ttld.",
+            "+changed\t3333\tIN\tDS\t1 2 3 000102",
+            "-deleted\t222\tIN\tNS\tns.external.com.",
+            "+new\t222\tIN\tNS\tns.external.com.",
+            "-pending-delete\t222\tIN\tNS\tns.external.com.",
+            "-uses-renamed\t222\tIN\tNS\tns.old-name.com.",
+            "+uses-renamed\t222\tIN\tNS\tns.new-name.com.")
+        .inOrder();
+  }
+
+  @Test
+  public void testGenerate_incremental_missingPreviousZoneFile() {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    createTld("tld");
+    BadRequestException thrown =
+        assertThrows(
+            BadRequestException.class,
+            () ->
+                createAction(now)
+                    .handleJsonRequest(
+                        ImmutableMap.of(
+                            "tlds", ImmutableList.of("tld"),
+                            "exportTime", now,
+                            "previousExportTime", now.minusDays(1))));
+    assertThat(thrown).hasMessageThat().contains("doesn't exist");
+  }
+
+  @Test
+  public void testGenerate_incremental_previousExportTimeNotBeforeExportTime() {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    BadRequestException thrown =
+        assertThrows(
+            BadRequestException.class,
+            () ->
+                createAction(now)
+                    .handleJsonRequest(
+                        ImmutableMap.of(
+                            "tlds", ImmutableList.of("tld"),
+                            "exportTime", now.minusDays(1),
+                            "previousExportTime", now.minusDays(1))));
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("Invalid previous export time: must be before the export time");
   }
 }
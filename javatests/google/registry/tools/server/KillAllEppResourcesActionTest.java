@@ -48,6 +48,7 @@ import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyContactIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyDomainIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyHostIndex;
+import google.registry.model.index.LinkedDomainIndex;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.testing.FakeResponse;
@@ -70,6 +71,7 @@ public class KillAllEppResourcesActionTest extends MapreduceTestCase<KillAllEppR
               ForeignKeyDomainIndex.class,
               ForeignKeyHostIndex.class,
               DomainApplicationIndex.class,
+              LinkedDomainIndex.class,
               DomainBase.class,
               ContactResource.class,
               HostResource.class,
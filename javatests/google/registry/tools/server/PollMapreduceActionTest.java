@@ -56,6 +56,12 @@ public class PollMapreduceActionTest extends MapreduceTestCase<PollMapreduceActi
     assertThat(poll()).containsExactly("state", State.STOPPED_BY_ERROR.toString());
   }
 
+  @Test
+  public void testPollInProcessJob_isAlreadyComplete() {
+    action.jobId = "in-process-0fe2c4a8-7d6e-4a0b-9a40-d3c8f1f9e0b7";
+    assertThat(poll()).containsExactly("state", State.COMPLETED_SUCCESSFULLY.toString());
+  }
+
   Map<String, ?> poll() {
     action.response = new FakeJsonResponse();
     action.run();
@@ -0,0 +1,81 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.config.RegistryConfig.getEppResourceIndexBucketCount;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.newContactResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistSimpleResource;
+
+import com.googlecode.objectify.Key;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.EppResourceIndexBucket;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.mapreduce.MapreduceTestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RebalanceEppResourceIndexesAction}. */
+@RunWith(JUnit4.class)
+public class RebalanceEppResourceIndexesActionTest
+    extends MapreduceTestCase<RebalanceEppResourceIndexesAction> {
+
+  @Before
+  public void init() {
+    action = new RebalanceEppResourceIndexesAction();
+    action.mrRunner = makeDefaultRunner();
+    action.response = new FakeResponse();
+  }
+
+  private void runMapreduce() throws Exception {
+    action.run();
+    executeTasksUntilEmpty("mapreduce");
+    ofy().clearSessionCache();
+  }
+
+  /** Persists a contact whose index is in a different bucket than it hashes to. */
+  private static Key<EppResourceIndex> persistInWrongBucket(ContactResource contact) {
+    Key<ContactResource> contactKey = Key.create(contact);
+    long rightBucketId = EppResourceIndexBucket.getBucketKey(contactKey).getId();
+    Key<EppResourceIndexBucket> wrongBucket =
+        EppResourceIndexBucket.getBucketKey(
+            (int) (rightBucketId % getEppResourceIndexBucketCount()) + 1);
+    persistSimpleResource(contact);
+    return Key.create(persistSimpleResource(EppResourceIndex.create(wrongBucket, contactKey)));
+  }
+
+  @Test
+  public void test_movesIndexesInWrongBucket() throws Exception {
+    ContactResource contact = newContactResource("jd1234");
+    Key<EppResourceIndex> wrongIndexKey = persistInWrongBucket(contact);
+    runMapreduce();
+    assertThat(ofy().load().key(wrongIndexKey).now()).isNull();
+    assertThat(ofy().load().key(EppResourceIndex.createKey(Key.create(contact))).now().getKey())
+        .isEqualTo(Key.create(contact));
+  }
+
+  @Test
+  public void test_leavesIndexesInRightBucket() throws Exception {
+    Key<ContactResource> contactKey = Key.create(persistActiveContact("jd1234"));
+    EppResourceIndex index = ofy().load().key(EppResourceIndex.createKey(contactKey)).now();
+    runMapreduce();
+    assertThat(ofy().load().type(EppResourceIndex.class).list()).containsExactly(index);
+  }
+}
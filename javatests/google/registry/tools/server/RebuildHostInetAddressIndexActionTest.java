@@ -0,0 +1,123 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.index.HostInetAddressIndex.createKey;
+import static google.registry.model.index.HostInetAddressIndex.createKeysForHost;
+import static google.registry.model.index.HostInetAddressIndex.createWithSpecifiedKeys;
+import static google.registry.model.index.HostInetAddressIndex.getShard;
+import static google.registry.model.index.HostInetAddressIndex.loadHostKeys;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistSimpleResource;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.InetAddresses;
+import com.googlecode.objectify.Key;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.HostInetAddressIndex;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.mapreduce.MapreduceTestCase;
+import java.net.InetAddress;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RebuildHostInetAddressIndexAction}. */
+@RunWith(JUnit4.class)
+public class RebuildHostInetAddressIndexActionTest
+    extends MapreduceTestCase<RebuildHostInetAddressIndexAction> {
+
+  private static final InetAddress IPV4 = InetAddresses.forString("192.0.2.1");
+  private static final InetAddress IPV6 = InetAddresses.forString("2001:db8::1");
+  private static final InetAddress UNUSED_IP = InetAddresses.forString("198.51.100.1");
+
+  @Before
+  public void init() {
+    action = new RebuildHostInetAddressIndexAction();
+    action.mrRunner = makeDefaultRunner();
+    action.response = new FakeResponse();
+  }
+
+  private void runMapreduce() throws Exception {
+    action.run();
+    executeTasksUntilEmpty("mapreduce");
+    ofy().clearSessionCache();
+  }
+
+  private static HostResource newHostWithAddresses(String hostName, InetAddress... addresses) {
+    return newHostResource(hostName)
+        .asBuilder()
+        .setInetAddresses(ImmutableSet.copyOf(addresses))
+        .build();
+  }
+
+  /** Persists a host with its {@link EppResourceIndex}, so it's mapped over, but no IP index. */
+  private static HostResource persistWithoutIndex(HostResource host) {
+    persistSimpleResource(EppResourceIndex.create(Key.create(host)));
+    return persistSimpleResource(host);
+  }
+
+  @Test
+  public void test_rebuildsMissingIndexes() throws Exception {
+    // Persisted without any index entities, like hosts created before the index existed.
+    HostResource host1 = persistWithoutIndex(newHostWithAddresses("ns1.example.tld", IPV4));
+    HostResource host2 = persistWithoutIndex(newHostWithAddresses("ns2.example.tld", IPV4, IPV6));
+    persistWithoutIndex(
+        newHostWithAddresses("ns3.example.tld", IPV6)
+            .asBuilder()
+            .setDeletionTime(DateTime.parse("2010-01-01T00:00:00Z"))
+            .build());
+    assertThat(loadHostKeys(IPV4)).isEmpty();
+    runMapreduce();
+    assertThat(loadHostKeys(IPV4)).containsExactly(Key.create(host1), Key.create(host2));
+    assertThat(loadHostKeys(IPV6)).containsExactly(Key.create(host2));
+  }
+
+  @Test
+  public void test_removesStaleEntries() throws Exception {
+    HostResource host = persistResource(newHostWithAddresses("ns1.example.tld", IPV4));
+    HostResource otherHost = persistResource(newHostResource("ns2.example.tld"));
+    persistSimpleResource(
+        createWithSpecifiedKeys(
+            createKey(IPV4, getShard(Key.create(otherHost))),
+            ImmutableSet.of(Key.create(otherHost))));
+    Key<HostInetAddressIndex> unusedIndexKey =
+        createKey(UNUSED_IP, getShard(Key.create(otherHost)));
+    persistSimpleResource(
+        createWithSpecifiedKeys(unusedIndexKey, ImmutableSet.of(Key.create(otherHost))));
+    runMapreduce();
+    assertThat(loadHostKeys(IPV4)).containsExactly(Key.create(host));
+    assertThat(ofy().load().key(unusedIndexKey).now().getHosts()).isEmpty();
+  }
+
+  @Test
+  public void test_keepsHostsIndexedAfterMapping() throws Exception {
+    // A host that was indexed by a flow after the mapper ran, and so wasn't mapped, is kept.
+    HostResource host = newHostWithAddresses("ns1.example.tld", IPV4);
+    persistSimpleResource(host);
+    persistSimpleResource(
+        createWithSpecifiedKeys(
+            getOnlyElement(createKeysForHost(host)), ImmutableSet.of(Key.create(host))));
+    runMapreduce();
+    assertThat(loadHostKeys(IPV4)).containsExactly(Key.create(host));
+  }
+}
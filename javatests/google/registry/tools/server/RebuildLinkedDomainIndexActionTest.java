@@ -0,0 +1,111 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package google.registry.tools.server;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.index.LinkedDomainIndex.loadLinkedDomainKeys;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistSimpleResource;
+
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.LinkedDomainIndex;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.mapreduce.MapreduceTestCase;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RebuildLinkedDomainIndexAction}. */
+@RunWith(JUnit4.class)
+public class RebuildLinkedDomainIndexActionTest
+    extends MapreduceTestCase<RebuildLinkedDomainIndexAction> {
+
+  @Before
+  public void init() {
+    createTld("tld");
+    action = new RebuildLinkedDomainIndexAction();
+    action.mrRunner = makeDefaultRunner();
+    action.response = new FakeResponse();
+  }
+
+  private void runMapreduce() throws Exception {
+    action.run();
+    executeTasksUntilEmpty("mapreduce");
+    ofy().clearSessionCache();
+  }
+
+  /** Persists a domain with its {@link EppResourceIndex}, so it's mapped over, but no links. */
+  private static DomainResource persistWithoutLinks(DomainResource domain) {
+    persistSimpleResource(EppResourceIndex.create(Key.create(domain)));
+    return persistSimpleResource(domain);
+  }
+
+  @Test
+  public void test_rebuildsMissingLinks() throws Exception {
+    ContactResource contact = persistActiveContact("jd1234");
+    HostResource host = persistActiveHost("ns1.example.tld");
+    // Persisted without any link entities, like domains created before the index existed.
+    DomainResource domain =
+        persistWithoutLinks(
+            newDomainResource("example.tld", contact)
+                .asBuilder()
+                .setNameservers(ImmutableSet.of(Key.create(host)))
+                .build());
+    assertThat(loadLinkedDomainKeys(Key.create(contact))).isEmpty();
+    runMapreduce();
+    assertThat(loadLinkedDomainKeys(Key.create(contact))).containsExactly(Key.create(domain));
+    assertThat(loadLinkedDomainKeys(Key.create(host))).containsExactly(Key.create(domain));
+  }
+
+  @Test
+  public void test_skipsDeletedDomains() throws Exception {
+    ContactResource contact = persistActiveContact("jd1234");
+    persistWithoutLinks(
+        newDomainResource("example.tld", contact)
+            .asBuilder()
+            .setDeletionTime(DateTime.parse("2010-01-01T00:00:00Z"))
+            .build());
+    runMapreduce();
+    assertThat(loadLinkedDomainKeys(Key.create(contact))).isEmpty();
+  }
+
+  @Test
+  public void test_deletesLinksOfDomainsPastTheirDeletionTime() throws Exception {
+    ContactResource contact = persistActiveContact("jd1234");
+    // A pending delete domain keeps its links, which are stale once its deletion time has passed.
+    DomainResource domain =
+        persistWithoutLinks(
+            newDomainResource("example.tld", contact)
+                .asBuilder()
+                .setDeletionTime(DateTime.parse("2010-01-01T00:00:00Z"))
+                .build());
+    ofy().transact(() -> ofy().save().entities(LinkedDomainIndex.createAllLinks(domain)));
+    assertThat(loadLinkedDomainKeys(Key.create(contact))).containsExactly(Key.create(domain));
+    runMapreduce();
+    assertThat(loadLinkedDomainKeys(Key.create(contact))).isEmpty();
+  }
+}
@@ -46,6 +46,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InetAddresses;
 import google.registry.model.EppResource;
+import google.registry.model.EppResourceGeneration;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
@@ -63,7 +64,9 @@ import google.registry.whois.WhoisMetrics.WhoisMetric;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.net.InetAddress;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Rule;
@@ -92,9 +95,21 @@ public class WhoisActionTest {
     whoisAction.disclaimer =
         "Doodle Disclaimer\nI exist so that carriage return\nin disclaimer can be tested.";
     whoisAction.retrier = new Retrier(new FakeSleeper(clock), 3);
+    whoisAction.whoisResponseCache = WhoisResponseCache.createDisabled();
     return whoisAction;
   }
 
+  /** Runs a WHOIS query using the given response cache, and returns the response text. */
+  private String runWithResponseCache(String input, WhoisResponseCache whoisResponseCache) {
+    WhoisAction whoisAction = newWhoisAction(input);
+    FakeResponse cachedResponse = new FakeResponse();
+    whoisAction.response = cachedResponse;
+    whoisAction.whoisResponseCache = whoisResponseCache;
+    whoisAction.run();
+    assertThat(cachedResponse.getStatus()).isEqualTo(200);
+    return cachedResponse.getPayload();
+  }
+
   @Before
   public void setUp() {
     createTlds("lol", "xn--q9jyb4c", "1.test");
@@ -384,6 +399,78 @@ public class WhoisActionTest {
     assertThat(response.getPayload()).contains("ns1.cat.lol");
   }
 
+  @Test
+  public void testRun_ipNameserverLookup_hostInetAddressIndexEnabled_works() {
+    persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
+    persistResource(
+        makeHostResource("ns2.cat.lol", "1.2.3.4").asBuilder()
+            .setDeletionTime(clock.nowUtc().minusDays(1)).build());
+    WhoisAction whoisAction = newWhoisAction("nameserver 1.2.3.4");
+    whoisAction.whoisReader =
+        new WhoisReader(
+            new WhoisCommandFactory() {
+              @Override
+              public WhoisCommand nameserverLookupByIp(InetAddress inetAddress) {
+                return new NameserverLookupByIpCommand(inetAddress, true);
+              }
+            });
+    whoisAction.run();
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getPayload()).contains("ns1.cat.lol");
+    assertThat(response.getPayload()).doesNotContain("ns2.cat.lol");
+  }
+
+  @Test
+  public void testRun_responseCache_servesCachedResponse() {
+    WhoisResponseCache whoisResponseCache =
+        new WhoisResponseCache(100, Duration.standardMinutes(1));
+    persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
+    String firstPayload = runWithResponseCache("nameserver 1.2.3.4", whoisResponseCache);
+    assertThat(firstPayload).contains("ns1.cat.lol");
+    // A change made other than by an EPP flow isn't seen until the cached response expires.
+    persistResource(makeHostResource("ns2.cat.lol", "1.2.3.4"));
+    assertThat(runWithResponseCache("nameserver 1.2.3.4", whoisResponseCache))
+        .isEqualTo(firstPayload);
+    assertThat(runWithResponseCache("nameserver 1.2.3.4", WhoisResponseCache.createDisabled()))
+        .contains("ns2.cat.lol");
+  }
+
+  @Test
+  public void testRun_responseCache_invalidatedByNewGeneration() {
+    WhoisResponseCache whoisResponseCache =
+        new WhoisResponseCache(100, Duration.standardMinutes(1));
+    persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
+    assertThat(runWithResponseCache("nameserver 1.2.3.4", whoisResponseCache))
+        .doesNotContain("ns2.cat.lol");
+    persistResource(makeHostResource("ns2.cat.lol", "1.2.3.4"));
+    EppResourceGeneration.increment();
+    assertThat(runWithResponseCache("nameserver 1.2.3.4", whoisResponseCache))
+        .contains("ns2.cat.lol");
+  }
+
+  @Test
+  public void testRun_responseCache_zeroDuration_cachesNothing() {
+    WhoisResponseCache whoisResponseCache = new WhoisResponseCache(100, Duration.ZERO);
+    persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
+    assertThat(runWithResponseCache("nameserver 1.2.3.4", whoisResponseCache))
+        .doesNotContain("ns2.cat.lol");
+    persistResource(makeHostResource("ns2.cat.lol", "1.2.3.4"));
+    assertThat(runWithResponseCache("nameserver 1.2.3.4", whoisResponseCache))
+        .contains("ns2.cat.lol");
+  }
+
+  @Test
+  public void testRun_responseCache_keyedByQuery() {
+    WhoisResponseCache whoisResponseCache =
+        new WhoisResponseCache(100, Duration.standardMinutes(1));
+    persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
+    persistResource(makeHostResource("ns2.cat.lol", "5.6.7.8"));
+    assertThat(runWithResponseCache("nameserver 1.2.3.4", whoisResponseCache))
+        .contains("ns1.cat.lol");
+    assertThat(runWithResponseCache("nameserver 5.6.7.8", whoisResponseCache))
+        .contains("ns2.cat.lol");
+  }
+
   @Test
   public void testRun_ipMapsToMultipleNameservers_theyAllGetReturned() {
     persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
@@ -14,6 +14,7 @@
 
 package google.registry.whois;
 
+import static com.google.common.net.HttpHeaders.RETRY_AFTER;
 import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createTlds;
@@ -40,6 +41,7 @@ import google.registry.model.contact.ContactResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
+import google.registry.request.ClientRateLimiter;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
@@ -47,6 +49,7 @@ import google.registry.testing.InjectRule;
 import google.registry.whois.WhoisMetrics.WhoisMetric;
 import java.io.IOException;
 import java.io.Reader;
+import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -79,6 +82,7 @@ public class WhoisHttpActionTest {
     whoisAction.response = response;
     whoisAction.whoisReader = new WhoisReader(new WhoisCommandFactory());
     whoisAction.whoisMetrics = new WhoisMetrics();
+    whoisAction.clientRateLimiter = ClientRateLimiter.createDisabled();
     whoisAction.metricBuilder = WhoisMetric.builderForRequest(clock);
     whoisAction.disclaimer =
         "Doodle Disclaimer\nI exist so that carriage return\nin disclaimer can be tested.";
@@ -328,6 +332,22 @@ public class WhoisHttpActionTest {
     assertThat(response.getPayload()).isEqualTo(loadFile("whois_action_registrar_not_found.txt"));
   }
 
+  @Test
+  public void testRun_rateLimited_returns429WithRetryAfter() {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getRemoteAddr()).thenReturn("192.0.2.1");
+    ClientRateLimiter clientRateLimiter = new ClientRateLimiter(clock, 1, 0.25, 10);
+    clientRateLimiter.take("whois", "192.0.2.1", 1);
+    WhoisHttpAction action = newWhoisHttpAction("/domain/cat.lol");
+    action.request = request;
+    action.clientRateLimiter = clientRateLimiter;
+    action.run();
+    assertThat(response.getStatus()).isEqualTo(429);
+    assertThat(response.getHeaders()).containsEntry(RETRY_AFTER, "4");
+    assertThat(response.getContentType()).isEqualTo(PLAIN_TEXT_UTF_8);
+    assertThat(response.getPayload()).isEqualTo("Too many whois requests; try again later\r\n");
+  }
+
   @Test
   public void testRun_metricsLoggedForSuccessfulCommand() {
     persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));